@@ -0,0 +1,86 @@
+package com.king.app.updater.benchmark;
+
+import com.king.app.updater.checksum.ChecksumAlgorithm;
+import com.king.app.updater.checksum.ChecksumVerifier;
+import com.king.app.updater.checksum.HasherProvider;
+import com.king.app.updater.checksum.IHasher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of each {@link ChecksumAlgorithm} on the same file, with the provider selected by {@link HasherProvider}.
+ * <p>{@link #hashFile()} reads the file like the verification of a cached APK, {@link #hashMemory()} only measures the
+ * algorithm (as when the checksum is computed while downloading). Multiply the score by {@link #size} to get MB/s.
+ * <p>Run: {@code ./gradlew :app-updater-benchmark:jmh}
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ChecksumBenchmark {
+
+    /**
+     * Size of the file (MB)
+     */
+    @Param({"16"})
+    public int size;
+
+    @Param({"CRC32C", "MD5", "SHA_256", "SHA_512"})
+    public String algorithm;
+
+    private File file;
+
+    private byte[] data;
+
+    private IHasher hasher;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        data = new byte[size * 1024 * 1024];
+        new Random(size).nextBytes(data);
+        file = File.createTempFile("checksum", ".apk");
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(data);
+        } finally {
+            fos.close();
+        }
+        ChecksumAlgorithm checksumAlgorithm = ChecksumAlgorithm.valueOf(algorithm);
+        hasher = HasherProvider.newHasher(checksumAlgorithm);
+        System.out.println();
+        System.out.println(checksumAlgorithm.getName() + " providers: " + HasherProvider.getProviders(checksumAlgorithm));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public String hashFile() throws IOException {
+        ChecksumVerifier.update(hasher, file, file.length());
+        return hasher.digest();
+    }
+
+    @Benchmark
+    public String hashMemory() {
+        hasher.update(data, 0, data.length);
+        return hasher.digest();
+    }
+}
@@ -0,0 +1,160 @@
+package com.king.app.updater.benchmark;
+
+import com.king.app.updater.http.AdaptiveBufferSize;
+import com.king.app.updater.http.DownloadWriter;
+import com.king.app.updater.http.IDownloadWriter;
+import com.king.app.updater.http.PipelinedDownloadWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of a download from a local HTTP server to a file, with {@link DownloadWriter},
+ * {@link PipelinedDownloadWriter} and the previous {@link FileOutputStream} loop for each buffer size.
+ * <p>The server runs on the loopback interface, so the network is not the bottleneck and the cost of the writes shows.
+ * Multiply the score by {@link #size} to get MB/s.
+ * <p>Run: {@code ./gradlew :app-updater-benchmark:jmh -Pjmh.includes=DownloadWriterBenchmark}
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DownloadWriterBenchmark {
+
+    /**
+     * Size of the file (MB)
+     */
+    @Param({"32"})
+    public int size;
+
+    @Param({"4096", "16384", "65536", "262144", "1048576"})
+    public int bufferSize;
+
+    /**
+     * stream: the previous loop, a {@link FileOutputStream} write per read (with 4096 it is the replaced code);
+     * heap / direct: {@link DownloadWriter} with a heap / direct buffer;
+     * pipelined: {@link PipelinedDownloadWriter} with heap buffers;
+     * adaptive: {@link DownloadWriter} with a heap buffer of {@link AdaptiveBufferSize} starting at the buffer size
+     */
+    @Param({"stream", "heap", "direct", "pipelined", "adaptive"})
+    public String mode;
+
+    private HttpServer server;
+
+    private URL url;
+
+    private File file;
+    /**
+     * Runs the writer threads of {@link PipelinedDownloadWriter}, like {@code DownloadExecutors.getIoExecutor()}
+     */
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final byte[] data = new byte[size * 1024 * 1024];
+        new Random(size).nextBytes(data);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/app.apk", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, data.length);
+                OutputStream os = exchange.getResponseBody();
+                try {
+                    os.write(data);
+                } finally {
+                    os.close();
+                }
+            }
+        });
+        server.start();
+        url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), server.getAddress().getPort(), "/app.apk");
+        file = File.createTempFile("download", ".apk");
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+        executor.shutdown();
+        file.delete();
+    }
+
+    @Benchmark
+    public long download() throws IOException {
+        HttpURLConnection connect = (HttpURLConnection) url.openConnection();
+        try {
+            InputStream is = connect.getInputStream();
+            try {
+                return "stream".equals(mode) ? writeStream(is) : writeChannel(is);
+            } finally {
+                is.close();
+            }
+        } finally {
+            connect.disconnect();
+        }
+    }
+
+    private long writeChannel(InputStream is) throws IOException {
+        IDownloadWriter writer;
+        if ("pipelined".equals(mode)) {
+            writer = PipelinedDownloadWriter.open(file, 0, bufferSize, PipelinedDownloadWriter.DEFAULT_BUFFER_COUNT, false, null, executor);
+        } else if ("adaptive".equals(mode)) {
+            writer = DownloadWriter.open(file, 0, new AdaptiveBufferSize(bufferSize, DownloadWriter.MIN_BUFFER_SIZE, AdaptiveBufferSize.MAX_BUFFER_SIZE), false, null);
+        } else {
+            writer = DownloadWriter.open(file, 0, bufferSize, "direct".equals(mode), null);
+        }
+        try {
+            while (writer.transferFrom(is) != -1) {
+                // Read to the end
+            }
+        } finally {
+            writer.close();
+        }
+        return writer.getWrittenPosition();
+    }
+
+    /**
+     * The loop used before {@link DownloadWriter}: an unbuffered write per read
+     */
+    private long writeStream(InputStream is) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        long length = 0;
+        try {
+            byte[] buffer = new byte[bufferSize];
+            int len;
+            while ((len = is.read(buffer)) != -1) {
+                fos.write(buffer, 0, len);
+                length += len;
+            }
+        } finally {
+            fos.close();
+        }
+        return length;
+    }
+}
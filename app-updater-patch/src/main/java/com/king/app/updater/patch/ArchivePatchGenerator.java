@@ -0,0 +1,257 @@
+package com.king.app.updater.patch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * ArchivePatchGenerator produces an {@link ApkPatch.Type#ARCHIVE} patch, see {@link ArchivePatch} for the format.
+ * <p>A deflated entry of the new APK is uncompressed in the patch only if it changed and if one of the usual
+ * level / strategy combinations reproduces its compressed data exactly; otherwise it is diffed as is. The entry with the
+ * same name in the base is uncompressed too, so the diff sees the actual changes.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+class ArchivePatchGenerator {
+
+    /**
+     * The levels tried to reproduce an entry, the most common first
+     */
+    private static final int[] LEVELS = {6, 9, 1, 2, 3, 4, 5, 7, 8};
+
+    private static final int[] STRATEGIES = {Deflater.DEFAULT_STRATEGY, Deflater.FILTERED, Deflater.HUFFMAN_ONLY};
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ArchivePatchGenerator() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Generate the patch that reconstructs the new archive from the base archive
+     *
+     * @param base   the base archive
+     * @param target the new archive
+     * @param out    the patch is written to it
+     * @throws ZipException if an archive cannot be read, nothing has been written then
+     * @throws IOException
+     */
+    static void generate(byte[] base, byte[] target, OutputStream out) throws IOException {
+        List<ZipArchive.Entry> baseEntries = ZipArchive.readEntries(base);
+        List<ZipArchive.Entry> targetEntries = ZipArchive.readEntries(target);
+        Map<String, ZipArchive.Entry> baseByName = new HashMap<>();
+        for (ZipArchive.Entry entry : baseEntries) {
+            baseByName.put(entry.name, entry);
+        }
+
+        List<ZipArchive.Entry> inflated = new ArrayList<>();
+        List<ZipArchive.Entry> deflated = new ArrayList<>();
+        List<int[]> parameters = new ArrayList<>();
+        for (ZipArchive.Entry entry : targetEntries) {
+            if (entry.method != ZipArchive.METHOD_DEFLATED || entry.size == 0) {
+                continue;
+            }
+            ZipArchive.Entry baseEntry = baseByName.get(entry.name);
+            if (baseEntry != null && baseEntry.crc == entry.crc && sameData(base, baseEntry, target, entry)) {
+                // Unchanged, the compressed data is copied from the base
+                continue;
+            }
+            byte[] data = inflate(target, entry);
+            int[] parameter = data != null ? findParameters(data, target, entry) : null;
+            if (parameter == null) {
+                System.err.println("Cannot reproduce the compression of " + entry.name + ", it is diffed compressed");
+                continue;
+            }
+            deflated.add(entry);
+            parameters.add(parameter);
+            if (baseEntry != null && baseEntry.method == ZipArchive.METHOD_DEFLATED && baseEntry.size > 0 && inflate(base, baseEntry) != null) {
+                inflated.add(baseEntry);
+            }
+        }
+        sortByOffset(inflated);
+
+        byte[] expandedBase = expand(base, inflated, null);
+        long[] deflateOffsets = new long[deflated.size()];
+        byte[] expandedTarget = expand(target, deflated, deflateOffsets);
+
+        DataOutputStream header = new DataOutputStream(out);
+        header.write(ArchivePatch.MAGIC);
+        header.writeLong(target.length);
+        // The known-answer digests of the combinations used, the device checks that its zlib compresses the same
+        Set<Integer> combinations = new TreeSet<>();
+        for (int[] parameter : parameters) {
+            combinations.add(parameter[0] << 8 | parameter[1]);
+        }
+        header.writeInt(combinations.size());
+        for (int combination : combinations) {
+            int level = combination >> 8;
+            int strategy = combination & 0xFF;
+            header.writeByte(level);
+            header.writeByte(strategy);
+            header.writeUTF(ArchivePatch.getProbeDigest(level, strategy));
+        }
+        header.flush();
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            DeflaterOutputStream dos = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            DataOutputStream body = new DataOutputStream(dos);
+            body.writeInt(inflated.size());
+            for (ZipArchive.Entry entry : inflated) {
+                body.writeLong(entry.dataOffset);
+                body.writeLong(entry.compressedSize);
+            }
+            body.writeInt(deflated.size());
+            for (int i = 0; i < deflated.size(); i++) {
+                body.writeLong(deflateOffsets[i]);
+                body.writeLong(deflated.get(i).size);
+                body.writeByte(parameters.get(i)[0]);
+                body.writeByte(parameters.get(i)[1]);
+            }
+            PatchGenerator.writeInstructions(expandedBase, expandedTarget, body);
+            dos.finish();
+            out.flush();
+        } finally {
+            deflater.end();
+        }
+        System.out.println(String.format(Locale.US, "Entries uncompressed: %d of the base, %d of the new archive", inflated.size(), deflated.size()));
+    }
+
+    private static boolean sameData(byte[] base, ZipArchive.Entry baseEntry, byte[] target, ZipArchive.Entry entry) {
+        if (baseEntry.compressedSize != entry.compressedSize) {
+            return false;
+        }
+        for (int k = 0; k < entry.compressedSize; k++) {
+            if (base[baseEntry.dataOffset + k] != target[entry.dataOffset + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void sortByOffset(List<ZipArchive.Entry> entries) {
+        Collections.sort(entries, new Comparator<ZipArchive.Entry>() {
+            @Override
+            public int compare(ZipArchive.Entry o1, ZipArchive.Entry o2) {
+                return Integer.compare(o1.dataOffset, o2.dataOffset);
+            }
+        });
+    }
+
+    /**
+     * Copy the archive with the listed entries (sorted by offset) inflated
+     *
+     * @param offsets if not null, receives the offsets of the inflated entries in the result
+     */
+    private static byte[] expand(byte[] archive, List<ZipArchive.Entry> entries, long[] offsets) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(archive.length * 2);
+        int position = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            ZipArchive.Entry entry = entries.get(i);
+            out.write(archive, position, entry.dataOffset - position);
+            if (offsets != null) {
+                offsets[i] = out.size();
+            }
+            byte[] data = inflate(archive, entry);
+            out.write(data, 0, data.length);
+            position = (int) (entry.dataOffset + entry.compressedSize);
+        }
+        out.write(archive, position, archive.length - position);
+        return out.toByteArray();
+    }
+
+    /**
+     * Inflate the entry like {@link ArchivePatch} does on the device
+     *
+     * @return Returns null if the entry cannot be inflated or does not consume exactly its compressed data
+     */
+    private static byte[] inflate(byte[] archive, ZipArchive.Entry entry) {
+        if (entry.size > Integer.MAX_VALUE - 8) {
+            return null;
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            // An Inflater without zlib header may need an extra byte to complete the stream
+            byte[] input = new byte[(int) entry.compressedSize + 1];
+            System.arraycopy(archive, entry.dataOffset, input, 0, (int) entry.compressedSize);
+            inflater.setInput(input);
+            byte[] data = new byte[(int) entry.size];
+            int length = 0;
+            while (!inflater.finished() && length < data.length) {
+                int len = inflater.inflate(data, length, data.length - length);
+                if (len == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null;
+                }
+                length += len;
+            }
+            if (length != data.length || !inflater.finished() || inflater.getBytesRead() != entry.compressedSize) {
+                return null;
+            }
+            return data;
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Find the level and strategy that reproduce the compressed data of the entry
+     *
+     * @return {level, strategy}, or null
+     */
+    private static int[] findParameters(byte[] data, byte[] archive, ZipArchive.Entry entry) {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (int strategy : STRATEGIES) {
+            for (int level : LEVELS) {
+                if (reproduces(data, archive, entry, level, strategy, buffer)) {
+                    return new int[]{level, strategy};
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compress the data and compare the output as it is produced, so most mismatches are rejected early
+     */
+    private static boolean reproduces(byte[] data, byte[] archive, ZipArchive.Entry entry, int level, int strategy, byte[] buffer) {
+        Deflater deflater = ArchivePatch.newDeflater(level, strategy);
+        try {
+            long end = entry.dataOffset + entry.compressedSize;
+            long position = entry.dataOffset;
+            deflater.setInput(data);
+            deflater.finish();
+            while (!deflater.finished()) {
+                int len = deflater.deflate(buffer);
+                if (position + len > end) {
+                    return false;
+                }
+                for (int k = 0; k < len; k++) {
+                    if (buffer[k] != archive[(int) position + k]) {
+                        return false;
+                    }
+                }
+                position += len;
+            }
+            return position == end;
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package com.king.app.updater.patch;
+
+import com.king.app.updater.checksum.ChecksumAlgorithm;
+import com.king.app.updater.checksum.ChecksumVerifier;
+import com.king.app.updater.checksum.HasherProvider;
+import com.king.app.updater.checksum.IHasher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * PatchGenerator produces the patch applied by {@link ApkPatch} on the device.
+ * <p>The blocks of the base file are indexed by a rolling hash, the new file is scanned byte by byte and every match is
+ * extended in both directions, so the unchanged ranges are copied from the base even when they have moved. The rest is
+ * inserted as literal bytes, and the instructions are deflated.
+ * <p>When both files are ZIP archives, an {@link ApkPatch.Type#ARCHIVE} patch is generated by {@link ArchivePatchGenerator}.
+ * <p>Usage: {@code PatchGenerator [--binary] <base.apk> <new.apk> <update.patch>}, it prints the values to set with
+ * {@code AppUpdater.Builder#setPatch} and {@code AppUpdater.Builder#addChecksum}.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public class PatchGenerator {
+
+    /**
+     * Size of the indexed blocks of the base, it is also the shortest range that can be copied
+     */
+    private static final int BLOCK_SIZE = 32;
+    /**
+     * Maximum number of base blocks with the same hash, the repeated blocks (e.g. padding) are not all indexed
+     */
+    private static final int MAX_CANDIDATES = 16;
+
+    private static final int PRIME = 0x01000193;
+    /**
+     * PRIME ^ (BLOCK_SIZE - 1), the weight of the byte leaving the window of the rolling hash
+     */
+    private static final int OUT_WEIGHT = pow(PRIME, BLOCK_SIZE - 1);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public static void main(String[] args) throws IOException {
+        boolean isBinary = args.length == 4 && "--binary".equals(args[0]);
+        if (args.length != (isBinary ? 4 : 3)) {
+            System.err.println("Usage: PatchGenerator [--binary] <base.apk> <new.apk> <update.patch>");
+            System.exit(1);
+        }
+        int index = isBinary ? 1 : 0;
+        File baseFile = new File(args[index]);
+        File newFile = new File(args[index + 1]);
+        File patchFile = new File(args[index + 2]);
+
+        generate(baseFile, newFile, patchFile, isBinary);
+
+        String baseChecksum = checksum(baseFile);
+        String newChecksum = checksum(newFile);
+        // Apply the patch once to make sure it reconstructs the new file
+        IHasher hasher = HasherProvider.newHasher(ChecksumAlgorithm.SHA_256);
+        InputStream is = new BufferedInputStream(new FileInputStream(patchFile));
+        try {
+            ApkPatch.apply(baseFile, is, new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            }, hasher);
+        } finally {
+            is.close();
+        }
+        if (!newChecksum.equals(hasher.digest())) {
+            throw new IllegalStateException("The patch does not reconstruct " + newFile);
+        }
+
+        System.out.println(String.format(Locale.US, "%s patch: %s (%d bytes, %.1f%% of %d bytes)", ApkPatch.getType(patchFile), patchFile, patchFile.length(), patchFile.length() * 100.0 / newFile.length(), newFile.length()));
+        System.out.println("Base SHA-256: " + baseChecksum);
+        System.out.println("New SHA-256: " + newChecksum);
+    }
+
+    /**
+     * Generate the patch that reconstructs the new file from the base file
+     *
+     * @param baseFile  the base file (the installed APK)
+     * @param newFile   the new file
+     * @param patchFile the patch file to write
+     * @param isBinary  true to generate a {@link ApkPatch.Type#BINARY} patch; otherwise an {@link ApkPatch.Type#ARCHIVE}
+     *                  patch is generated when both files are ZIP archives
+     * @throws IOException
+     */
+    public static void generate(File baseFile, File newFile, File patchFile, boolean isBinary) throws IOException {
+        byte[] base = Files.readAllBytes(baseFile.toPath());
+        byte[] target = Files.readAllBytes(newFile.toPath());
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(patchFile), BUFFER_SIZE);
+        try {
+            if (!isBinary && ZipArchive.isZip(base) && ZipArchive.isZip(target)) {
+                try {
+                    ArchivePatchGenerator.generate(base, target, os);
+                    return;
+                } catch (ZipException e) {
+                    System.err.println("Unsupported archive, generate a binary patch: " + e.getMessage());
+                }
+            }
+            generate(base, target, os);
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Generate the {@link ApkPatch.Type#BINARY} patch that reconstructs the new data from the base data
+     *
+     * @param base   the base data
+     * @param target the new data
+     * @param out    the patch is written to it
+     * @throws IOException
+     */
+    public static void generate(byte[] base, byte[] target, OutputStream out) throws IOException {
+        DataOutputStream header = new DataOutputStream(out);
+        header.write(ApkPatch.MAGIC);
+        header.writeLong(target.length);
+        header.flush();
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            DeflaterOutputStream dos = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            writeInstructions(base, target, new DataOutputStream(dos));
+            dos.finish();
+            out.flush();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Write the copy / insert instructions that reconstruct the target from the base, followed by {@link ApkPatch#OP_END}
+     *
+     * @param base   the base data
+     * @param target the new data
+     * @param dos    the instructions are written to it
+     * @throws IOException
+     */
+    static void writeInstructions(byte[] base, byte[] target, DataOutputStream dos) throws IOException {
+        Writer writer = new Writer(dos, target);
+        BlockIndex index = new BlockIndex(base);
+
+        int literalStart = 0;
+        // The base position following the last copy, the bytes after a small change are usually found there
+        int expected = 0;
+        int i = 0;
+        int hash = target.length >= BLOCK_SIZE ? hash(target, 0) : 0;
+        while (i + BLOCK_SIZE <= target.length) {
+            int candidate = expected + (i - literalStart);
+            int match = candidate + BLOCK_SIZE <= base.length && regionMatches(base, candidate, target, i) ? candidate : index.find(hash, target, i);
+            if (match < 0) {
+                if (i + BLOCK_SIZE < target.length) {
+                    hash = roll(hash, target[i], target[i + BLOCK_SIZE]);
+                }
+                i++;
+                continue;
+            }
+            // Extend the match in both directions
+            int start = i;
+            int baseStart = match;
+            while (start > literalStart && baseStart > 0 && target[start - 1] == base[baseStart - 1]) {
+                start--;
+                baseStart--;
+            }
+            int end = i + BLOCK_SIZE;
+            int baseEnd = match + BLOCK_SIZE;
+            while (end < target.length && baseEnd < base.length && target[end] == base[baseEnd]) {
+                end++;
+                baseEnd++;
+            }
+            writer.data(literalStart, start);
+            writer.copy(baseStart, end - start);
+
+            i = end;
+            literalStart = end;
+            expected = baseEnd;
+            if (i + BLOCK_SIZE <= target.length) {
+                hash = hash(target, i);
+            }
+        }
+        writer.data(literalStart, target.length);
+        writer.end();
+    }
+
+    private static boolean regionMatches(byte[] base, int baseOffset, byte[] target, int offset) {
+        if (baseOffset < 0) {
+            return false;
+        }
+        for (int k = 0; k < BLOCK_SIZE; k++) {
+            if (base[baseOffset + k] != target[offset + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] data, int offset) {
+        int hash = 0;
+        for (int k = 0; k < BLOCK_SIZE; k++) {
+            hash = hash * PRIME + (data[offset + k] & 0xFF);
+        }
+        return hash;
+    }
+
+    private static int roll(int hash, byte out, byte in) {
+        return (hash - (out & 0xFF) * OUT_WEIGHT) * PRIME + (in & 0xFF);
+    }
+
+    private static int pow(int value, int exponent) {
+        int result = 1;
+        for (int k = 0; k < exponent; k++) {
+            result *= value;
+        }
+        return result;
+    }
+
+    /**
+     * Index of the blocks of the base at the multiples of {@link #BLOCK_SIZE} (open addressing)
+     */
+    private static class BlockIndex {
+
+        private final byte[] base;
+
+        private final int[] hashes;
+
+        private final int[] offsets;
+
+        private final int mask;
+
+        BlockIndex(byte[] base) {
+            this.base = base;
+            int count = base.length / BLOCK_SIZE;
+            int capacity = Math.max(16, Integer.highestOneBit(Math.max(1, count)) << 2);
+            this.hashes = new int[capacity];
+            this.offsets = new int[capacity];
+            this.mask = capacity - 1;
+            Arrays.fill(offsets, -1);
+            for (int offset = 0; offset + BLOCK_SIZE <= base.length; offset += BLOCK_SIZE) {
+                add(hash(base, offset), offset);
+            }
+        }
+
+        private void add(int hash, int offset) {
+            int slot = mix(hash) & mask;
+            int same = 0;
+            while (offsets[slot] != -1) {
+                if (hashes[slot] == hash && ++same >= MAX_CANDIDATES) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            offsets[slot] = offset;
+        }
+
+        /**
+         * Find a block of the base equal to the block of the target at the offset
+         *
+         * @return the offset in the base, or -1
+         */
+        int find(int hash, byte[] target, int offset) {
+            int slot = mix(hash) & mask;
+            while (offsets[slot] != -1) {
+                if (hashes[slot] == hash && regionMatches(base, offsets[slot], target, offset)) {
+                    return offsets[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static int mix(int hash) {
+            hash ^= hash >>> 16;
+            hash *= 0x85EBCA6B;
+            hash ^= hash >>> 13;
+            return hash;
+        }
+    }
+
+    /**
+     * Writes the instructions, the contiguous copies are merged
+     */
+    private static class Writer {
+
+        private final DataOutputStream dos;
+
+        private final byte[] target;
+
+        private long copyOffset = -1;
+
+        private int copyLength;
+
+        Writer(DataOutputStream dos, byte[] target) {
+            this.dos = dos;
+            this.target = target;
+        }
+
+        void data(int start, int end) throws IOException {
+            if (end > start) {
+                flushCopy();
+                dos.writeByte(ApkPatch.OP_DATA);
+                dos.writeInt(end - start);
+                dos.write(target, start, end - start);
+            }
+        }
+
+        void copy(long offset, int length) throws IOException {
+            if (copyOffset >= 0 && copyOffset + copyLength == offset && (long) copyLength + length <= Integer.MAX_VALUE) {
+                copyLength += length;
+                return;
+            }
+            flushCopy();
+            copyOffset = offset;
+            copyLength = length;
+        }
+
+        void end() throws IOException {
+            flushCopy();
+            dos.writeByte(ApkPatch.OP_END);
+            dos.flush();
+        }
+
+        private void flushCopy() throws IOException {
+            if (copyOffset >= 0) {
+                dos.writeByte(ApkPatch.OP_COPY);
+                dos.writeLong(copyOffset);
+                dos.writeInt(copyLength);
+                copyOffset = -1;
+                copyLength = 0;
+            }
+        }
+    }
+
+    private static String checksum(File file) throws IOException {
+        IHasher hasher = HasherProvider.newHasher(ChecksumAlgorithm.SHA_256);
+        ChecksumVerifier.update(hasher, file, file.length());
+        return hasher.digest();
+    }
+}
@@ -0,0 +1,143 @@
+package com.king.app.updater.patch;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * The entries of a ZIP archive read from its central directory, with the position of their data in the archive
+ * (what {@link java.util.zip.ZipFile} does not expose). ZIP64 archives are not supported.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+class ZipArchive {
+
+    static final int METHOD_STORED = 0;
+    static final int METHOD_DEFLATED = 8;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+
+    /**
+     * An entry of the archive
+     */
+    static class Entry {
+
+        final String name;
+
+        final int method;
+
+        final long crc;
+
+        final long compressedSize;
+
+        final long size;
+        /**
+         * Position of the compressed data in the archive
+         */
+        final int dataOffset;
+
+        Entry(String name, int method, long crc, long compressedSize, long size, int dataOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.dataOffset = dataOffset;
+        }
+    }
+
+    private ZipArchive() {
+        throw new AssertionError();
+    }
+
+    static boolean isZip(byte[] data) {
+        return data.length >= 4 && readInt(data, 0) == LOCAL_HEADER_SIGNATURE;
+    }
+
+    /**
+     * Read the entries of the archive
+     *
+     * @param data the archive
+     * @return the entries sorted by the position of their data
+     * @throws ZipException if the archive cannot be read
+     */
+    static List<Entry> readEntries(byte[] data) throws ZipException {
+        int end = -1;
+        for (int i = data.length - END_SIZE; i >= Math.max(0, data.length - END_SIZE - 0xFFFF); i--) {
+            if (readInt(data, i) == END_SIGNATURE) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new ZipException("End of central directory not found");
+        }
+        int count = readShort(data, end + 10);
+        long centralOffset = readInt(data, end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || centralOffset == 0xFFFFFFFFL) {
+            throw new ZipException("ZIP64 is not supported");
+        }
+
+        List<Entry> entries = new ArrayList<>(count);
+        int offset = (int) centralOffset;
+        for (int i = 0; i < count; i++) {
+            if (offset + CENTRAL_HEADER_SIZE > data.length || readInt(data, offset) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid central directory header at " + offset);
+            }
+            int method = readShort(data, offset + 10);
+            long crc = readInt(data, offset + 16) & 0xFFFFFFFFL;
+            long compressedSize = readInt(data, offset + 20) & 0xFFFFFFFFL;
+            long size = readInt(data, offset + 24) & 0xFFFFFFFFL;
+            int nameLength = readShort(data, offset + 28);
+            int extraLength = readShort(data, offset + 30);
+            int commentLength = readShort(data, offset + 32);
+            long localOffset = readInt(data, offset + 42) & 0xFFFFFFFFL;
+            String name = new String(data, offset + CENTRAL_HEADER_SIZE, nameLength, StandardCharsets.UTF_8);
+            if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || localOffset == 0xFFFFFFFFL) {
+                throw new ZipException("ZIP64 is not supported: " + name);
+            }
+
+            int local = (int) localOffset;
+            if (local + LOCAL_HEADER_SIZE > data.length || readInt(data, local) != LOCAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid local header: " + name);
+            }
+            int dataOffset = local + LOCAL_HEADER_SIZE + readShort(data, local + 26) + readShort(data, local + 28);
+            if (dataOffset + compressedSize > data.length) {
+                throw new ZipException("Invalid entry: " + name);
+            }
+            entries.add(new Entry(name, method, crc, compressedSize, size, dataOffset));
+            offset += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry o1, Entry o2) {
+                return Integer.compare(o1.dataOffset, o2.dataOffset);
+            }
+        });
+        for (int i = 1; i < entries.size(); i++) {
+            Entry previous = entries.get(i - 1);
+            if (previous.dataOffset + previous.compressedSize > entries.get(i).dataOffset) {
+                throw new ZipException("Overlapping entries: " + previous.name);
+            }
+        }
+        return entries;
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8 | (data[offset + 2] & 0xFF) << 16 | (data[offset + 3] & 0xFF) << 24;
+    }
+}
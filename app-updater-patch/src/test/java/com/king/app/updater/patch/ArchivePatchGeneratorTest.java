@@ -0,0 +1,123 @@
+package com.king.app.updater.patch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link ArchivePatchGenerator}, the generated patches are applied by {@link ApkPatch}
+ */
+public class ArchivePatchGeneratorTest {
+
+    private static final String[] WORDS = {"activity", "service", "receiver", "provider", "intent", "filter", "layout", "string", "drawable", "color"};
+
+    private File base;
+
+    private File patch;
+
+    @Before
+    public void setUp() throws IOException {
+        base = File.createTempFile("base", ".apk");
+        patch = File.createTempFile("update", ".patch");
+    }
+
+    @After
+    public void tearDown() {
+        base.delete();
+        patch.delete();
+    }
+
+    @Test
+    public void generate_changedEntries_roundTrip() throws IOException {
+        byte[] baseData = newArchive(false);
+        byte[] targetData = newArchive(true);
+        PatchGeneratorTest.write(base, baseData);
+        generate(baseData, targetData);
+
+        assertEquals(ApkPatch.Type.ARCHIVE, ApkPatch.getType(patch));
+        assertArrayEquals(targetData, PatchGeneratorTest.apply(base, patch));
+        // The changed entry is diffed uncompressed, a compressed diff would be about the size of the entry
+        assertTrue("Patch of " + patch.length() + " bytes", patch.length() < 8 * 1024);
+    }
+
+    @Test
+    public void generate_sameArchive_roundTrip() throws IOException {
+        byte[] data = newArchive(false);
+        PatchGeneratorTest.write(base, data);
+        generate(data, data);
+
+        assertArrayEquals(data, PatchGeneratorTest.apply(base, patch));
+        assertTrue("Patch of " + patch.length() + " bytes", patch.length() < 1024);
+    }
+
+    @Test(expected = ZipException.class)
+    public void generate_notAnArchive_fails() throws IOException {
+        byte[] data = new byte[1024];
+        new Random(5).nextBytes(data);
+        ArchivePatchGenerator.generate(newArchive(false), data, new ByteArrayOutputStream());
+    }
+
+    private void generate(byte[] baseData, byte[] targetData) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ArchivePatchGenerator.generate(baseData, targetData, out);
+        PatchGeneratorTest.write(patch, out.toByteArray());
+    }
+
+    /**
+     * Create an APK-like archive: a large deflated entry, a stored entry and an entry that exists in one version only
+     *
+     * @param isNew true for the new version, its deflated entry has a few changes
+     */
+    static byte[] newArchive(boolean isNew) throws IOException {
+        byte[] dex = newText(300 * 1024, 7);
+        if (isNew) {
+            System.arraycopy("patched".getBytes("UTF-8"), 0, dex, 1000, 7);
+            System.arraycopy("updated".getBytes("UTF-8"), 0, dex, 200 * 1024, 7);
+        }
+        byte[] raw = new byte[20 * 1024];
+        new Random(8).nextBytes(raw);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZipOutputStream zos = new ZipOutputStream(out);
+        zos.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+        zos.write(newText(4 * 1024, 9));
+        zos.closeEntry();
+        zos.putNextEntry(new ZipEntry("classes.dex"));
+        zos.write(dex);
+        zos.closeEntry();
+        ZipEntry stored = new ZipEntry("res/raw/data.bin");
+        stored.setMethod(ZipEntry.STORED);
+        stored.setSize(raw.length);
+        CRC32 crc = new CRC32();
+        crc.update(raw);
+        stored.setCrc(crc.getValue());
+        zos.putNextEntry(stored);
+        zos.write(raw);
+        zos.closeEntry();
+        zos.putNextEntry(new ZipEntry(isNew ? "assets/new.txt" : "assets/old.txt"));
+        zos.write(newText(2 * 1024, isNew ? 10 : 11));
+        zos.closeEntry();
+        zos.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] newText(int length, long seed) throws IOException {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(length + 16);
+        while (sb.length() < length) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(100)).append(' ');
+        }
+        return sb.substring(0, length).getBytes("UTF-8");
+    }
+}
@@ -0,0 +1,140 @@
+package com.king.app.updater.patch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link PatchGenerator}, the generated patches are applied by {@link ApkPatch}
+ */
+public class PatchGeneratorTest {
+
+    private File base;
+
+    private File target;
+
+    private File patch;
+
+    @Before
+    public void setUp() throws IOException {
+        base = File.createTempFile("base", ".apk");
+        target = File.createTempFile("new", ".apk");
+        patch = File.createTempFile("update", ".patch");
+    }
+
+    @After
+    public void tearDown() {
+        base.delete();
+        target.delete();
+        patch.delete();
+    }
+
+    @Test
+    public void generate_binary_roundTrip() throws IOException {
+        byte[] baseData = new byte[256 * 1024];
+        new Random(1).nextBytes(baseData);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(baseData, 0, 50 * 1024);
+        expected.write("inserted".getBytes("UTF-8"));
+        // Moved and repeated ranges of the base
+        expected.write(baseData, 200 * 1024, 56 * 1024);
+        expected.write(baseData, 60 * 1024, 140 * 1024);
+        expected.write(baseData, 0, 10 * 1024);
+        byte[] targetData = expected.toByteArray();
+        // A few changed bytes in the middle of a copied range
+        targetData[100 * 1024] ^= 0x5A;
+
+        write(base, baseData);
+        write(target, targetData);
+        PatchGenerator.generate(base, target, patch, true);
+
+        assertEquals(ApkPatch.Type.BINARY, ApkPatch.getType(patch));
+        assertTrue("The patch copies the ranges of the base: " + patch.length(), patch.length() < targetData.length / 10);
+        assertArrayEquals(targetData, apply(base, patch));
+    }
+
+    @Test
+    public void generate_binary_unrelatedData_roundTrip() throws IOException {
+        byte[] baseData = new byte[64 * 1024];
+        new Random(2).nextBytes(baseData);
+        byte[] targetData = new byte[70 * 1024 + 7];
+        new Random(3).nextBytes(targetData);
+
+        write(base, baseData);
+        write(target, targetData);
+        PatchGenerator.generate(base, target, patch, true);
+
+        assertArrayEquals(targetData, apply(base, patch));
+    }
+
+    @Test
+    public void generate_binary_emptyBase_roundTrip() throws IOException {
+        byte[] targetData = new byte[1000];
+        new Random(4).nextBytes(targetData);
+
+        write(base, new byte[0]);
+        write(target, targetData);
+        PatchGenerator.generate(base, target, patch, true);
+
+        assertArrayEquals(targetData, apply(base, patch));
+    }
+
+    @Test
+    public void generate_archive_roundTrip() throws IOException {
+        byte[] baseData = ArchivePatchGeneratorTest.newArchive(false);
+        byte[] targetData = ArchivePatchGeneratorTest.newArchive(true);
+        write(base, baseData);
+        write(target, targetData);
+        PatchGenerator.generate(base, target, patch, false);
+
+        assertEquals(ApkPatch.Type.ARCHIVE, ApkPatch.getType(patch));
+        assertTrue(ApkPatch.isSupported(patch));
+        assertArrayEquals(targetData, apply(base, patch));
+    }
+
+    @Test
+    public void generate_damagedArchive_fallsBackToBinary() throws IOException {
+        byte[] baseData = ArchivePatchGeneratorTest.newArchive(false);
+        byte[] targetData = ArchivePatchGeneratorTest.newArchive(true);
+        // Without its central directory the archive cannot be read
+        targetData = Arrays.copyOf(targetData, targetData.length / 2);
+        write(base, baseData);
+        write(target, targetData);
+        PatchGenerator.generate(base, target, patch, false);
+
+        assertEquals(ApkPatch.Type.BINARY, ApkPatch.getType(patch));
+        assertArrayEquals(targetData, apply(base, patch));
+    }
+
+    static byte[] apply(File base, File patch) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream is = new FileInputStream(patch);
+        try {
+            long length = ApkPatch.apply(base, is, out, null);
+            assertEquals(out.size(), length);
+        } finally {
+            is.close();
+        }
+        return out.toByteArray();
+    }
+
+    static void write(File file, byte[] data) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(data);
+        } finally {
+            fos.close();
+        }
+    }
+}
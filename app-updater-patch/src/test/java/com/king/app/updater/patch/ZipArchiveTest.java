@@ -0,0 +1,63 @@
+package com.king.app.updater.patch;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link ZipArchive}
+ */
+public class ZipArchiveTest {
+
+    @Test
+    public void readEntries_sortedByData() throws IOException {
+        byte[] data = ArchivePatchGeneratorTest.newArchive(false);
+        assertTrue(ZipArchive.isZip(data));
+
+        List<ZipArchive.Entry> entries = ZipArchive.readEntries(data);
+        assertEquals(4, entries.size());
+        assertEquals("AndroidManifest.xml", entries.get(0).name);
+        assertEquals("classes.dex", entries.get(1).name);
+        assertEquals(ZipArchive.METHOD_DEFLATED, entries.get(1).method);
+        assertEquals(300 * 1024, entries.get(1).size);
+        assertTrue(entries.get(1).compressedSize < entries.get(1).size);
+        assertEquals("res/raw/data.bin", entries.get(2).name);
+        assertEquals(ZipArchive.METHOD_STORED, entries.get(2).method);
+        assertEquals(entries.get(2).size, entries.get(2).compressedSize);
+        assertEquals("assets/old.txt", entries.get(3).name);
+        for (int i = 1; i < entries.size(); i++) {
+            ZipArchive.Entry previous = entries.get(i - 1);
+            assertTrue(previous.dataOffset + previous.compressedSize <= entries.get(i).dataOffset);
+        }
+    }
+
+    @Test
+    public void isZip_otherData_false() {
+        byte[] data = new byte[100];
+        new Random(1).nextBytes(data);
+        data[0] = 'P';
+        data[1] = 'K';
+        assertFalse(ZipArchive.isZip(data));
+        assertFalse(ZipArchive.isZip(new byte[2]));
+    }
+
+    @Test(expected = ZipException.class)
+    public void readEntries_truncated_fails() throws IOException {
+        byte[] data = ArchivePatchGeneratorTest.newArchive(false);
+        ZipArchive.readEntries(Arrays.copyOf(data, data.length - 30));
+    }
+
+    @Test(expected = ZipException.class)
+    public void readEntries_damagedLocalHeader_fails() throws IOException {
+        byte[] data = ArchivePatchGeneratorTest.newArchive(false);
+        // The central directory points to the local header of the first entry at the beginning of the archive
+        data[0] = 0;
+        ZipArchive.readEntries(data);
+    }
+}
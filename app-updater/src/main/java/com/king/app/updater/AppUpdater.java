@@ -5,10 +5,12 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.os.Build;
 import android.os.IBinder;
 import android.text.TextUtils;
 
 import com.king.app.updater.callback.UpdateCallback;
+import com.king.app.updater.checksum.ChecksumAlgorithm;
 import com.king.app.updater.constant.Constants;
 import com.king.app.updater.http.HttpManager;
 import com.king.app.updater.http.IHttpManager;
@@ -16,6 +18,7 @@ import com.king.app.updater.http.OkHttpManager;
 import com.king.app.updater.notify.INotification;
 import com.king.app.updater.notify.NotificationImpl;
 import com.king.app.updater.service.DownloadService;
+import com.king.app.updater.service.ScheduledDownloadService;
 import com.king.app.updater.util.LogUtils;
 import com.king.app.updater.util.PermissionUtils;
 
@@ -136,6 +139,24 @@ public class AppUpdater {
         }
     }
 
+    /**
+     * Schedule the download: it starts when the constraints of {@link UpdateConfig} are met (an unmetered network, the
+     * device charging or idle, see {@link UpdateConfig#setRequiresUnmeteredNetwork(boolean)}), for the updates that are
+     * not urgent. The callback is notified like {@link #start()}, see {@link ScheduledDownloadService}. Before API 21
+     * the download starts now
+     */
+    public void schedule() {
+        if (mConfig == null || TextUtils.isEmpty(mConfig.getUrl())) {
+            throw new IllegalArgumentException("Url must not be empty.");
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                && ScheduledDownloadService.schedule(mContext, mConfig, mHttpManager, mCallback, mNotification)) {
+            return;
+        }
+        LogUtils.w("The download cannot be scheduled, it starts now.");
+        start();
+    }
+
     /**
      * Start download service
      */
@@ -169,7 +190,7 @@ public class AppUpdater {
     }
 
     /**
-     * Cancel download
+     * Cancel download, or the scheduled download
      */
     public void stop() {
         stopDownloadService();
@@ -179,8 +200,13 @@ public class AppUpdater {
      * Stop download service
      */
     private void stopDownloadService() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            ScheduledDownloadService.cancel(mContext, mConfig.getJobId());
+        }
         Intent intent = new Intent(mContext, DownloadService.class);
         intent.putExtra(Constants.KEY_STOP_DOWNLOAD_SERVICE, true);
+        // Only the job of this AppUpdater is cancelled
+        intent.putExtra(Constants.KEY_JOB_ID, mConfig.getJobId());
         mContext.startService(intent);
     }
 
@@ -423,6 +449,310 @@ public class AppUpdater {
             return this;
         }
 
+        /**
+         * Set the size of the APK file, so that the free space can be checked before the download starts (otherwise it is
+         * checked when the server returns the content length)
+         *
+         * @param apkSize size of the APK file (bytes)
+         * @return
+         */
+        public Builder setApkSize(long apkSize) {
+            mConfig.setApkSize(apkSize);
+            return this;
+        }
+
+        /**
+         * Set the size of the download buffer: the data is written to the file each time the buffer is full, a larger
+         * buffer means fewer writes on a fast network. The default is {@link Constants#DEFAULT_BUFFER_SIZE}
+         *
+         * @param bufferSize size of the buffer (bytes)
+         * @return
+         */
+        public Builder setBufferSize(int bufferSize) {
+            mConfig.setBufferSize(bufferSize);
+            return this;
+        }
+
+        /**
+         * Set whether the download buffer is a direct buffer (allocated outside of the Java heap)
+         *
+         * @param directBuffer
+         * @return
+         */
+        public Builder setDirectBuffer(boolean directBuffer) {
+            mConfig.setDirectBuffer(directBuffer);
+            return this;
+        }
+
+        /**
+         * Set whether the file is written on another thread, so that the network is read while the disk is written
+         * (it helps on devices with slow storage)
+         *
+         * @param pipelined
+         * @return
+         */
+        public Builder setPipelined(boolean pipelined) {
+            mConfig.setPipelined(pipelined);
+            return this;
+        }
+
+        /**
+         * Set whether the size of the download buffer follows the measured throughput, see {@link UpdateConfig#setAdaptiveBufferSize(boolean)}
+         *
+         * @param adaptiveBufferSize
+         * @return
+         */
+        public Builder setAdaptiveBufferSize(boolean adaptiveBufferSize) {
+            mConfig.setAdaptiveBufferSize(adaptiveBufferSize);
+            return this;
+        }
+
+        /**
+         * Set the interval of the progress callbacks ({@link UpdateCallback#onProgress(long, long, boolean)}).
+         * The default is {@link Constants#MINIMUM_INTERVAL_MILLIS}
+         *
+         * @param progressInterval interval (milliseconds)
+         * @return
+         */
+        public Builder setProgressInterval(long progressInterval) {
+            mConfig.setProgressInterval(progressInterval);
+            return this;
+        }
+
+        /**
+         * Set the id of the download job, {@link DownloadService} runs one job per id and cancels a job by its id
+         *
+         * @param jobId the URL is used by default
+         * @return
+         */
+        public Builder setJobId(String jobId) {
+            mConfig.setJobId(jobId);
+            return this;
+        }
+
+        /**
+         * Set the priority of the download job, see {@link UpdateConfig#setPriority(int)}
+         *
+         * @param priority
+         * @return
+         */
+        public Builder setPriority(int priority) {
+            mConfig.setPriority(priority);
+            return this;
+        }
+
+        /**
+         * Set the maximum rate of this download, see {@link UpdateConfig#setMaxBytesPerSecond(long)}
+         *
+         * @param maxBytesPerSecond bytes per second, {@link com.king.app.updater.http.BandwidthLimiter#UNLIMITED} means no limit of its own
+         * @return
+         */
+        public Builder setMaxBytesPerSecond(long maxBytesPerSecond) {
+            mConfig.setMaxBytesPerSecond(maxBytesPerSecond);
+            return this;
+        }
+
+        /**
+         * Set the maximum number of redirects followed by a request, see {@link UpdateConfig#setMaxRedirects(int)}
+         *
+         * @param maxRedirects
+         * @return
+         */
+        public Builder setMaxRedirects(int maxRedirects) {
+            mConfig.setMaxRedirects(maxRedirects);
+            return this;
+        }
+
+        /**
+         * Set how long the final URL of the redirects is cached, see {@link UpdateConfig#setRedirectCacheTtl(long)}
+         *
+         * @param redirectCacheTtl time to live (milliseconds), 0 does not cache the final URL
+         * @return
+         */
+        public Builder setRedirectCacheTtl(long redirectCacheTtl) {
+            mConfig.setRedirectCacheTtl(redirectCacheTtl);
+            return this;
+        }
+
+        /**
+         * Add a mirror of the APK, the fastest address is used and the download switches to the next one if it fails or
+         * is too slow ({@link #setMinBytesPerSecond(long)})
+         *
+         * @param url another download address of the APK
+         * @return
+         */
+        public Builder addMirror(@NonNull String url) {
+            mConfig.addMirror(url);
+            return this;
+        }
+
+        /**
+         * Set the minimum download rate of a mirror, the download switches to the next mirror when it is slower
+         *
+         * @param minBytesPerSecond bytes per second
+         * @return
+         */
+        public Builder setMinBytesPerSecond(long minBytesPerSecond) {
+            mConfig.setMinBytesPerSecond(minBytesPerSecond);
+            return this;
+        }
+
+        /**
+         * Set the hedging of the requests that start the download, see {@link UpdateConfig#setHedgePercentile(float)}
+         *
+         * @param hedgePercentile between 0 and 1, e.g. 0.95
+         * @return
+         */
+        public Builder setHedgePercentile(float hedgePercentile) {
+            mConfig.setHedgePercentile(hedgePercentile);
+            return this;
+        }
+
+        /**
+         * Set whether a failed download is retried automatically, see {@link UpdateConfig#setAutoRetry(boolean)}
+         *
+         * @param autoRetry the default is true
+         * @return
+         */
+        public Builder setAutoRetry(boolean autoRetry) {
+            mConfig.setAutoRetry(autoRetry);
+            return this;
+        }
+
+        /**
+         * Set the base delay of the automatic retries, see {@link UpdateConfig#setRetryDelay(long)}
+         *
+         * @param retryDelay milliseconds
+         * @return
+         */
+        public Builder setRetryDelay(long retryDelay) {
+            mConfig.setRetryDelay(retryDelay);
+            return this;
+        }
+
+        /**
+         * Set the maximum delay of an automatic retry, see {@link UpdateConfig#setMaxRetryDelay(long)}
+         *
+         * @param maxRetryDelay milliseconds
+         * @return
+         */
+        public Builder setMaxRetryDelay(long maxRetryDelay) {
+            mConfig.setMaxRetryDelay(maxRetryDelay);
+            return this;
+        }
+
+        /**
+         * Set the timeout of the connection to the server, see {@link UpdateConfig#setConnectTimeout(long)}
+         *
+         * @param connectTimeout milliseconds
+         * @return
+         */
+        public Builder setConnectTimeout(long connectTimeout) {
+            mConfig.setConnectTimeout(connectTimeout);
+            return this;
+        }
+
+        /**
+         * Set the timeout of the response headers of a request, see {@link UpdateConfig#setFirstByteTimeout(long)}
+         *
+         * @param firstByteTimeout milliseconds
+         * @return
+         */
+        public Builder setFirstByteTimeout(long firstByteTimeout) {
+            mConfig.setFirstByteTimeout(firstByteTimeout);
+            return this;
+        }
+
+        /**
+         * Set the maximum time without receiving data while the file is transferred, see
+         * {@link UpdateConfig#setTransferTimeout(long)}
+         *
+         * @param transferTimeout milliseconds
+         * @return
+         */
+        public Builder setTransferTimeout(long transferTimeout) {
+            mConfig.setTransferTimeout(transferTimeout);
+            return this;
+        }
+
+        /**
+         * Set the maximum duration of a download, see {@link UpdateConfig#setDeadline(long)}
+         *
+         * @param deadline milliseconds
+         * @return
+         */
+        public Builder setDeadline(long deadline) {
+            mConfig.setDeadline(deadline);
+            return this;
+        }
+
+        /**
+         * Set whether the scheduled download waits for an unmetered network, see
+         * {@link UpdateConfig#setRequiresUnmeteredNetwork(boolean)}
+         *
+         * @param requiresUnmeteredNetwork
+         * @return
+         */
+        public Builder setRequiresUnmeteredNetwork(boolean requiresUnmeteredNetwork) {
+            mConfig.setRequiresUnmeteredNetwork(requiresUnmeteredNetwork);
+            return this;
+        }
+
+        /**
+         * Set whether the scheduled download waits for the device to be charging, see
+         * {@link UpdateConfig#setRequiresCharging(boolean)}
+         *
+         * @param requiresCharging
+         * @return
+         */
+        public Builder setRequiresCharging(boolean requiresCharging) {
+            mConfig.setRequiresCharging(requiresCharging);
+            return this;
+        }
+
+        /**
+         * Set whether the scheduled download waits for the device to be idle, see
+         * {@link UpdateConfig#setRequiresDeviceIdle(boolean)}
+         *
+         * @param requiresDeviceIdle
+         * @return
+         */
+        public Builder setRequiresDeviceIdle(boolean requiresDeviceIdle) {
+            mConfig.setRequiresDeviceIdle(requiresDeviceIdle);
+            return this;
+        }
+
+        /**
+         * Add a checksum of the APK file, it is verified when the download is completed and when the cache is first retrieved (like {@link #setApkMD5(String)}).
+         * Several algorithms can be added, only the strongest one available on the device is verified (a {@link ChecksumAlgorithm#CRC32C} alone only detects a corruption)
+         *
+         * @param algorithm {@link ChecksumAlgorithm}
+         * @param value     hexadecimal string of the checksum
+         * @return
+         */
+        public Builder addChecksum(@NonNull ChecksumAlgorithm algorithm, @NonNull String value) {
+            mConfig.addChecksum(algorithm, value);
+            return this;
+        }
+
+        /**
+         * Set a patch that reconstructs the APK from the installed App. The patch is used only when the installed App is the
+         * base of the patch, and the reconstructed APK is verified with the checksums ({@link #addChecksum(ChecksumAlgorithm, String)}
+         * or {@link #setApkMD5(String)}); otherwise, or if the patch fails, the APK is downloaded from {@link #setUrl(String)}
+         *
+         * @param patchUrl        patch download address
+         * @param baseVersionCode versionCode of the base APK
+         * @param algorithm       {@link ChecksumAlgorithm} of the base checksum
+         * @param baseChecksum    checksum of the base APK, null means the base is only checked by versionCode
+         * @return
+         */
+        public Builder setPatch(@NonNull String patchUrl, long baseVersionCode, @NonNull ChecksumAlgorithm algorithm, @Nullable String baseChecksum) {
+            mConfig.setPatchUrl(patchUrl);
+            mConfig.setPatchBaseVersionCode(baseVersionCode);
+            mConfig.setPatchBaseChecksum(algorithm, baseChecksum);
+            return this;
+        }
+
         /**
          * Add parameters to the request header
          *
@@ -0,0 +1,580 @@
+package com.king.app.updater;
+
+import android.content.Context;
+
+import com.king.app.updater.constant.Constants;
+import com.king.app.updater.http.DownloadExecutors;
+import com.king.app.updater.http.HttpHeaders;
+import com.king.app.updater.http.HttpManager;
+import com.king.app.updater.http.HttpStatusException;
+import com.king.app.updater.http.IHttpConnector;
+import com.king.app.updater.util.AppUtils;
+import com.king.app.updater.util.LogUtils;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+/**
+ * UpdateChecker fetches the {@link UpdateManifest} of the App and tells whether a new version is available; the
+ * {@link UpdateConfig} of the download is then created by {@link UpdateManifest#toUpdateConfig()}:
+ * <pre>
+ * new UpdateChecker(context, manifestUrl).check(new UpdateChecker.Callback() {
+ *     public void onUpdateAvailable(UpdateManifest manifest) {
+ *         new AppUpdater(context, manifest.toUpdateConfig()).start();
+ *     }
+ *     ...
+ * });
+ * </pre>
+ * The manifest is cached in a file with its validators (ETag / Last-Modified):
+ * <ul>
+ * <li>while it is fresh ({@code max-age} of the Cache-Control response header, or {@link #setMaxAge(long)}), it is used
+ * without any request;</li>
+ * <li>then, during {@code stale-while-revalidate} (or {@link #setMaxStale(long)}), it is used at once and revalidated in
+ * the background for the next check;</li>
+ * <li>after that, or without a cache, the check waits for the response. The request is conditional
+ * (If-None-Match / If-Modified-Since), so an unchanged manifest is answered by a {@code 304 Not Modified} without a
+ * body. If the request fails, the cached manifest is used whatever its age.</li>
+ * </ul>
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public class UpdateChecker {
+
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_NOT_MODIFIED = 304;
+    /**
+     * Maximum size of a manifest
+     */
+    private static final int MAX_MANIFEST_SIZE = 1024 * 1024;
+
+    private static final String CACHE_FILE_PREFIX = "app_updater_manifest_";
+
+    private static final String KEY_URL = "url";
+    private static final String KEY_BODY = "body";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_DATE = "date";
+    private static final String KEY_MAX_AGE = "maxAge";
+    private static final String KEY_MAX_STALE = "maxStale";
+    /**
+     * The manifest URLs being revalidated in the background, so that they are revalidated once at a time
+     */
+    private static final Set<String> sRevalidatingUrls = Collections.synchronizedSet(new HashSet<String>());
+
+    private Context mContext;
+
+    private String mUrl;
+    /**
+     * The directory of the cached manifest, null means the cache directory of the App
+     */
+    private File mCacheDir;
+
+    private Map<String, String> mRequestProperty;
+
+    private IHttpConnector mHttpConnector;
+
+    private Executor mExecutor;
+
+    private Executor mCallbackExecutor;
+    /**
+     * How long the cached manifest is fresh, when the response has no {@code max-age}
+     */
+    private long mMaxAge = Constants.DEFAULT_MANIFEST_MAX_AGE_MILLIS;
+    /**
+     * How long the stale manifest is used while it is revalidated, when the response has no {@code stale-while-revalidate}
+     */
+    private long mMaxStale = Constants.DEFAULT_MANIFEST_STALE_MILLIS;
+
+    /**
+     * The update check result
+     */
+    public interface Callback {
+        /**
+         * A newer version than the installed App is available
+         *
+         * @param manifest {@link UpdateManifest}
+         */
+        void onUpdateAvailable(@NonNull UpdateManifest manifest);
+
+        /**
+         * The installed App is the latest version
+         *
+         * @param manifest {@link UpdateManifest}
+         */
+        void onNoUpdate(@NonNull UpdateManifest manifest);
+
+        /**
+         * The manifest cannot be fetched and there is no cached one
+         *
+         * @param e
+         */
+        void onError(@NonNull Exception e);
+    }
+
+    /**
+     * Construction
+     *
+     * @param context {@link Context}
+     * @param url     the address of the JSON manifest
+     */
+    public UpdateChecker(@NonNull Context context, @NonNull String url) {
+        this.mContext = context.getApplicationContext();
+        this.mUrl = url;
+    }
+
+    /**
+     * Construction of the tests: the manifest is cached in the given directory, {@link #check(Callback)} requires a
+     * {@link Context}
+     *
+     * @param cacheDir the directory of the cached manifest
+     * @param url      the address of the JSON manifest
+     */
+    UpdateChecker(@NonNull File cacheDir, @NonNull String url) {
+        this.mCacheDir = cacheDir;
+        this.mUrl = url;
+    }
+
+    /**
+     * Set how long the cached manifest is used without any request, when the response has no Cache-Control
+     * {@code max-age}
+     *
+     * @param maxAge milliseconds, default {@link Constants#DEFAULT_MANIFEST_MAX_AGE_MILLIS}
+     * @return
+     */
+    public UpdateChecker setMaxAge(long maxAge) {
+        this.mMaxAge = Math.max(0, maxAge);
+        return this;
+    }
+
+    /**
+     * Set how long after its max age the cached manifest is still used while it is revalidated in the background, when
+     * the response has no Cache-Control {@code stale-while-revalidate}
+     *
+     * @param maxStale milliseconds, default {@link Constants#DEFAULT_MANIFEST_STALE_MILLIS}; 0 waits for the revalidation
+     * @return
+     */
+    public UpdateChecker setMaxStale(long maxStale) {
+        this.mMaxStale = Math.max(0, maxStale);
+        return this;
+    }
+
+    /**
+     * Add parameters to the request header
+     *
+     * @param key
+     * @param value
+     * @return
+     */
+    public UpdateChecker addHeader(String key, String value) {
+        if (mRequestProperty == null) {
+            mRequestProperty = new HashMap<>();
+        }
+        mRequestProperty.put(key, value);
+        return this;
+    }
+
+    /**
+     * Set the {@link IHttpConnector} of the requests
+     *
+     * @param httpConnector {@link HttpManager} (default) or {@link com.king.app.updater.http.OkHttpManager}
+     * @return
+     */
+    public UpdateChecker setHttpConnector(@Nullable IHttpConnector httpConnector) {
+        this.mHttpConnector = httpConnector;
+        return this;
+    }
+
+    /**
+     * Set the executor of the checks and of the revalidations in the background
+     *
+     * @param executor null means {@link DownloadExecutors#getIoExecutor()}
+     * @return
+     */
+    public UpdateChecker setExecutor(@Nullable Executor executor) {
+        this.mExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Set the executor of the {@link Callback}
+     *
+     * @param callbackExecutor null means the main thread
+     * @return
+     */
+    public UpdateChecker setCallbackExecutor(@Nullable Executor callbackExecutor) {
+        this.mCallbackExecutor = callbackExecutor;
+        return this;
+    }
+
+    /**
+     * Check for update in the background, the result is delivered to the callback on the callback executor
+     *
+     * @param callback {@link Callback}
+     */
+    public void check(@NonNull final Callback callback) {
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                Runnable result;
+                try {
+                    final UpdateManifest manifest = getManifest();
+                    final boolean hasUpdate = manifest.isNewerThan(AppUtils.getVersionCode(mContext));
+                    LogUtils.d("hasUpdate: " + hasUpdate + ", " + manifest);
+                    result = new Runnable() {
+                        @Override
+                        public void run() {
+                            if (hasUpdate) {
+                                callback.onUpdateAvailable(manifest);
+                            } else {
+                                callback.onNoUpdate(manifest);
+                            }
+                        }
+                    };
+                } catch (final Exception e) {
+                    LogUtils.w(e.getMessage());
+                    result = new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onError(e);
+                        }
+                    };
+                }
+                getCallbackExecutor().execute(result);
+            }
+        });
+    }
+
+    /**
+     * Get the manifest on the calling thread, following the cache policy of {@link #check(Callback)}
+     *
+     * @return {@link UpdateManifest}
+     * @throws IOException if the manifest cannot be fetched or parsed and there is no cached one
+     */
+    @WorkerThread
+    @NonNull
+    public UpdateManifest getManifest() throws IOException {
+        CacheEntry entry = readCache();
+        if (entry != null) {
+            long age = System.currentTimeMillis() - entry.date;
+            if (age >= 0 && age < entry.maxAge) {
+                LogUtils.d("Manifest is fresh: " + age + "ms");
+                return entry.manifest;
+            }
+            if (age >= 0 && age < entry.maxAge + entry.maxStale) {
+                LogUtils.d("Manifest is stale, revalidate: " + age + "ms");
+                revalidate(entry);
+                return entry.manifest;
+            }
+        }
+        try {
+            return fetch(entry);
+        } catch (IOException e) {
+            if (entry != null) {
+                // The stale manifest is better than no manifest
+                LogUtils.w("Use the cached manifest: " + e.getMessage());
+                return entry.manifest;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Delete the cached manifest, the next check fetches it again
+     */
+    public void clearCache() {
+        getCacheFile().delete();
+    }
+
+    /**
+     * Revalidate the cached manifest in the background
+     */
+    private void revalidate(@NonNull final CacheEntry entry) {
+        if (!sRevalidatingUrls.add(mUrl)) {
+            return;
+        }
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fetch(entry);
+                } catch (IOException e) {
+                    LogUtils.w(e.getMessage());
+                } finally {
+                    sRevalidatingUrls.remove(mUrl);
+                }
+            }
+        });
+    }
+
+    /**
+     * Request the manifest, conditionally if there is a cached one, and cache the response
+     */
+    private UpdateManifest fetch(@Nullable CacheEntry entry) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        if (mRequestProperty != null) {
+            headers.putAll(mRequestProperty);
+        }
+        if (entry != null) {
+            if (entry.eTag != null && !entry.eTag.isEmpty()) {
+                headers.put(HttpHeaders.IF_NONE_MATCH, entry.eTag);
+            }
+            if (entry.lastModified != null && !entry.lastModified.isEmpty()) {
+                headers.put(HttpHeaders.IF_MODIFIED_SINCE, entry.lastModified);
+            }
+        }
+
+        IHttpConnector.Connection connection = getHttpConnector().connect(mUrl, headers);
+        int responseCode;
+        String body = null;
+        String eTag;
+        String lastModified;
+        String cacheControl;
+        try {
+            responseCode = connection.getResponseCode();
+            LogUtils.d("Manifest responseCode: " + responseCode);
+            eTag = connection.getHeaderField(HttpHeaders.ETAG);
+            lastModified = connection.getHeaderField(HttpHeaders.LAST_MODIFIED);
+            cacheControl = connection.getHeaderField(HttpHeaders.CACHE_CONTROL);
+            if (responseCode == HTTP_OK) {
+                body = read(connection.getInputStream());
+            } else if (responseCode != HTTP_NOT_MODIFIED || entry == null) {
+                throw new HttpStatusException(responseCode, connection.getHeaderField(HttpHeaders.RETRY_AFTER));
+            }
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        // The response is read to the end, its connection can be kept alive
+        connection.release();
+
+        long date = System.currentTimeMillis();
+        if (body == null) {
+            // Not modified: the cached manifest is fresh again, the response may update its validators and its max age
+            CacheEntry revalidated = new CacheEntry(entry.body, entry.manifest, eTag != null ? eTag : entry.eTag,
+                    lastModified != null ? lastModified : entry.lastModified, date);
+            if (applyCacheControl(revalidated, cacheControl)) {
+                writeCache(revalidated);
+            }
+            return entry.manifest;
+        }
+
+        UpdateManifest manifest;
+        try {
+            manifest = UpdateManifest.parse(body);
+        } catch (JSONException e) {
+            throw new IOException("Invalid manifest: " + e.getMessage(), e);
+        }
+        CacheEntry fetched = new CacheEntry(body, manifest, eTag, lastModified, date);
+        if (applyCacheControl(fetched, cacheControl)) {
+            writeCache(fetched);
+        } else {
+            clearCache();
+        }
+        return manifest;
+    }
+
+    /**
+     * Set the max age and the max stale of the entry from the Cache-Control response header, e.g.
+     * {@code max-age=600, stale-while-revalidate=86400}
+     *
+     * @return false if the response must not be stored ({@code no-store})
+     */
+    private boolean applyCacheControl(@NonNull CacheEntry entry, @Nullable String cacheControl) {
+        entry.maxAge = mMaxAge;
+        entry.maxStale = mMaxStale;
+        if (cacheControl == null || cacheControl.isEmpty()) {
+            return true;
+        }
+        for (String directive : cacheControl.split(",")) {
+            String name = directive.trim().toLowerCase(Locale.US);
+            String value = null;
+            int index = name.indexOf('=');
+            if (index > 0) {
+                value = name.substring(index + 1).trim();
+                name = name.substring(0, index).trim();
+            }
+            if ("no-store".equals(name)) {
+                return false;
+            } else if ("no-cache".equals(name)) {
+                entry.maxAge = 0;
+            } else if ("max-age".equals(name)) {
+                entry.maxAge = parseSeconds(value, entry.maxAge);
+            } else if ("stale-while-revalidate".equals(name)) {
+                entry.maxStale = parseSeconds(value, entry.maxStale);
+            }
+        }
+        return true;
+    }
+
+    private static long parseSeconds(@Nullable String value, long defaultMillis) {
+        if (value != null) {
+            try {
+                return Math.max(0, Long.parseLong(value.replace("\"", ""))) * 1000L;
+            } catch (NumberFormatException e) {
+                LogUtils.w(e.getMessage());
+            }
+        }
+        return defaultMillis;
+    }
+
+    private static String read(InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = is.read(buffer)) != -1) {
+                os.write(buffer, 0, len);
+                if (os.size() > MAX_MANIFEST_SIZE) {
+                    throw new IOException("The manifest is too large");
+                }
+            }
+            return os.toString("UTF-8");
+        } finally {
+            close(is);
+        }
+    }
+
+    @Nullable
+    private CacheEntry readCache() {
+        File file = getCacheFile();
+        if (!file.exists()) {
+            return null;
+        }
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            Properties properties = new Properties();
+            properties.load(is);
+            String body = properties.getProperty(KEY_BODY);
+            if (!mUrl.equals(properties.getProperty(KEY_URL)) || body == null) {
+                return null;
+            }
+            CacheEntry entry = new CacheEntry(body, UpdateManifest.parse(body), properties.getProperty(KEY_ETAG),
+                    properties.getProperty(KEY_LAST_MODIFIED), Long.parseLong(properties.getProperty(KEY_DATE, "0")));
+            entry.maxAge = Long.parseLong(properties.getProperty(KEY_MAX_AGE, "0"));
+            entry.maxStale = Long.parseLong(properties.getProperty(KEY_MAX_STALE, "0"));
+            return entry;
+        } catch (Exception e) {
+            // The cache is damaged, the manifest is fetched again
+            LogUtils.w(e.getMessage());
+            return null;
+        } finally {
+            close(is);
+        }
+    }
+
+    /**
+     * Write the cache to a temporary file renamed over the cache file, so that a concurrent read never sees a partial file
+     */
+    private void writeCache(@NonNull CacheEntry entry) {
+        File file = getCacheFile();
+        File tempFile = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+        OutputStream os = null;
+        try {
+            Properties properties = new Properties();
+            properties.setProperty(KEY_URL, mUrl);
+            properties.setProperty(KEY_BODY, entry.body);
+            if (entry.eTag != null) {
+                properties.setProperty(KEY_ETAG, entry.eTag);
+            }
+            if (entry.lastModified != null) {
+                properties.setProperty(KEY_LAST_MODIFIED, entry.lastModified);
+            }
+            properties.setProperty(KEY_DATE, String.valueOf(entry.date));
+            properties.setProperty(KEY_MAX_AGE, String.valueOf(entry.maxAge));
+            properties.setProperty(KEY_MAX_STALE, String.valueOf(entry.maxStale));
+            os = new FileOutputStream(tempFile);
+            properties.store(os, null);
+            close(os);
+            os = null;
+            if (!tempFile.renameTo(file)) {
+                LogUtils.w("Failed to rename " + tempFile + " to " + file);
+            }
+        } catch (IOException e) {
+            LogUtils.w(e.getMessage());
+        } finally {
+            close(os);
+            tempFile.delete();
+        }
+    }
+
+    private File getCacheFile() {
+        File dir = mCacheDir != null ? mCacheDir : mContext.getCacheDir();
+        return new File(dir, CACHE_FILE_PREFIX + Integer.toHexString(mUrl.hashCode()));
+    }
+
+    private IHttpConnector getHttpConnector() {
+        return mHttpConnector != null ? mHttpConnector : HttpManager.getInstance();
+    }
+
+    /**
+     * The checks do not wait behind the downloads of the default executor
+     */
+    private Executor getExecutor() {
+        return mExecutor != null ? mExecutor : DownloadExecutors.getIoExecutor();
+    }
+
+    private Executor getCallbackExecutor() {
+        return mCallbackExecutor != null ? mCallbackExecutor : DownloadExecutors.getMainThreadExecutor();
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * A cached manifest
+     */
+    private static final class CacheEntry {
+
+        final String body;
+
+        final UpdateManifest manifest;
+
+        final String eTag;
+
+        final String lastModified;
+        /**
+         * When the response was received
+         */
+        final long date;
+
+        long maxAge;
+
+        long maxStale;
+
+        CacheEntry(String body, UpdateManifest manifest, String eTag, String lastModified, long date) {
+            this.body = body;
+            this.manifest = manifest;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.date = date;
+        }
+    }
+}
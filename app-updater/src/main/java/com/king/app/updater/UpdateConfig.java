@@ -1,15 +1,27 @@
 package com.king.app.updater;
 
 import android.content.Context;
+import android.os.Build;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.os.PersistableBundle;
+import android.text.TextUtils;
 
+import com.king.app.updater.checksum.ApkChecksum;
+import com.king.app.updater.checksum.ChecksumAlgorithm;
 import com.king.app.updater.constant.Constants;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import androidx.annotation.DrawableRes;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 
 /**
  * AppUpdater configuration information
@@ -18,6 +30,13 @@ import androidx.annotation.DrawableRes;
  */
 public class UpdateConfig implements Parcelable {
 
+    /**
+     * Version of the format of {@link #toPersistableBundle()}, a bundle of another version is rejected
+     */
+    public static final int PERSISTABLE_VERSION = 1;
+
+    private static final String KEY_PERSISTABLE_VERSION = "persistableVersion";
+
     /**
      * APK download URL
      */
@@ -109,6 +128,146 @@ public class UpdateConfig implements Parcelable {
      */
     private String apkMD5;
 
+    /**
+     * Checksums of APK file
+     */
+    private List<ApkChecksum> mChecksums;
+
+    /**
+     * Patch download URL, the patch reconstructs the APK from the installed base APK
+     */
+    private String mPatchUrl;
+
+    /**
+     * The versionCode of the base APK the patch applies to
+     */
+    private long patchBaseVersionCode = Constants.NONE;
+
+    /**
+     * Checksum of the base APK the patch applies to
+     */
+    private ApkChecksum mPatchBaseChecksum;
+
+    /**
+     * Size of APK file (bytes)
+     */
+    private long apkSize = Constants.NONE;
+
+    /**
+     * Size of the download buffer (bytes)
+     */
+    private int mBufferSize = Constants.DEFAULT_BUFFER_SIZE;
+
+    /**
+     * Whether the download buffer is a direct buffer
+     */
+    private boolean isDirectBuffer = false;
+
+    /**
+     * Whether the file is written on another thread than the network is read
+     */
+    private boolean isPipelined = false;
+
+    /**
+     * Whether the size of the buffer follows the throughput
+     */
+    private boolean isAdaptiveBufferSize = false;
+
+    /**
+     * Interval of the progress callbacks (milliseconds)
+     */
+    private long mProgressInterval = Constants.MINIMUM_INTERVAL_MILLIS;
+
+    /**
+     * Id of the download job, the URL by default
+     */
+    private String mJobId;
+
+    /**
+     * Priority of the download job
+     */
+    private int mPriority = Constants.DEFAULT_PRIORITY;
+
+    /**
+     * Maximum download rate (bytes per second) of the shared bandwidth limit
+     */
+    private long mMaxBytesPerSecond = Constants.NONE;
+
+    /**
+     * Maximum number of redirects of a request
+     */
+    private int mMaxRedirects = Constants.DEFAULT_MAX_REDIRECTS;
+
+    /**
+     * How long the final URL of the redirects is cached (milliseconds)
+     */
+    private long mRedirectCacheTtl = Constants.DEFAULT_REDIRECT_CACHE_TTL_MILLIS;
+
+    /**
+     * The other addresses of the APK, in order of preference
+     */
+    private ArrayList<String> mMirrors;
+
+    /**
+     * Minimum download rate (bytes per second) below which the download switches to the next mirror
+     */
+    private long mMinBytesPerSecond = Constants.NONE;
+
+    /**
+     * Percentile of the times to first byte after which the request is hedged
+     */
+    private float mHedgePercentile = Constants.NONE;
+
+    /**
+     * Whether a failed download is retried automatically, within the limit of {@link #reDownloads}
+     */
+    private boolean isAutoRetry = true;
+
+    /**
+     * Base delay of the automatic retries (milliseconds), it doubles at each retry
+     */
+    private long mRetryDelay = Constants.DEFAULT_RETRY_DELAY_MILLIS;
+
+    /**
+     * Maximum delay of an automatic retry (milliseconds)
+     */
+    private long mMaxRetryDelay = Constants.DEFAULT_MAX_RETRY_DELAY_MILLIS;
+
+    /**
+     * Timeout of the connection to the server (milliseconds)
+     */
+    private long mConnectTimeout = Constants.NONE;
+
+    /**
+     * Timeout of the response headers of a request (milliseconds)
+     */
+    private long mFirstByteTimeout = Constants.NONE;
+
+    /**
+     * Maximum time without receiving data while the file is transferred (milliseconds)
+     */
+    private long mTransferTimeout = Constants.NONE;
+
+    /**
+     * Maximum duration of a download (milliseconds)
+     */
+    private long mDeadline = Constants.NONE;
+
+    /**
+     * Whether the scheduled download waits for an unmetered network
+     */
+    private boolean isRequiresUnmeteredNetwork;
+
+    /**
+     * Whether the scheduled download waits for the device to be charging
+     */
+    private boolean isRequiresCharging;
+
+    /**
+     * Whether the scheduled download waits for the device to be idle
+     */
+    private boolean isRequiresDeviceIdle;
+
     public UpdateConfig() {
 
     }
@@ -319,7 +478,7 @@ public class UpdateConfig implements Parcelable {
     /**
      * Set the versionCode of the APK to be downloaded. This is used to verify whether the APK files are consistent when the cache is first retrieved.
      * Cache verification currently supports two methods: one is through versionCode verification, that is, {@link #setVersionCode(long)}; the other is file MD5 verification, that is, {@link #setApkMD5(String)}. It is recommended to use the MD5 verification method
-     * If both methods are set, only MD5 is verified
+     * If both methods are set, only MD5 is verified (the same applies to the checksums added by {@link #addChecksum(ChecksumAlgorithm, String)})
      *
      * @param versionCode is null, which means no processing. If it does not exist, it will be downloaded by default. If it exists, it will be re-downloaded. If it is not null, it means that the local APK with the downloaded version number versionCode will be checked first.
      *                    If it exists, it will not be downloaded again (AppUpdater will automatically check the consistency of packageName). It will directly get the local APK. Otherwise, it will be downloaded again.
@@ -347,6 +506,46 @@ public class UpdateConfig implements Parcelable {
         return apkMD5;
     }
 
+    /**
+     * Add a checksum of the APK file, it is verified when the download is completed and when the cache is first retrieved (like {@link #setApkMD5(String)}).
+     * Several algorithms can be added, only the strongest one available on the device is verified; a checksum of the same algorithm is replaced.
+     *
+     * @param algorithm {@link ChecksumAlgorithm}
+     * @param value     hexadecimal string of the checksum
+     */
+    public void addChecksum(@NonNull ChecksumAlgorithm algorithm, @NonNull String value) {
+        if (mChecksums == null) {
+            mChecksums = new ArrayList<>();
+        }
+        for (int i = mChecksums.size() - 1; i >= 0; i--) {
+            if (mChecksums.get(i).getAlgorithm() == algorithm) {
+                mChecksums.remove(i);
+            }
+        }
+        mChecksums.add(new ApkChecksum(algorithm, value));
+    }
+
+    /**
+     * Get the checksums of the APK file, including the MD5 set by {@link #setApkMD5(String)}
+     *
+     * @return
+     */
+    @NonNull
+    public List<ApkChecksum> getChecksums() {
+        List<ApkChecksum> checksums = new ArrayList<>();
+        boolean hasMD5 = false;
+        if (mChecksums != null) {
+            for (ApkChecksum checksum : mChecksums) {
+                checksums.add(checksum);
+                hasMD5 |= checksum.getAlgorithm() == ChecksumAlgorithm.MD5;
+            }
+        }
+        if (!hasMD5 && apkMD5 != null && !apkMD5.isEmpty()) {
+            checksums.add(new ApkChecksum(ChecksumAlgorithm.MD5, apkMD5));
+        }
+        return checksums;
+    }
+
     /**
      * Add parameters to the request header
      *
@@ -368,6 +567,412 @@ public class UpdateConfig implements Parcelable {
         mRequestProperty.putAll(headers);
     }
 
+    public String getPatchUrl() {
+        return mPatchUrl;
+    }
+
+    /**
+     * Set the patch download address. When the installed App matches the base of the patch, the patch is downloaded
+     * and applied to the installed APK instead of downloading the whole APK; if the base does not match or the patch
+     * fails, the APK is downloaded from {@link #getUrl()}.
+     * The reconstructed APK is verified with {@link #getChecksums()}, so the patch is used only when a checksum is set.
+     *
+     * @param patchUrl patch download address
+     */
+    public void setPatchUrl(String patchUrl) {
+        this.mPatchUrl = patchUrl;
+    }
+
+    public long getPatchBaseVersionCode() {
+        return patchBaseVersionCode;
+    }
+
+    /**
+     * Set the versionCode of the base APK the patch applies to
+     *
+     * @param baseVersionCode versionCode of the base APK
+     */
+    public void setPatchBaseVersionCode(long baseVersionCode) {
+        this.patchBaseVersionCode = baseVersionCode;
+    }
+
+    public ApkChecksum getPatchBaseChecksum() {
+        return mPatchBaseChecksum;
+    }
+
+    /**
+     * Set the checksum of the base APK the patch applies to
+     *
+     * @param algorithm {@link ChecksumAlgorithm}
+     * @param value     hexadecimal string of the checksum; null means the base is only checked by versionCode
+     */
+    public void setPatchBaseChecksum(@NonNull ChecksumAlgorithm algorithm, String value) {
+        this.mPatchBaseChecksum = value != null ? new ApkChecksum(algorithm, value) : null;
+    }
+
+    public long getApkSize() {
+        return apkSize;
+    }
+
+    /**
+     * Set the size of the APK file, so that the free space can be checked before the download starts (otherwise it is
+     * checked when the server returns the content length)
+     *
+     * @param apkSize size of the APK file (bytes); {@link Constants#NONE} means unknown
+     */
+    public void setApkSize(long apkSize) {
+        this.apkSize = apkSize;
+    }
+
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /**
+     * Set the size of the download buffer: the data is written to the file each time the buffer is full, a larger
+     * buffer means fewer writes on a fast network. The default is {@link Constants#DEFAULT_BUFFER_SIZE}
+     *
+     * @param bufferSize size of the buffer (bytes), at least {@link com.king.app.updater.http.DownloadWriter#MIN_BUFFER_SIZE}
+     */
+    public void setBufferSize(int bufferSize) {
+        this.mBufferSize = bufferSize;
+    }
+
+    public boolean isDirectBuffer() {
+        return isDirectBuffer;
+    }
+
+    /**
+     * Set whether the download buffer is a direct buffer (allocated outside of the Java heap), it saves a copy when
+     * the buffer is written to the file
+     *
+     * @param directBuffer
+     */
+    public void setDirectBuffer(boolean directBuffer) {
+        isDirectBuffer = directBuffer;
+    }
+
+    public boolean isPipelined() {
+        return isPipelined;
+    }
+
+    /**
+     * Set whether the file is written on another thread, so that the network is read while the disk is written.
+     * The threads exchange a fixed number of buffers of {@link #getBufferSize()}; it helps on devices with slow storage.
+     * A segmented download already overlaps them between its segments, only its single stream mode is pipelined.
+     *
+     * @param pipelined
+     */
+    public void setPipelined(boolean pipelined) {
+        isPipelined = pipelined;
+    }
+
+    public boolean isAdaptiveBufferSize() {
+        return isAdaptiveBufferSize;
+    }
+
+    /**
+     * Set whether the size of the download buffer follows the measured throughput: it starts at {@link #getBufferSize()}
+     * and grows or shrinks between {@link com.king.app.updater.http.DownloadWriter#MIN_BUFFER_SIZE} and
+     * {@link com.king.app.updater.http.AdaptiveBufferSize#MAX_BUFFER_SIZE}, see {@link com.king.app.updater.http.AdaptiveBufferSize}
+     *
+     * @param adaptiveBufferSize
+     */
+    public void setAdaptiveBufferSize(boolean adaptiveBufferSize) {
+        isAdaptiveBufferSize = adaptiveBufferSize;
+    }
+
+    public long getProgressInterval() {
+        return mProgressInterval;
+    }
+
+    /**
+     * Set the interval of the progress callbacks: the download threads only update counters, which are sampled at
+     * this interval. The default is {@link Constants#MINIMUM_INTERVAL_MILLIS}
+     *
+     * @param progressInterval interval (milliseconds)
+     */
+    public void setProgressInterval(long progressInterval) {
+        this.mProgressInterval = progressInterval;
+    }
+
+    /**
+     * Get the id of the download job: {@link #setJobId(String)}, or the URL if it is not set
+     *
+     * @return
+     */
+    public String getJobId() {
+        return mJobId != null && !mJobId.isEmpty() ? mJobId : mUrl;
+    }
+
+    /**
+     * Set the id of the download job, the {@link com.king.app.updater.service.DownloadService} runs one job per id and
+     * cancels a job by its id. The URL is used by default
+     *
+     * @param jobId
+     */
+    public void setJobId(String jobId) {
+        this.mJobId = jobId;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * Set the priority of the download job, the queued jobs of higher priority are started first and a running job of
+     * lower priority is paused (and resumed later) when no download slot is free. The default is
+     * {@link Constants#DEFAULT_PRIORITY}
+     *
+     * @param priority
+     */
+    public void setPriority(int priority) {
+        this.mPriority = priority;
+    }
+
+    public long getMaxBytesPerSecond() {
+        return mMaxBytesPerSecond;
+    }
+
+    /**
+     * Set the maximum rate of this download. It applies on top of the limit shared by all the downloads, which is set
+     * with {@link com.king.app.updater.http.BandwidthLimiter#getDefault()}
+     * ({@link com.king.app.updater.http.BandwidthLimiter#setBytesPerSecond(long)}) and can be changed at any time
+     *
+     * @param maxBytesPerSecond bytes per second; by default ({@link Constants#NONE}) or with
+     *                          {@link com.king.app.updater.http.BandwidthLimiter#UNLIMITED} the download has no limit of
+     *                          its own
+     */
+    public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+        this.mMaxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    public int getMaxRedirects() {
+        return mMaxRedirects;
+    }
+
+    /**
+     * Set the maximum number of redirects followed by a request, the download fails beyond it. The default is
+     * {@link Constants#DEFAULT_MAX_REDIRECTS}
+     *
+     * @param maxRedirects
+     */
+    public void setMaxRedirects(int maxRedirects) {
+        this.mMaxRedirects = maxRedirects;
+    }
+
+    public long getRedirectCacheTtl() {
+        return mRedirectCacheTtl;
+    }
+
+    /**
+     * Set how long the final URL of the redirects is cached, the next requests (the resumed or repeated downloads) go
+     * straight to it, see {@link com.king.app.updater.http.RedirectResolver}. The default is
+     * {@link Constants#DEFAULT_REDIRECT_CACHE_TTL_MILLIS}
+     *
+     * @param redirectCacheTtl time to live (milliseconds), 0 does not cache the final URL
+     */
+    public void setRedirectCacheTtl(long redirectCacheTtl) {
+        this.mRedirectCacheTtl = redirectCacheTtl;
+    }
+
+    @NonNull
+    public List<String> getMirrors() {
+        return mMirrors != null ? mMirrors : Collections.<String>emptyList();
+    }
+
+    /**
+     * Add a mirror of the APK: before the download starts, {@link #getUrl()} and the mirrors are probed in parallel and
+     * the fastest is used; if it fails or is slower than {@link #getMinBytesPerSecond()}, the download switches to the
+     * next one and continues from the bytes already downloaded. The mirrors must serve the same file
+     *
+     * @param url another download address of the APK
+     */
+    public void addMirror(@NonNull String url) {
+        if (mMirrors == null) {
+            mMirrors = new ArrayList<>();
+        }
+        if (!url.equals(mUrl) && !mMirrors.contains(url)) {
+            mMirrors.add(url);
+        }
+    }
+
+    public long getMinBytesPerSecond() {
+        return mMinBytesPerSecond;
+    }
+
+    /**
+     * Set the minimum download rate of a mirror: if the download is slower over the last
+     * {@link com.king.app.updater.http.ThroughputMonitor#WINDOW_MILLIS}, it switches to the next mirror (see
+     * {@link #addMirror(String)}), or reconnects to the last one, and resumes
+     *
+     * @param minBytesPerSecond bytes per second, by default ({@link Constants#NONE}) the download only switches when the
+     *                          mirror fails
+     */
+    public void setMinBytesPerSecond(long minBytesPerSecond) {
+        this.mMinBytesPerSecond = minBytesPerSecond;
+    }
+
+    public float getHedgePercentile() {
+        return mHedgePercentile;
+    }
+
+    /**
+     * Set the hedging of the requests that start the download: if the response headers have not arrived after the given
+     * percentile of the recent times to first byte, a second request is sent to the next mirror (or to the same
+     * address), the first response is kept and the other request is cancelled, see
+     * {@link com.king.app.updater.http.RequestHedger}
+     *
+     * @param hedgePercentile between 0 and 1, e.g. 0.95; by default ({@link Constants#NONE}) the requests are not hedged
+     */
+    public void setHedgePercentile(float hedgePercentile) {
+        this.mHedgePercentile = hedgePercentile;
+    }
+
+    public boolean isAutoRetry() {
+        return isAutoRetry;
+    }
+
+    /**
+     * Set whether a failed download is retried automatically: the transient errors (network errors, {@code 408},
+     * {@code 429} and {@code 5xx} responses) are retried after an exponential backoff with full jitter (a random delay
+     * between 0 and {@link #getRetryDelay()} * 2<sup>n</sup>, at most {@link #getMaxRetryDelay()}), or after the
+     * {@code Retry-After} delay requested by the server. The retries count as re-downloads ({@link #setReDownloads(int)}),
+     * when they are exhausted the error is reported as before
+     *
+     * @param autoRetry the default is true, it requires {@link #isReDownload()}
+     */
+    public void setAutoRetry(boolean autoRetry) {
+        isAutoRetry = autoRetry;
+    }
+
+    public long getRetryDelay() {
+        return mRetryDelay;
+    }
+
+    /**
+     * Set the base delay of the automatic retries, see {@link #setAutoRetry(boolean)}
+     *
+     * @param retryDelay milliseconds, the default is {@link Constants#DEFAULT_RETRY_DELAY_MILLIS}
+     */
+    public void setRetryDelay(long retryDelay) {
+        this.mRetryDelay = retryDelay;
+    }
+
+    public long getMaxRetryDelay() {
+        return mMaxRetryDelay;
+    }
+
+    /**
+     * Set the maximum delay of an automatic retry; if the server requests a longer {@code Retry-After}, the download is
+     * not retried automatically
+     *
+     * @param maxRetryDelay milliseconds, the default is {@link Constants#DEFAULT_MAX_RETRY_DELAY_MILLIS}
+     */
+    public void setMaxRetryDelay(long maxRetryDelay) {
+        this.mMaxRetryDelay = maxRetryDelay;
+    }
+
+    public long getConnectTimeout() {
+        return mConnectTimeout;
+    }
+
+    /**
+     * Set the timeout of the connection to the server (TCP and TLS handshakes)
+     *
+     * @param connectTimeout milliseconds, by default ({@link Constants#NONE}) the timeout of the
+     *                       {@link com.king.app.updater.http.IHttpManager}
+     */
+    public void setConnectTimeout(long connectTimeout) {
+        this.mConnectTimeout = connectTimeout;
+    }
+
+    public long getFirstByteTimeout() {
+        return mFirstByteTimeout;
+    }
+
+    /**
+     * Set the timeout of the time to first byte: the request is aborted if its response headers have not arrived after
+     * this delay
+     *
+     * @param firstByteTimeout milliseconds, by default ({@link Constants#NONE}) the timeout of the
+     *                         {@link com.king.app.updater.http.IHttpManager}
+     */
+    public void setFirstByteTimeout(long firstByteTimeout) {
+        this.mFirstByteTimeout = firstByteTimeout;
+    }
+
+    public long getTransferTimeout() {
+        return mTransferTimeout;
+    }
+
+    /**
+     * Set the timeout of the transfer: the connection is aborted if no data is received for this delay, the download
+     * reconnects (to the next mirror if there is one) and resumes, see {@link com.king.app.updater.http.ThroughputMonitor}.
+     * A connection that trickles data is caught by {@link #setMinBytesPerSecond(long)}
+     *
+     * @param transferTimeout milliseconds, by default ({@link Constants#NONE}) the timeout of the
+     *                        {@link com.king.app.updater.http.IHttpManager}
+     */
+    public void setTransferTimeout(long transferTimeout) {
+        this.mTransferTimeout = transferTimeout;
+    }
+
+    public long getDeadline() {
+        return mDeadline;
+    }
+
+    /**
+     * Set the maximum duration of a download, including its reconnections: the download fails when it is exceeded, it
+     * is not retried automatically
+     *
+     * @param deadline milliseconds, by default ({@link Constants#NONE}) there is no limit
+     */
+    public void setDeadline(long deadline) {
+        this.mDeadline = deadline;
+    }
+
+    public boolean isRequiresUnmeteredNetwork() {
+        return isRequiresUnmeteredNetwork;
+    }
+
+    /**
+     * Set whether the scheduled download ({@link AppUpdater#schedule()}) waits for an unmetered network (e.g. Wi-Fi), it
+     * is stopped and resumed later if the network becomes metered
+     *
+     * @param requiresUnmeteredNetwork the default is false: any network
+     */
+    public void setRequiresUnmeteredNetwork(boolean requiresUnmeteredNetwork) {
+        isRequiresUnmeteredNetwork = requiresUnmeteredNetwork;
+    }
+
+    public boolean isRequiresCharging() {
+        return isRequiresCharging;
+    }
+
+    /**
+     * Set whether the scheduled download ({@link AppUpdater#schedule()}) waits for the device to be charging
+     *
+     * @param requiresCharging the default is false
+     */
+    public void setRequiresCharging(boolean requiresCharging) {
+        isRequiresCharging = requiresCharging;
+    }
+
+    public boolean isRequiresDeviceIdle() {
+        return isRequiresDeviceIdle;
+    }
+
+    /**
+     * Set whether the scheduled download ({@link AppUpdater#schedule()}) waits for the device to be idle (not used for
+     * a while, e.g. at night), so that it does not compete with the user
+     *
+     * @param requiresDeviceIdle the default is false
+     */
+    public void setRequiresDeviceIdle(boolean requiresDeviceIdle) {
+        isRequiresDeviceIdle = requiresDeviceIdle;
+    }
+
     private void initRequestProperty() {
         if (mRequestProperty == null) {
             mRequestProperty = new HashMap<>();
@@ -414,6 +1019,196 @@ public class UpdateConfig implements Parcelable {
     }
 
 
+    /**
+     * Write the config to a {@link PersistableBundle}, e.g. the extras of a job that survive the updates of the App
+     * and the reboots (a {@link Parcel} must not be persisted). Each field has its own key, and the bundle is marked
+     * with {@link #PERSISTABLE_VERSION}
+     *
+     * @return
+     */
+    @NonNull
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public PersistableBundle toPersistableBundle() {
+        PersistableBundle bundle = new PersistableBundle();
+        bundle.putInt(KEY_PERSISTABLE_VERSION, PERSISTABLE_VERSION);
+        bundle.putString("url", mUrl);
+        bundle.putString("path", mPath);
+        bundle.putString("filename", mFilename);
+        putBoolean(bundle, "showNotification", isShowNotification);
+        putBoolean(bundle, "installApk", isInstallApk);
+        bundle.putInt("notificationIcon", mNotificationIcon);
+        bundle.putInt("notificationId", mNotificationId);
+        bundle.putString("channelId", mChannelId);
+        bundle.putString("channelName", mChannelName);
+        bundle.putString("authority", mAuthority);
+        putBoolean(bundle, "reDownload", isReDownload);
+        bundle.putInt("reDownloads", reDownloads);
+        putBoolean(bundle, "showPercentage", isShowPercentage);
+        putBoolean(bundle, "vibrate", isVibrate);
+        putBoolean(bundle, "sound", isSound);
+        bundle.putLong("versionCode", versionCode);
+        if (mRequestProperty != null) {
+            PersistableBundle requestProperty = new PersistableBundle();
+            for (Map.Entry<String, String> entry : mRequestProperty.entrySet()) {
+                requestProperty.putString(entry.getKey(), entry.getValue());
+            }
+            bundle.putPersistableBundle("requestProperty", requestProperty);
+        }
+        putBoolean(bundle, "deleteCancelFile", isDeleteCancelFile);
+        putBoolean(bundle, "supportCancelDownload", isSupportCancelDownload);
+        bundle.putString("apkMD5", apkMD5);
+        if (mChecksums != null) {
+            String[] algorithms = new String[mChecksums.size()];
+            String[] values = new String[mChecksums.size()];
+            for (int i = 0; i < mChecksums.size(); i++) {
+                algorithms[i] = mChecksums.get(i).getAlgorithm().name();
+                values[i] = mChecksums.get(i).getValue();
+            }
+            bundle.putStringArray("checksumAlgorithms", algorithms);
+            bundle.putStringArray("checksumValues", values);
+        }
+        bundle.putString("patchUrl", mPatchUrl);
+        bundle.putLong("patchBaseVersionCode", patchBaseVersionCode);
+        if (mPatchBaseChecksum != null) {
+            bundle.putString("patchBaseAlgorithm", mPatchBaseChecksum.getAlgorithm().name());
+            bundle.putString("patchBaseChecksum", mPatchBaseChecksum.getValue());
+        }
+        bundle.putLong("apkSize", apkSize);
+        bundle.putInt("bufferSize", mBufferSize);
+        putBoolean(bundle, "directBuffer", isDirectBuffer);
+        putBoolean(bundle, "pipelined", isPipelined);
+        bundle.putLong("progressInterval", mProgressInterval);
+        bundle.putString("jobId", mJobId);
+        bundle.putInt("priority", mPriority);
+        bundle.putLong("maxBytesPerSecond", mMaxBytesPerSecond);
+        putBoolean(bundle, "adaptiveBufferSize", isAdaptiveBufferSize);
+        bundle.putInt("maxRedirects", mMaxRedirects);
+        bundle.putLong("redirectCacheTtl", mRedirectCacheTtl);
+        if (mMirrors != null) {
+            bundle.putStringArray("mirrors", mMirrors.toArray(new String[mMirrors.size()]));
+        }
+        bundle.putLong("minBytesPerSecond", mMinBytesPerSecond);
+        bundle.putDouble("hedgePercentile", mHedgePercentile);
+        putBoolean(bundle, "autoRetry", isAutoRetry);
+        bundle.putLong("retryDelay", mRetryDelay);
+        bundle.putLong("maxRetryDelay", mMaxRetryDelay);
+        bundle.putLong("connectTimeout", mConnectTimeout);
+        bundle.putLong("firstByteTimeout", mFirstByteTimeout);
+        bundle.putLong("transferTimeout", mTransferTimeout);
+        bundle.putLong("deadline", mDeadline);
+        putBoolean(bundle, "requiresUnmeteredNetwork", isRequiresUnmeteredNetwork);
+        putBoolean(bundle, "requiresCharging", isRequiresCharging);
+        putBoolean(bundle, "requiresDeviceIdle", isRequiresDeviceIdle);
+        return bundle;
+    }
+
+    /**
+     * Read a config written by {@link #toPersistableBundle()}, the fields that are missing keep their default values
+     *
+     * @param bundle {@link PersistableBundle}
+     * @return Returns null if the bundle has another {@link #PERSISTABLE_VERSION}, or an invalid value
+     */
+    @Nullable
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public static UpdateConfig fromPersistableBundle(@Nullable PersistableBundle bundle) {
+        if (bundle == null || bundle.getInt(KEY_PERSISTABLE_VERSION, Constants.NONE) != PERSISTABLE_VERSION) {
+            return null;
+        }
+        UpdateConfig config = new UpdateConfig();
+        try {
+            config.mUrl = bundle.getString("url");
+            config.mPath = bundle.getString("path");
+            config.mFilename = bundle.getString("filename");
+            config.isShowNotification = getBoolean(bundle, "showNotification", config.isShowNotification);
+            config.isInstallApk = getBoolean(bundle, "installApk", config.isInstallApk);
+            config.mNotificationIcon = bundle.getInt("notificationIcon", config.mNotificationIcon);
+            config.mNotificationId = bundle.getInt("notificationId", config.mNotificationId);
+            config.mChannelId = bundle.getString("channelId");
+            config.mChannelName = bundle.getString("channelName");
+            config.mAuthority = bundle.getString("authority");
+            config.isReDownload = getBoolean(bundle, "reDownload", config.isReDownload);
+            config.reDownloads = bundle.getInt("reDownloads", config.reDownloads);
+            config.isShowPercentage = getBoolean(bundle, "showPercentage", config.isShowPercentage);
+            config.isVibrate = getBoolean(bundle, "vibrate", config.isVibrate);
+            config.isSound = getBoolean(bundle, "sound", config.isSound);
+            config.versionCode = bundle.getLong("versionCode", config.versionCode);
+            PersistableBundle requestProperty = bundle.getPersistableBundle("requestProperty");
+            if (requestProperty != null) {
+                config.initRequestProperty();
+                for (String key : requestProperty.keySet()) {
+                    config.mRequestProperty.put(key, requestProperty.getString(key));
+                }
+            }
+            config.isDeleteCancelFile = getBoolean(bundle, "deleteCancelFile", config.isDeleteCancelFile);
+            config.isSupportCancelDownload = getBoolean(bundle, "supportCancelDownload", config.isSupportCancelDownload);
+            config.apkMD5 = bundle.getString("apkMD5");
+            String[] algorithms = bundle.getStringArray("checksumAlgorithms");
+            String[] values = bundle.getStringArray("checksumValues");
+            if (algorithms != null && values != null && algorithms.length == values.length) {
+                config.mChecksums = new ArrayList<>(algorithms.length);
+                for (int i = 0; i < algorithms.length; i++) {
+                    config.mChecksums.add(new ApkChecksum(ChecksumAlgorithm.valueOf(algorithms[i]), values[i]));
+                }
+            } else if (algorithms != null || values != null) {
+                return null;
+            }
+            config.mPatchUrl = bundle.getString("patchUrl");
+            config.patchBaseVersionCode = bundle.getLong("patchBaseVersionCode", config.patchBaseVersionCode);
+            String patchBaseAlgorithm = bundle.getString("patchBaseAlgorithm");
+            String patchBaseChecksum = bundle.getString("patchBaseChecksum");
+            if (patchBaseAlgorithm != null && patchBaseChecksum != null) {
+                config.mPatchBaseChecksum = new ApkChecksum(ChecksumAlgorithm.valueOf(patchBaseAlgorithm), patchBaseChecksum);
+            }
+            config.apkSize = bundle.getLong("apkSize", config.apkSize);
+            config.mBufferSize = bundle.getInt("bufferSize", config.mBufferSize);
+            config.isDirectBuffer = getBoolean(bundle, "directBuffer", config.isDirectBuffer);
+            config.isPipelined = getBoolean(bundle, "pipelined", config.isPipelined);
+            config.mProgressInterval = bundle.getLong("progressInterval", config.mProgressInterval);
+            config.mJobId = bundle.getString("jobId");
+            config.mPriority = bundle.getInt("priority", config.mPriority);
+            config.mMaxBytesPerSecond = bundle.getLong("maxBytesPerSecond", config.mMaxBytesPerSecond);
+            config.isAdaptiveBufferSize = getBoolean(bundle, "adaptiveBufferSize", config.isAdaptiveBufferSize);
+            config.mMaxRedirects = bundle.getInt("maxRedirects", config.mMaxRedirects);
+            config.mRedirectCacheTtl = bundle.getLong("redirectCacheTtl", config.mRedirectCacheTtl);
+            String[] mirrors = bundle.getStringArray("mirrors");
+            if (mirrors != null) {
+                config.mMirrors = new ArrayList<>(Arrays.asList(mirrors));
+            }
+            config.mMinBytesPerSecond = bundle.getLong("minBytesPerSecond", config.mMinBytesPerSecond);
+            config.mHedgePercentile = (float) bundle.getDouble("hedgePercentile", config.mHedgePercentile);
+            config.isAutoRetry = getBoolean(bundle, "autoRetry", config.isAutoRetry);
+            config.mRetryDelay = bundle.getLong("retryDelay", config.mRetryDelay);
+            config.mMaxRetryDelay = bundle.getLong("maxRetryDelay", config.mMaxRetryDelay);
+            config.mConnectTimeout = bundle.getLong("connectTimeout", config.mConnectTimeout);
+            config.mFirstByteTimeout = bundle.getLong("firstByteTimeout", config.mFirstByteTimeout);
+            config.mTransferTimeout = bundle.getLong("transferTimeout", config.mTransferTimeout);
+            config.mDeadline = bundle.getLong("deadline", config.mDeadline);
+            config.isRequiresUnmeteredNetwork = getBoolean(bundle, "requiresUnmeteredNetwork", config.isRequiresUnmeteredNetwork);
+            config.isRequiresCharging = getBoolean(bundle, "requiresCharging", config.isRequiresCharging);
+            config.isRequiresDeviceIdle = getBoolean(bundle, "requiresDeviceIdle", config.isRequiresDeviceIdle);
+        } catch (IllegalArgumentException e) {
+            // An unknown checksum algorithm
+            return null;
+        }
+        if (TextUtils.isEmpty(config.mUrl)) {
+            return null;
+        }
+        return config;
+    }
+
+    /**
+     * {@link PersistableBundle#putBoolean(String, boolean)} requires API 22
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private static void putBoolean(PersistableBundle bundle, String key, boolean value) {
+        bundle.putInt(key, value ? 1 : 0);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private static boolean getBoolean(PersistableBundle bundle, String key, boolean defaultValue) {
+        return bundle.getInt(key, defaultValue ? 1 : 0) != 0;
+    }
+
     @Override
     public int describeContents() {
         return 0;
@@ -450,6 +1245,43 @@ public class UpdateConfig implements Parcelable {
         dest.writeByte(this.isDeleteCancelFile ? (byte) 1 : (byte) 0);
         dest.writeByte(this.isSupportCancelDownload ? (byte) 1 : (byte) 0);
         dest.writeString(this.apkMD5);
+        if (mChecksums != null) {
+            dest.writeInt(this.mChecksums.size());
+            for (ApkChecksum checksum : this.mChecksums) {
+                dest.writeString(checksum.getAlgorithm().name());
+                dest.writeString(checksum.getValue());
+            }
+        } else {
+            dest.writeInt(0);
+        }
+        dest.writeString(this.mPatchUrl);
+        dest.writeLong(this.patchBaseVersionCode);
+        dest.writeString(this.mPatchBaseChecksum != null ? this.mPatchBaseChecksum.getAlgorithm().name() : null);
+        dest.writeString(this.mPatchBaseChecksum != null ? this.mPatchBaseChecksum.getValue() : null);
+        dest.writeLong(this.apkSize);
+        dest.writeInt(this.mBufferSize);
+        dest.writeByte(this.isDirectBuffer ? (byte) 1 : (byte) 0);
+        dest.writeByte(this.isPipelined ? (byte) 1 : (byte) 0);
+        dest.writeLong(this.mProgressInterval);
+        dest.writeString(this.mJobId);
+        dest.writeInt(this.mPriority);
+        dest.writeLong(this.mMaxBytesPerSecond);
+        dest.writeByte(this.isAdaptiveBufferSize ? (byte) 1 : (byte) 0);
+        dest.writeInt(this.mMaxRedirects);
+        dest.writeLong(this.mRedirectCacheTtl);
+        dest.writeStringList(this.mMirrors);
+        dest.writeLong(this.mMinBytesPerSecond);
+        dest.writeFloat(this.mHedgePercentile);
+        dest.writeByte(this.isAutoRetry ? (byte) 1 : (byte) 0);
+        dest.writeLong(this.mRetryDelay);
+        dest.writeLong(this.mMaxRetryDelay);
+        dest.writeLong(this.mConnectTimeout);
+        dest.writeLong(this.mFirstByteTimeout);
+        dest.writeLong(this.mTransferTimeout);
+        dest.writeLong(this.mDeadline);
+        dest.writeByte(this.isRequiresUnmeteredNetwork ? (byte) 1 : (byte) 0);
+        dest.writeByte(this.isRequiresCharging ? (byte) 1 : (byte) 0);
+        dest.writeByte(this.isRequiresDeviceIdle ? (byte) 1 : (byte) 0);
     }
 
     protected UpdateConfig(Parcel in) {
@@ -479,6 +1311,44 @@ public class UpdateConfig implements Parcelable {
         this.isDeleteCancelFile = in.readByte() != 0;
         this.isSupportCancelDownload = in.readByte() != 0;
         this.apkMD5 = in.readString();
+        int mChecksumsSize = in.readInt();
+        this.mChecksums = new ArrayList<>(mChecksumsSize);
+        for (int i = 0; i < mChecksumsSize; i++) {
+            ChecksumAlgorithm algorithm = ChecksumAlgorithm.valueOf(in.readString());
+            String value = in.readString();
+            this.mChecksums.add(new ApkChecksum(algorithm, value));
+        }
+        this.mPatchUrl = in.readString();
+        this.patchBaseVersionCode = in.readLong();
+        String patchBaseAlgorithm = in.readString();
+        String patchBaseChecksum = in.readString();
+        if (patchBaseAlgorithm != null && patchBaseChecksum != null) {
+            this.mPatchBaseChecksum = new ApkChecksum(ChecksumAlgorithm.valueOf(patchBaseAlgorithm), patchBaseChecksum);
+        }
+        this.apkSize = in.readLong();
+        this.mBufferSize = in.readInt();
+        this.isDirectBuffer = in.readByte() != 0;
+        this.isPipelined = in.readByte() != 0;
+        this.mProgressInterval = in.readLong();
+        this.mJobId = in.readString();
+        this.mPriority = in.readInt();
+        this.mMaxBytesPerSecond = in.readLong();
+        this.isAdaptiveBufferSize = in.readByte() != 0;
+        this.mMaxRedirects = in.readInt();
+        this.mRedirectCacheTtl = in.readLong();
+        this.mMirrors = in.createStringArrayList();
+        this.mMinBytesPerSecond = in.readLong();
+        this.mHedgePercentile = in.readFloat();
+        this.isAutoRetry = in.readByte() != 0;
+        this.mRetryDelay = in.readLong();
+        this.mMaxRetryDelay = in.readLong();
+        this.mConnectTimeout = in.readLong();
+        this.mFirstByteTimeout = in.readLong();
+        this.mTransferTimeout = in.readLong();
+        this.mDeadline = in.readLong();
+        this.isRequiresUnmeteredNetwork = in.readByte() != 0;
+        this.isRequiresCharging = in.readByte() != 0;
+        this.isRequiresDeviceIdle = in.readByte() != 0;
     }
 
     public static final Creator<UpdateConfig> CREATOR = new Creator<UpdateConfig>() {
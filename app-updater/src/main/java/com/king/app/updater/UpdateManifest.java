@@ -0,0 +1,222 @@
+package com.king.app.updater;
+
+import com.king.app.updater.checksum.ApkChecksum;
+import com.king.app.updater.checksum.ChecksumAlgorithm;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * UpdateManifest describes the latest version of the App, it is the JSON document fetched by {@link UpdateChecker}:
+ * <pre>
+ * {
+ *   "versionCode": 120,
+ *   "versionName": "1.2.0",
+ *   "url": "https://example.com/app-1.2.0.apk",
+ *   "size": 12345678,
+ *   "hashes": { "sha256": "...", "md5": "..." },
+ *   "mirrors": [ "https://mirror.example.com/app-1.2.0.apk" ],
+ *   "changelog": "..."
+ * }
+ * </pre>
+ * Only {@code versionCode} and {@code url} are required; the hashes of unsupported algorithms are ignored, and the
+ * changelog can also be an array of lines. {@link #toUpdateConfig()} creates the {@link UpdateConfig} of the download.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public final class UpdateManifest {
+
+    private static final String KEY_VERSION_CODE = "versionCode";
+    private static final String KEY_VERSION_NAME = "versionName";
+    private static final String KEY_URL = "url";
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_HASHES = "hashes";
+    private static final String KEY_MIRRORS = "mirrors";
+    private static final String KEY_CHANGELOG = "changelog";
+
+    private final long mVersionCode;
+
+    private final String mVersionName;
+
+    private final String mUrl;
+
+    private final long mSize;
+
+    private final List<ApkChecksum> mChecksums;
+
+    private final List<String> mMirrors;
+
+    private final String mChangelog;
+
+    private UpdateManifest(long versionCode, String versionName, String url, long size, List<ApkChecksum> checksums, List<String> mirrors, String changelog) {
+        this.mVersionCode = versionCode;
+        this.mVersionName = versionName;
+        this.mUrl = url;
+        this.mSize = size;
+        this.mChecksums = Collections.unmodifiableList(checksums);
+        this.mMirrors = Collections.unmodifiableList(mirrors);
+        this.mChangelog = changelog;
+    }
+
+    /**
+     * Parse the JSON manifest
+     *
+     * @param json the JSON manifest
+     * @return
+     * @throws JSONException if the JSON is invalid or {@code versionCode} or {@code url} is missing
+     */
+    @NonNull
+    public static UpdateManifest parse(@NonNull String json) throws JSONException {
+        JSONObject object = new JSONObject(json);
+        long versionCode = object.getLong(KEY_VERSION_CODE);
+        String url = object.getString(KEY_URL);
+        if (url.isEmpty()) {
+            throw new JSONException("The manifest has no url");
+        }
+
+        List<ApkChecksum> checksums = new ArrayList<>();
+        JSONObject hashes = object.optJSONObject(KEY_HASHES);
+        if (hashes != null) {
+            Iterator<String> keys = hashes.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                ChecksumAlgorithm algorithm = ChecksumAlgorithm.of(key);
+                String value = hashes.optString(key, null);
+                if (algorithm != null && value != null && !value.isEmpty()) {
+                    checksums.add(new ApkChecksum(algorithm, value));
+                }
+            }
+        }
+
+        List<String> mirrors = new ArrayList<>();
+        JSONArray array = object.optJSONArray(KEY_MIRRORS);
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                String mirror = array.optString(i, null);
+                if (mirror != null && !mirror.isEmpty() && !mirror.equals(url) && !mirrors.contains(mirror)) {
+                    mirrors.add(mirror);
+                }
+            }
+        }
+
+        String changelog;
+        JSONArray lines = object.optJSONArray(KEY_CHANGELOG);
+        if (lines != null) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < lines.length(); i++) {
+                if (i > 0) {
+                    sb.append('\n');
+                }
+                sb.append(lines.optString(i));
+            }
+            changelog = sb.toString();
+        } else {
+            changelog = optString(object, KEY_CHANGELOG);
+        }
+
+        return new UpdateManifest(versionCode, optString(object, KEY_VERSION_NAME), url, object.optLong(KEY_SIZE, 0), checksums, mirrors, changelog);
+    }
+
+    @Nullable
+    private static String optString(JSONObject object, String name) {
+        return object.isNull(name) ? null : object.optString(name);
+    }
+
+    public long getVersionCode() {
+        return mVersionCode;
+    }
+
+    @Nullable
+    public String getVersionName() {
+        return mVersionName;
+    }
+
+    @NonNull
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * Get the size of the APK
+     *
+     * @return 0 if it is unknown
+     */
+    public long getSize() {
+        return mSize;
+    }
+
+    @NonNull
+    public List<ApkChecksum> getChecksums() {
+        return mChecksums;
+    }
+
+    /**
+     * Get the other addresses of the APK
+     *
+     * @return
+     */
+    @NonNull
+    public List<String> getMirrors() {
+        return mMirrors;
+    }
+
+    @Nullable
+    public String getChangelog() {
+        return mChangelog;
+    }
+
+    /**
+     * Whether the manifest describes a version newer than the given one
+     *
+     * @param versionCode e.g. the versionCode of the installed App
+     * @return
+     */
+    public boolean isNewerThan(long versionCode) {
+        return mVersionCode > versionCode;
+    }
+
+    /**
+     * Create the {@link UpdateConfig} of the download: the url, the versionCode (so that a cached APK of the same version
+     * is installed without downloading), the size, the checksums and the mirrors of the manifest; the other options can be set on it
+     * before it is passed to {@link AppUpdater}
+     *
+     * @return
+     */
+    @NonNull
+    public UpdateConfig toUpdateConfig() {
+        UpdateConfig config = new UpdateConfig();
+        config.setUrl(mUrl);
+        config.setVersionCode(mVersionCode);
+        if (mSize > 0) {
+            config.setApkSize(mSize);
+        }
+        for (ApkChecksum checksum : mChecksums) {
+            config.addChecksum(checksum.getAlgorithm(), checksum.getValue());
+        }
+        for (String mirror : mMirrors) {
+            config.addMirror(mirror);
+        }
+        return config;
+    }
+
+    @Override
+    public String toString() {
+        return "UpdateManifest{" +
+                "versionCode=" + mVersionCode +
+                ", versionName='" + mVersionName + '\'' +
+                ", url='" + mUrl + '\'' +
+                ", size=" + mSize +
+                ", checksums=" + mChecksums +
+                ", mirrors=" + mMirrors +
+                '}';
+    }
+}
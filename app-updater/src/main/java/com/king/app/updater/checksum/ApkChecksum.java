@@ -0,0 +1,62 @@
+package com.king.app.updater.checksum;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A checksum of the APK file: the algorithm and the value as a hexadecimal string
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public class ApkChecksum {
+
+    private final ChecksumAlgorithm mAlgorithm;
+
+    private final String mValue;
+
+    /**
+     * Construction
+     *
+     * @param algorithm {@link ChecksumAlgorithm}
+     * @param value     hexadecimal string (case insensitive); a CRC32C is written as 8 digits, e.g. {@code e3069283}
+     */
+    public ApkChecksum(@NonNull ChecksumAlgorithm algorithm, @NonNull String value) {
+        this.mAlgorithm = algorithm;
+        this.mValue = value.trim();
+    }
+
+    @NonNull
+    public ChecksumAlgorithm getAlgorithm() {
+        return mAlgorithm;
+    }
+
+    @NonNull
+    public String getValue() {
+        return mValue;
+    }
+
+    /**
+     * Whether the given checksum has the same algorithm and value
+     *
+     * @param checksum
+     * @return
+     */
+    public boolean matches(ApkChecksum checksum) {
+        return checksum != null && mAlgorithm == checksum.mAlgorithm && mValue.equalsIgnoreCase(checksum.mValue);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ApkChecksum && matches((ApkChecksum) o);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mAlgorithm.hashCode() + mValue.toLowerCase().hashCode();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return mAlgorithm.getName() + ":" + mValue;
+    }
+}
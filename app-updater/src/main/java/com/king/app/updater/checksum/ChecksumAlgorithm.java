@@ -0,0 +1,56 @@
+package com.king.app.updater.checksum;
+
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Checksum algorithms supported by {@link ChecksumVerifier}, from the weakest to the strongest
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public enum ChecksumAlgorithm {
+    /**
+     * CRC-32C (Castagnoli): very cheap, enough to detect a corrupted transfer, but not a cryptographic hash
+     */
+    CRC32C("CRC32C"),
+    MD5("MD5"),
+    SHA_256("SHA-256"),
+    SHA_512("SHA-512");
+
+    private final String mName;
+
+    ChecksumAlgorithm(String name) {
+        this.mName = name;
+    }
+
+    /**
+     * Get the standard name of the algorithm, e.g. {@code SHA-256}, it is also the name used by {@link java.security.MessageDigest}
+     *
+     * @return
+     */
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Get the algorithm by its name, both {@code SHA-256} and {@code SHA_256} (case insensitive) are accepted
+     *
+     * @param name algorithm name
+     * @return Returns null if the algorithm is not supported
+     */
+    @Nullable
+    public static ChecksumAlgorithm of(@Nullable String name) {
+        if (name != null) {
+            String value = name.trim().toUpperCase(Locale.US).replace('_', '-');
+            for (ChecksumAlgorithm algorithm : values()) {
+                if (algorithm.mName.equals(value) || algorithm.mName.replace("-", "").equals(value)) {
+                    return algorithm;
+                }
+            }
+        }
+        return null;
+    }
+}
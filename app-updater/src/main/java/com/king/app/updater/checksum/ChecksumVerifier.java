@@ -0,0 +1,165 @@
+package com.king.app.updater.checksum;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * ChecksumVerifier verifies a file against the expected checksums.
+ * <p>When several checksums are expected, the strongest algorithm available on the device is verified (the order of
+ * {@link ChecksumAlgorithm}), e.g. the {@code SHA-256} rather than the {@code CRC32C}: a weaker checksum is never
+ * accepted in its place. It is computed with the fastest provider of the algorithm (see {@link HasherProvider}), the
+ * first {@link #newHasher()} measures the providers, it should be made on a background thread.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public class ChecksumVerifier {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final List<ApkChecksum> mChecksums;
+
+    private ChecksumAlgorithm mAlgorithm;
+
+    /**
+     * Construction
+     *
+     * @param checksums the expected checksums, can be null or empty (nothing is verified)
+     */
+    public ChecksumVerifier(@Nullable List<ApkChecksum> checksums) {
+        this.mChecksums = checksums != null ? new ArrayList<>(checksums) : Collections.<ApkChecksum>emptyList();
+    }
+
+    /**
+     * Whether there is no expected checksum
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return mChecksums.isEmpty();
+    }
+
+    @NonNull
+    public List<ApkChecksum> getChecksums() {
+        return Collections.unmodifiableList(mChecksums);
+    }
+
+    /**
+     * Get the expected checksum of the algorithm
+     *
+     * @param algorithm {@link ChecksumAlgorithm}
+     * @return Returns null if it is not expected
+     */
+    @Nullable
+    public ApkChecksum getExpected(@NonNull ChecksumAlgorithm algorithm) {
+        for (ApkChecksum checksum : mChecksums) {
+            if (checksum.getAlgorithm() == algorithm) {
+                return checksum;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the algorithm used to verify: the strongest one on the device among the expected checksums
+     *
+     * @return Returns null if there is no expected checksum whose algorithm is available
+     */
+    @Nullable
+    public synchronized ChecksumAlgorithm getAlgorithm() {
+        if (mAlgorithm == null) {
+            for (ApkChecksum checksum : mChecksums) {
+                ChecksumAlgorithm algorithm = checksum.getAlgorithm();
+                if ((mAlgorithm == null || algorithm.compareTo(mAlgorithm) > 0) && HasherProvider.isAvailable(algorithm)) {
+                    mAlgorithm = algorithm;
+                }
+            }
+        }
+        return mAlgorithm;
+    }
+
+    /**
+     * Create a hasher of the algorithm used to verify, so the checksum can be computed while the file is written
+     *
+     * @return Returns null if there is nothing to verify
+     */
+    @Nullable
+    public IHasher newHasher() {
+        ChecksumAlgorithm algorithm = getAlgorithm();
+        return algorithm != null ? HasherProvider.newHasher(algorithm) : null;
+    }
+
+    /**
+     * Whether the computed checksum can be verified, i.e. it is computed with {@link #getAlgorithm()}
+     *
+     * @param actual the computed checksum
+     * @return
+     */
+    public boolean canVerify(@Nullable ApkChecksum actual) {
+        return actual != null && actual.getAlgorithm() == getAlgorithm();
+    }
+
+    /**
+     * Verify the computed checksum
+     *
+     * @param actual the computed checksum
+     * @return Returns true if it is computed with {@link #getAlgorithm()} and matches the expected checksum
+     */
+    public boolean verify(@Nullable ApkChecksum actual) {
+        if (!canVerify(actual)) {
+            return false;
+        }
+        ApkChecksum expected = getExpected(actual.getAlgorithm());
+        return expected != null && expected.matches(actual);
+    }
+
+    /**
+     * Read the file and compute its checksum with the algorithm used to verify
+     *
+     * @param file
+     * @return Returns null if there is nothing to verify
+     * @throws IOException
+     */
+    @Nullable
+    public ApkChecksum compute(@NonNull File file) throws IOException {
+        IHasher hasher = newHasher();
+        if (hasher == null) {
+            return null;
+        }
+        update(hasher, file, file.length());
+        return new ApkChecksum(hasher.getAlgorithm(), hasher.digest());
+    }
+
+    /**
+     * Update the hasher with the first bytes of the file (e.g. the data already downloaded when a download is resumed)
+     *
+     * @param hasher {@link IHasher}
+     * @param file   file
+     * @param length number of bytes to read from the beginning of the file
+     * @throws IOException
+     */
+    public static void update(@NonNull IHasher hasher, @NonNull File file, long length) throws IOException {
+        FileInputStream fileInputStream = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = length;
+            int len;
+            while (remaining > 0 && (len = fileInputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                hasher.update(buffer, 0, len);
+                remaining -= len;
+            }
+            if (remaining > 0) {
+                throw new IOException(String.format(Locale.getDefault(), "Unexpected end of file: %d/%d", length - remaining, length));
+            }
+        } finally {
+            fileInputStream.close();
+        }
+    }
+}
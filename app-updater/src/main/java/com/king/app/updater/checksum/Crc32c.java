@@ -0,0 +1,71 @@
+package com.king.app.updater.checksum;
+
+import java.util.zip.Checksum;
+
+/**
+ * Software CRC-32C (Castagnoli, polynomial {@code 0x1EDC6F41}), used when the platform does not provide
+ * {@code java.util.zip.CRC32C}. It processes 8 bytes per step with the slicing-by-8 tables.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public final class Crc32c implements Checksum {
+
+    /**
+     * The reversed polynomial
+     */
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    private static final int[][] TABLES = new int[8][256];
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int crc = n;
+            for (int k = 0; k < 8; k++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLES[0][n] = crc;
+        }
+        for (int n = 0; n < 256; n++) {
+            for (int k = 1; k < 8; k++) {
+                int crc = TABLES[k - 1][n];
+                TABLES[k][n] = (crc >>> 8) ^ TABLES[0][crc & 0xFF];
+            }
+        }
+    }
+
+    private int mCrc = 0xFFFFFFFF;
+
+    @Override
+    public void update(int b) {
+        mCrc = (mCrc >>> 8) ^ TABLES[0][(mCrc ^ b) & 0xFF];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        final int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+        final int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+        int crc = mCrc;
+        while (len >= 8) {
+            int low = crc ^ ((b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24);
+            int high = (b[off + 4] & 0xFF) | (b[off + 5] & 0xFF) << 8 | (b[off + 6] & 0xFF) << 16 | (b[off + 7] & 0xFF) << 24;
+            crc = t7[low & 0xFF] ^ t6[(low >>> 8) & 0xFF] ^ t5[(low >>> 16) & 0xFF] ^ t4[low >>> 24]
+                    ^ t3[high & 0xFF] ^ t2[(high >>> 8) & 0xFF] ^ t1[(high >>> 16) & 0xFF] ^ t0[high >>> 24];
+            off += 8;
+            len -= 8;
+        }
+        while (len-- > 0) {
+            crc = (crc >>> 8) ^ t0[(crc ^ b[off++]) & 0xFF];
+        }
+        mCrc = crc;
+    }
+
+    @Override
+    public long getValue() {
+        return (~mCrc) & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset() {
+        mCrc = 0xFFFFFFFF;
+    }
+}
@@ -0,0 +1,282 @@
+package com.king.app.updater.checksum;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Checksum;
+
+import androidx.annotation.NonNull;
+
+/**
+ * HasherProvider creates the {@link IHasher} of an algorithm with the fastest implementation available on the device.
+ * <p>An algorithm may be implemented by several providers (e.g. the security providers of {@link MessageDigest}, or
+ * {@code java.util.zip.CRC32C} and {@link Crc32c}). The first time an algorithm is used, each provider hashes a small
+ * buffer and the fastest one is kept for the rest of the process.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public final class HasherProvider {
+
+    /**
+     * Provider name of {@code java.util.zip.CRC32C} (Java 9+)
+     */
+    public static final String PLATFORM_CRC32C = "java.util.zip.CRC32C";
+    /**
+     * Provider name of {@link Crc32c}
+     */
+    public static final String SOFTWARE_CRC32C = "Crc32c";
+
+    /**
+     * Size of the buffer hashed to measure a provider
+     */
+    private static final int CALIBRATION_SIZE = 64 * 1024;
+    /**
+     * Number of times the buffer is hashed: the first passes warm up the provider, the last one is measured
+     */
+    private static final int CALIBRATION_PASSES = 3;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The fastest provider of each algorithm
+     */
+    private static final Map<ChecksumAlgorithm, String> sProviders = new EnumMap<>(ChecksumAlgorithm.class);
+    /**
+     * The time (nanoseconds) taken by the fastest provider of each algorithm to hash the calibration buffer
+     */
+    private static final Map<ChecksumAlgorithm, Long> sCosts = new EnumMap<>(ChecksumAlgorithm.class);
+
+    private HasherProvider() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Get the names of the providers that implement the algorithm
+     *
+     * @param algorithm {@link ChecksumAlgorithm}
+     * @return
+     */
+    @NonNull
+    public static List<String> getProviders(@NonNull ChecksumAlgorithm algorithm) {
+        List<String> providers = new ArrayList<>();
+        if (algorithm == ChecksumAlgorithm.CRC32C) {
+            if (getPlatformCrc32c() != null) {
+                providers.add(PLATFORM_CRC32C);
+            }
+            providers.add(SOFTWARE_CRC32C);
+        } else {
+            Provider[] array = Security.getProviders("MessageDigest." + algorithm.getName());
+            if (array != null) {
+                for (Provider provider : array) {
+                    providers.add(provider.getName());
+                }
+            }
+        }
+        return providers;
+    }
+
+    /**
+     * Whether the algorithm is available on the device
+     *
+     * @param algorithm {@link ChecksumAlgorithm}
+     * @return
+     */
+    public static boolean isAvailable(@NonNull ChecksumAlgorithm algorithm) {
+        return !getProviders(algorithm).isEmpty();
+    }
+
+    /**
+     * Create a hasher with the fastest provider of the algorithm; the providers are measured the first time
+     *
+     * @param algorithm {@link ChecksumAlgorithm}
+     * @return
+     * @throws IllegalArgumentException if the algorithm is not available
+     */
+    @NonNull
+    public static IHasher newHasher(@NonNull ChecksumAlgorithm algorithm) {
+        return newHasher(algorithm, getFastestProvider(algorithm));
+    }
+
+    /**
+     * Create a hasher with the given provider
+     *
+     * @param algorithm {@link ChecksumAlgorithm}
+     * @param provider  one of {@link #getProviders(ChecksumAlgorithm)}
+     * @return
+     * @throws IllegalArgumentException if the provider does not implement the algorithm
+     */
+    @NonNull
+    public static IHasher newHasher(@NonNull ChecksumAlgorithm algorithm, @NonNull String provider) {
+        if (algorithm == ChecksumAlgorithm.CRC32C) {
+            if (SOFTWARE_CRC32C.equals(provider)) {
+                return new ChecksumHasher(algorithm, new Crc32c());
+            }
+            Class<?> clazz = PLATFORM_CRC32C.equals(provider) ? getPlatformCrc32c() : null;
+            if (clazz != null) {
+                try {
+                    return new ChecksumHasher(algorithm, (Checksum) clazz.newInstance());
+                } catch (Exception e) {
+                    throw new IllegalArgumentException(e);
+                }
+            }
+            throw new IllegalArgumentException(provider + " does not implement " + algorithm.getName());
+        }
+        try {
+            return new MessageDigestHasher(algorithm, MessageDigest.getInstance(algorithm.getName(), provider));
+        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Get the time taken by the fastest provider of the algorithm to hash the calibration buffer, it is used to compare
+     * the algorithms on the device
+     *
+     * @param algorithm {@link ChecksumAlgorithm}
+     * @return nanoseconds, or {@link Long#MAX_VALUE} if the algorithm is not available
+     */
+    public static long getCost(@NonNull ChecksumAlgorithm algorithm) {
+        synchronized (sProviders) {
+            if (!sCosts.containsKey(algorithm)) {
+                calibrate(algorithm);
+            }
+            return sCosts.get(algorithm);
+        }
+    }
+
+    @NonNull
+    private static String getFastestProvider(@NonNull ChecksumAlgorithm algorithm) {
+        synchronized (sProviders) {
+            if (!sCosts.containsKey(algorithm)) {
+                calibrate(algorithm);
+            }
+            String provider = sProviders.get(algorithm);
+            if (provider == null) {
+                throw new IllegalArgumentException(algorithm.getName() + " is not available");
+            }
+            return provider;
+        }
+    }
+
+    private static void calibrate(ChecksumAlgorithm algorithm) {
+        byte[] data = new byte[CALIBRATION_SIZE];
+        new Random(CALIBRATION_SIZE).nextBytes(data);
+        String fastest = null;
+        long cost = Long.MAX_VALUE;
+        for (String provider : getProviders(algorithm)) {
+            IHasher hasher;
+            try {
+                hasher = newHasher(algorithm, provider);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            long time = 0;
+            for (int i = 0; i < CALIBRATION_PASSES; i++) {
+                long start = System.nanoTime();
+                hasher.update(data, 0, data.length);
+                hasher.digest();
+                time = System.nanoTime() - start;
+            }
+            if (fastest == null || time < cost) {
+                fastest = provider;
+                cost = time;
+            }
+        }
+        sProviders.put(algorithm, fastest);
+        sCosts.put(algorithm, cost);
+    }
+
+    private static Class<?> getPlatformCrc32c() {
+        try {
+            return Class.forName(PLATFORM_CRC32C);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Convert bytes to a lowercase hexadecimal string
+     */
+    static String toHexString(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0F];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0F];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * {@link IHasher} implemented by {@link MessageDigest}
+     */
+    private static class MessageDigestHasher implements IHasher {
+
+        private final ChecksumAlgorithm algorithm;
+
+        private final MessageDigest messageDigest;
+
+        MessageDigestHasher(ChecksumAlgorithm algorithm, MessageDigest messageDigest) {
+            this.algorithm = algorithm;
+            this.messageDigest = messageDigest;
+        }
+
+        @NonNull
+        @Override
+        public ChecksumAlgorithm getAlgorithm() {
+            return algorithm;
+        }
+
+        @Override
+        public void update(byte[] input, int offset, int len) {
+            messageDigest.update(input, offset, len);
+        }
+
+        @NonNull
+        @Override
+        public String digest() {
+            return toHexString(messageDigest.digest());
+        }
+    }
+
+    /**
+     * {@link IHasher} implemented by {@link Checksum}, the value is formatted as 8 hexadecimal digits
+     */
+    private static class ChecksumHasher implements IHasher {
+
+        private final ChecksumAlgorithm algorithm;
+
+        private final Checksum checksum;
+
+        ChecksumHasher(ChecksumAlgorithm algorithm, Checksum checksum) {
+            this.algorithm = algorithm;
+            this.checksum = checksum;
+        }
+
+        @NonNull
+        @Override
+        public ChecksumAlgorithm getAlgorithm() {
+            return algorithm;
+        }
+
+        @Override
+        public void update(byte[] input, int offset, int len) {
+            checksum.update(input, offset, len);
+        }
+
+        @NonNull
+        @Override
+        public String digest() {
+            String value = String.format(Locale.US, "%08x", checksum.getValue());
+            checksum.reset();
+            return value;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.king.app.updater.checksum;
+
+import androidx.annotation.NonNull;
+
+/**
+ * IHasher computes the checksum of a stream incrementally, it is created by {@link HasherProvider}
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public interface IHasher {
+
+    /**
+     * Get the algorithm
+     *
+     * @return
+     */
+    @NonNull
+    ChecksumAlgorithm getAlgorithm();
+
+    /**
+     * Update the checksum with the given bytes
+     *
+     * @param input
+     * @param offset
+     * @param len
+     */
+    void update(byte[] input, int offset, int len);
+
+    /**
+     * Complete the computation, the hasher is reset afterwards
+     *
+     * @return The checksum as a lowercase hexadecimal string
+     */
+    @NonNull
+    String digest();
+}
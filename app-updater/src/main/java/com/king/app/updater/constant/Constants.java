@@ -29,4 +29,30 @@ public final class Constants {
 
     public static final long MINIMUM_INTERVAL_MILLIS = 200L;
 
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    public static final String KEY_JOB_ID = "app_update_job_id";
+
+    public static final String KEY_NOTIFY_ID = "app_update_notify_id";
+
+    public static final int DEFAULT_PRIORITY = 0;
+
+    public static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 3;
+
+    public static final int DEFAULT_MAX_DOWNLOADS_PER_HOST = 2;
+
+    public static final int DEFAULT_MAX_REDIRECTS = 5;
+
+    public static final long DEFAULT_REDIRECT_CACHE_TTL_MILLIS = 30 * 60 * 1000L;
+
+    public static final long DEFAULT_MANIFEST_MAX_AGE_MILLIS = 10 * 60 * 1000L;
+
+    public static final long DEFAULT_MANIFEST_STALE_MILLIS = 24 * 60 * 60 * 1000L;
+
+    public static final long DEFAULT_HEDGE_DELAY_MILLIS = 1000L;
+
+    public static final long DEFAULT_RETRY_DELAY_MILLIS = 2000L;
+
+    public static final long DEFAULT_MAX_RETRY_DELAY_MILLIS = 5 * 60 * 1000L;
+
 }
\ No newline at end of file
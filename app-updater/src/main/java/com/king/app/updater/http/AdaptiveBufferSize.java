@@ -0,0 +1,141 @@
+package com.king.app.updater.http;
+
+import java.util.Locale;
+
+/**
+ * AdaptiveBufferSize chooses the buffer size of an {@link IDownloadWriter} from the measured throughput: the bytes read
+ * are counted over windows of {@link #WINDOW_MILLIS}, and the size follows the data of {@link #TARGET_FILL_MILLIS} at
+ * that rate, between the bounds. A fast network gets large reads and writes (fewer system calls), a slow one gets small
+ * buffers, so the data still reaches the file (and the resume position) regularly.
+ * <p>The size grows by powers of two up to the target as soon as the target is at least twice the size (a fast network
+ * is used at once), and is halved once per window while the target is less than half the size, so it does not
+ * oscillate. The writer applies the new size when its buffer is empty, the buffers are recycled by {@link BufferPool}.
+ * <p>It is used by the reading thread of one writer, it is not thread safe.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public class AdaptiveBufferSize {
+
+    /**
+     * Default maximum size of the buffer
+     */
+    public static final int MAX_BUFFER_SIZE = 1024 * 1024;
+    /**
+     * Duration of a measure of the throughput
+     */
+    private static final long WINDOW_MILLIS = 250L;
+    /**
+     * The buffer holds the data read in this duration
+     */
+    private static final long TARGET_FILL_MILLIS = 100L;
+
+    private final int mMinSize;
+
+    private final int mMaxSize;
+
+    private int mSize;
+
+    private long mWindowStartNanos;
+
+    private long mWindowBytes;
+
+    private boolean isStarted;
+    /**
+     * The throughput of the last window
+     */
+    private long mBytesPerSecond;
+
+    private int mSmallestSize;
+
+    private int mLargestSize;
+
+    private int mResizeCount;
+
+    /**
+     * Construction
+     *
+     * @param initialSize the size until the first measure
+     * @param minSize     minimum size
+     * @param maxSize     maximum size
+     */
+    public AdaptiveBufferSize(int initialSize, int minSize, int maxSize) {
+        this.mMinSize = Math.max(DownloadWriter.MIN_BUFFER_SIZE, minSize);
+        this.mMaxSize = Math.max(mMinSize, maxSize);
+        this.mSize = Math.min(mMaxSize, Math.max(mMinSize, initialSize));
+        this.mSmallestSize = mSize;
+        this.mLargestSize = mSize;
+    }
+
+    /**
+     * Get the current size of the buffer
+     *
+     * @return
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Count the bytes read, the size is updated at the end of each window
+     *
+     * @param bytes number of bytes read
+     */
+    public void onRead(int bytes) {
+        long now = System.nanoTime();
+        if (!isStarted) {
+            isStarted = true;
+            mWindowStartNanos = now;
+        }
+        mWindowBytes += bytes;
+        long elapsed = now - mWindowStartNanos;
+        if (elapsed < WINDOW_MILLIS * 1000000L) {
+            return;
+        }
+        mBytesPerSecond = (long) (mWindowBytes * 1e9 / elapsed);
+        mWindowStartNanos = now;
+        mWindowBytes = 0;
+
+        long target = mBytesPerSecond * TARGET_FILL_MILLIS / 1000L;
+        int size = mSize;
+        if (target >= 2L * size) {
+            while (size < mMaxSize && target >= 2L * size) {
+                size = (int) Math.min(mMaxSize, 2L * size);
+            }
+        } else if (target < size / 2) {
+            size = Math.max(mMinSize, size / 2);
+        }
+        if (size != mSize) {
+            mSize = size;
+            mResizeCount++;
+            mSmallestSize = Math.min(mSmallestSize, size);
+            mLargestSize = Math.max(mLargestSize, size);
+        }
+    }
+
+    /**
+     * Get the throughput of the last window
+     *
+     * @return bytes per second, 0 before the first window
+     */
+    public long getBytesPerSecond() {
+        return mBytesPerSecond;
+    }
+
+    public int getSmallestSize() {
+        return mSmallestSize;
+    }
+
+    public int getLargestSize() {
+        return mLargestSize;
+    }
+
+    public int getResizeCount() {
+        return mResizeCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "AdaptiveBufferSize{size=%d, smallest=%d, largest=%d, resizes=%d, bytesPerSecond=%d}",
+                mSize, mSmallestSize, mLargestSize, mResizeCount, mBytesPerSecond);
+    }
+}
@@ -0,0 +1,124 @@
+package com.king.app.updater.http;
+
+import java.util.concurrent.Executor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * BackgroundTask runs {@link #doInBackground()} on an injected {@link Executor} and delivers its lifecycle on the
+ * executor of the callbacks, it replaces {@code AsyncTask} which runs on the single global serial executor of the app.
+ * <p>{@link #onPreExecute()} is delivered before the task is started, then either {@link #onPostExecute(Object)} or,
+ * if the task was cancelled, {@link #onCancelled()}. The executor of the callbacks should run the tasks in order,
+ * see {@link DownloadExecutors#newSerialExecutor(Executor)}.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public abstract class BackgroundTask<Result> implements Runnable {
+
+    private final Executor mCallbackExecutor;
+
+    private volatile boolean isCancelled;
+
+    private volatile boolean isStarted;
+
+    private volatile Thread mThread;
+
+    /**
+     * Construction
+     *
+     * @param callbackExecutor the executor of {@link #onPreExecute()}, {@link #onPostExecute(Object)} and {@link #onCancelled()}
+     */
+    public BackgroundTask(@NonNull Executor callbackExecutor) {
+        this.mCallbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Execute the task
+     *
+     * @param executor the executor of {@link #doInBackground()}
+     * @return
+     */
+    public final BackgroundTask<Result> execute(@NonNull Executor executor) {
+        if (isStarted) {
+            throw new IllegalStateException("Cannot execute task: the task has already been executed.");
+        }
+        isStarted = true;
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                onPreExecute();
+            }
+        });
+        executor.execute(this);
+        return this;
+    }
+
+    @Override
+    public final void run() {
+        Result result = null;
+        mThread = Thread.currentThread();
+        try {
+            if (!isCancelled) {
+                result = doInBackground();
+            }
+        } finally {
+            mThread = null;
+            // Do not leave the interrupt of cancel(true) to the next task of the thread
+            Thread.interrupted();
+            deliverResult(result);
+        }
+    }
+
+    private void deliverResult(@Nullable final Result result) {
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (isCancelled) {
+                    onCancelled();
+                } else {
+                    onPostExecute(result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Cancel the task, {@link #onCancelled()} is delivered instead of {@link #onPostExecute(Object)}
+     *
+     * @param mayInterruptIfRunning whether to interrupt the thread executing {@link #doInBackground()}
+     * @return
+     */
+    public final boolean cancel(boolean mayInterruptIfRunning) {
+        isCancelled = true;
+        Thread thread = mThread;
+        if (mayInterruptIfRunning && thread != null) {
+            thread.interrupt();
+        }
+        return true;
+    }
+
+    public final boolean isCancelled() {
+        return isCancelled;
+    }
+
+    /**
+     * Executed on the executor of the task
+     *
+     * @return
+     */
+    @Nullable
+    protected abstract Result doInBackground();
+
+    protected void onPreExecute() {
+
+    }
+
+    protected void onPostExecute(@Nullable Result result) {
+
+    }
+
+    protected void onCancelled() {
+
+    }
+}
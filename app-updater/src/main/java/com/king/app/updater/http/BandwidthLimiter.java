@@ -0,0 +1,203 @@
+package com.king.app.updater.http;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * BandwidthLimiter limits the download rate with a token bucket: the bucket fills at {@link #getBytesPerSecond()} and
+ * holds at most the bytes of {@link #BURST_MILLIS}, each chunk read from the network takes its size from it and the
+ * download waits when the bucket is empty. The bytes are reserved in order, so the downloads sharing a limiter share the
+ * bandwidth fairly.
+ * <p>The downloads of the {@link IHttpManager} implementations share {@link #getDefault()}, its rate can be changed at
+ * any time (the waiting downloads are woken up and continue at the new rate); a download can also have a limiter of its
+ * own ({@link com.king.app.updater.UpdateConfig#setMaxBytesPerSecond(long)}). A waiting download checks its
+ * {@link StopSignal} at least every {@link #MAX_WAIT_MILLIS}, and at once when it is woken up by {@link #wakeUp()}, so
+ * cancelling a download is never held up by the limit.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public final class BandwidthLimiter {
+
+    /**
+     * No limit
+     */
+    public static final long UNLIMITED = 0L;
+    /**
+     * The bucket holds the bytes of this duration at most: the burst allowed after the downloads have been idle
+     */
+    private static final long BURST_MILLIS = 500L;
+    /**
+     * Maximum time a download waits before checking its {@link StopSignal} again
+     */
+    private static final long MAX_WAIT_MILLIS = 100L;
+
+    /**
+     * The time of the system, the waits are those of {@link Object#wait(long, int)}
+     */
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void await(Object monitor, long nanos) throws InterruptedException {
+            monitor.wait(TimeUnit.NANOSECONDS.toMillis(nanos), (int) (nanos % 1000000L));
+        }
+    };
+
+    private static final BandwidthLimiter sDefault = new BandwidthLimiter(UNLIMITED);
+
+    /**
+     * Tells the waiting download to stop waiting, e.g. it is cancelled
+     */
+    public interface StopSignal {
+        boolean isStopped();
+    }
+
+    /**
+     * The time source of the limiter, it is replaced by the tests
+     */
+    interface Clock {
+
+        long nanoTime();
+
+        /**
+         * Wait on the monitor, which is held, for the time at most
+         */
+        void await(Object monitor, long nanos) throws InterruptedException;
+    }
+
+    private final Clock mClock;
+
+    private volatile long mBytesPerSecond;
+    /**
+     * The tokens in the bucket
+     */
+    private double mStoredBytes;
+    /**
+     * The time when the bytes already reserved are paid for
+     */
+    private long mNextFreeNanos;
+    /**
+     * Incremented when the rate changes, the waiting downloads reserve their bytes again
+     */
+    private int mGeneration;
+
+    /**
+     * Construction
+     *
+     * @param bytesPerSecond the maximum rate, {@link #UNLIMITED} means no limit
+     */
+    public BandwidthLimiter(long bytesPerSecond) {
+        this(bytesPerSecond, SYSTEM_CLOCK);
+    }
+
+    BandwidthLimiter(long bytesPerSecond, @NonNull Clock clock) {
+        this.mBytesPerSecond = Math.max(UNLIMITED, bytesPerSecond);
+        this.mClock = clock;
+        this.mNextFreeNanos = clock.nanoTime();
+    }
+
+    /**
+     * Get the limiter shared by all the downloads
+     *
+     * @return
+     */
+    @NonNull
+    public static BandwidthLimiter getDefault() {
+        return sDefault;
+    }
+
+    public long getBytesPerSecond() {
+        return mBytesPerSecond;
+    }
+
+    /**
+     * Set the maximum rate of the downloads sharing the limiter, the downloads in progress are throttled at the new rate
+     *
+     * @param bytesPerSecond the maximum rate, {@link #UNLIMITED} means no limit
+     */
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        bytesPerSecond = Math.max(UNLIMITED, bytesPerSecond);
+        if (bytesPerSecond == mBytesPerSecond) {
+            return;
+        }
+        // The bytes reserved at the previous rate are forgiven, the waiting downloads reserve them again
+        mBytesPerSecond = bytesPerSecond;
+        mStoredBytes = 0;
+        mNextFreeNanos = mClock.nanoTime();
+        mGeneration++;
+        notifyAll();
+    }
+
+    /**
+     * Take the bytes read from the network, it waits (without spinning) until the rate allows them
+     *
+     * @param bytes      number of bytes read
+     * @param stopSignal checked while waiting, the wait ends when it is stopped
+     * @return false if the wait was stopped by the signal
+     * @throws InterruptedIOException if the thread is interrupted
+     */
+    public boolean acquire(int bytes, @Nullable StopSignal stopSignal) throws InterruptedIOException {
+        if (bytes <= 0 || mBytesPerSecond <= UNLIMITED) {
+            return true;
+        }
+        synchronized (this) {
+            int generation = mGeneration;
+            long deadline = reserve(bytes, mClock.nanoTime());
+            while (true) {
+                if (stopSignal != null && stopSignal.isStopped()) {
+                    return false;
+                }
+                long now = mClock.nanoTime();
+                if (generation != mGeneration) {
+                    if (mBytesPerSecond <= UNLIMITED) {
+                        return true;
+                    }
+                    generation = mGeneration;
+                    deadline = reserve(bytes, now);
+                }
+                long remaining = deadline - now;
+                if (remaining <= 0) {
+                    return true;
+                }
+                long waitNanos = Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_MILLIS));
+                try {
+                    mClock.await(this, waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while throttling the download");
+                }
+            }
+        }
+    }
+
+    /**
+     * Wake up the waiting downloads so that they check their {@link StopSignal}
+     */
+    public synchronized void wakeUp() {
+        notifyAll();
+    }
+
+    /**
+     * Reserve the bytes, first from the bucket then from the future tokens
+     *
+     * @return the time when the bytes are paid for
+     */
+    private long reserve(int bytes, long now) {
+        long bytesPerSecond = mBytesPerSecond;
+        if (now > mNextFreeNanos) {
+            double maxStoredBytes = bytesPerSecond * BURST_MILLIS / 1000D;
+            mStoredBytes = Math.min(maxStoredBytes, mStoredBytes + (now - mNextFreeNanos) * bytesPerSecond / 1e9);
+            mNextFreeNanos = now;
+        }
+        double storedBytes = Math.min(bytes, mStoredBytes);
+        mStoredBytes -= storedBytes;
+        mNextFreeNanos += (long) ((bytes - storedBytes) * 1e9 / bytesPerSecond);
+        return mNextFreeNanos;
+    }
+}
@@ -0,0 +1,365 @@
+package com.king.app.updater.http;
+
+import com.king.app.updater.UpdateConfig;
+import com.king.app.updater.checksum.ApkChecksum;
+import com.king.app.updater.checksum.IHasher;
+import com.king.app.updater.constant.Constants;
+import com.king.app.updater.util.LogUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * BaseDownloadTask is the download task of a {@link BaseHttpManager}, it is registered with the manager while it runs so
+ * that a manager can execute several downloads at a time and cancel each of them ({@link IHttpManager#cancel(IHttpManager.DownloadCallback)}).
+ * <p>The downloads are throttled by {@link BandwidthLimiter#getDefault()}, and by a limit of their own
+ * ({@link #setMaxBytesPerSecond(long)}), see {@link #throttle(int)}. A download can
+ * have a deadline ({@link #setDeadline(long)}), it is checked before each request and by the {@link ThroughputMonitor}
+ * of the transfers.
+ * <p>A download continues from the next mirror when it fails ({@link #downloadFromMirrors()}), each manager only
+ * implements the transfer from one address ({@link #download(String)}).
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public abstract class BaseDownloadTask extends BackgroundTask<File> implements BandwidthLimiter.StopSignal {
+
+    private final IHttpManager.DownloadCallback mCallback;
+
+    private BaseHttpManager mHttpManager;
+    /**
+     * Set when the download is cancelled, the transfer stops at the next chunk
+     */
+    protected volatile boolean isCancel;
+    /**
+     * The connection of the transfer in progress, it is closed when the download is cancelled
+     */
+    private volatile Closeable mConnection;
+    /**
+     * The limit of this download on top of the shared one, null if it has none
+     */
+    private BandwidthLimiter mLimiter;
+
+    private long mDeadlineNanos;
+
+    private boolean hasDeadline;
+    /**
+     * Size of the buffer of {@link DownloadWriter}
+     */
+    private int mBufferSize;
+
+    private boolean isDirectBuffer;
+    /**
+     * Whether the file is written on another thread, see {@link PipelinedDownloadWriter}
+     */
+    private boolean isPipelined;
+    /**
+     * Whether the size of the buffers follows the throughput, see {@link AdaptiveBufferSize}
+     */
+    private boolean isAdaptiveBufferSize;
+    /**
+     * The download address and its mirrors
+     */
+    protected final MirrorSelector mirrors;
+    /**
+     * The progress counters, sampled on the main thread
+     */
+    protected final ProgressReporter progressReporter;
+
+    protected DownloadRecord record;
+    /**
+     * The checksum computed while downloading
+     */
+    protected ApkChecksum checksum;
+
+    /**
+     * Construction
+     *
+     * @param url              the download address
+     * @param config           the config of the download
+     * @param callback         the callback of the download
+     * @param callbackExecutor the executor of the callback
+     */
+    public BaseDownloadTask(@NonNull String url, @NonNull UpdateConfig config, @Nullable IHttpManager.DownloadCallback callback, @NonNull Executor callbackExecutor) {
+        super(callbackExecutor);
+        this.mCallback = callback;
+        this.mBufferSize = config.getBufferSize();
+        this.isDirectBuffer = config.isDirectBuffer();
+        this.isPipelined = config.isPipelined();
+        this.isAdaptiveBufferSize = config.isAdaptiveBufferSize();
+        this.mirrors = MirrorSelector.create(config, url);
+        this.progressReporter = new ProgressReporter(callback, config.getProgressInterval(), callbackExecutor);
+        setMaxBytesPerSecond(config.getMaxBytesPerSecond());
+    }
+
+    @Nullable
+    public IHttpManager.DownloadCallback getCallback() {
+        return mCallback;
+    }
+
+    /**
+     * Cancel the download
+     */
+    public void cancelDownload() {
+        isCancel = true;
+        // Stop waiting for the bandwidth limit
+        BandwidthLimiter.getDefault().wakeUp();
+        BandwidthLimiter limiter = mLimiter;
+        if (limiter != null) {
+            limiter.wakeUp();
+        }
+        // Unblock the read in progress
+        Closeable connection = mConnection;
+        if (connection != null) {
+            close(connection);
+        }
+    }
+
+    /**
+     * Set the connection of the transfer in progress, so that a read that blocks is stopped when the download is
+     * cancelled (e.g. the same {@link Closeable} as {@link ThroughputMonitor#watch(Closeable)})
+     *
+     * @param connection the connection, null when the transfer ends
+     */
+    protected void setConnection(@Nullable Closeable connection) {
+        mConnection = connection;
+        if (connection != null && isCancel) {
+            close(connection);
+        }
+    }
+
+    /**
+     * Closing a connection may wait for the read in progress, it must not hold up the caller (e.g. the main thread)
+     */
+    private static void close(@NonNull final Closeable connection) {
+        DownloadExecutors.getIoExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    connection.close();
+                } catch (IOException e) {
+                    LogUtils.w(e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Limit the rate of this download, on top of the limit shared by all the downloads
+     * ({@link BandwidthLimiter#getDefault()}). It is set before the task is executed
+     *
+     * @param maxBytesPerSecond bytes per second, {@link BandwidthLimiter#UNLIMITED} or less means no limit of its own
+     */
+    protected void setMaxBytesPerSecond(long maxBytesPerSecond) {
+        mLimiter = maxBytesPerSecond > BandwidthLimiter.UNLIMITED ? new BandwidthLimiter(maxBytesPerSecond) : null;
+    }
+
+    /**
+     * Wait until the bandwidth limit allows the bytes just read, the wait ends early when {@link #isStopped()}
+     *
+     * @param bytes number of bytes read
+     * @throws InterruptedIOException if the thread is interrupted
+     */
+    protected void throttle(int bytes) throws InterruptedIOException {
+        throttle(bytes, null);
+    }
+
+    /**
+     * Wait until the bandwidth limit allows the bytes just read, the monitor of the transfer does not count the wait
+     *
+     * @param bytes   number of bytes read
+     * @param monitor the monitor of the transfer, can be null
+     * @throws InterruptedIOException if the thread is interrupted
+     */
+    protected void throttle(int bytes, @Nullable ThroughputMonitor monitor) throws InterruptedIOException {
+        if (monitor == null) {
+            acquire(bytes);
+            return;
+        }
+        monitor.onThrottleStart();
+        try {
+            acquire(bytes);
+        } finally {
+            monitor.onThrottleEnd();
+        }
+    }
+
+    /**
+     * Take the bytes from the limit of the download, then from the shared limit
+     */
+    private void acquire(int bytes) throws InterruptedIOException {
+        BandwidthLimiter limiter = mLimiter;
+        if (limiter != null && !limiter.acquire(bytes, this)) {
+            return;
+        }
+        BandwidthLimiter.getDefault().acquire(bytes, this);
+    }
+
+    /**
+     * Start the deadline of the download
+     *
+     * @param millis maximum duration of the download from now, 0 or less means no deadline
+     */
+    protected void setDeadline(long millis) {
+        hasDeadline = millis > 0;
+        mDeadlineNanos = System.nanoTime() + Math.max(0, millis) * 1000000L;
+    }
+
+    /**
+     * Get the time left before the deadline
+     *
+     * @return milliseconds, or {@link Constants#NONE} if there is no deadline
+     */
+    protected long getRemainingTime() {
+        if (!hasDeadline) {
+            return Constants.NONE;
+        }
+        return Math.max(0, (mDeadlineNanos - System.nanoTime()) / 1000000L);
+    }
+
+    /**
+     * Check the deadline before a request
+     *
+     * @throws ThroughputMonitor.DeadlineExceededException if the deadline has passed
+     */
+    protected void checkDeadline() throws ThroughputMonitor.DeadlineExceededException {
+        if (getRemainingTime() == 0) {
+            throw new ThroughputMonitor.DeadlineExceededException("Deadline exceeded");
+        }
+    }
+
+    /**
+     * Download from the selected mirror, and continue from the next one when it fails or is too slow; the last
+     * address is reconnected when it is too slow
+     *
+     * @return the downloaded file, null if the download is cancelled
+     * @throws Exception if the download fails from every address
+     */
+    @Nullable
+    protected File downloadFromMirrors() throws Exception {
+        int reconnects = 0;
+        while (true) {
+            try {
+                return download(mirrors.getUrl());
+            } catch (IOException e) {
+                if (isCancel || e instanceof InsufficientSpaceException || e instanceof ThroughputMonitor.DeadlineExceededException) {
+                    throw e;
+                }
+                // The current address is the one that has failed, the hedged request may have selected another mirror
+                if (!mirrors.failover(mirrors.getUrl())
+                        && (!(e instanceof ThroughputMonitor.SlowTransferException) || reconnects++ >= ThroughputMonitor.MAX_RECONNECTS)) {
+                    throw e;
+                }
+                LogUtils.w(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Download the file from the given address, the mirror of a hedged request that answers first is selected with
+     * {@link MirrorSelector#select(String)}
+     *
+     * @param url the selected mirror
+     * @return the downloaded file, null if the download is cancelled
+     * @throws Exception if the download fails
+     */
+    @Nullable
+    protected abstract File download(@NonNull String url) throws Exception;
+
+    /**
+     * The server has answered {@code 304 Not Modified}: the completed file is kept
+     */
+    @NonNull
+    protected File notModified() {
+        File file = record.getFile();
+        LogUtils.d("Not modified: " + file);
+        checksum = record.getChecksum();
+        progressReporter.setTotal(file.length());
+        progressReporter.set(file.length());
+        return file;
+    }
+
+    /**
+     * Create the adaptive size of a writer
+     *
+     * @return null if the size of the buffers is fixed
+     */
+    @Nullable
+    protected AdaptiveBufferSize newAdaptiveBufferSize() {
+        if (isAdaptiveBufferSize) {
+            return new AdaptiveBufferSize(mBufferSize, DownloadWriter.MIN_BUFFER_SIZE, AdaptiveBufferSize.MAX_BUFFER_SIZE);
+        }
+        return null;
+    }
+
+    /**
+     * Open the writer of the sequential transfer
+     *
+     * @param file               the file
+     * @param position           the position to write from
+     * @param adaptiveBufferSize the adaptive size of the buffer, null if it is fixed
+     * @param hasher             the hasher of the written data, can be null
+     */
+    protected IDownloadWriter openWriter(@NonNull File file, long position, @Nullable AdaptiveBufferSize adaptiveBufferSize, @Nullable IHasher hasher) throws IOException {
+        if (adaptiveBufferSize != null) {
+            if (isPipelined) {
+                return PipelinedDownloadWriter.open(file, position, adaptiveBufferSize, PipelinedDownloadWriter.DEFAULT_BUFFER_COUNT, isDirectBuffer, hasher, DownloadExecutors.getIoExecutor());
+            }
+            return DownloadWriter.open(file, position, adaptiveBufferSize, isDirectBuffer, hasher);
+        }
+        if (isPipelined) {
+            return PipelinedDownloadWriter.open(file, position, mBufferSize, PipelinedDownloadWriter.DEFAULT_BUFFER_COUNT, isDirectBuffer, hasher, DownloadExecutors.getIoExecutor());
+        }
+        return DownloadWriter.open(file, position, mBufferSize, isDirectBuffer, hasher);
+    }
+
+    /**
+     * Create the writer of a part of the file, e.g. a segment; the written data is not hashed
+     *
+     * @param channel            the channel of the file, shared by the parts
+     * @param position           the position to write from
+     * @param adaptiveBufferSize the adaptive size of the buffer, null if it is fixed
+     */
+    protected DownloadWriter newWriter(@NonNull FileChannel channel, long position, @Nullable AdaptiveBufferSize adaptiveBufferSize) {
+        if (adaptiveBufferSize != null) {
+            return new DownloadWriter(channel, position, adaptiveBufferSize, isDirectBuffer, null);
+        }
+        return new DownloadWriter(channel, position, mBufferSize, isDirectBuffer, null);
+    }
+
+    /**
+     * Whether the transfer must stop, e.g. the download is cancelled
+     */
+    @Override
+    public boolean isStopped() {
+        return isCancel;
+    }
+
+    void setHttpManager(@NonNull BaseHttpManager httpManager) {
+        this.mHttpManager = httpManager;
+    }
+
+    @Override
+    protected void onPostExecute(@Nullable File file) {
+        super.onPostExecute(file);
+        unregister();
+    }
+
+    @Override
+    protected void onCancelled() {
+        super.onCancelled();
+        unregister();
+    }
+
+    private void unregister() {
+        if (mHttpManager != null) {
+            mHttpManager.removeTask(this);
+        }
+    }
+}
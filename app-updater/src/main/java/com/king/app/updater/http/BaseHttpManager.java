@@ -0,0 +1,110 @@
+package com.king.app.updater.http;
+
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * BaseHttpManager holds the executors of the {@link IHttpManager} implementations: the downloads are executed by
+ * {@link #getExecutor()} and the {@link IHttpManager.DownloadCallback} is called on {@link #getCallbackExecutor()}.
+ * <p>By default the downloads run on {@link DownloadExecutors#getDefaultExecutor()} and the callbacks are delivered on
+ * the main thread. A manager can execute several downloads at a time, each of them is cancelled by its callback.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public abstract class BaseHttpManager implements IHttpManager {
+
+    private volatile Executor mExecutor;
+
+    private volatile Executor mCallbackExecutor;
+    /**
+     * The running downloads
+     */
+    private final List<BaseDownloadTask> mTasks = new ArrayList<>();
+
+    /**
+     * Set the executor of the downloads, e.g. the I/O pool of the app
+     *
+     * @param executor null means {@link DownloadExecutors#getDefaultExecutor()}
+     */
+    public void setExecutor(@Nullable Executor executor) {
+        this.mExecutor = executor;
+    }
+
+    /**
+     * Set the executor of the {@link IHttpManager.DownloadCallback}, the callbacks are delivered one at a time in order
+     *
+     * @param callbackExecutor null means the main thread
+     */
+    public void setCallbackExecutor(@Nullable Executor callbackExecutor) {
+        this.mCallbackExecutor = callbackExecutor != null ? DownloadExecutors.newSerialExecutor(callbackExecutor) : null;
+    }
+
+    /**
+     * Set the handler of the {@link IHttpManager.DownloadCallback}, the callbacks are delivered on its thread
+     *
+     * @param callbackHandler null means the main thread
+     */
+    public void setCallbackHandler(@Nullable Handler callbackHandler) {
+        this.mCallbackExecutor = callbackHandler != null ? DownloadExecutors.newHandlerExecutor(callbackHandler) : null;
+    }
+
+    @NonNull
+    protected Executor getExecutor() {
+        Executor executor = mExecutor;
+        return executor != null ? executor : DownloadExecutors.getDefaultExecutor();
+    }
+
+    @NonNull
+    protected Executor getCallbackExecutor() {
+        Executor callbackExecutor = mCallbackExecutor;
+        return callbackExecutor != null ? callbackExecutor : DownloadExecutors.getMainThreadExecutor();
+    }
+
+    /**
+     * Execute the download task on {@link #getExecutor()}
+     *
+     * @param task {@link BaseDownloadTask}
+     */
+    protected void execute(@NonNull BaseDownloadTask task) {
+        task.setHttpManager(this);
+        synchronized (mTasks) {
+            mTasks.add(task);
+        }
+        task.execute(getExecutor());
+    }
+
+    void removeTask(@NonNull BaseDownloadTask task) {
+        synchronized (mTasks) {
+            mTasks.remove(task);
+        }
+    }
+
+    /**
+     * Cancel all the downloads of this manager
+     */
+    @Override
+    public void cancel() {
+        synchronized (mTasks) {
+            for (BaseDownloadTask task : mTasks) {
+                task.cancelDownload();
+            }
+        }
+    }
+
+    @Override
+    public void cancel(@NonNull DownloadCallback callback) {
+        synchronized (mTasks) {
+            for (BaseDownloadTask task : mTasks) {
+                if (task.getCallback() == callback) {
+                    task.cancelDownload();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.king.app.updater.http;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+
+/**
+ * BufferPool recycles the buffers of the {@link IDownloadWriter}s, so that a writer changing its buffer size (see
+ * {@link AdaptiveBufferSize}), a retried segment or the next download does not allocate a new buffer. The buffers are
+ * pooled by capacity, heap and direct apart, up to {@link #MAX_POOLED_BYTES} in total; the others are left to the GC.
+ * <p>The writers share {@link #getDefault()}, it is thread safe.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public final class BufferPool {
+
+    /**
+     * Maximum number of bytes held by the pool
+     */
+    public static final int MAX_POOLED_BYTES = 4 * 1024 * 1024;
+
+    private static final BufferPool sDefault = new BufferPool(MAX_POOLED_BYTES);
+
+    private final int mMaxPooledBytes;
+
+    private final Map<Integer, ArrayDeque<ByteBuffer>> mHeapBuffers = new HashMap<>();
+
+    private final Map<Integer, ArrayDeque<ByteBuffer>> mDirectBuffers = new HashMap<>();
+
+    private int mPooledBytes;
+
+    /**
+     * Construction
+     *
+     * @param maxPooledBytes maximum number of bytes held by the pool
+     */
+    public BufferPool(int maxPooledBytes) {
+        this.mMaxPooledBytes = maxPooledBytes;
+    }
+
+    /**
+     * Get the pool shared by the writers
+     *
+     * @return
+     */
+    @NonNull
+    public static BufferPool getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Take a buffer from the pool, or allocate it if there is none of this capacity
+     *
+     * @param capacity capacity of the buffer (bytes)
+     * @param isDirect whether the buffer is direct
+     * @return a cleared buffer
+     */
+    @NonNull
+    public ByteBuffer acquire(int capacity, boolean isDirect) {
+        synchronized (this) {
+            ArrayDeque<ByteBuffer> buffers = (isDirect ? mDirectBuffers : mHeapBuffers).get(capacity);
+            if (buffers != null && !buffers.isEmpty()) {
+                mPooledBytes -= capacity;
+                return buffers.pop();
+            }
+        }
+        return isDirect ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Return the buffer to the pool, it must not be used afterwards
+     *
+     * @param buffer the buffer taken by {@link #acquire(int, boolean)}
+     */
+    public void release(@NonNull ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        buffer.clear();
+        synchronized (this) {
+            if (mPooledBytes + capacity > mMaxPooledBytes) {
+                return;
+            }
+            Map<Integer, ArrayDeque<ByteBuffer>> pool = buffer.isDirect() ? mDirectBuffers : mHeapBuffers;
+            ArrayDeque<ByteBuffer> buffers = pool.get(capacity);
+            if (buffers == null) {
+                buffers = new ArrayDeque<>();
+                pool.put(capacity, buffers);
+            }
+            buffers.push(buffer);
+            mPooledBytes += capacity;
+        }
+    }
+
+    /**
+     * Release all the pooled buffers, e.g. when the app is trimming its memory
+     */
+    public synchronized void clear() {
+        mHeapBuffers.clear();
+        mDirectBuffers.clear();
+        mPooledBytes = 0;
+    }
+}
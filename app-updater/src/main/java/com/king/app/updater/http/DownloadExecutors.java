@@ -0,0 +1,256 @@
+package com.king.app.updater.http;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.annotation.NonNull;
+
+/**
+ * DownloadExecutors provides the executors of the downloads: the default pool that runs the {@link BackgroundTask}s and
+ * the executors that deliver the callbacks.
+ * <p>The default pool is dedicated to the updater, so a download never waits behind the other {@code AsyncTask}s of the
+ * app (and does not hold them up either). It has at most {@link #MAX_POOL_SIZE} threads, the idle threads exit after
+ * {@link #KEEP_ALIVE_SECONDS}; after {@link #shutdown()} a new pool is created when it is needed again.
+ * <p>The timers of the timeouts (see {@link ThroughputMonitor}) run on a single daemon thread,
+ * {@link #getWatchdogExecutor()}. The blocking work that runs alongside a download (the loops that write the files of
+ * the pipelined downloads, the segments, the hedged requests and the probes of the mirrors) runs on
+ * {@link #getIoExecutor()}.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public final class DownloadExecutors {
+
+    /**
+     * Maximum number of concurrent tasks of the default pool, the others are queued
+     */
+    public static final int MAX_POOL_SIZE = 3;
+
+    private static final long KEEP_ALIVE_SECONDS = 30L;
+
+    private static ThreadPoolExecutor sDefaultExecutor;
+
+    private static volatile Executor sMainThreadExecutor;
+
+    private static ScheduledExecutorService sWatchdogExecutor;
+
+    private static ThreadPoolExecutor sIoExecutor;
+
+    private DownloadExecutors() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Get the default executor of the downloads
+     *
+     * @return
+     */
+    @NonNull
+    public static synchronized Executor getDefaultExecutor() {
+        if (sDefaultExecutor == null || sDefaultExecutor.isShutdown()) {
+            sDefaultExecutor = new ThreadPoolExecutor(MAX_POOL_SIZE, MAX_POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DownloadThreadFactory());
+            sDefaultExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sDefaultExecutor;
+    }
+
+    /**
+     * Shut down the default executor: the queued and running tasks are completed, but no new task is accepted by it
+     * (the next {@link #getDefaultExecutor()} creates a new pool)
+     */
+    public static synchronized void shutdown() {
+        if (sDefaultExecutor != null) {
+            sDefaultExecutor.shutdown();
+            sDefaultExecutor = null;
+        }
+    }
+
+    /**
+     * Shut down the default executor and wait for its tasks to complete
+     *
+     * @param timeout maximum time to wait
+     * @param unit    unit of the timeout
+     * @return true if the tasks are completed, false if the timeout elapsed before
+     * @throws InterruptedException
+     */
+    public static boolean shutdownAndAwait(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        ThreadPoolExecutor executor;
+        synchronized (DownloadExecutors.class) {
+            executor = sDefaultExecutor;
+            shutdown();
+        }
+        return executor == null || executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Get the executor of the timers that abort the stalled requests and transfers, its tasks must be short
+     *
+     * @return
+     */
+    @NonNull
+    public static synchronized ScheduledExecutorService getWatchdogExecutor() {
+        if (sWatchdogExecutor == null) {
+            sWatchdogExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    Thread thread = new Thread(r, "AppUpdater-Watchdog");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sWatchdogExecutor;
+    }
+
+    /**
+     * Get the executor of the blocking I/O loops that run alongside a download, e.g. the writer of
+     * {@link PipelinedDownloadWriter}. A task never waits for a thread: each loop lasts as long as its download and
+     * would otherwise hold up the others; the idle threads exit after {@link #KEEP_ALIVE_SECONDS}
+     *
+     * @return
+     */
+    @NonNull
+    public static synchronized Executor getIoExecutor() {
+        if (sIoExecutor == null) {
+            sIoExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+
+                private final AtomicInteger count = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    Thread thread = new Thread(r, "AppUpdater-IO #" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sIoExecutor;
+    }
+
+    /**
+     * Get the executor that runs the tasks on the main thread, it is the default executor of the callbacks
+     *
+     * @return
+     */
+    @NonNull
+    public static Executor getMainThreadExecutor() {
+        if (sMainThreadExecutor == null) {
+            sMainThreadExecutor = new HandlerExecutor(new Handler(Looper.getMainLooper()));
+        }
+        return sMainThreadExecutor;
+    }
+
+    /**
+     * Create an executor that runs the tasks on the thread of the handler
+     *
+     * @param handler
+     * @return
+     */
+    @NonNull
+    public static Executor newHandlerExecutor(@NonNull Handler handler) {
+        return new HandlerExecutor(handler);
+    }
+
+    /**
+     * Create an executor that runs the tasks one at a time in order, on the threads of the executor. The callbacks of a
+     * download must be delivered in order, so an executor of several threads (e.g. a pool) is wrapped with it
+     *
+     * @param executor
+     * @return
+     */
+    @NonNull
+    public static Executor newSerialExecutor(@NonNull Executor executor) {
+        if (executor instanceof HandlerExecutor || executor instanceof SerialExecutor) {
+            return executor;
+        }
+        return new SerialExecutor(executor);
+    }
+
+    /**
+     * Runs the tasks on the thread of a {@link Handler}
+     */
+    private static class HandlerExecutor implements Executor {
+
+        private final Handler handler;
+
+        HandlerExecutor(Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            if (!handler.post(command)) {
+                throw new IllegalStateException(handler + " is shutting down");
+            }
+        }
+    }
+
+    /**
+     * Runs the tasks one at a time in order (see {@code AsyncTask.SERIAL_EXECUTOR})
+     */
+    private static class SerialExecutor implements Executor {
+
+        private final Executor executor;
+
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        private Runnable active;
+
+        SerialExecutor(Executor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public synchronized void execute(@NonNull final Runnable command) {
+            tasks.offer(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        command.run();
+                    } finally {
+                        scheduleNext();
+                    }
+                }
+            });
+            if (active == null) {
+                scheduleNext();
+            }
+        }
+
+        private synchronized void scheduleNext() {
+            if ((active = tasks.poll()) != null) {
+                executor.execute(active);
+            }
+        }
+    }
+
+    /**
+     * Creates the background threads of the default pool
+     */
+    private static class DownloadThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(@NonNull final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, "AppUpdater-Download #" + count.getAndIncrement());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.king.app.updater.http;
+
+import com.king.app.updater.constant.Constants;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+
+/**
+ * DownloadMetrics collects the measures of the download requests of the process: the time to first byte (the time
+ * until the response headers are received) of the last {@link #MAX_SAMPLES} requests, and the counters of the hedged
+ * requests (see {@link RequestHedger}).
+ * <p>The percentiles of the time to first byte give the delay before a request is hedged. The downloads of the
+ * {@link IHttpManager} implementations share {@link #getDefault()}, it is thread safe.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public final class DownloadMetrics {
+
+    /**
+     * Number of times to first byte kept, the older ones are forgotten
+     */
+    public static final int MAX_SAMPLES = 64;
+    /**
+     * Number of times to first byte needed to compute a percentile
+     */
+    public static final int MIN_SAMPLES = 8;
+
+    private static final DownloadMetrics sDefault = new DownloadMetrics();
+
+    /**
+     * The times to first byte in milliseconds, a circular buffer
+     */
+    private final long[] mSamples = new long[MAX_SAMPLES];
+
+    private int mSampleCount;
+
+    private int mNextSample;
+
+    private long mRequestCount;
+
+    private long mHedgedCount;
+
+    private long mHedgeWinCount;
+
+    /**
+     * Get the metrics shared by all the downloads
+     *
+     * @return
+     */
+    @NonNull
+    public static DownloadMetrics getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Record the time to first byte of a request
+     *
+     * @param millis the time until the response headers are received
+     */
+    public synchronized void addTimeToFirstByte(long millis) {
+        mSamples[mNextSample] = millis;
+        mNextSample = (mNextSample + 1) % MAX_SAMPLES;
+        mSampleCount = Math.min(mSampleCount + 1, MAX_SAMPLES);
+        mRequestCount++;
+    }
+
+    /**
+     * Get a percentile of the recent times to first byte
+     *
+     * @param percentile between 0 and 1, e.g. 0.95
+     * @return the time in milliseconds, or {@link Constants#NONE} if fewer than {@link #MIN_SAMPLES} requests are known
+     */
+    public synchronized long getTimeToFirstByte(float percentile) {
+        if (mSampleCount < MIN_SAMPLES) {
+            return Constants.NONE;
+        }
+        long[] sorted = Arrays.copyOf(mSamples, mSampleCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(Math.max(0f, Math.min(1f, percentile)) * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    synchronized void onHedged() {
+        mHedgedCount++;
+    }
+
+    synchronized void onHedgeWon() {
+        mHedgeWinCount++;
+    }
+
+    /**
+     * Get the number of requests whose time to first byte has been measured
+     *
+     * @return
+     */
+    public synchronized long getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * Get the number of requests that have been hedged: a second request was sent because the response was late
+     *
+     * @return
+     */
+    public synchronized long getHedgedCount() {
+        return mHedgedCount;
+    }
+
+    /**
+     * Get the number of hedged requests whose second request answered first
+     *
+     * @return
+     */
+    public synchronized long getHedgeWinCount() {
+        return mHedgeWinCount;
+    }
+
+    /**
+     * Forget the measures
+     */
+    public synchronized void reset() {
+        mSampleCount = 0;
+        mNextSample = 0;
+        mRequestCount = 0;
+        mHedgedCount = 0;
+        mHedgeWinCount = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.getDefault(), "DownloadMetrics{requests=%d, hedged=%d, hedgeWins=%d, samples=%d}",
+                mRequestCount, mHedgedCount, mHedgeWinCount, mSampleCount);
+    }
+}
@@ -0,0 +1,641 @@
+package com.king.app.updater.http;
+
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import com.king.app.updater.checksum.ApkChecksum;
+import com.king.app.updater.checksum.ChecksumAlgorithm;
+import com.king.app.updater.util.AppUtils;
+import com.king.app.updater.util.LogUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Download record: the data is first written to a temporary {@code .part} file, and the validators (ETag / Last-Modified)
+ * returned by the server are saved in a {@code .meta} file next to it, so that an interrupted download can be resumed
+ * through an HTTP Range request instead of starting again from the first byte.
+ * <p>When the length is known, the temporary file is preallocated by {@link #preallocate(long)}; the number of bytes
+ * written sequentially is then saved in the record, since it is no longer the length of the temporary file.
+ * <p>When the download is completed, the validators and the checksum computed while writing are kept in the record of
+ * the target file: the next download of the same url sends them in a conditional request ({@link #getConditionalHeaders()}),
+ * and a {@code 304 Not Modified} response keeps the target file without downloading it again.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public class DownloadRecord {
+
+    /**
+     * Suffix of the temporary file being downloaded
+     */
+    public static final String PART_SUFFIX = ".part";
+    /**
+     * Suffix of the file that saves the download record
+     */
+    public static final String META_SUFFIX = ".meta";
+    /**
+     * Minimum interval between two saves of the sequential progress
+     */
+    private static final long SAVE_INTERVAL_MILLIS = 1000L;
+
+    private static final String KEY_URL = "url";
+    private static final String KEY_SOURCE = "source";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_CONTENT_LENGTH = "contentLength";
+    private static final String KEY_SEGMENTS = "segments";
+    private static final String KEY_DOWNLOADED = "downloaded";
+    private static final String KEY_CHECKSUM_ALGORITHM = "checksumAlgorithm";
+    private static final String KEY_CHECKSUM = "checksum";
+    private static final String KEY_FILE_LENGTH = "fileLength";
+    private static final String KEY_FILE_LAST_MODIFIED = "fileLastModified";
+
+    /**
+     * The target file
+     */
+    private File mFile;
+    /**
+     * The temporary file being downloaded
+     */
+    private File mPartFile;
+    /**
+     * The file that saves the download record
+     */
+    private File mMetaFile;
+
+    private String mUrl;
+    /**
+     * The address that returned the validators, a mirror of {@link #mUrl} may return other validators for the same content
+     */
+    private String mSource;
+
+    private String mETag;
+
+    private String mLastModified;
+
+    private long mContentLength = -1;
+    /**
+     * The byte ranges of a segmented download, null if the temporary file is written sequentially
+     */
+    private List<Segment> mSegments;
+    /**
+     * The number of bytes written sequentially to a preallocated temporary file, -1 if the temporary file is not preallocated
+     */
+    private long mDownloaded = -1;
+
+    private long mLastSaveTime;
+    /**
+     * The checksum of the completed file
+     */
+    private ApkChecksum mChecksum;
+    /**
+     * The length of the completed file, used to check that the file has not been modified since the checksum was recorded
+     */
+    private long mFileLength = -1;
+    /**
+     * The last modified time of the completed file
+     */
+    private long mFileLastModified;
+
+    /**
+     * Construction: if a record of the target file exists, it will be loaded
+     *
+     * @param file The target file
+     */
+    public DownloadRecord(@NonNull File file) {
+        this.mFile = file;
+        this.mPartFile = new File(file.getAbsolutePath() + PART_SUFFIX);
+        this.mMetaFile = new File(file.getAbsolutePath() + META_SUFFIX);
+        load();
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public File getPartFile() {
+        return mPartFile;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    public String getETag() {
+        return mETag;
+    }
+
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    public long getContentLength() {
+        return mContentLength;
+    }
+
+    @Nullable
+    public List<Segment> getSegments() {
+        return mSegments;
+    }
+
+    /**
+     * Get the checksum recorded when the target file was downloaded, so that the file does not have to be read again
+     *
+     * @return Returns null if there is no record or the file has been modified since it was recorded
+     */
+    @Nullable
+    public ApkChecksum getChecksum() {
+        if (mChecksum != null && mFile.length() == mFileLength && mFile.lastModified() == mFileLastModified) {
+            return mChecksum;
+        }
+        return null;
+    }
+
+    /**
+     * Whether the sequential download of the given url can be resumed from the temporary file
+     *
+     * @param url download address
+     * @return Returns true if the temporary file was downloaded from the same url and there is a validator to check that the content has not changed
+     */
+    public boolean isResumable(String url) {
+        return mSegments == null && canResume(url);
+    }
+
+    /**
+     * Whether the segmented download of the given url can be resumed from the temporary file
+     *
+     * @param url download address
+     * @return Returns true if the temporary file was downloaded in segments from the same url and there is a validator to check that the content has not changed
+     */
+    public boolean isSegmentResumable(String url) {
+        return mSegments != null && mContentLength > 0 && canResume(url);
+    }
+
+    private boolean canResume(String url) {
+        return mPartFile.length() > 0 && !isEmpty(getIfRange()) && equals(mUrl, url);
+    }
+
+    /**
+     * Whether the completed target file downloaded from the given url can be revalidated by a conditional request
+     *
+     * @param url download address
+     * @return Returns true if the target file has not been modified since it was completed and there is a validator
+     */
+    public boolean isRevalidatable(String url) {
+        return mFileLength >= 0 && mFile.length() == mFileLength && mFile.lastModified() == mFileLastModified
+                && (mContentLength <= 0 || mContentLength == mFileLength)
+                && (!isEmpty(mETag) || !isEmpty(mLastModified)) && equals(mUrl, url);
+    }
+
+    /**
+     * Get the request headers that revalidate the completed target file: If-None-Match with the ETag and
+     * If-Modified-Since with the Last-Modified, the server answers {@code 304 Not Modified} if the content is unchanged
+     *
+     * @return
+     */
+    @NonNull
+    public Map<String, String> getConditionalHeaders() {
+        Map<String, String> headers = new HashMap<>();
+        if (!isEmpty(mETag)) {
+            headers.put(HttpHeaders.IF_NONE_MATCH, mETag);
+        }
+        if (!isEmpty(mLastModified)) {
+            headers.put(HttpHeaders.IF_MODIFIED_SINCE, mLastModified);
+        }
+        return headers;
+    }
+
+    /**
+     * Whether the validators were returned by the given address, only then they can be sent to it (If-Range,
+     * If-None-Match...); the other mirrors are checked by the content length
+     *
+     * @param url the address of the request
+     * @return Returns true if the validators were returned by the address or their address is unknown
+     */
+    public boolean isSource(String url) {
+        return mSource == null || mSource.equals(url);
+    }
+
+    /**
+     * Get the offset from which the sequential download should continue
+     *
+     * @return The number of bytes written, that is the length of the temporary file if it is not preallocated
+     */
+    public long getOffset() {
+        long length = mPartFile.exists() ? mPartFile.length() : 0;
+        return mDownloaded >= 0 ? Math.min(mDownloaded, length) : length;
+    }
+
+    /**
+     * Set the number of bytes written sequentially to the preallocated temporary file, the record is saved at most once
+     * per {@link #SAVE_INTERVAL_MILLIS} (call {@link #save()} when the transfer stops)
+     *
+     * @param downloaded number of bytes written from the beginning of the file
+     */
+    public void setDownloaded(long downloaded) {
+        this.mDownloaded = downloaded;
+        long curTime = System.currentTimeMillis();
+        if (curTime - mLastSaveTime > SAVE_INTERVAL_MILLIS) {
+            mLastSaveTime = curTime;
+            save();
+        }
+    }
+
+    /**
+     * Preallocate the temporary file to the given length: the free space is checked first, then the blocks are reserved
+     * so that the file can be laid out contiguously and the writes do not fail with ENOSPC in the middle of the transfer.
+     * <p>The blocks are reserved by {@code posix_fallocate} (Android 5.0+); if the filesystem does not support it, the
+     * length of the file is only set. The length of the temporary file no longer tells how many bytes have been
+     * written, so the record is saved before the file grows, with the offset set by {@link #setDownloaded(long)} (a
+     * sequential download must call it before) or else the current length of the file.
+     *
+     * @param length total length of the content
+     * @throws InsufficientSpaceException if the free space is short
+     * @throws IOException
+     */
+    public void preallocate(long length) throws IOException {
+        long allocated = mPartFile.exists() ? mPartFile.length() : 0;
+        if (length <= allocated) {
+            return;
+        }
+        File dir = mPartFile.getAbsoluteFile().getParentFile();
+        AppUtils.checkAvailableSpace(dir, length - allocated);
+        if (mDownloaded < 0) {
+            mDownloaded = allocated;
+        }
+        // A download stopped once the file has grown resumes from the real offset, not from the length of the file
+        mLastSaveTime = System.currentTimeMillis();
+        save();
+        RandomAccessFile raf = new RandomAccessFile(mPartFile, "rw");
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                try {
+                    Os.posix_fallocate(raf.getFD(), 0, length);
+                    return;
+                } catch (ErrnoException e) {
+                    if (e.errno == OsConstants.ENOSPC) {
+                        throw new InsufficientSpaceException(dir, length - allocated, AppUtils.getAvailableSpace(dir));
+                    }
+                    LogUtils.w("posix_fallocate: " + e.getMessage());
+                }
+            }
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Get the number of bytes that have been downloaded
+     *
+     * @return
+     */
+    public long getDownloadedLength() {
+        if (mSegments != null) {
+            long length = 0;
+            for (Segment segment : mSegments) {
+                length += segment.getDownloaded();
+            }
+            return length;
+        }
+        return getOffset();
+    }
+
+    /**
+     * Get the value of the If-Range request header. A weak ETag cannot be used for a range request, in that case Last-Modified is used.
+     *
+     * @return
+     */
+    @Nullable
+    public String getIfRange() {
+        if (!isEmpty(mETag) && !mETag.startsWith("W/")) {
+            return mETag;
+        }
+        return mLastModified;
+    }
+
+    /**
+     * Discard the temporary file and start a new record for the given url
+     *
+     * @param url download address
+     */
+    public void reset(String url) {
+        delete();
+        this.mUrl = url;
+        this.mSource = null;
+        this.mETag = null;
+        this.mLastModified = null;
+        this.mContentLength = -1;
+        this.mSegments = null;
+        this.mDownloaded = -1;
+        this.mChecksum = null;
+        this.mFileLength = -1;
+        this.mFileLastModified = 0;
+        this.mLastSaveTime = 0;
+    }
+
+    /**
+     * Update the validators of the record and save them
+     *
+     * @param eTag          ETag
+     * @param lastModified  Last-Modified
+     * @param contentLength total length of the content
+     */
+    public void update(@Nullable String eTag, @Nullable String lastModified, long contentLength) {
+        update(null, eTag, lastModified, contentLength);
+    }
+
+    /**
+     * Update the validators of the record and save them
+     *
+     * @param source        the address that returned the validators, e.g. a mirror of the download address
+     * @param eTag          ETag
+     * @param lastModified  Last-Modified
+     * @param contentLength total length of the content
+     */
+    public void update(@Nullable String source, @Nullable String eTag, @Nullable String lastModified, long contentLength) {
+        this.mSource = source;
+        this.mETag = eTag;
+        this.mLastModified = lastModified;
+        this.mContentLength = contentLength;
+        save();
+    }
+
+    /**
+     * Set the byte ranges of a segmented download and save them
+     *
+     * @param segments segments
+     */
+    public void setSegments(@NonNull List<Segment> segments) {
+        this.mSegments = segments;
+        save();
+    }
+
+    /**
+     * Download completed: rename the temporary file to the target file, the validators are kept to revalidate it
+     *
+     * @param checksum The checksum computed while downloading, it is recorded together with the target file; can be null
+     * @throws IOException
+     */
+    public void complete(@Nullable ApkChecksum checksum) throws IOException {
+        if (mFile.exists()) {
+            mFile.delete();
+        }
+        if (!mPartFile.renameTo(mFile)) {
+            throw new IOException("Failed to rename " + mPartFile + " to " + mFile);
+        }
+        if (checksum != null || !isEmpty(mETag) || !isEmpty(mLastModified)) {
+            this.mSegments = null;
+            this.mDownloaded = -1;
+            this.mChecksum = checksum;
+            this.mFileLength = mFile.length();
+            this.mFileLastModified = mFile.lastModified();
+            save();
+        } else {
+            mMetaFile.delete();
+        }
+    }
+
+    /**
+     * Delete the temporary file and the record
+     */
+    public void delete() {
+        mPartFile.delete();
+        mMetaFile.delete();
+    }
+
+    private void load() {
+        if (!mMetaFile.exists()) {
+            return;
+        }
+        InputStream is = null;
+        try {
+            is = new FileInputStream(mMetaFile);
+            Properties properties = new Properties();
+            properties.load(is);
+            mUrl = properties.getProperty(KEY_URL);
+            mSource = properties.getProperty(KEY_SOURCE);
+            mETag = properties.getProperty(KEY_ETAG);
+            mLastModified = properties.getProperty(KEY_LAST_MODIFIED);
+            mContentLength = Long.parseLong(properties.getProperty(KEY_CONTENT_LENGTH, "-1"));
+            mSegments = Segment.parse(properties.getProperty(KEY_SEGMENTS));
+            mDownloaded = Long.parseLong(properties.getProperty(KEY_DOWNLOADED, "-1"));
+            ChecksumAlgorithm algorithm = ChecksumAlgorithm.of(properties.getProperty(KEY_CHECKSUM_ALGORITHM));
+            String checksum = properties.getProperty(KEY_CHECKSUM);
+            mChecksum = algorithm != null && checksum != null ? new ApkChecksum(algorithm, checksum) : null;
+            mFileLength = Long.parseLong(properties.getProperty(KEY_FILE_LENGTH, "-1"));
+            mFileLastModified = Long.parseLong(properties.getProperty(KEY_FILE_LAST_MODIFIED, "0"));
+        } catch (Exception e) {
+            LogUtils.w(e.getMessage());
+            // The record is damaged and cannot be used to resume
+            mUrl = null;
+        } finally {
+            close(is);
+        }
+    }
+
+    /**
+     * Save the record, it is called periodically by the segmented download to persist the progress of each segment
+     */
+    public synchronized void save() {
+        OutputStream os = null;
+        try {
+            Properties properties = new Properties();
+            setProperty(properties, KEY_URL, mUrl);
+            setProperty(properties, KEY_SOURCE, mSource);
+            setProperty(properties, KEY_ETAG, mETag);
+            setProperty(properties, KEY_LAST_MODIFIED, mLastModified);
+            properties.setProperty(KEY_CONTENT_LENGTH, String.valueOf(mContentLength));
+            if (mSegments != null) {
+                properties.setProperty(KEY_SEGMENTS, Segment.format(mSegments));
+            }
+            if (mDownloaded >= 0) {
+                properties.setProperty(KEY_DOWNLOADED, String.valueOf(mDownloaded));
+            }
+            if (mChecksum != null) {
+                properties.setProperty(KEY_CHECKSUM_ALGORITHM, mChecksum.getAlgorithm().getName());
+                properties.setProperty(KEY_CHECKSUM, mChecksum.getValue());
+            }
+            if (mFileLength >= 0) {
+                properties.setProperty(KEY_FILE_LENGTH, String.valueOf(mFileLength));
+                properties.setProperty(KEY_FILE_LAST_MODIFIED, String.valueOf(mFileLastModified));
+            }
+            os = new FileOutputStream(mMetaFile);
+            properties.store(os, null);
+        } catch (Exception e) {
+            LogUtils.w(e.getMessage());
+        } finally {
+            close(os);
+        }
+    }
+
+    private static boolean isEmpty(@Nullable String value) {
+        return value == null || value.isEmpty();
+    }
+
+    private static boolean equals(@Nullable String a, @Nullable String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static void setProperty(Properties properties, String key, String value) {
+        if (value != null) {
+            properties.setProperty(key, value);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Parse the first byte position of the Content-Range response header, e.g. {@code bytes 200-1000/67589}
+     *
+     * @param contentRange Content-Range
+     * @return Returns the first byte position, or -1 if it cannot be parsed
+     */
+    public static long parseContentRangeStart(@Nullable String contentRange) {
+        if (contentRange != null) {
+            int start = contentRange.indexOf(' ');
+            int end = contentRange.indexOf('-', start + 1);
+            if (start >= 0 && end > start) {
+                try {
+                    return Long.parseLong(contentRange.substring(start + 1, end).trim());
+                } catch (NumberFormatException e) {
+                    LogUtils.w(e.getMessage());
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parse the complete length of the Content-Range response header, e.g. {@code bytes 200-1000/67589}
+     *
+     * @param contentRange Content-Range
+     * @return Returns the complete length, or -1 if it is unknown or cannot be parsed
+     */
+    public static long parseContentRangeTotal(@Nullable String contentRange) {
+        if (contentRange != null) {
+            int index = contentRange.lastIndexOf('/');
+            if (index >= 0) {
+                try {
+                    return Long.parseLong(contentRange.substring(index + 1).trim());
+                } catch (NumberFormatException e) {
+                    LogUtils.w(e.getMessage());
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A byte range of a segmented download
+     */
+    public static class Segment {
+        /**
+         * First byte position
+         */
+        private final long start;
+        /**
+         * Last byte position (inclusive)
+         */
+        private final long end;
+        /**
+         * Number of bytes downloaded from the first byte position
+         */
+        private volatile long downloaded;
+
+        public Segment(long start, long end, long downloaded) {
+            this.start = start;
+            this.end = end;
+            this.downloaded = downloaded;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public long getDownloaded() {
+            return downloaded;
+        }
+
+        public void setDownloaded(long downloaded) {
+            this.downloaded = downloaded;
+        }
+
+        /**
+         * Get the position from which the segment should continue
+         *
+         * @return
+         */
+        public long getPosition() {
+            return start + downloaded;
+        }
+
+        public long getLength() {
+            return end - start + 1;
+        }
+
+        public boolean isCompleted() {
+            return downloaded >= getLength();
+        }
+
+        /**
+         * Format segments, e.g. {@code 0-999:1000,1000-1999:512}
+         */
+        static String format(List<Segment> segments) {
+            StringBuilder sb = new StringBuilder();
+            for (Segment segment : segments) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(segment.start).append('-').append(segment.end).append(':').append(segment.downloaded);
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Parse segments formatted by {@link #format(List)}
+         */
+        @Nullable
+        static List<Segment> parse(@Nullable String value) {
+            if (isEmpty(value)) {
+                return null;
+            }
+            List<Segment> segments = new ArrayList<>();
+            for (String item : value.split(",")) {
+                int index = item.indexOf('-');
+                int colon = item.indexOf(':');
+                segments.add(new Segment(Long.parseLong(item.substring(0, index)), Long.parseLong(item.substring(index + 1, colon)), Long.parseLong(item.substring(colon + 1))));
+            }
+            return segments;
+        }
+    }
+
+}
@@ -0,0 +1,239 @@
+package com.king.app.updater.http;
+
+import com.king.app.updater.checksum.IHasher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * DownloadWriter copies a response body to the file through a {@link FileChannel}: the data is read into a reusable
+ * {@link ByteBuffer} and written at an explicit position only when the buffer is full, so a large buffer means fewer
+ * system calls. It is used by the download tasks of {@link HttpManager}, {@link OkHttpManager} and
+ * {@link SegmentedHttpManager}. The reads and the writes alternate on the calling thread, see
+ * {@link PipelinedDownloadWriter} to overlap them.
+ * <p>With a direct buffer, the data is copied from the stream into it instead of being copied into a temporary direct
+ * buffer by the channel on every write.
+ * <p>The checksum (if any) is updated with the data in the order it is read, and {@link #getWrittenPosition()} only
+ * counts the bytes that have reached the file, that is what can be recorded to resume the download.
+ * <p>The buffers are taken from {@link BufferPool} and returned by {@link #close()}. With an {@link AdaptiveBufferSize},
+ * the buffer is replaced by one of the chosen size when it is empty.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public class DownloadWriter implements IDownloadWriter {
+
+    /**
+     * Minimum size of the buffer
+     */
+    public static final int MIN_BUFFER_SIZE = 4 * 1024;
+
+    private final FileChannel mChannel;
+    /**
+     * Whether the channel is closed by {@link #close()}
+     */
+    private final boolean isOwner;
+
+    private final boolean isDirect;
+    /**
+     * Chooses the size of the buffer, null for a fixed size
+     */
+    private final AdaptiveBufferSize mAdaptiveSize;
+
+    private ByteBuffer mBuffer;
+    /**
+     * The array the stream is read into: the backing array of a heap buffer, or the array of a scratch heap buffer for
+     * a direct buffer
+     */
+    private byte[] mArray;
+
+    private ByteBuffer mScratch;
+
+    private final IHasher mHasher;
+    /**
+     * The position in the file of the first byte of the buffer
+     */
+    private long mPosition;
+
+    /**
+     * Open the file and write from the position, the file is closed by {@link #close()}
+     *
+     * @param file       the file
+     * @param position   the position of the first byte to write
+     * @param bufferSize size of the buffer (bytes)
+     * @param isDirect   whether to allocate a direct buffer
+     * @param hasher     updated with the data read, can be null
+     * @return
+     * @throws IOException
+     */
+    public static DownloadWriter open(@NonNull File file, long position, int bufferSize, boolean isDirect, @Nullable IHasher hasher) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        return new DownloadWriter(raf.getChannel(), true, position, bufferSize, null, isDirect, hasher);
+    }
+
+    /**
+     * Open the file and write from the position with a buffer of adaptive size, the file is closed by {@link #close()}
+     *
+     * @param file         the file
+     * @param position     the position of the first byte to write
+     * @param adaptiveSize chooses the size of the buffer
+     * @param isDirect     whether to allocate a direct buffer
+     * @param hasher       updated with the data read, can be null
+     * @return
+     * @throws IOException
+     */
+    public static DownloadWriter open(@NonNull File file, long position, @NonNull AdaptiveBufferSize adaptiveSize, boolean isDirect, @Nullable IHasher hasher) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        return new DownloadWriter(raf.getChannel(), true, position, adaptiveSize.getSize(), adaptiveSize, isDirect, hasher);
+    }
+
+    /**
+     * Write to a channel shared with other writers (e.g. the segments of a file), the channel is not closed by {@link #close()}
+     *
+     * @param channel    the channel of the file
+     * @param position   the position of the first byte to write
+     * @param bufferSize size of the buffer (bytes)
+     * @param isDirect   whether to allocate a direct buffer
+     * @param hasher     updated with the data read, can be null
+     */
+    public DownloadWriter(@NonNull FileChannel channel, long position, int bufferSize, boolean isDirect, @Nullable IHasher hasher) {
+        this(channel, false, position, bufferSize, null, isDirect, hasher);
+    }
+
+    /**
+     * Write to a channel shared with other writers with a buffer of adaptive size, the channel is not closed by {@link #close()}
+     *
+     * @param channel      the channel of the file
+     * @param position     the position of the first byte to write
+     * @param adaptiveSize chooses the size of the buffer
+     * @param isDirect     whether to allocate a direct buffer
+     * @param hasher       updated with the data read, can be null
+     */
+    public DownloadWriter(@NonNull FileChannel channel, long position, @NonNull AdaptiveBufferSize adaptiveSize, boolean isDirect, @Nullable IHasher hasher) {
+        this(channel, false, position, adaptiveSize.getSize(), adaptiveSize, isDirect, hasher);
+    }
+
+    private DownloadWriter(FileChannel channel, boolean isOwner, long position, int bufferSize, AdaptiveBufferSize adaptiveSize, boolean isDirect, IHasher hasher) {
+        this.mChannel = channel;
+        this.isOwner = isOwner;
+        this.mPosition = position;
+        this.mHasher = hasher;
+        this.isDirect = isDirect;
+        this.mAdaptiveSize = adaptiveSize;
+        allocate(Math.max(MIN_BUFFER_SIZE, bufferSize));
+    }
+
+    private void allocate(int bufferSize) {
+        BufferPool pool = BufferPool.getDefault();
+        mBuffer = pool.acquire(bufferSize, isDirect);
+        if (isDirect) {
+            mScratch = pool.acquire(bufferSize, false);
+            mArray = mScratch.array();
+        } else {
+            mArray = mBuffer.array();
+        }
+    }
+
+    private void recycle() {
+        BufferPool pool = BufferPool.getDefault();
+        pool.release(mBuffer);
+        mBuffer = null;
+        if (mScratch != null) {
+            pool.release(mScratch);
+            mScratch = null;
+        }
+        mArray = null;
+    }
+
+    @Override
+    public int transferFrom(@NonNull InputStream is, long maxLength) throws IOException {
+        if (!mBuffer.hasRemaining()) {
+            flush();
+        }
+        int offset = mBuffer.isDirect() ? 0 : mBuffer.arrayOffset() + mBuffer.position();
+        int len = is.read(mArray, offset, (int) Math.min(mBuffer.remaining(), maxLength));
+        if (len > 0) {
+            if (mAdaptiveSize != null) {
+                mAdaptiveSize.onRead(len);
+            }
+            if (mHasher != null) {
+                mHasher.update(mArray, offset, len);
+            }
+            if (mBuffer.isDirect()) {
+                mBuffer.put(mArray, 0, len);
+            } else {
+                mBuffer.position(mBuffer.position() + len);
+            }
+            if (!mBuffer.hasRemaining()) {
+                flush();
+            }
+        }
+        return len;
+    }
+
+    @Override
+    public int transferFrom(@NonNull InputStream is) throws IOException {
+        return transferFrom(is, Long.MAX_VALUE);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mBuffer.flip();
+        try {
+            while (mBuffer.hasRemaining()) {
+                mPosition += mChannel.write(mBuffer, mPosition);
+            }
+        } finally {
+            mBuffer.compact();
+        }
+        if (mAdaptiveSize != null && mBuffer.position() == 0) {
+            int bufferSize = Math.max(MIN_BUFFER_SIZE, mAdaptiveSize.getSize());
+            if (bufferSize != mBuffer.capacity()) {
+                recycle();
+                allocate(bufferSize);
+            }
+        }
+    }
+
+    @Override
+    public long getPosition() {
+        return mBuffer != null ? mPosition + mBuffer.position() : mPosition;
+    }
+
+    @Override
+    public long getWrittenPosition() {
+        return mPosition;
+    }
+
+    /**
+     * Write the buffered data to the file and return the buffer to the pool, and close the file if it was opened by
+     * {@link #open(File, long, int, boolean, IHasher)}. The interrupt of the thread (if any) is deferred until the data
+     * is written: an interrupted {@link FileChannel} would be closed and the buffered data lost
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (mBuffer == null) {
+            return;
+        }
+        boolean isInterrupted = Thread.interrupted();
+        try {
+            flush();
+        } finally {
+            recycle();
+            if (isOwner) {
+                mChannel.close();
+            }
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
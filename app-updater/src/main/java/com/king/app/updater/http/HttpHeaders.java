@@ -0,0 +1,37 @@
+package com.king.app.updater.http;
+
+/**
+ * HTTP header names used by the download implementations
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public final class HttpHeaders {
+
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+    public static final String ACCEPT_RANGES = "Accept-Ranges";
+
+    public static final String RANGE = "Range";
+
+    public static final String IF_RANGE = "If-Range";
+
+    public static final String CONTENT_RANGE = "Content-Range";
+
+    public static final String ETAG = "ETag";
+
+    public static final String LAST_MODIFIED = "Last-Modified";
+
+    public static final String LOCATION = "Location";
+
+    public static final String IF_NONE_MATCH = "If-None-Match";
+
+    public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    public static final String CACHE_CONTROL = "Cache-Control";
+
+    public static final String RETRY_AFTER = "Retry-After";
+
+    private HttpHeaders() {
+        throw new AssertionError();
+    }
+}
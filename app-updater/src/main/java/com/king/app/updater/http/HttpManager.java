@@ -1,38 +1,70 @@
 package com.king.app.updater.http;
 
-import android.os.AsyncTask;
 import android.os.Build;
 
+import com.king.app.updater.UpdateConfig;
+import com.king.app.updater.checksum.ApkChecksum;
+import com.king.app.updater.checksum.ChecksumVerifier;
+import com.king.app.updater.checksum.IHasher;
+import com.king.app.updater.constant.Constants;
 import com.king.app.updater.util.LogUtils;
 import com.king.app.updater.util.SSLSocketFactoryUtils;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.net.ConnectException;
 import java.net.HttpURLConnection;
+import java.net.ProtocolException;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
+import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 /**
  * HttpManager uses {@link IHttpManager} implemented by {@link HttpURLConnection}
+ * <p>HttpManager is also an {@link IHttpConnector}, so it can be used as the transport of {@link SegmentedHttpManager}
+ * <p>The connections are reused: the HTTPS connections of a manager share its {@link SSLSocketFactory} (set on each
+ * connection, the global default is left untouched), which resumes the TLS sessions, and a response read to the end
+ * is closed without {@link HttpURLConnection#disconnect()}, so that its socket is kept alive for the next request to
+ * the same host (the redirects, the retries and the segments).
  *
  * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
  */
-public class HttpManager implements IHttpManager {
+public class HttpManager extends BaseHttpManager implements IHttpConnector {
 
-    private static final int HTTP_TEMP_REDIRECT = 307;
-    private static final int HTTP_PERM_REDIRECT = 308;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
 
     private static final int DEFAULT_TIME_OUT = 20000;
+    /**
+     * Number of TLS sessions kept for resumption
+     */
+    private static final int SSL_SESSION_CACHE_SIZE = 16;
+    /**
+     * How long a TLS session can be resumed
+     */
+    private static final int SSL_SESSION_TIMEOUT_SECONDS = 60 * 60;
+    /**
+     * Maximum size of an unneeded response body read to keep its connection alive
+     */
+    private static final int MAX_DISCARD_BYTES = 8 * 1024;
 
     private int mTimeout;
 
-    private DownloadTask mDownloadTask;
+    /**
+     * SSLSocketFactory of the HTTPS connections, the pooled connections are only reused with the same instance
+     */
+    private SSLSocketFactory mSSLSocketFactory;
+
+    private HostnameVerifier mHostnameVerifier;
 
     private static volatile HttpManager INSTANCE;
 
@@ -60,21 +92,227 @@ public class HttpManager implements IHttpManager {
 
     @Override
     public void download(String url, String saveFilePath, @Nullable Map<String, String> requestProperty, DownloadCallback callback) {
-        mDownloadTask = new DownloadTask(url, saveFilePath, mTimeout, requestProperty, callback);
-        mDownloadTask.execute();
+        UpdateConfig config = new UpdateConfig();
+        if (requestProperty != null) {
+            config.addHeader(requestProperty);
+        }
+        download(config, url, saveFilePath, callback);
+    }
+
+    @Override
+    public void download(@NonNull UpdateConfig config, String url, String saveFilePath, DownloadCallback callback) {
+        execute(new DownloadTask(this, url, saveFilePath, mTimeout, config, callback, getCallbackExecutor()));
     }
 
+    @NonNull
     @Override
-    public void cancel() {
-        if (mDownloadTask != null) {
-            mDownloadTask.isCancel = true;
+    public Connection connect(String url, @Nullable Map<String, String> requestProperty) throws IOException {
+        HttpURLConnection connect = open(url, requestProperty, mTimeout, mTimeout, Constants.DEFAULT_MAX_REDIRECTS, Constants.DEFAULT_REDIRECT_CACHE_TTL_MILLIS, null);
+        return new UrlConnection(connect);
+    }
+
+    @NonNull
+    @Override
+    public Connection connect(String url, @Nullable Map<String, String> requestProperty, @NonNull RequestHedger.Attempt<?> attempt) throws IOException {
+        HttpURLConnection connect = open(url, requestProperty, mTimeout, mTimeout, Constants.DEFAULT_MAX_REDIRECTS, Constants.DEFAULT_REDIRECT_CACHE_TTL_MILLIS, attempt);
+        return new UrlConnection(connect);
+    }
+
+    /**
+     * Execute a GET request and follow the redirects, the final URL cached by {@link RedirectResolver} is requested first
+     * and forgotten if it fails
+     *
+     * @param url              the download URL
+     * @param requestProperty  the request headers
+     * @param connectTimeout   the connect timeout
+     * @param readTimeout      the read timeout
+     * @param maxRedirects     maximum number of redirects
+     * @param redirectCacheTtl how long the final URL is cached, 0 does not cache it
+     * @param attempt          the hedged request, its connection is disconnected when it is cancelled
+     * @return the connected response that is not a redirect
+     * @throws IOException
+     */
+    private HttpURLConnection open(String url, @Nullable Map<String, String> requestProperty, int connectTimeout, int readTimeout, int maxRedirects, long redirectCacheTtl, @Nullable RequestHedger.Attempt<?> attempt) throws IOException {
+        RedirectResolver resolver = RedirectResolver.getDefault();
+        String target = resolver.resolve(url);
+        boolean isCached = !target.equals(url);
+        if (isCached) {
+            LogUtils.d("cachedRedirectUrl = " + target);
+        }
+        int redirects = 0;
+        while (true) {
+            final HttpURLConnection connect = (HttpURLConnection) NetworkBinding.getDefault().openConnection(new URL(target));
+            if (attempt != null) {
+                attempt.setCancelable(new Closeable() {
+                    @Override
+                    public void close() {
+                        connect.disconnect();
+                    }
+                });
+            }
+            int responseCode;
+            try {
+                if (connect instanceof HttpsURLConnection) {
+                    ((HttpsURLConnection) connect).setSSLSocketFactory(getSSLSocketFactory());
+                    ((HttpsURLConnection) connect).setHostnameVerifier(getHostnameVerifier());
+                }
+                connect.setInstanceFollowRedirects(false);
+                connect.setRequestMethod("GET");
+                connect.setRequestProperty(HttpHeaders.ACCEPT_ENCODING, "identity");
+
+                connect.setReadTimeout(readTimeout);
+                connect.setConnectTimeout(connectTimeout);
+
+                if (requestProperty != null) {
+                    for (Map.Entry<String, String> entry : requestProperty.entrySet()) {
+                        connect.setRequestProperty(entry.getKey(), entry.getValue());
+                    }
+                }
+
+                connect.connect();
+                responseCode = connect.getResponseCode();
+            } catch (IOException e) {
+                connect.disconnect();
+                if (!isCached || (attempt != null && attempt.isCancelled())) {
+                    throw e;
+                }
+                // The cached final URL is not reachable, follow the redirects again
+                resolver.remove(url);
+                isCached = false;
+                target = url;
+                redirects = 0;
+                continue;
+            }
+
+            if (RedirectResolver.isRedirect(responseCode)) {
+                String location = connect.getHeaderField(HttpHeaders.LOCATION);
+                release(connect);
+                if (++redirects > maxRedirects) {
+                    throw new ProtocolException(String.format(Locale.getDefault(), "Too many redirects: %d", redirects));
+                }
+                target = RedirectResolver.resolveLocation(target, location);
+                LogUtils.d("redirectUrl = " + target);
+                continue;
+            }
+            if (isCached && responseCode >= HttpURLConnection.HTTP_BAD_REQUEST && responseCode != HTTP_RANGE_NOT_SATISFIABLE) {
+                // The cached final URL has failed (e.g. an expired signed URL), follow the redirects again
+                release(connect);
+                resolver.remove(url);
+                isCached = false;
+                target = url;
+                redirects = 0;
+                continue;
+            }
+            if (responseCode < HttpURLConnection.HTTP_BAD_REQUEST && !target.equals(url)) {
+                resolver.put(url, target, redirectCacheTtl);
+            }
+            return connect;
+        }
+    }
+
+    private synchronized SSLSocketFactory getSSLSocketFactory() {
+        if (mSSLSocketFactory == null) {
+            mSSLSocketFactory = SSLSocketFactoryUtils.createSSLSocketFactory(SSL_SESSION_CACHE_SIZE, SSL_SESSION_TIMEOUT_SECONDS);
+        }
+        return mSSLSocketFactory;
+    }
+
+    private synchronized HostnameVerifier getHostnameVerifier() {
+        if (mHostnameVerifier == null) {
+            mHostnameVerifier = SSLSocketFactoryUtils.createAllowAllHostnameVerifier();
+        }
+        return mHostnameVerifier;
+    }
+
+    /**
+     * Release a connection whose response body is not needed, e.g. a redirect or an error: a small body is read to the
+     * end and closed so that the socket can be kept alive for the next request to the same host, otherwise the
+     * connection is closed
+     *
+     * @param connect {@link HttpURLConnection}
+     */
+    private static void release(HttpURLConnection connect) {
+        try {
+            InputStream is = connect.getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST ? connect.getInputStream() : connect.getErrorStream();
+            if (is != null) {
+                byte[] buffer = new byte[1024];
+                long discarded = 0;
+                int len;
+                while (discarded <= MAX_DISCARD_BYTES && (len = is.read(buffer)) != -1) {
+                    discarded += len;
+                }
+                if (discarded > MAX_DISCARD_BYTES) {
+                    connect.disconnect();
+                    return;
+                }
+                is.close();
+            }
+        } catch (IOException e) {
+            connect.disconnect();
+        }
+    }
+
+    /**
+     * {@link Connection} implemented by {@link HttpURLConnection}
+     */
+    private static class UrlConnection implements Connection {
+
+        private HttpURLConnection connect;
+
+        UrlConnection(HttpURLConnection connect) {
+            this.connect = connect;
+        }
+
+        @Override
+        public int getResponseCode() {
+            try {
+                return connect.getResponseCode();
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        @Nullable
+        @Override
+        public String getHeaderField(String name) {
+            return connect.getHeaderField(name);
+        }
+
+        @Override
+        public long getContentLength() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                return connect.getContentLengthLong();
+            }
+            return connect.getContentLength();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return connect.getInputStream();
+        }
+
+        @Override
+        public void release() {
+            try {
+                // The socket is kept alive if the response has been read to the end
+                connect.getInputStream().close();
+            } catch (IOException e) {
+                connect.disconnect();
+            }
+        }
+
+        @Override
+        public void close() {
+            connect.disconnect();
         }
     }
 
     /**
      * Asynchronous download tasks
      */
-    private static class DownloadTask extends AsyncTask<Void, Long, File> {
+    private static class DownloadTask extends BaseDownloadTask {
+
+        private HttpManager httpManager;
 
         private String url;
 
@@ -86,40 +324,118 @@ public class HttpManager implements IHttpManager {
 
         private Exception exception;
 
-        private int timeout;
-
-        private volatile boolean isCancel;
-
-        public DownloadTask(String url, String saveFilePath, int timeout, @Nullable Map<String, String> requestProperty, DownloadCallback callback) {
+        private int connectTimeout;
+        /**
+         * Timeout of the response headers, see {@link RequestHedger.Attempt}
+         */
+        private long firstByteTimeout;
+        /**
+         * Maximum time without data, see {@link ThroughputMonitor}
+         */
+        private long transferTimeout;
+        /**
+         * Read timeout of the socket, the longest of the timeouts: the shorter one is enforced by the watchdog
+         */
+        private int readTimeout;
+        /**
+         * Maximum duration of the download
+         */
+        private long deadline;
+        /**
+         * Maximum number of redirects of a request
+         */
+        private int maxRedirects;
+        /**
+         * How long the final URL of the redirects is cached by {@link RedirectResolver}
+         */
+        private long redirectCacheTtl;
+
+        /**
+         * Verifies the file, it selects the checksum algorithm computed while downloading
+         */
+        private ChecksumVerifier verifier;
+        /**
+         * Minimum download rate of a mirror, see {@link ThroughputMonitor}
+         */
+        private long minBytesPerSecond;
+        /**
+         * Percentile of the times to first byte after which a request is hedged, see {@link RequestHedger}
+         */
+        private float hedgePercentile;
+
+        public DownloadTask(HttpManager httpManager, String url, String saveFilePath, int timeout, @NonNull UpdateConfig config, DownloadCallback callback, @NonNull Executor callbackExecutor) {
+            super(url, config, callback, callbackExecutor);
+            this.httpManager = httpManager;
             this.url = url;
             this.saveFilePath = saveFilePath;
-            this.timeout = timeout;
+            this.connectTimeout = config.getConnectTimeout() > 0 ? (int) Math.min(Integer.MAX_VALUE, config.getConnectTimeout()) : timeout;
+            this.firstByteTimeout = config.getFirstByteTimeout() > 0 ? config.getFirstByteTimeout() : timeout;
+            this.transferTimeout = config.getTransferTimeout() > 0 ? config.getTransferTimeout() : timeout;
+            this.readTimeout = (int) Math.min(Integer.MAX_VALUE, Math.max(firstByteTimeout, transferTimeout));
+            this.deadline = config.getDeadline();
+            this.maxRedirects = config.getMaxRedirects();
+            this.redirectCacheTtl = config.getRedirectCacheTtl();
             this.callback = callback;
-            this.requestProperty = requestProperty;
+            this.requestProperty = config.getRequestProperty();
+            this.verifier = new ChecksumVerifier(config.getChecksums());
+            this.minBytesPerSecond = config.getMinBytesPerSecond();
+            this.hedgePercentile = config.getHedgePercentile();
         }
 
-        private File download(String url) throws Exception {
-            HttpURLConnection connect = (HttpURLConnection) new URL(url).openConnection();
-            connect.setRequestMethod("GET");
-            connect.setRequestProperty("Accept-Encoding", "identity");
-
-            connect.setReadTimeout(timeout);
-            connect.setConnectTimeout(timeout);
-
+        /**
+         * Create the request of the address, it is hedged with a request to the next mirror when its response is late
+         */
+        private RequestHedger.Attempt<HttpURLConnection> newAttempt(String target, long offset) {
+            final Map<String, String> headers = new HashMap<>();
             if (requestProperty != null) {
-                for (Map.Entry<String, String> entry : requestProperty.entrySet()) {
-                    connect.setRequestProperty(entry.getKey(), entry.getValue());
+                headers.putAll(requestProperty);
+            }
+            if (offset > 0) {
+                headers.put(HttpHeaders.RANGE, "bytes=" + offset + "-");
+                if (record.isSource(target)) {
+                    headers.put(HttpHeaders.IF_RANGE, record.getIfRange());
+                }
+            } else if (record.isRevalidatable(url) && record.isSource(target)) {
+                // Ask the server whether the completed file is still current
+                headers.putAll(record.getConditionalHeaders());
+            }
+            return new RequestHedger.Attempt<HttpURLConnection>(target, firstByteTimeout) {
+                @Override
+                protected HttpURLConnection execute() throws IOException {
+                    return httpManager.open(getUrl(), headers, connectTimeout, readTimeout, maxRedirects, redirectCacheTtl, this);
                 }
+
+                @Override
+                protected void discard(@NonNull HttpURLConnection response) {
+                    response.disconnect();
+                }
+            };
+        }
+
+        @Override
+        protected File download(@NonNull String url) throws Exception {
+            // Resume from the temporary file if there is one
+            long offset = record.getOffset();
+            if (offset > 0) {
+                LogUtils.d("Range: bytes=" + offset + "-");
             }
 
-            connect.connect();
+            checkDeadline();
+            long hedgeDelay = RequestHedger.getDelay(hedgePercentile);
+            RequestHedger.Attempt<HttpURLConnection> attempt = RequestHedger.execute(newAttempt(url, offset),
+                    hedgeDelay >= 0 ? newAttempt(mirrors.getAlternateUrl(), offset) : null, hedgeDelay);
+            if (!attempt.getUrl().equals(url)) {
+                // The hedged request to the next mirror has answered first
+                url = attempt.getUrl();
+                mirrors.select(url);
+            }
+            final HttpURLConnection connect = attempt.getResponse();
 
             LogUtils.d("Content-Type: " + connect.getContentType());
             int responseCode = connect.getResponseCode();
             switch (responseCode) {
-                case HttpURLConnection.HTTP_OK: {
-                    InputStream is = connect.getInputStream();
-
+                case HttpURLConnection.HTTP_OK:
+                case HttpURLConnection.HTTP_PARTIAL: {
                     long length = connect.getContentLength();
 
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
@@ -128,69 +444,171 @@ public class HttpManager implements IHttpManager {
 
                     LogUtils.d("contentLength: " + length);
 
-                    long progress = 0;
+                    long start = 0;
+                    if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                        String contentRange = connect.getHeaderField(HttpHeaders.CONTENT_RANGE);
+                        start = DownloadRecord.parseContentRangeStart(contentRange);
+                        long contentLength = DownloadRecord.parseContentRangeTotal(contentRange);
+                        if (start != offset || (contentLength > 0 && record.getContentLength() > 0 && contentLength != record.getContentLength())) {
+                            // The returned range does not match the temporary file, download again from the beginning
+                            LogUtils.w(String.format(Locale.getDefault(), "Content-Range: %s, offset = %d", contentRange, offset));
+                            connect.disconnect();
+                            record.reset(this.url);
+                            return download(url);
+                        }
+                    } else {
+                        if (offset > 0) {
+                            LogUtils.d("Resume is not supported or the content has changed, download again.");
+                        }
+                        record.reset(this.url);
+                        record.update(url, connect.getHeaderField(HttpHeaders.ETAG), connect.getHeaderField(HttpHeaders.LAST_MODIFIED), length);
+                    }
 
-                    byte[] buffer = new byte[4096];
+                    long total = length > 0 ? start + length : length;
 
-                    int len;
-                    File file = new File(saveFilePath);
-                    FileOutputStream fos = new FileOutputStream(file);
-                    while ((len = is.read(buffer)) != -1) {
-                        if (isCancel) {
-                            cancel(true);
-                            break;
+                    IHasher hasher = verifier.newHasher();
+                    if (hasher != null && start > 0) {
+                        // Continue the checksum with the data already downloaded
+                        ChecksumVerifier.update(hasher, record.getPartFile(), start);
+                    }
+
+                    if (total > 0) {
+                        try {
+                            // Check the free space and reserve the whole file before the transfer
+                            record.setDownloaded(start);
+                            record.preallocate(total);
+                        } catch (IOException e) {
+                            connect.disconnect();
+                            throw e;
                         }
-                        fos.write(buffer, 0, len);
-                        progress += len;
-                        // Update progress
-                        publishProgress(progress, length);
                     }
 
-                    fos.flush();
-                    fos.close();
-                    is.close();
+                    long progress = start;
+                    progressReporter.setTotal(total);
+                    progressReporter.set(progress);
 
-                    connect.disconnect();
+                    int len;
+                    InputStream is = connect.getInputStream();
+                    ThroughputMonitor monitor = new ThroughputMonitor(minBytesPerSecond, 1, transferTimeout, getRemainingTime());
+                    AdaptiveBufferSize adaptiveBufferSize = newAdaptiveBufferSize();
+                    IDownloadWriter writer = openWriter(record.getPartFile(), start, adaptiveBufferSize, hasher);
+                    boolean isEndOfStream = false;
+                    Closeable connection = new Closeable() {
+                        @Override
+                        public void close() {
+                            connect.disconnect();
+                        }
+                    };
+                    monitor.watch(connection);
+                    setConnection(connection);
+                    try {
+                        while ((len = writer.transferFrom(is)) != -1) {
+                            if (isCancel) {
+                                // The thread is not interrupted, the writer must still flush its buffer to the file
+                                cancel(false);
+                                break;
+                            }
+                            progress += len;
+                            if (total > 0) {
+                                record.setDownloaded(writer.getWrittenPosition());
+                            }
+                            // Update progress, it is sampled by the reporter
+                            progressReporter.set(progress);
+                            throttle(len, monitor);
+                            monitor.onRead(len);
+                        }
+                        isEndOfStream = len == -1;
+                    } catch (IOException e) {
+                        // The watchdog may have closed the connection
+                        throw monitor.getError(e);
+                    } finally {
+                        monitor.stop();
+                        setConnection(null);
+                        try {
+                            writer.close();
+                        } finally {
+                            if (adaptiveBufferSize != null) {
+                                LogUtils.d(adaptiveBufferSize.toString());
+                            }
+                            if (isEndOfStream) {
+                                // The response is read to the end, its socket is kept alive for the next request
+                                is.close();
+                            } else {
+                                connect.disconnect();
+                            }
+                            if (total > 0) {
+                                // Save the written length so that the download can be resumed
+                                record.setDownloaded(writer.getWrittenPosition());
+                                record.save();
+                            }
+                        }
+                    }
+
+                    if (isCancel) {
+                        return null;
+                    }
 
                     if (progress <= 0 && length <= 0) {
                         throw new IllegalStateException(String.format("contentLength = %d", length));
                     }
 
-                    return file;
-                }
-                case HttpURLConnection.HTTP_MULT_CHOICE:
-                case HttpURLConnection.HTTP_MOVED_PERM:
-                case HttpURLConnection.HTTP_MOVED_TEMP:
-                case HttpURLConnection.HTTP_SEE_OTHER:
-                case HTTP_TEMP_REDIRECT:
-                case HTTP_PERM_REDIRECT: {
-                    // Redirect
-                    String redirectUrl = connect.getHeaderField("Location");
-                    LogUtils.d("redirectUrl = " + redirectUrl);
-                    connect.disconnect();
-                    return download(redirectUrl);
+                    if (total > 0 && progress != total) {
+                        // Keep the temporary file so that the download can be resumed
+                        throw monitor.getError(new IOException(String.format(Locale.getDefault(), "Unexpected end of stream: %d/%d", progress, total)));
+                    }
+
+                    if (hasher != null) {
+                        checksum = new ApkChecksum(hasher.getAlgorithm(), hasher.digest());
+                    }
+                    record.complete(checksum);
+
+                    return record.getFile();
                 }
-                default:
+                case HttpURLConnection.HTTP_NOT_MODIFIED: {
+                    // The completed file is current, the response has no body
+                    release(connect);
+                    return notModified();
+                }
+                case HTTP_RANGE_NOT_SATISFIABLE: {
+                    release(connect);
+                    if (offset > 0) {
+                        // The temporary file is invalid, download again from the beginning
+                        record.reset(this.url);
+                        return download(url);
+                    }
+                    throw new HttpStatusException(responseCode, null);
+                }
+                default: {
                     // Connection failed
-                    throw new ConnectException(String.format("responseCode = %d", responseCode));
+                    String retryAfter = connect.getHeaderField(HttpHeaders.RETRY_AFTER);
+                    release(connect);
+                    throw new HttpStatusException(responseCode, retryAfter);
+                }
 
             }
         }
 
         @Override
-        protected File doInBackground(Void... voids) {
+        protected File doInBackground() {
+            File file = null;
             try {
-                if (url.startsWith("https")) {
-                    HttpsURLConnection.setDefaultSSLSocketFactory(SSLSocketFactoryUtils.createSSLSocketFactory());
-                    HttpsURLConnection.setDefaultHostnameVerifier(SSLSocketFactoryUtils.createAllowAllHostnameVerifier());
+                setDeadline(deadline);
+                record = new DownloadRecord(new File(saveFilePath));
+                if (!record.isResumable(url) && !record.isRevalidatable(url)) {
+                    record.reset(url);
                 }
-                return download(url);
+                mirrors.probe(httpManager, requestProperty);
+                file = downloadFromMirrors();
             } catch (Exception e) {
                 this.exception = e;
                 e.printStackTrace();
             }
 
-            return null;
+            if (file == null && isCancel) {
+                // The error is caused by the cancellation (e.g. the connection is closed), onCancelled is delivered
+                cancel(false);
+            }
+            return file;
         }
 
         @Override
@@ -199,14 +617,17 @@ public class HttpManager implements IHttpManager {
             if (callback != null) {
                 callback.onStart(url);
             }
+            progressReporter.start();
         }
 
         @Override
         protected void onPostExecute(File file) {
             super.onPostExecute(file);
+            // Deliver the final progress before the download is completed
+            progressReporter.stop(file != null);
             if (callback != null) {
                 if (file != null) {
-                    callback.onFinish(file);
+                    callback.onFinish(file, checksum);
                 } else {
                     callback.onError(exception);
                 }
@@ -214,20 +635,10 @@ public class HttpManager implements IHttpManager {
             }
         }
 
-        @Override
-        protected void onProgressUpdate(Long... values) {
-            super.onProgressUpdate(values);
-            if (callback != null) {
-                if (!isCancelled()) {
-                    callback.onProgress(values[0], values[1]);
-                }
-
-            }
-        }
-
         @Override
         protected void onCancelled() {
             super.onCancelled();
+            progressReporter.stop(false);
             if (callback != null) {
                 callback.onCancel();
             }
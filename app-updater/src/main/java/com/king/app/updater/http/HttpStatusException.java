@@ -0,0 +1,82 @@
+package com.king.app.updater.http;
+
+import com.king.app.updater.constant.Constants;
+
+import java.net.ConnectException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import androidx.annotation.Nullable;
+
+/**
+ * The server has answered with an error status, it is reported to {@link IHttpManager.DownloadCallback#onError(Exception)}
+ * with the delay of the {@code Retry-After} header (e.g. {@code 429 Too Many Requests} or {@code 503 Service Unavailable})
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public class HttpStatusException extends ConnectException {
+
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    private final int mResponseCode;
+
+    private final long mRetryAfter;
+
+    /**
+     * Construction
+     *
+     * @param responseCode the response code
+     * @param retryAfter   the value of the {@code Retry-After} header, null if there is none
+     */
+    public HttpStatusException(int responseCode, @Nullable String retryAfter) {
+        super(String.format(Locale.getDefault(), "responseCode = %d", responseCode));
+        this.mResponseCode = responseCode;
+        this.mRetryAfter = parseRetryAfter(retryAfter);
+    }
+
+    public int getResponseCode() {
+        return mResponseCode;
+    }
+
+    /**
+     * Get the delay requested by the server before the request is repeated
+     *
+     * @return the delay in milliseconds, {@link Constants#NONE} if the server has not requested one
+     */
+    public long getRetryAfter() {
+        return mRetryAfter;
+    }
+
+    /**
+     * Parse the value of the {@code Retry-After} header: a number of seconds or an HTTP date
+     *
+     * @param retryAfter the value of the header
+     * @return the delay in milliseconds from now (0 if the date is past), {@link Constants#NONE} if there is no value or
+     * it cannot be parsed
+     */
+    public static long parseRetryAfter(@Nullable String retryAfter) {
+        if (retryAfter == null) {
+            return Constants.NONE;
+        }
+        String value = retryAfter.trim();
+        if (value.isEmpty()) {
+            return Constants.NONE;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value)) * 1000L;
+        } catch (NumberFormatException e) {
+            // Not a number of seconds, it is a date
+        }
+        SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = format.parse(value);
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            return Constants.NONE;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.king.app.updater.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import androidx.annotation.NonNull;
+
+/**
+ * IDownloadWriter copies a response body to the file, it is used by the download tasks. The implementations are
+ * {@link DownloadWriter}, which reads and writes on the calling thread, and {@link PipelinedDownloadWriter}, which writes
+ * on its own thread so that the network is read while the disk is written.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public interface IDownloadWriter extends Closeable {
+
+    /**
+     * Read once from the stream into the buffer, the buffer is written to the file when it is full
+     *
+     * @param is        the response body
+     * @param maxLength maximum number of bytes to read
+     * @return the number of bytes read, or -1 at the end of the stream
+     * @throws IOException if the stream cannot be read or a previous write has failed
+     */
+    int transferFrom(@NonNull InputStream is, long maxLength) throws IOException;
+
+    /**
+     * Read once from the stream into the buffer
+     *
+     * @param is the response body
+     * @return the number of bytes read, or -1 at the end of the stream
+     * @throws IOException
+     * @see #transferFrom(InputStream, long)
+     */
+    int transferFrom(@NonNull InputStream is) throws IOException;
+
+    /**
+     * Write the buffered data to the file and wait until it is written
+     *
+     * @throws IOException
+     */
+    void flush() throws IOException;
+
+    /**
+     * Get the position following the last byte read, including the buffered bytes
+     *
+     * @return
+     */
+    long getPosition();
+
+    /**
+     * Get the position following the last byte written to the file, that is what can be recorded to resume the download
+     *
+     * @return
+     */
+    long getWrittenPosition();
+
+    /**
+     * Write the buffered data to the file and release the writer
+     *
+     * @throws IOException
+     */
+    @Override
+    void close() throws IOException;
+}
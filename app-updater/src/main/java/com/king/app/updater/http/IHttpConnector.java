@@ -0,0 +1,97 @@
+package com.king.app.updater.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * IHttpConnector opens a single HTTP GET request, it is the transport used by {@link SegmentedHttpManager}.
+ * <p>Both {@link HttpManager} and {@link OkHttpManager} implement IHttpConnector, so the segmented download can run on
+ * {@link java.net.HttpURLConnection} or on OkHttp.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public interface IHttpConnector {
+
+    /**
+     * Execute a GET request and wait for the response headers (redirects are followed)
+     *
+     * @param url             request address
+     * @param requestProperty request headers
+     * @return {@link Connection}
+     * @throws IOException
+     */
+    @NonNull
+    Connection connect(String url, @Nullable Map<String, String> requestProperty) throws IOException;
+
+    /**
+     * Execute the GET request of an attempt and wait for the response headers, the request in progress is set to the
+     * attempt ({@link RequestHedger.Attempt#setCancelable(Closeable)}) so that it is aborted when the attempt is
+     * cancelled or times out. By default the request cannot be aborted, see {@link #connect(String, Map)}
+     *
+     * @param url             request address
+     * @param requestProperty request headers
+     * @param attempt         the attempt of the request
+     * @return {@link Connection}
+     * @throws IOException
+     */
+    @NonNull
+    default Connection connect(String url, @Nullable Map<String, String> requestProperty, @NonNull RequestHedger.Attempt<?> attempt) throws IOException {
+        return connect(url, requestProperty);
+    }
+
+    /**
+     * A connection whose response headers have been received
+     */
+    interface Connection extends Closeable {
+
+        /**
+         * Get the response code
+         *
+         * @return
+         */
+        int getResponseCode();
+
+        /**
+         * Get the value of a response header
+         *
+         * @param name header name
+         * @return
+         */
+        @Nullable
+        String getHeaderField(String name);
+
+        /**
+         * Get the length of the response body
+         *
+         * @return Returns -1 if it is unknown
+         */
+        long getContentLength();
+
+        /**
+         * Get the response body
+         *
+         * @return
+         * @throws IOException
+         */
+        InputStream getInputStream() throws IOException;
+
+        /**
+         * Release the connection after its response body has been read to the end, so that it can be reused by the next
+         * request to the same host (keep-alive). By default it is closed
+         */
+        default void release() {
+            close();
+        }
+
+        /**
+         * Close the connection, it can be called from another thread to abort the transfer
+         */
+        @Override
+        void close();
+    }
+}
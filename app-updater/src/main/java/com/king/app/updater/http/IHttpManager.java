@@ -1,9 +1,13 @@
 package com.king.app.updater.http;
 
+import com.king.app.updater.UpdateConfig;
+import com.king.app.updater.checksum.ApkChecksum;
+
 import java.io.File;
 import java.io.Serializable;
 import java.util.Map;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 /**
@@ -23,11 +27,34 @@ public interface IHttpManager {
      */
     void download(String url, String saveFilePath, @Nullable Map<String, String> requestProperty, DownloadCallback callback);
 
+    /**
+     * download with the options of {@link UpdateConfig} (request headers, checksums...), it is the method called by
+     * {@link com.king.app.updater.service.DownloadService}. By default only the request headers are used.
+     *
+     * @param config       {@link UpdateConfig}
+     * @param url          download address
+     * @param saveFilePath
+     * @param callback
+     */
+    default void download(@NonNull UpdateConfig config, String url, String saveFilePath, DownloadCallback callback) {
+        download(url, saveFilePath, config.getRequestProperty(), callback);
+    }
+
     /**
      * Cancel download
      */
     void cancel();
 
+    /**
+     * Cancel the download started with the callback, the other downloads of this manager go on. By default all the
+     * downloads are cancelled ({@link #cancel()})
+     *
+     * @param callback the callback passed to {@code download}
+     */
+    default void cancel(@NonNull DownloadCallback callback) {
+        cancel();
+    }
+
     interface DownloadCallback extends Serializable {
         /**
          * start
@@ -51,6 +78,17 @@ public interface IHttpManager {
          */
         void onFinish(File file);
 
+        /**
+         * Finish, with the digest computed while the data was being written, so the file does not have to be read again to verify it.
+         * By default it calls {@link #onFinish(File)}, the checksum is ignored
+         *
+         * @param file
+         * @param checksum The checksum of the file computed with the algorithm selected from {@link UpdateConfig#getChecksums()}, null if it was not computed
+         */
+        default void onFinish(File file, @Nullable ApkChecksum checksum) {
+            onFinish(file);
+        }
+
         /**
          * mistake
          *
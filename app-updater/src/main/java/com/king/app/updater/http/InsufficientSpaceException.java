@@ -0,0 +1,57 @@
+package com.king.app.updater.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The storage does not have enough free space for the file to download, it is reported to
+ * {@link IHttpManager.DownloadCallback#onError(Exception)} before the transfer starts
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public class InsufficientSpaceException extends IOException {
+
+    private final File mDirectory;
+
+    private final long mRequiredBytes;
+
+    private final long mAvailableBytes;
+
+    public InsufficientSpaceException(@NonNull File directory, long requiredBytes, long availableBytes) {
+        super(String.format(Locale.getDefault(), "Insufficient space in %s: required %d bytes, available %d bytes", directory, requiredBytes, availableBytes));
+        this.mDirectory = directory;
+        this.mRequiredBytes = requiredBytes;
+        this.mAvailableBytes = availableBytes;
+    }
+
+    /**
+     * Get the directory the file is saved to
+     *
+     * @return
+     */
+    @NonNull
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * Get the number of bytes that still have to be written
+     *
+     * @return
+     */
+    public long getRequiredBytes() {
+        return mRequiredBytes;
+    }
+
+    /**
+     * Get the number of bytes available in the directory
+     *
+     * @return
+     */
+    public long getAvailableBytes() {
+        return mAvailableBytes;
+    }
+}
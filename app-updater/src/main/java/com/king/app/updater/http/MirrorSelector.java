@@ -0,0 +1,237 @@
+package com.king.app.updater.http;
+
+import com.king.app.updater.UpdateConfig;
+import com.king.app.updater.constant.Constants;
+import com.king.app.updater.util.LogUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * MirrorSelector chooses the address of a download among the URL and its mirrors
+ * ({@link com.king.app.updater.UpdateConfig#getMirrors()}): {@link #probe(IHttpConnector, Map)} requests the first byte
+ * of each address in parallel and orders them by response time, the download then uses {@link #getUrl()} and moves to
+ * the next address with {@link #failover(String)} when it fails or is too slow (see {@link ThroughputMonitor}).
+ * <p>The mirrors serve the same file, so the download continues from the bytes already written instead of starting
+ * again; the validators (If-Range) are only sent to the address that returned them, the other mirrors are checked by
+ * the length of the content (and the checksums of the file when it is completed).
+ * <p>The segments of a download share the selector, it is thread safe.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public class MirrorSelector {
+
+    /**
+     * Maximum time of the probes, the addresses that have not responded are tried last
+     */
+    public static final long PROBE_TIMEOUT_MILLIS = 3000L;
+
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_PARTIAL = 206;
+
+    private final List<String> mUrls = new ArrayList<>();
+
+    private int mIndex;
+
+    /**
+     * Construction
+     *
+     * @param url     the download address, the first in the order of preference
+     * @param mirrors the other addresses of the file, in order of preference
+     */
+    public MirrorSelector(@NonNull String url, @Nullable List<String> mirrors) {
+        mUrls.add(url);
+        if (mirrors != null) {
+            for (String mirror : mirrors) {
+                if (!mUrls.contains(mirror)) {
+                    mUrls.add(mirror);
+                }
+            }
+        }
+    }
+
+    /**
+     * Create the selector of a download: the mirrors of {@link UpdateConfig#getMirrors()} are those of
+     * {@link UpdateConfig#getUrl()}, another address (e.g. the patch) has none
+     *
+     * @param config {@link UpdateConfig}
+     * @param url    the download address
+     * @return
+     */
+    @NonNull
+    public static MirrorSelector create(@NonNull UpdateConfig config, @NonNull String url) {
+        return new MirrorSelector(url, url.equals(config.getUrl()) ? config.getMirrors() : null);
+    }
+
+    /**
+     * Get the address to request
+     *
+     * @return
+     */
+    @NonNull
+    public synchronized String getUrl() {
+        return mUrls.get(mIndex);
+    }
+
+    /**
+     * Get the address of a hedged request (see {@link RequestHedger}): the next mirror, or the same address if there is
+     * no other
+     *
+     * @return
+     */
+    @NonNull
+    public synchronized String getAlternateUrl() {
+        return mUrls.get(mIndex + 1 < mUrls.size() ? mIndex + 1 : mIndex);
+    }
+
+    /**
+     * Select the given address, e.g. the mirror of the hedged request that has answered first
+     *
+     * @param url one of the addresses
+     */
+    public synchronized void select(@NonNull String url) {
+        int index = mUrls.indexOf(url);
+        if (index >= 0 && index != mIndex) {
+            mIndex = index;
+            LogUtils.d("Select mirror: " + url);
+        }
+    }
+
+    /**
+     * Move to the next address after a failure of the given one
+     *
+     * @param failedUrl the address that has failed
+     * @return false if there is no other address to try; true if the next address is selected, or if another transfer
+     * has already moved away from the failed address
+     */
+    public synchronized boolean failover(@NonNull String failedUrl) {
+        if (!failedUrl.equals(mUrls.get(mIndex))) {
+            return true;
+        }
+        if (mIndex + 1 < mUrls.size()) {
+            mIndex++;
+            LogUtils.w("Switch to mirror: " + mUrls.get(mIndex));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Request the first byte of each address in parallel and order the addresses by response time; the addresses that
+     * fail or do not respond within {@link #PROBE_TIMEOUT_MILLIS} are moved to the end, in their original order (their
+     * requests are aborted, or closed when they answer). It does nothing if there is only one address
+     *
+     * @param connector       {@link IHttpConnector}
+     * @param requestProperty the request headers of the download
+     */
+    public void probe(@NonNull final IHttpConnector connector, @Nullable Map<String, String> requestProperty) {
+        final List<String> urls;
+        synchronized (this) {
+            if (mUrls.size() < 2) {
+                return;
+            }
+            urls = new ArrayList<>(mUrls);
+        }
+        final Map<String, String> headers = new HashMap<>();
+        if (requestProperty != null) {
+            headers.putAll(requestProperty);
+        }
+        headers.put(HttpHeaders.RANGE, "bytes=0-0");
+
+        final Map<String, Long> latencies = Collections.synchronizedMap(new HashMap<String, Long>());
+        final CountDownLatch done = new CountDownLatch(urls.size());
+        final AtomicBoolean isExpired = new AtomicBoolean();
+        for (final String url : urls) {
+            // The request in progress is closed when the probe times out, if the connector can abort it
+            final RequestHedger.Attempt<IHttpConnector.Connection> attempt = new RequestHedger.Attempt<IHttpConnector.Connection>(url, PROBE_TIMEOUT_MILLIS) {
+                @Override
+                protected IHttpConnector.Connection execute() throws IOException {
+                    return connector.connect(getUrl(), headers, this);
+                }
+
+                @Override
+                protected void discard(@NonNull IHttpConnector.Connection response) {
+                    response.close();
+                }
+            };
+            DownloadExecutors.getIoExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        probe(attempt, latencies, isExpired);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        try {
+            done.await(PROBE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // The probes that answer later are closed and ignored
+        isExpired.set(true);
+
+        final Map<String, Long> results;
+        synchronized (latencies) {
+            results = new HashMap<>(latencies);
+        }
+        List<String> sorted = new ArrayList<>(urls);
+        // The sort is stable: the failed addresses keep the order of preference
+        Collections.sort(sorted, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                Long latency1 = results.get(o1);
+                Long latency2 = results.get(o2);
+                long value1 = latency1 != null ? latency1 : Long.MAX_VALUE;
+                long value2 = latency2 != null ? latency2 : Long.MAX_VALUE;
+                return value1 < value2 ? -1 : (value1 == value2 ? 0 : 1);
+            }
+        });
+        LogUtils.d("Probe: " + results + " -> " + sorted);
+        synchronized (this) {
+            mUrls.clear();
+            mUrls.addAll(sorted);
+            mIndex = 0;
+        }
+    }
+
+    private static void probe(RequestHedger.Attempt<IHttpConnector.Connection> attempt, Map<String, Long> latencies, AtomicBoolean isExpired) {
+        String url = attempt.getUrl();
+        long start = System.nanoTime();
+        try {
+            IHttpConnector.Connection connection = RequestHedger.execute(attempt, null, Constants.NONE).getResponse();
+            if (isExpired.get()) {
+                connection.close();
+                return;
+            }
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HTTP_PARTIAL) {
+                latencies.put(url, System.nanoTime() - start);
+                // A single byte, the connection can be reused by the download
+                connection.release();
+            } else {
+                if (responseCode == HTTP_OK) {
+                    latencies.put(url, System.nanoTime() - start);
+                }
+                // Do not read the whole file
+                connection.close();
+            }
+        } catch (IOException e) {
+            LogUtils.w("Probe " + url + ": " + e.getMessage());
+        }
+    }
+}
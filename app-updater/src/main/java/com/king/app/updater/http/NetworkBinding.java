@@ -0,0 +1,91 @@
+package com.king.app.updater.http;
+
+import android.net.Network;
+import android.os.Build;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+
+import javax.net.SocketFactory;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+/**
+ * NetworkBinding binds the sockets of the downloads to a {@link Network}, e.g. the network that has replaced the lost
+ * one (see {@code DownloadService}): {@link HttpManager} opens its connections with {@link #openConnection(URL)} and
+ * {@link OkHttpManager} uses {@link #getSocketFactory()}. Without a network the sockets use the default network of the
+ * process.
+ * <p>The downloads of the process share {@link #getDefault()}, the binding applies to the requests opened after it is
+ * set. It requires API 21, it does nothing before.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public final class NetworkBinding {
+
+    private static final NetworkBinding sDefault = new NetworkBinding();
+
+    private volatile Network mNetwork;
+
+    /**
+     * Get the binding shared by all the downloads
+     *
+     * @return
+     */
+    @NonNull
+    public static NetworkBinding getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Bind the sockets of the next requests to the network
+     *
+     * @param network the network, null uses the default network of the process
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public void setNetwork(@Nullable Network network) {
+        this.mNetwork = network;
+    }
+
+    @Nullable
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public Network getNetwork() {
+        return mNetwork;
+    }
+
+    /**
+     * Open a connection of the URL on the bound network
+     *
+     * @param url
+     * @return
+     * @throws IOException
+     */
+    @NonNull
+    public URLConnection openConnection(@NonNull URL url) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            Network network = mNetwork;
+            if (network != null) {
+                return network.openConnection(url);
+            }
+        }
+        return url.openConnection();
+    }
+
+    /**
+     * Get the socket factory of the bound network
+     *
+     * @return null if no network is bound
+     */
+    @Nullable
+    public SocketFactory getSocketFactory() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            Network network = mNetwork;
+            if (network != null) {
+                return network.getSocketFactory();
+            }
+        }
+        return null;
+    }
+}
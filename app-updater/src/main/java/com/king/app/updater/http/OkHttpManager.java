@@ -1,17 +1,25 @@
 package com.king.app.updater.http;
 
-import android.os.AsyncTask;
-
+import com.king.app.updater.UpdateConfig;
+import com.king.app.updater.checksum.ApkChecksum;
+import com.king.app.updater.checksum.ChecksumVerifier;
+import com.king.app.updater.checksum.IHasher;
+import com.king.app.updater.constant.Constants;
 import com.king.app.updater.util.LogUtils;
 import com.king.app.updater.util.SSLSocketFactoryUtils;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.net.ConnectException;
+import java.net.ProtocolException;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
+import javax.net.SocketFactory;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import okhttp3.Call;
@@ -22,17 +30,22 @@ import okhttp3.Response;
 /**
  * OkHttpManager uses {@link IHttpManager} implemented by {@link OkHttpClient}
  * <p>When using OkHttpManager, you must rely on the OkHttp library
+ * <p>OkHttpManager is also an {@link IHttpConnector}, so it can be used as the transport of {@link SegmentedHttpManager}
  *
  * @author <a href="mailto:jenly1314@gmail.com">Jenly</a>
  */
-public class OkHttpManager implements IHttpManager {
+public class OkHttpManager extends BaseHttpManager implements IHttpConnector {
+
+    private static final int HTTP_PARTIAL = 206;
+
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
 
     private static final int DEFAULT_TIME_OUT = 20000;
 
     private OkHttpClient okHttpClient;
 
-    private DownloadTask mDownloadTask;
-
     private static volatile OkHttpManager INSTANCE;
 
     public static OkHttpManager getInstance() {
@@ -77,14 +90,163 @@ public class OkHttpManager implements IHttpManager {
 
     @Override
     public void download(String url, String saveFilePath, @Nullable Map<String, String> requestProperty, final DownloadCallback callback) {
-        mDownloadTask = new DownloadTask(okHttpClient, url, saveFilePath, requestProperty, callback);
-        mDownloadTask.execute();
+        UpdateConfig config = new UpdateConfig();
+        if (requestProperty != null) {
+            config.addHeader(requestProperty);
+        }
+        download(config, url, saveFilePath, callback);
     }
 
     @Override
-    public void cancel() {
-        if (mDownloadTask != null) {
-            mDownloadTask.isCancel = true;
+    public void download(@NonNull UpdateConfig config, String url, String saveFilePath, DownloadCallback callback) {
+        execute(new DownloadTask(this, url, saveFilePath, config, callback, getCallbackExecutor()));
+    }
+
+    @NonNull
+    @Override
+    public Connection connect(String url, @Nullable Map<String, String> requestProperty) throws IOException {
+        return open(getClient(), newRequestBuilder(requestProperty), url, Constants.DEFAULT_MAX_REDIRECTS, Constants.DEFAULT_REDIRECT_CACHE_TTL_MILLIS, null);
+    }
+
+    @NonNull
+    @Override
+    public Connection connect(String url, @Nullable Map<String, String> requestProperty, @NonNull RequestHedger.Attempt<?> attempt) throws IOException {
+        return open(getClient(), newRequestBuilder(requestProperty), url, Constants.DEFAULT_MAX_REDIRECTS, Constants.DEFAULT_REDIRECT_CACHE_TTL_MILLIS, attempt);
+    }
+
+    private static Request.Builder newRequestBuilder(@Nullable Map<String, String> requestProperty) {
+        Request.Builder builder = new Request.Builder()
+                .addHeader(HttpHeaders.ACCEPT_ENCODING, "identity")
+                .get();
+
+        if (requestProperty != null) {
+            for (Map.Entry<String, String> entry : requestProperty.entrySet()) {
+                builder.header(entry.getKey(), entry.getValue());
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * Get the client of the requests: the sockets are bound to the network of {@link NetworkBinding#getDefault()}, the
+     * client shares the connection pool and the dispatcher of the manager
+     */
+    private OkHttpClient getClient() {
+        SocketFactory socketFactory = NetworkBinding.getDefault().getSocketFactory();
+        if (socketFactory == null) {
+            return okHttpClient;
+        }
+        return okHttpClient.newBuilder()
+                .socketFactory(socketFactory)
+                .build();
+    }
+
+    /**
+     * Execute the request of the URL, the redirects are followed by {@link OkHttpClient}: the final URL cached by
+     * {@link RedirectResolver} is requested first and forgotten if it fails, and the final URL of the redirects is cached
+     *
+     * @param okHttpClient     {@link OkHttpClient}
+     * @param builder          the request without its URL
+     * @param url              the download URL
+     * @param maxRedirects     maximum number of redirects
+     * @param redirectCacheTtl how long the final URL is cached, 0 does not cache it
+     * @param attempt          the hedged request, its call is cancelled when it is cancelled
+     * @return
+     * @throws IOException
+     */
+    private static OkHttpConnection open(OkHttpClient okHttpClient, Request.Builder builder, String url, int maxRedirects, long redirectCacheTtl, @Nullable RequestHedger.Attempt<?> attempt) throws IOException {
+        RedirectResolver resolver = RedirectResolver.getDefault();
+        String target = resolver.resolve(url);
+        boolean isCached = !target.equals(url);
+        if (isCached) {
+            LogUtils.d("cachedRedirectUrl = " + target);
+        }
+        final Call call = okHttpClient.newCall(builder.url(target).build());
+        if (attempt != null) {
+            attempt.setCancelable(new Closeable() {
+                @Override
+                public void close() {
+                    call.cancel();
+                }
+            });
+        }
+        Response response;
+        try {
+            response = call.execute();
+        } catch (IOException e) {
+            if (!isCached || (attempt != null && attempt.isCancelled())) {
+                throw e;
+            }
+            // The cached final URL is not reachable, follow the redirects again
+            resolver.remove(url);
+            return open(okHttpClient, builder, url, maxRedirects, redirectCacheTtl, attempt);
+        }
+        if (isCached && response.code() >= HTTP_BAD_REQUEST && response.code() != HTTP_RANGE_NOT_SATISFIABLE) {
+            // The cached final URL has failed (e.g. an expired signed URL), follow the redirects again
+            response.close();
+            resolver.remove(url);
+            return open(okHttpClient, builder, url, maxRedirects, redirectCacheTtl, attempt);
+        }
+        int redirects = 0;
+        for (Response prior = response.priorResponse(); prior != null; prior = prior.priorResponse()) {
+            redirects++;
+        }
+        if (redirects > maxRedirects) {
+            response.close();
+            throw new ProtocolException(String.format(Locale.getDefault(), "Too many redirects: %d", redirects));
+        }
+        String finalUrl = response.request().url().toString();
+        if (response.isSuccessful() && !finalUrl.equals(url)) {
+            resolver.put(url, finalUrl, redirectCacheTtl);
+        }
+        return new OkHttpConnection(call, response);
+    }
+
+    /**
+     * {@link Connection} implemented by {@link OkHttpClient}
+     */
+    private static class OkHttpConnection implements Connection {
+
+        private Call call;
+
+        private Response response;
+
+        OkHttpConnection(Call call, Response response) {
+            this.call = call;
+            this.response = response;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return response.code();
+        }
+
+        @Nullable
+        @Override
+        public String getHeaderField(String name) {
+            return response.header(name);
+        }
+
+        @Override
+        public long getContentLength() {
+            return response.body().contentLength();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return response.body().byteStream();
+        }
+
+        @Override
+        public void release() {
+            // The connection returns to the pool of the OkHttpClient
+            response.close();
+        }
+
+        @Override
+        public void close() {
+            call.cancel();
+            response.close();
         }
     }
 
@@ -92,7 +254,7 @@ public class OkHttpManager implements IHttpManager {
     /**
      * Asynchronous download tasks
      */
-    private static class DownloadTask extends AsyncTask<Void, Long, File> {
+    private static class DownloadTask extends BaseDownloadTask {
 
         private String url;
 
@@ -104,86 +266,297 @@ public class OkHttpManager implements IHttpManager {
 
         private Exception exception;
 
-        private OkHttpClient okHttpClient;
-
-        private volatile boolean isCancel;
+        private OkHttpManager httpManager;
 
-        public DownloadTask(OkHttpClient okHttpClient, String url, String saveFilePath, @Nullable Map<String, String> requestProperty, DownloadCallback callback) {
-            this.okHttpClient = okHttpClient;
+        private OkHttpClient okHttpClient;
+        /**
+         * Timeout of the response headers, see {@link RequestHedger.Attempt}
+         */
+        private long firstByteTimeout;
+        /**
+         * Maximum time without data, see {@link ThroughputMonitor}
+         */
+        private long transferTimeout;
+        /**
+         * Maximum duration of the download
+         */
+        private long deadline;
+        /**
+         * Maximum number of redirects of a request
+         */
+        private int maxRedirects;
+        /**
+         * How long the final URL of the redirects is cached by {@link RedirectResolver}
+         */
+        private long redirectCacheTtl;
+
+        /**
+         * Verifies the file, it selects the checksum algorithm computed while downloading
+         */
+        private ChecksumVerifier verifier;
+        /**
+         * Minimum download rate of a mirror, see {@link ThroughputMonitor}
+         */
+        private long minBytesPerSecond;
+        /**
+         * Percentile of the times to first byte after which a request is hedged, see {@link RequestHedger}
+         */
+        private float hedgePercentile;
+
+        public DownloadTask(OkHttpManager httpManager, String url, String saveFilePath, @NonNull UpdateConfig config, DownloadCallback callback, @NonNull Executor callbackExecutor) {
+            super(url, config, callback, callbackExecutor);
+            this.httpManager = httpManager;
+            this.okHttpClient = newClient(httpManager.getClient(), config);
+            this.firstByteTimeout = config.getFirstByteTimeout() > 0 ? config.getFirstByteTimeout() : httpManager.okHttpClient.readTimeoutMillis();
+            this.transferTimeout = config.getTransferTimeout() > 0 ? config.getTransferTimeout() : httpManager.okHttpClient.readTimeoutMillis();
+            this.deadline = config.getDeadline();
             this.url = url;
+            this.maxRedirects = config.getMaxRedirects();
+            this.redirectCacheTtl = config.getRedirectCacheTtl();
             this.saveFilePath = saveFilePath;
             this.callback = callback;
-            this.requestProperty = requestProperty;
+            this.requestProperty = config.getRequestProperty();
+            this.verifier = new ChecksumVerifier(config.getChecksums());
+            this.minBytesPerSecond = config.getMinBytesPerSecond();
+            this.hedgePercentile = config.getHedgePercentile();
 
         }
 
+        /**
+         * Get the client of the timeouts of the download, it shares the connection pool and the dispatcher of the
+         * manager. The read timeout of the socket is the longest of the timeouts, the shorter one is enforced by the
+         * watchdog
+         */
+        private static OkHttpClient newClient(OkHttpClient client, UpdateConfig config) {
+            if (config.getConnectTimeout() <= 0 && config.getFirstByteTimeout() <= 0 && config.getTransferTimeout() <= 0) {
+                return client;
+            }
+            long connectTimeout = config.getConnectTimeout() > 0 ? config.getConnectTimeout() : client.connectTimeoutMillis();
+            long firstByteTimeout = config.getFirstByteTimeout() > 0 ? config.getFirstByteTimeout() : client.readTimeoutMillis();
+            long transferTimeout = config.getTransferTimeout() > 0 ? config.getTransferTimeout() : client.readTimeoutMillis();
+            // 0 means no timeout
+            long readTimeout = firstByteTimeout > 0 && transferTimeout > 0 ? Math.max(firstByteTimeout, transferTimeout) : 0;
+            return client.newBuilder()
+                    .connectTimeout(connectTimeout, TimeUnit.MILLISECONDS)
+                    .readTimeout(readTimeout, TimeUnit.MILLISECONDS)
+                    .build();
+        }
+
         @Override
-        protected File doInBackground(Void... voids) {
+        protected File doInBackground() {
+            File file = null;
             try {
-                Request.Builder builder = new Request.Builder()
-                        .url(url)
-                        .addHeader("Accept-Encoding", "identity")
-                        .get();
-
-                if (requestProperty != null) {
-                    for (Map.Entry<String, String> entry : requestProperty.entrySet()) {
-                        builder.addHeader(entry.getKey(), entry.getValue());
-                    }
+                setDeadline(deadline);
+                record = new DownloadRecord(new File(saveFilePath));
+                if (!record.isResumable(url) && !record.isRevalidatable(url)) {
+                    record.reset(url);
+                }
+                mirrors.probe(httpManager, requestProperty);
+                file = downloadFromMirrors();
+            } catch (Exception e) {
+                this.exception = e;
+                e.printStackTrace();
+            }
+
+            if (file == null && isCancel) {
+                // The error is caused by the cancellation (e.g. the call is cancelled), onCancelled is delivered
+                cancel(false);
+            }
+            return file;
+        }
+
+        /**
+         * Create the request of the address, it is hedged with a request to the next mirror when its response is late
+         */
+        private RequestHedger.Attempt<OkHttpConnection> newAttempt(String target, long offset) {
+            final Request.Builder builder = new Request.Builder()
+                    .addHeader(HttpHeaders.ACCEPT_ENCODING, "identity")
+                    .get();
+
+            if (requestProperty != null) {
+                for (Map.Entry<String, String> entry : requestProperty.entrySet()) {
+                    builder.addHeader(entry.getKey(), entry.getValue());
                 }
+            }
 
-                Call call = okHttpClient.newCall(builder.build());
-                Response response = call.execute();
+            if (offset > 0) {
+                builder.header(HttpHeaders.RANGE, "bytes=" + offset + "-");
+                if (record.isSource(target)) {
+                    builder.header(HttpHeaders.IF_RANGE, record.getIfRange());
+                }
+            } else if (record.isRevalidatable(url) && record.isSource(target)) {
+                // Ask the server whether the completed file is still current
+                for (Map.Entry<String, String> entry : record.getConditionalHeaders().entrySet()) {
+                    builder.header(entry.getKey(), entry.getValue());
+                }
+            }
+            return new RequestHedger.Attempt<OkHttpConnection>(target, firstByteTimeout) {
+                @Override
+                protected OkHttpConnection execute() throws IOException {
+                    return open(okHttpClient, builder, getUrl(), maxRedirects, redirectCacheTtl, this);
+                }
 
-                if (response.isSuccessful()) {
-                    InputStream is = response.body().byteStream();
+                @Override
+                protected void discard(@NonNull OkHttpConnection response) {
+                    response.close();
+                }
+            };
+        }
 
-                    long length = response.body().contentLength();
+        @Override
+        protected File download(@NonNull String target) throws Exception {
+            // Resume from the temporary file if there is one
+            long offset = record.getOffset();
+            if (offset > 0) {
+                LogUtils.d("Range: bytes=" + offset + "-");
+            }
+
+            checkDeadline();
+            long hedgeDelay = RequestHedger.getDelay(hedgePercentile);
+            RequestHedger.Attempt<OkHttpConnection> attempt = RequestHedger.execute(newAttempt(target, offset),
+                    hedgeDelay >= 0 ? newAttempt(mirrors.getAlternateUrl(), offset) : null, hedgeDelay);
+            if (!attempt.getUrl().equals(target)) {
+                // The hedged request to the next mirror has answered first
+                target = attempt.getUrl();
+                mirrors.select(target);
+            }
+            OkHttpConnection connection = attempt.getResponse();
+            final Call call = connection.call;
+            Response response = connection.response;
+
+            if (response.isSuccessful()) {
+                long length = response.body().contentLength();
+
+                LogUtils.d("contentLength: " + length);
+
+                long start = 0;
+                if (response.code() == HTTP_PARTIAL) {
+                    String contentRange = response.header(HttpHeaders.CONTENT_RANGE);
+                    start = DownloadRecord.parseContentRangeStart(contentRange);
+                    long contentLength = DownloadRecord.parseContentRangeTotal(contentRange);
+                    if (start != offset || (contentLength > 0 && record.getContentLength() > 0 && contentLength != record.getContentLength())) {
+                        // The returned range does not match the temporary file, download again from the beginning
+                        LogUtils.w(String.format(Locale.getDefault(), "Content-Range: %s, offset = %d", contentRange, offset));
+                        response.close();
+                        record.reset(url);
+                        return download(target);
+                    }
+                } else {
+                    if (offset > 0) {
+                        LogUtils.d("Resume is not supported or the content has changed, download again.");
+                    }
+                    record.reset(url);
+                    record.update(target, response.header(HttpHeaders.ETAG), response.header(HttpHeaders.LAST_MODIFIED), length);
+                }
 
-                    LogUtils.d("contentLength: " + length);
+                long total = length > 0 ? start + length : length;
 
-                    long progress = 0;
+                IHasher hasher = verifier.newHasher();
+                if (hasher != null && start > 0) {
+                    // Continue the checksum with the data already downloaded
+                    ChecksumVerifier.update(hasher, record.getPartFile(), start);
+                }
 
-                    byte[] buffer = new byte[4096];
+                if (total > 0) {
+                    try {
+                        // Check the free space and reserve the whole file before the transfer
+                        record.setDownloaded(start);
+                        record.preallocate(total);
+                    } catch (IOException e) {
+                        response.close();
+                        throw e;
+                    }
+                }
 
-                    int len;
-                    File file = new File(saveFilePath);
-                    FileOutputStream fos = new FileOutputStream(file);
-                    while ((len = is.read(buffer)) != -1) {
+                long progress = start;
+                progressReporter.setTotal(total);
+                progressReporter.set(progress);
+
+                int len;
+                InputStream is = response.body().byteStream();
+                ThroughputMonitor monitor = new ThroughputMonitor(minBytesPerSecond, 1, transferTimeout, getRemainingTime());
+                AdaptiveBufferSize adaptiveBufferSize = newAdaptiveBufferSize();
+                IDownloadWriter writer = openWriter(record.getPartFile(), start, adaptiveBufferSize, hasher);
+                Closeable cancelable = new Closeable() {
+                    @Override
+                    public void close() {
+                        call.cancel();
+                    }
+                };
+                monitor.watch(cancelable);
+                setConnection(cancelable);
+                try {
+                    while ((len = writer.transferFrom(is)) != -1) {
                         if (isCancel) {
-                            if (call != null) {
-                                call.cancel();
-                            }
-                            cancel(true);
+                            call.cancel();
+                            // The thread is not interrupted, the writer must still flush its buffer to the file
+                            cancel(false);
                             break;
                         }
-                        fos.write(buffer, 0, len);
                         progress += len;
-                        // Update progress
-                        publishProgress(progress, length);
+                        if (total > 0) {
+                            record.setDownloaded(writer.getWrittenPosition());
+                        }
+                        // Update progress, it is sampled by the reporter
+                        progressReporter.set(progress);
+                        throttle(len, monitor);
+                        monitor.onRead(len);
                     }
-
-                    fos.flush();
-                    fos.close();
-                    is.close();
-
-                    response.close();
-
-                    if (progress <= 0 && length <= 0) {
-                        throw new IllegalStateException(String.format("contentLength = %d", length));
+                } catch (IOException e) {
+                    // The watchdog may have cancelled the call
+                    throw monitor.getError(e);
+                } finally {
+                    monitor.stop();
+                    setConnection(null);
+                    try {
+                        writer.close();
+                    } finally {
+                        if (adaptiveBufferSize != null) {
+                            LogUtils.d(adaptiveBufferSize.toString());
+                        }
+                        is.close();
+                        response.close();
+                        if (total > 0) {
+                            // Save the written length so that the download can be resumed
+                            record.setDownloaded(writer.getWrittenPosition());
+                            record.save();
+                        }
                     }
+                }
 
-                    return file;
+                if (isCancel) {
+                    return null;
+                }
 
-                } else {// Connection failed
-                    throw new ConnectException(String.format("responseCode = %d", response.code()));
+                if (progress <= 0 && length <= 0) {
+                    throw new IllegalStateException(String.format("contentLength = %d", length));
                 }
 
-            } catch (Exception e) {
-                this.exception = e;
-                e.printStackTrace();
-            }
+                if (total > 0 && progress != total) {
+                    // Keep the temporary file so that the download can be resumed
+                    throw monitor.getError(new IOException(String.format(Locale.getDefault(), "Unexpected end of stream: %d/%d", progress, total)));
+                }
 
-            return null;
+                if (hasher != null) {
+                    checksum = new ApkChecksum(hasher.getAlgorithm(), hasher.digest());
+                }
+                record.complete(checksum);
+
+                return record.getFile();
+
+            } else if (response.code() == HTTP_NOT_MODIFIED) {
+                // The completed file is current, the response has no body
+                response.close();
+                return notModified();
+            } else if (response.code() == HTTP_RANGE_NOT_SATISFIABLE && offset > 0) {
+                // The temporary file is invalid, download again from the beginning
+                response.close();
+                record.reset(url);
+                return download(target);
+            } else {// Connection failed
+                response.close();
+                throw new HttpStatusException(response.code(), response.header(HttpHeaders.RETRY_AFTER));
+            }
         }
 
         @Override
@@ -192,14 +565,17 @@ public class OkHttpManager implements IHttpManager {
             if (callback != null) {
                 callback.onStart(url);
             }
+            progressReporter.start();
         }
 
         @Override
         protected void onPostExecute(File file) {
             super.onPostExecute(file);
+            // Deliver the final progress before the download is completed
+            progressReporter.stop(file != null);
             if (callback != null) {
                 if (file != null) {
-                    callback.onFinish(file);
+                    callback.onFinish(file, checksum);
                 } else {
                     callback.onError(exception);
                 }
@@ -207,20 +583,10 @@ public class OkHttpManager implements IHttpManager {
             }
         }
 
-        @Override
-        protected void onProgressUpdate(Long... values) {
-            super.onProgressUpdate(values);
-            if (callback != null) {
-                if (!isCancelled()) {
-                    callback.onProgress(values[0], values[1]);
-                }
-
-            }
-        }
-
         @Override
         protected void onCancelled() {
             super.onCancelled();
+            progressReporter.stop(false);
             if (callback != null) {
                 callback.onCancel();
             }
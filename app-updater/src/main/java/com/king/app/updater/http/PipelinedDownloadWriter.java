@@ -0,0 +1,358 @@
+package com.king.app.updater.http;
+
+import com.king.app.updater.checksum.IHasher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * PipelinedDownloadWriter reads the response body on the calling thread and writes the file on a thread of the given
+ * executor (e.g. {@link DownloadExecutors#getIoExecutor()}), so the socket is read while the disk is written. The two
+ * threads exchange a bounded ring of recycled buffers: a full buffer is handed to the writer thread and the reader
+ * takes a free one; when all the buffers are waiting to be written, the reader blocks until the disk catches up
+ * (backpressure), so the memory used is fixed.
+ * <p>The checksum is updated and the progress is counted on the reading thread, in the order of the data; the download
+ * is canceled as with {@link DownloadWriter}. A failed write is reported by the next call on the reading thread.
+ * <p>The buffers are taken from {@link BufferPool} and returned by {@link #close()}. With an {@link AdaptiveBufferSize},
+ * a free buffer of another size is replaced by one of the chosen size before it is filled.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public class PipelinedDownloadWriter implements IDownloadWriter {
+
+    /**
+     * Default number of buffers of the ring
+     */
+    public static final int DEFAULT_BUFFER_COUNT = 4;
+    /**
+     * Tells the writer thread to stop
+     */
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final FileChannel mChannel;
+
+    private final BlockingQueue<ByteBuffer> mFreeBuffers;
+
+    private final BlockingQueue<ByteBuffer> mFilledBuffers;
+    private final boolean isDirect;
+    /**
+     * Chooses the size of the buffers, null for a fixed size
+     */
+    private final AdaptiveBufferSize mAdaptiveSize;
+    /**
+     * Scratch buffer whose array the stream is read into when the buffers are direct
+     */
+    private ByteBuffer mScratch;
+
+    private final IHasher mHasher;
+
+    /**
+     * Counted down when the loop of the writer thread has stopped
+     */
+    private final CountDownLatch mStopped = new CountDownLatch(1);
+
+    private final Object mLock = new Object();
+    /**
+     * The buffer being filled by the reading thread, null until a free buffer is taken
+     */
+    private ByteBuffer mCurrent;
+    /**
+     * The position following the last byte read
+     */
+    private long mPosition;
+
+    private volatile long mWrittenPosition;
+
+    private volatile IOException mError;
+
+    private boolean isClosed;
+
+    /**
+     * Open the file and write from the position, the file is closed by {@link #close()}
+     *
+     * @param file        the file
+     * @param position    the position of the first byte to write
+     * @param bufferSize  size of each buffer (bytes)
+     * @param bufferCount number of buffers of the ring, at least 2
+     * @param isDirect    whether to allocate direct buffers
+     * @param hasher      updated with the data read, can be null
+     * @param executor    runs the loop of the writer thread, it must start the task at once
+     * @return
+     * @throws IOException
+     */
+    public static PipelinedDownloadWriter open(@NonNull File file, long position, int bufferSize, int bufferCount, boolean isDirect, @Nullable IHasher hasher, @NonNull Executor executor) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        return start(new PipelinedDownloadWriter(raf.getChannel(), position, bufferSize, null, bufferCount, isDirect, hasher), executor);
+    }
+
+    /**
+     * Open the file and write from the position with buffers of adaptive size, the file is closed by {@link #close()}
+     *
+     * @param file         the file
+     * @param position     the position of the first byte to write
+     * @param adaptiveSize chooses the size of the buffers
+     * @param bufferCount  number of buffers of the ring, at least 2
+     * @param isDirect     whether to allocate direct buffers
+     * @param hasher       updated with the data read, can be null
+     * @param executor     runs the loop of the writer thread, it must start the task at once
+     * @return
+     * @throws IOException
+     */
+    public static PipelinedDownloadWriter open(@NonNull File file, long position, @NonNull AdaptiveBufferSize adaptiveSize, int bufferCount, boolean isDirect, @Nullable IHasher hasher, @NonNull Executor executor) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        return start(new PipelinedDownloadWriter(raf.getChannel(), position, adaptiveSize.getSize(), adaptiveSize, bufferCount, isDirect, hasher), executor);
+    }
+
+    /**
+     * Submit the loop of the writer thread, the writer is released if the executor rejects it
+     */
+    private static PipelinedDownloadWriter start(final PipelinedDownloadWriter writer, Executor executor) throws IOException {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    writer.write();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            writer.isClosed = true;
+            writer.recycle();
+            writer.mChannel.close();
+            throw new IOException("Cannot start the writer thread", e);
+        }
+        return writer;
+    }
+
+    private PipelinedDownloadWriter(FileChannel channel, long position, int bufferSize, AdaptiveBufferSize adaptiveSize, int bufferCount, boolean isDirect, IHasher hasher) {
+        this.mChannel = channel;
+        this.mPosition = position;
+        this.mWrittenPosition = position;
+        this.mHasher = hasher;
+        this.isDirect = isDirect;
+        this.mAdaptiveSize = adaptiveSize;
+        bufferSize = Math.max(DownloadWriter.MIN_BUFFER_SIZE, bufferSize);
+        bufferCount = Math.max(2, bufferCount);
+        mFreeBuffers = new ArrayBlockingQueue<>(bufferCount);
+        // One more slot for END
+        mFilledBuffers = new ArrayBlockingQueue<>(bufferCount + 1);
+        BufferPool pool = BufferPool.getDefault();
+        for (int i = 0; i < bufferCount; i++) {
+            mFreeBuffers.add(pool.acquire(bufferSize, isDirect));
+        }
+        mScratch = isDirect ? pool.acquire(bufferSize, false) : null;
+    }
+
+    /**
+     * The loop of the writer thread
+     */
+    private void write() {
+        try {
+            writeBuffers();
+        } finally {
+            mStopped.countDown();
+            synchronized (mLock) {
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    private void writeBuffers() {
+        while (true) {
+            ByteBuffer buffer;
+            try {
+                buffer = mFilledBuffers.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (buffer == END) {
+                break;
+            }
+            if (mError == null) {
+                try {
+                    long position = mWrittenPosition;
+                    while (buffer.hasRemaining()) {
+                        position += mChannel.write(buffer, position);
+                    }
+                    mWrittenPosition = position;
+                } catch (IOException e) {
+                    // The next buffers are dropped, the error is reported to the reading thread
+                    mError = e;
+                }
+            }
+            buffer.clear();
+            mFreeBuffers.add(buffer);
+            synchronized (mLock) {
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public int transferFrom(@NonNull InputStream is, long maxLength) throws IOException {
+        checkError();
+        if (mCurrent == null) {
+            try {
+                // Blocks while all the buffers are waiting to be written
+                mCurrent = mFreeBuffers.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a free buffer");
+            }
+            if (mAdaptiveSize != null) {
+                resize(Math.max(DownloadWriter.MIN_BUFFER_SIZE, mAdaptiveSize.getSize()));
+            }
+        }
+        byte[] array = mCurrent.isDirect() ? mScratch.array() : mCurrent.array();
+        int offset = mCurrent.isDirect() ? 0 : mCurrent.arrayOffset() + mCurrent.position();
+        int len = is.read(array, offset, (int) Math.min(mCurrent.remaining(), maxLength));
+        if (len > 0) {
+            if (mAdaptiveSize != null) {
+                mAdaptiveSize.onRead(len);
+            }
+            if (mHasher != null) {
+                mHasher.update(array, offset, len);
+            }
+            if (mCurrent.isDirect()) {
+                mCurrent.put(array, 0, len);
+            } else {
+                mCurrent.position(mCurrent.position() + len);
+            }
+            mPosition += len;
+            if (!mCurrent.hasRemaining()) {
+                submit();
+            }
+        }
+        return len;
+    }
+
+    @Override
+    public int transferFrom(@NonNull InputStream is) throws IOException {
+        return transferFrom(is, Long.MAX_VALUE);
+    }
+
+    /**
+     * Replace the current (empty) buffer with one of the size, the ring keeps the same number of buffers
+     */
+    private void resize(int bufferSize) {
+        BufferPool pool = BufferPool.getDefault();
+        if (mCurrent.capacity() != bufferSize) {
+            pool.release(mCurrent);
+            mCurrent = pool.acquire(bufferSize, isDirect);
+        }
+        if (mScratch != null && mScratch.capacity() != bufferSize) {
+            pool.release(mScratch);
+            mScratch = pool.acquire(bufferSize, false);
+        }
+    }
+
+    /**
+     * Hand the current buffer to the writer thread
+     */
+    private void submit() {
+        if (mCurrent != null && mCurrent.position() > 0) {
+            mCurrent.flip();
+            // There is always room: the queue is larger than the number of buffers
+            mFilledBuffers.add(mCurrent);
+            mCurrent = null;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        submit();
+        // The disk always makes progress, wait even if the thread is interrupted (e.g. the download is canceled)
+        boolean isInterrupted = false;
+        synchronized (mLock) {
+            while (mWrittenPosition < mPosition && mError == null && mStopped.getCount() > 0) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    isInterrupted = true;
+                }
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+        checkError();
+    }
+
+    private void checkError() throws IOException {
+        if (mError != null) {
+            throw mError;
+        }
+    }
+
+    /**
+     * Return the buffers to the pool, the writer thread has stopped
+     */
+    private void recycle() {
+        BufferPool pool = BufferPool.getDefault();
+        ByteBuffer buffer;
+        while ((buffer = mFreeBuffers.poll()) != null) {
+            pool.release(buffer);
+        }
+        if (mCurrent != null) {
+            pool.release(mCurrent);
+            mCurrent = null;
+        }
+        if (mScratch != null) {
+            pool.release(mScratch);
+            mScratch = null;
+        }
+    }
+
+    @Override
+    public long getPosition() {
+        return mPosition;
+    }
+
+    @Override
+    public long getWrittenPosition() {
+        return mWrittenPosition;
+    }
+
+    /**
+     * Write the buffered data to the file, stop the writer thread, return the buffers to the pool and close the file
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        try {
+            flush();
+        } finally {
+            mFilledBuffers.add(END);
+            boolean isInterrupted = false;
+            while (mStopped.getCount() > 0) {
+                try {
+                    mStopped.await();
+                } catch (InterruptedException e) {
+                    isInterrupted = true;
+                }
+            }
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+            recycle();
+            mChannel.close();
+        }
+    }
+}
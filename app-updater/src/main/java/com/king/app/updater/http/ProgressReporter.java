@@ -0,0 +1,137 @@
+package com.king.app.updater.http;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * ProgressReporter delivers the progress of a download to {@link IHttpManager.DownloadCallback#onProgress(long, long)}
+ * at a fixed cadence on the executor of the callbacks.
+ * <p>The download threads only update primitive counters ({@link #set(long)} / {@link #add(long)}), nothing is
+ * allocated per chunk; at most once per interval, the single reused {@link Runnable} is posted to sample the counters,
+ * and a sample is delivered only if the progress has changed.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public class ProgressReporter implements Runnable {
+
+    private final Executor mExecutor;
+
+    private final IHttpManager.DownloadCallback mCallback;
+
+    private final long mIntervalNanos;
+
+    private final AtomicLong mProgress = new AtomicLong();
+    /**
+     * Time of the next sample ({@link System#nanoTime()})
+     */
+    private final AtomicLong mNextReportTime = new AtomicLong();
+
+    private volatile long mTotal = -1;
+
+    private volatile boolean isRunning;
+    /**
+     * The last progress delivered
+     */
+    private long mReportedProgress = -1;
+
+    /**
+     * Construction
+     *
+     * @param callback         the callback, can be null
+     * @param interval         sampling interval (milliseconds)
+     * @param callbackExecutor the executor of the callback
+     */
+    public ProgressReporter(@Nullable IHttpManager.DownloadCallback callback, long interval, @NonNull Executor callbackExecutor) {
+        this.mExecutor = callbackExecutor;
+        this.mCallback = callback;
+        this.mIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, interval));
+    }
+
+    /**
+     * Set the total length of the content
+     *
+     * @param total total length, -1 if it is unknown
+     */
+    public void setTotal(long total) {
+        this.mTotal = total;
+    }
+
+    /**
+     * Set the number of bytes downloaded, it can be called from any thread
+     *
+     * @param progress
+     */
+    public void set(long progress) {
+        mProgress.set(progress);
+        onUpdate();
+    }
+
+    /**
+     * Add to the number of bytes downloaded, it can be called from several threads
+     *
+     * @param delta number of bytes
+     * @return the number of bytes downloaded
+     */
+    public long add(long delta) {
+        long progress = mProgress.addAndGet(delta);
+        onUpdate();
+        return progress;
+    }
+
+    public long getProgress() {
+        return mProgress.get();
+    }
+
+    /**
+     * Start sampling the counters
+     */
+    public void start() {
+        mNextReportTime.set(System.nanoTime() + mIntervalNanos);
+        isRunning = true;
+    }
+
+    /**
+     * Stop sampling the counters
+     *
+     * @param isReport whether to deliver the last progress, it must then be called on the executor of the callback,
+     *                 e.g. before the download is completed
+     */
+    public void stop(boolean isReport) {
+        isRunning = false;
+        if (isReport) {
+            report();
+        }
+    }
+
+    private void onUpdate() {
+        if (isRunning) {
+            long now = System.nanoTime();
+            long next = mNextReportTime.get();
+            // A single thread wins the sample of the interval
+            if (now - next >= 0 && mNextReportTime.compareAndSet(next, now + mIntervalNanos)) {
+                mExecutor.execute(this);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        if (isRunning) {
+            report();
+        }
+    }
+
+    private synchronized void report() {
+        long progress = mProgress.get();
+        if (progress != mReportedProgress) {
+            mReportedProgress = progress;
+            if (mCallback != null) {
+                mCallback.onProgress(progress, mTotal);
+            }
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.king.app.updater.http;
+
+import com.king.app.updater.util.LogUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * RedirectResolver remembers where the redirects of the downloads lead: the final URL of a redirected request is cached
+ * in memory and, once {@link #setCacheDir(File)} is set, in a file, until its TTL expires. The next requests of the URL
+ * (the segments, a resumed or repeated download) then go straight to the final host instead of following the redirects
+ * again. A cached target that fails is removed with {@link #remove(String)}, the request is then redirected again from
+ * the original URL.
+ * <p>The redirects are followed by the {@link IHttpManager}s, at most {@link com.king.app.updater.UpdateConfig#getMaxRedirects()}
+ * per request, and the final URLs are cached for {@link com.king.app.updater.UpdateConfig#getRedirectCacheTtl()}; the
+ * relative {@code Location} are resolved by {@link #resolveLocation(String, String)}.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public final class RedirectResolver {
+
+    private static final int HTTP_TEMP_REDIRECT = 307;
+    private static final int HTTP_PERM_REDIRECT = 308;
+    /**
+     * Maximum number of cached URLs, the least recently used are removed
+     */
+    private static final int MAX_ENTRIES = 32;
+
+    private static final String CACHE_FILE_NAME = "app_updater_redirects";
+
+    private static final RedirectResolver sDefault = new RedirectResolver();
+
+    private final LinkedHashMap<String, Entry> mCache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private File mCacheFile;
+
+    private boolean isLoaded;
+
+    /**
+     * Get the resolver shared by the downloads
+     *
+     * @return
+     */
+    @NonNull
+    public static RedirectResolver getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Set the directory of the cache file, so that the final URLs are kept across processes; the file is read by the
+     * first request
+     *
+     * @param dir e.g. {@link android.content.Context#getCacheDir()}, null keeps the cache in memory only
+     */
+    public synchronized void setCacheDir(@Nullable File dir) {
+        File cacheFile = dir != null ? new File(dir, CACHE_FILE_NAME) : null;
+        if (cacheFile == null ? mCacheFile != null : !cacheFile.equals(mCacheFile)) {
+            mCacheFile = cacheFile;
+            isLoaded = false;
+        }
+    }
+
+    /**
+     * Get the URL to request: the cached final URL of the redirects, or the URL itself
+     *
+     * @param url the download URL
+     * @return
+     */
+    @NonNull
+    public synchronized String resolve(@NonNull String url) {
+        load();
+        Entry entry = mCache.get(url);
+        if (entry != null) {
+            if (entry.expiresAt > System.currentTimeMillis()) {
+                return entry.url;
+            }
+            mCache.remove(url);
+            save();
+        }
+        return url;
+    }
+
+    /**
+     * Cache the final URL of the redirects of the URL
+     *
+     * @param url       the download URL
+     * @param finalUrl  the URL the redirects lead to
+     * @param ttlMillis how long the final URL is used, 0 does not cache it
+     */
+    public synchronized void put(@NonNull String url, @NonNull String finalUrl, long ttlMillis) {
+        if (ttlMillis <= 0 || url.equals(finalUrl)) {
+            return;
+        }
+        load();
+        mCache.put(url, new Entry(finalUrl, System.currentTimeMillis() + ttlMillis));
+        save();
+    }
+
+    /**
+     * Remove the final URL of the URL, e.g. the request of the final URL has failed
+     *
+     * @param url the download URL
+     */
+    public synchronized void remove(@NonNull String url) {
+        load();
+        if (mCache.remove(url) != null) {
+            LogUtils.d("Redirect cache removed: " + url);
+            save();
+        }
+    }
+
+    /**
+     * Remove all the final URLs
+     */
+    public synchronized void clear() {
+        mCache.clear();
+        if (mCacheFile != null) {
+            mCacheFile.delete();
+        }
+    }
+
+    /**
+     * Whether the response code is a redirect
+     *
+     * @param responseCode the response code
+     * @return
+     */
+    public static boolean isRedirect(int responseCode) {
+        switch (responseCode) {
+            case HttpURLConnection.HTTP_MULT_CHOICE:
+            case HttpURLConnection.HTTP_MOVED_PERM:
+            case HttpURLConnection.HTTP_MOVED_TEMP:
+            case HttpURLConnection.HTTP_SEE_OTHER:
+            case HTTP_TEMP_REDIRECT:
+            case HTTP_PERM_REDIRECT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Resolve the {@code Location} of a redirect, it can be relative to the URL of the request
+     *
+     * @param url      the URL of the request
+     * @param location the {@code Location} response header
+     * @return the absolute URL of the redirect
+     * @throws ProtocolException if the location is missing or invalid
+     */
+    @NonNull
+    public static String resolveLocation(@NonNull String url, @Nullable String location) throws ProtocolException {
+        if (location == null || location.isEmpty()) {
+            throw new ProtocolException("Redirect without Location: " + url);
+        }
+        try {
+            return new URL(new URL(url), location).toString();
+        } catch (MalformedURLException e) {
+            throw new ProtocolException("Invalid redirect Location: " + location);
+        }
+    }
+
+    private void load() {
+        if (isLoaded) {
+            return;
+        }
+        isLoaded = true;
+        if (mCacheFile == null || !mCacheFile.exists()) {
+            return;
+        }
+        InputStream is = null;
+        try {
+            is = new FileInputStream(mCacheFile);
+            Properties properties = new Properties();
+            properties.load(is);
+            long now = System.currentTimeMillis();
+            for (String url : properties.stringPropertyNames()) {
+                Entry entry = Entry.parse(properties.getProperty(url));
+                if (entry != null && entry.expiresAt > now && !mCache.containsKey(url)) {
+                    mCache.put(url, entry);
+                }
+            }
+        } catch (Exception e) {
+            LogUtils.w(e.getMessage());
+        } finally {
+            close(is);
+        }
+    }
+
+    private void save() {
+        if (mCacheFile == null) {
+            return;
+        }
+        OutputStream os = null;
+        try {
+            Properties properties = new Properties();
+            long now = System.currentTimeMillis();
+            Iterator<Map.Entry<String, Entry>> iterator = mCache.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Entry> entry = iterator.next();
+                if (entry.getValue().expiresAt > now) {
+                    properties.setProperty(entry.getKey(), entry.getValue().format());
+                } else {
+                    iterator.remove();
+                }
+            }
+            os = new FileOutputStream(mCacheFile);
+            properties.store(os, null);
+        } catch (Exception e) {
+            LogUtils.w(e.getMessage());
+        } finally {
+            close(os);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * A cached final URL
+     */
+    private static final class Entry {
+
+        final String url;
+
+        final long expiresAt;
+
+        Entry(String url, long expiresAt) {
+            this.url = url;
+            this.expiresAt = expiresAt;
+        }
+
+        String format() {
+            return expiresAt + " " + url;
+        }
+
+        @Nullable
+        static Entry parse(@Nullable String value) {
+            if (value != null) {
+                int index = value.indexOf(' ');
+                if (index > 0) {
+                    try {
+                        return new Entry(value.substring(index + 1), Long.parseLong(value.substring(0, index)));
+                    } catch (NumberFormatException e) {
+                        LogUtils.w(e.getMessage());
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package com.king.app.updater.http;
+
+import com.king.app.updater.constant.Constants;
+import com.king.app.updater.util.LogUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * RequestHedger sends a hedged request when the response of a request is late: the request is started, and if its
+ * response headers have not arrived after a delay, a second request (to another mirror, or to the same address) is
+ * started; the first response is kept and the other request is cancelled.
+ * <p>The delay is a percentile of the recent times to first byte ({@link #getDelay(float)}), so only the slowest
+ * requests are hedged. The times to first byte and the hedged requests are recorded in {@link DownloadMetrics#getDefault()}.
+ * <p>An attempt can have a timeout of the time to first byte, its request is aborted when the response headers are late.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public final class RequestHedger {
+
+    /**
+     * Minimum delay before a request is hedged
+     */
+    public static final long MIN_DELAY_MILLIS = 50L;
+
+    private RequestHedger() {
+        throw new AssertionError();
+    }
+
+    /**
+     * A request that can be hedged
+     *
+     * @param <T> the response, e.g. the connection whose response headers have been received
+     */
+    public abstract static class Attempt<T> {
+
+        private final String mUrl;
+
+        private final long mTimeout;
+
+        private T mResponse;
+
+        private Closeable mCancelable;
+
+        private boolean isCancelled;
+
+        private boolean isTimedOut;
+
+        /**
+         * Construction
+         *
+         * @param url the address of the request
+         */
+        public Attempt(@NonNull String url) {
+            this(url, Constants.NONE);
+        }
+
+        /**
+         * Construction
+         *
+         * @param url     the address of the request
+         * @param timeout the timeout of the response headers in milliseconds, the request in progress
+         *                ({@link #setCancelable(Closeable)}) is closed when it expires; 0 or less means no timeout
+         */
+        public Attempt(@NonNull String url, long timeout) {
+            this.mUrl = url;
+            this.mTimeout = timeout;
+        }
+
+        @NonNull
+        public String getUrl() {
+            return mUrl;
+        }
+
+        /**
+         * Get the response of the attempt that has answered first
+         *
+         * @return
+         */
+        public T getResponse() {
+            return mResponse;
+        }
+
+        /**
+         * Execute the request and wait for the response headers
+         *
+         * @return the response
+         * @throws IOException
+         */
+        protected abstract T execute() throws IOException;
+
+        /**
+         * Close a response that is not used, the other attempt has answered first
+         *
+         * @param response
+         */
+        protected abstract void discard(@NonNull T response);
+
+        /**
+         * Set the request in progress, it is closed from another thread to abort the attempt when the other attempt
+         * has answered first. The redirects set their own request
+         *
+         * @param cancelable e.g. the connection or the call
+         * @throws InterruptedIOException if the attempt is already cancelled, or {@link SocketTimeoutException} if it
+         *                                has timed out
+         */
+        public void setCancelable(@Nullable Closeable cancelable) throws InterruptedIOException {
+            boolean timedOut;
+            synchronized (this) {
+                if (!isCancelled && !isTimedOut) {
+                    mCancelable = cancelable;
+                    return;
+                }
+                timedOut = isTimedOut;
+            }
+            close(cancelable);
+            throw timedOut ? newTimeoutException() : new InterruptedIOException("Canceled");
+        }
+
+        private void cancel() {
+            Closeable cancelable;
+            synchronized (this) {
+                isCancelled = true;
+                cancelable = mCancelable;
+                mCancelable = null;
+            }
+            close(cancelable);
+        }
+
+        /**
+         * Whether the attempt is cancelled, the other attempt has answered first
+         *
+         * @return
+         */
+        public synchronized boolean isCancelled() {
+            return isCancelled;
+        }
+
+        private void timeout() {
+            Closeable cancelable;
+            synchronized (this) {
+                if (isCancelled) {
+                    return;
+                }
+                isTimedOut = true;
+                cancelable = mCancelable;
+                mCancelable = null;
+            }
+            close(cancelable);
+        }
+
+        private SocketTimeoutException newTimeoutException() {
+            return new SocketTimeoutException(String.format(Locale.getDefault(), "No response after %d ms: %s", mTimeout, mUrl));
+        }
+
+        private T call() throws IOException {
+            long start = System.nanoTime();
+            ScheduledFuture<?> timer = null;
+            if (mTimeout > 0) {
+                timer = DownloadExecutors.getWatchdogExecutor().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        timeout();
+                    }
+                }, mTimeout, TimeUnit.MILLISECONDS);
+            }
+            T response;
+            boolean timedOut;
+            try {
+                response = execute();
+            } catch (IOException e) {
+                synchronized (this) {
+                    timedOut = isTimedOut;
+                }
+                throw timedOut ? newTimeoutException() : e;
+            } finally {
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+            }
+            synchronized (this) {
+                // The response is no longer closed by the timeout or the cancellation
+                mCancelable = null;
+                timedOut = isTimedOut;
+            }
+            if (timedOut) {
+                // The timeout has closed the request just as it answered
+                discard(response);
+                throw newTimeoutException();
+            }
+            DownloadMetrics.getDefault().addTimeToFirstByte((System.nanoTime() - start) / 1000000L);
+            return response;
+        }
+
+        private static void close(@Nullable Closeable closeable) {
+            if (closeable != null) {
+                try {
+                    closeable.close();
+                } catch (IOException e) {
+                    LogUtils.w(e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the delay before a request is hedged
+     *
+     * @param percentile the percentile of the times to first byte, e.g. 0.95; 0 or less disables the hedging
+     * @return the delay in milliseconds, {@link Constants#DEFAULT_HEDGE_DELAY_MILLIS} until enough requests are known;
+     * {@link Constants#NONE} if the hedging is disabled
+     */
+    public static long getDelay(float percentile) {
+        if (percentile <= 0) {
+            return Constants.NONE;
+        }
+        long delay = DownloadMetrics.getDefault().getTimeToFirstByte(percentile);
+        if (delay < 0) {
+            return Constants.DEFAULT_HEDGE_DELAY_MILLIS;
+        }
+        return Math.max(MIN_DELAY_MILLIS, delay);
+    }
+
+    /**
+     * Execute the request, and the hedged request if the response is late
+     *
+     * @param primary     the request
+     * @param hedge       the hedged request, null does not hedge
+     * @param delayMillis the delay before the hedged request is started, less than 0 does not hedge
+     * @param <T>         the response
+     * @return the attempt that has answered first, see {@link Attempt#getResponse()}
+     * @throws IOException the error of the request if no attempt has succeeded
+     */
+    @NonNull
+    public static <T> Attempt<T> execute(@NonNull Attempt<T> primary, @Nullable Attempt<T> hedge, long delayMillis) throws IOException {
+        if (hedge == null || delayMillis < 0) {
+            primary.mResponse = primary.call();
+            return primary;
+        }
+        Race<T> race = new Race<>();
+        race.start(primary);
+        try {
+            if (!race.await(delayMillis)) {
+                LogUtils.d(String.format(Locale.getDefault(), "Hedged request after %d ms: %s", delayMillis, hedge.getUrl()));
+                DownloadMetrics.getDefault().onHedged();
+                race.start(hedge);
+            }
+            Attempt<T> winner = race.awaitWinner();
+            if (winner == hedge) {
+                DownloadMetrics.getDefault().onHedgeWon();
+            }
+            return winner;
+        } catch (InterruptedException e) {
+            race.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        }
+    }
+
+    /**
+     * The attempts of a request, the first response wins
+     */
+    private static class Race<T> {
+
+        private final List<Attempt<T>> attempts = new ArrayList<>();
+
+        private Attempt<T> winner;
+
+        private IOException error;
+
+        private int failures;
+
+        synchronized void start(final Attempt<T> attempt) {
+            attempts.add(attempt);
+            DownloadExecutors.getIoExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        onResponse(attempt, attempt.call());
+                    } catch (IOException e) {
+                        onError(e);
+                    } catch (RuntimeException e) {
+                        onError(new IOException(e));
+                    }
+                }
+            });
+        }
+
+        private void onResponse(Attempt<T> attempt, T response) {
+            synchronized (this) {
+                if (winner == null && !attempt.isCancelled()) {
+                    attempt.mResponse = response;
+                    winner = attempt;
+                    notifyAll();
+                    return;
+                }
+            }
+            // The loser has answered before it was cancelled
+            attempt.discard(response);
+        }
+
+        private synchronized void onError(IOException e) {
+            if (error == null) {
+                error = e;
+            }
+            failures++;
+            notifyAll();
+        }
+
+        private boolean isDone() {
+            return winner != null || failures >= attempts.size();
+        }
+
+        /**
+         * Wait for a response or for the failure of all the attempts
+         *
+         * @return false if the delay has elapsed before
+         */
+        synchronized boolean await(long millis) throws InterruptedException {
+            long deadline = System.nanoTime() + millis * 1000000L;
+            while (!isDone()) {
+                long remaining = (deadline - System.nanoTime()) / 1000000L;
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+            return true;
+        }
+
+        /**
+         * Wait for the first response, and cancel the other attempts
+         */
+        Attempt<T> awaitWinner() throws IOException, InterruptedException {
+            List<Attempt<T>> losers = new ArrayList<>();
+            Attempt<T> first;
+            synchronized (this) {
+                while (!isDone()) {
+                    wait();
+                }
+                if (winner == null) {
+                    throw error;
+                }
+                first = winner;
+                for (Attempt<T> attempt : attempts) {
+                    if (attempt != first) {
+                        losers.add(attempt);
+                    }
+                }
+            }
+            for (Attempt<T> loser : losers) {
+                loser.cancel();
+            }
+            return first;
+        }
+
+        /**
+         * Cancel all the attempts, the response that may have won in the meantime is discarded
+         */
+        void cancel() {
+            List<Attempt<T>> list;
+            synchronized (this) {
+                list = new ArrayList<>(attempts);
+            }
+            for (Attempt<T> attempt : list) {
+                attempt.cancel();
+            }
+            // No attempt can win once they are all cancelled
+            Attempt<T> first;
+            synchronized (this) {
+                first = winner;
+            }
+            if (first != null) {
+                first.discard(first.mResponse);
+            }
+        }
+    }
+}
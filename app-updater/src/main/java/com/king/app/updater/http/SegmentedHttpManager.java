@@ -0,0 +1,712 @@
+package com.king.app.updater.http;
+
+import com.king.app.updater.UpdateConfig;
+import com.king.app.updater.checksum.ApkChecksum;
+import com.king.app.updater.checksum.ChecksumVerifier;
+import com.king.app.updater.checksum.IHasher;
+import com.king.app.updater.util.LogUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * SegmentedHttpManager is an {@link IHttpManager} that splits the content into several byte ranges and downloads them
+ * concurrently, each range being written at its own position in a preallocated file.
+ * <p>The progress of each range is saved in the {@link DownloadRecord}, so when a range fails only its missing bytes are
+ * requested again. If the server does not advertise {@code Accept-Ranges}, the content is downloaded as a single stream.
+ * <p>The requests are executed by an {@link IHttpConnector}, e.g. {@code new SegmentedHttpManager(OkHttpManager.getInstance())}
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public class SegmentedHttpManager extends BaseHttpManager {
+
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_PARTIAL = 206;
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    private static final int DEFAULT_SEGMENT_COUNT = 3;
+    /**
+     * Minimum size of a segment, the content smaller than two segments is downloaded as a single stream
+     */
+    static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+    /**
+     * Number of times a failed segment is requested again before the download fails
+     */
+    private static final int SEGMENT_RETRIES = 2;
+    /**
+     * Interval for saving the progress of the segments
+     */
+    private static final long SAVE_INTERVAL_MILLIS = 1000L;
+
+    private IHttpConnector mConnector;
+
+    private int mSegmentCount;
+
+    /**
+     * Construction
+     *
+     * @param connector {@link HttpManager} or {@link OkHttpManager}, or your own {@link IHttpConnector}
+     */
+    public SegmentedHttpManager(@NonNull IHttpConnector connector) {
+        this(connector, DEFAULT_SEGMENT_COUNT);
+    }
+
+    /**
+     * Construction
+     *
+     * @param connector    {@link HttpManager} or {@link OkHttpManager}, or your own {@link IHttpConnector}
+     * @param segmentCount maximum number of concurrent connections
+     */
+    public SegmentedHttpManager(@NonNull IHttpConnector connector, int segmentCount) {
+        this.mConnector = connector;
+        this.mSegmentCount = Math.max(1, segmentCount);
+    }
+
+    @Override
+    public void download(String url, String saveFilePath, @Nullable Map<String, String> requestProperty, DownloadCallback callback) {
+        UpdateConfig config = new UpdateConfig();
+        if (requestProperty != null) {
+            config.addHeader(requestProperty);
+        }
+        download(config, url, saveFilePath, callback);
+    }
+
+    @Override
+    public void download(@NonNull UpdateConfig config, String url, String saveFilePath, DownloadCallback callback) {
+        execute(new DownloadTask(mConnector, mSegmentCount, url, saveFilePath, config, callback, getCallbackExecutor()));
+    }
+
+    /**
+     * Split the range from offset to the end into segments of at least {@link #MIN_SEGMENT_SIZE}
+     *
+     * @param offset       the bytes already written sequentially, they are recorded as a completed segment
+     * @param total        the content length
+     * @param segmentCount maximum number of segments to download
+     * @return
+     */
+    static List<DownloadRecord.Segment> createSegments(long offset, long total, int segmentCount) {
+        List<DownloadRecord.Segment> segments = new ArrayList<>();
+        if (offset > 0) {
+            // The bytes already written sequentially
+            segments.add(new DownloadRecord.Segment(0, offset - 1, offset));
+        }
+        long remaining = total - offset;
+        int count = (int) Math.max(1, Math.min(segmentCount, remaining / MIN_SEGMENT_SIZE));
+        long size = remaining / count;
+        long start = offset;
+        for (int i = 0; i < count; i++) {
+            long end = i == count - 1 ? total - 1 : start + size - 1;
+            segments.add(new DownloadRecord.Segment(start, end, 0));
+            start = end + 1;
+        }
+        return segments;
+    }
+
+    /**
+     * The content has changed on the server since the segments were started
+     */
+    private static class ContentChangedException extends IOException {
+
+        ContentChangedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Asynchronous download tasks
+     */
+    private static class DownloadTask extends BaseDownloadTask {
+
+        private IHttpConnector connector;
+
+        private int segmentCount;
+
+        private String url;
+
+        private String saveFilePath;
+
+        private Map<String, String> requestProperty;
+
+        private DownloadCallback callback;
+
+        private Exception exception;
+
+        /**
+         * Set when a segment has failed, so that the other segments stop
+         */
+        private volatile boolean isAbort;
+
+        /**
+         * Verifies the file, it selects the checksum algorithm computed while downloading
+         */
+        private ChecksumVerifier verifier;
+        /**
+         * Whether the segments downloaded so far can be continued, cleared when the content has changed
+         */
+        private boolean isResumable = true;
+
+        private long total;
+        /**
+         * Minimum download rate of a mirror, see {@link ThroughputMonitor}
+         */
+        private long minBytesPerSecond;
+        /**
+         * Percentile of the times to first byte after which the first request is hedged, see {@link RequestHedger}
+         */
+        private float hedgePercentile;
+        /**
+         * Maximum time without data, see {@link ThroughputMonitor}; the connect and first byte timeouts are those of
+         * the connector
+         */
+        private long transferTimeout;
+        /**
+         * Maximum duration of the download
+         */
+        private long deadline;
+
+        private volatile long lastSaveTime;
+
+        private final Set<IHttpConnector.Connection> connections = Collections.synchronizedSet(new HashSet<IHttpConnector.Connection>());
+
+        public DownloadTask(IHttpConnector connector, int segmentCount, String url, String saveFilePath, @NonNull UpdateConfig config, DownloadCallback callback, @NonNull Executor callbackExecutor) {
+            super(url, config, callback, callbackExecutor);
+            this.connector = connector;
+            this.segmentCount = segmentCount;
+            this.url = url;
+            this.saveFilePath = saveFilePath;
+            this.requestProperty = config.getRequestProperty();
+            this.verifier = new ChecksumVerifier(config.getChecksums());
+            this.minBytesPerSecond = config.getMinBytesPerSecond();
+            this.hedgePercentile = config.getHedgePercentile();
+            this.transferTimeout = config.getTransferTimeout();
+            this.deadline = config.getDeadline();
+            this.callback = callback;
+        }
+
+        @Override
+        protected File doInBackground() {
+            File file = null;
+            try {
+                setDeadline(deadline);
+                record = new DownloadRecord(new File(saveFilePath));
+                mirrors.probe(connector, requestProperty);
+                file = downloadFromMirrors();
+            } catch (Exception e) {
+                this.exception = e;
+                e.printStackTrace();
+            }
+
+            if (isCancel) {
+                cancel(false);
+                return null;
+            }
+            return file;
+        }
+
+        @Override
+        protected File download(@NonNull String target) throws Exception {
+            if (isResumable) {
+                try {
+                    return download(true);
+                } catch (ContentChangedException e) {
+                    // The segments downloaded so far are out of date, download again from the beginning
+                    LogUtils.w(e.getMessage());
+                    isResumable = false;
+                }
+            }
+            return download(false);
+        }
+
+        private File download(boolean canResume) throws Exception {
+            isAbort = false;
+            checkDeadline();
+            if (canResume && record.isSegmentResumable(url)) {
+                total = record.getContentLength();
+                LogUtils.d(String.format(Locale.getDefault(), "Resume segments: %d/%d", record.getDownloadedLength(), total));
+                return downloadSegments(record.getSegments(), null);
+            }
+
+            String target = mirrors.getUrl();
+            long offset = 0;
+            boolean isRevalidation = false;
+            if (canResume && record.isResumable(url) && record.getContentLength() > 0) {
+                // Continue the temporary file written sequentially
+                offset = record.getOffset();
+            } else if (record.isRevalidatable(url)) {
+                // Ask the source whether the completed file is still current
+                isRevalidation = true;
+            } else {
+                record.reset(url);
+            }
+
+            long hedgeDelay = RequestHedger.getDelay(hedgePercentile);
+            RequestHedger.Attempt<IHttpConnector.Connection> attempt = RequestHedger.execute(newAttempt(target, offset, isRevalidation),
+                    hedgeDelay >= 0 ? newAttempt(mirrors.getAlternateUrl(), offset, isRevalidation) : null, hedgeDelay);
+            if (!attempt.getUrl().equals(target)) {
+                // The hedged request to the next mirror has answered first
+                target = attempt.getUrl();
+                mirrors.select(target);
+            }
+            IHttpConnector.Connection connection = register(attempt.getResponse());
+            int responseCode = connection.getResponseCode();
+            LogUtils.d("responseCode: " + responseCode);
+            if (responseCode == HTTP_PARTIAL) {
+                String contentRange = connection.getHeaderField(HttpHeaders.CONTENT_RANGE);
+                long start = DownloadRecord.parseContentRangeStart(contentRange);
+                total = DownloadRecord.parseContentRangeTotal(contentRange);
+                if (start != offset || total <= 0 || (offset > 0 && total != record.getContentLength())) {
+                    release(connection);
+                    if (offset > 0) {
+                        return download(false);
+                    }
+                    throw new IOException("Content-Range: " + contentRange);
+                }
+                if (offset == 0) {
+                    record.reset(url);
+                    record.update(target, connection.getHeaderField(HttpHeaders.ETAG), connection.getHeaderField(HttpHeaders.LAST_MODIFIED), total);
+                }
+                if (isSplittable(total - offset)) {
+                    return downloadSegments(createSegments(offset, total, segmentCount), connection);
+                }
+                return downloadStream(connection, offset);
+            } else if (responseCode == HTTP_OK) {
+                if (offset > 0) {
+                    LogUtils.d("Resume is not supported or the content has changed, download again.");
+                }
+                record.reset(url);
+                total = connection.getContentLength();
+                record.update(target, connection.getHeaderField(HttpHeaders.ETAG), connection.getHeaderField(HttpHeaders.LAST_MODIFIED), total);
+                boolean isAcceptRanges = "bytes".equalsIgnoreCase(connection.getHeaderField(HttpHeaders.ACCEPT_RANGES));
+                if (isAcceptRanges && total > 0 && isSplittable(total)) {
+                    return downloadSegments(createSegments(0, total, segmentCount), connection);
+                }
+                return downloadStream(connection, 0);
+            } else if (responseCode == HTTP_NOT_MODIFIED) {
+                // The completed file is current, the response has no body
+                recycle(connection);
+                return notModified();
+            } else if (responseCode == HTTP_RANGE_NOT_SATISFIABLE && offset > 0) {
+                // The temporary file is invalid, download again from the beginning
+                release(connection);
+                return download(false);
+            }
+            String retryAfter = connection.getHeaderField(HttpHeaders.RETRY_AFTER);
+            release(connection);
+            throw new HttpStatusException(responseCode, retryAfter);
+        }
+
+        private boolean isSplittable(long length) {
+            return segmentCount > 1 && length >= MIN_SEGMENT_SIZE * 2;
+        }
+
+        /**
+         * Download the content as a single stream, used when the server does not support range requests
+         */
+        private File downloadStream(IHttpConnector.Connection connection, long start) throws Exception {
+            IHasher hasher = verifier.newHasher();
+            if (hasher != null && start > 0) {
+                // Continue the checksum with the data already downloaded
+                ChecksumVerifier.update(hasher, record.getPartFile(), start);
+            }
+            long progress = start;
+            progressReporter.setTotal(total);
+            progressReporter.set(progress);
+            int len;
+            IDownloadWriter writer = null;
+            ThroughputMonitor monitor = new ThroughputMonitor(minBytesPerSecond, 1, transferTimeout, getRemainingTime());
+            try {
+                if (total > 0) {
+                    // Check the free space and reserve the whole file before the transfer
+                    record.setDownloaded(start);
+                    record.preallocate(total);
+                }
+                InputStream is = connection.getInputStream();
+                monitor.watch(connection);
+                writer = openWriter(record.getPartFile(), start, null, hasher);
+                while ((len = writer.transferFrom(is)) != -1) {
+                    if (isCancel) {
+                        return null;
+                    }
+                    progress += len;
+                    if (total > 0) {
+                        record.setDownloaded(writer.getWrittenPosition());
+                    }
+                    // Update progress, it is sampled by the reporter
+                    progressReporter.set(progress);
+                    throttle(len, monitor);
+                    monitor.onRead(len);
+                }
+            } catch (IOException e) {
+                // The watchdog may have closed the connection
+                throw monitor.getError(e);
+            } finally {
+                monitor.stop();
+                try {
+                    if (writer != null) {
+                        writer.close();
+                    }
+                } finally {
+                    release(connection);
+                    if (total > 0 && writer != null) {
+                        // Save the written length so that the download can be resumed
+                        record.setDownloaded(writer.getWrittenPosition());
+                        record.save();
+                    }
+                }
+            }
+
+            if (progress <= 0 && total <= 0) {
+                throw new IllegalStateException(String.format("contentLength = %d", total));
+            }
+
+            if (total > 0 && progress != total) {
+                throw monitor.getError(new IOException(String.format(Locale.getDefault(), "Unexpected end of stream: %d/%d", progress, total)));
+            }
+
+            if (hasher != null) {
+                checksum = new ApkChecksum(hasher.getAlgorithm(), hasher.digest());
+            }
+            record.complete(checksum);
+
+            return record.getFile();
+        }
+
+        /**
+         * Download the segments concurrently
+         *
+         * @param segments segments
+         * @param first    the connection already opened at the position of the first uncompleted segment, can be null
+         */
+        private File downloadSegments(List<DownloadRecord.Segment> segments, @Nullable IHttpConnector.Connection first) throws Exception {
+            List<DownloadRecord.Segment> pending = new ArrayList<>();
+            for (DownloadRecord.Segment segment : segments) {
+                if (!segment.isCompleted()) {
+                    pending.add(segment);
+                }
+            }
+            LogUtils.d(String.format(Locale.getDefault(), "Segments: %d, pending: %d", segments.size(), pending.size()));
+
+            RandomAccessFile raf = new RandomAccessFile(record.getPartFile(), "rw");
+            try {
+                // Preallocate the file, each segment writes at its own position
+                record.preallocate(total);
+                if (raf.length() != total) {
+                    raf.setLength(total);
+                }
+                final FileChannel channel = raf.getChannel();
+                record.setSegments(segments);
+                progressReporter.setTotal(total);
+                progressReporter.set(record.getDownloadedLength());
+                lastSaveTime = System.currentTimeMillis();
+
+                if (!pending.isEmpty()) {
+                    List<Future<Void>> futures = new ArrayList<>();
+                    for (final DownloadRecord.Segment segment : pending) {
+                        final IHttpConnector.Connection connection = first;
+                        first = null;
+                        FutureTask<Void> future = new FutureTask<>(new Callable<Void>() {
+                            @Override
+                            public Void call() throws Exception {
+                                downloadSegment(channel, segment, connection);
+                                return null;
+                            }
+                        });
+                        // The segments block on the network, they run on the shared I/O threads
+                        DownloadExecutors.getIoExecutor().execute(future);
+                        futures.add(future);
+                    }
+
+                    Exception error = null;
+                    for (Future<Void> future : futures) {
+                        try {
+                            future.get();
+                        } catch (ExecutionException e) {
+                            if (error == null) {
+                                Throwable cause = e.getCause();
+                                error = cause instanceof Exception ? (Exception) cause : new Exception(cause);
+                                // Stop the other segments
+                                isAbort = true;
+                                closeConnections();
+                            }
+                        }
+                    }
+                    record.save();
+                    if (isCancel) {
+                        return null;
+                    }
+                    if (error != null) {
+                        throw error;
+                    }
+                }
+            } finally {
+                if (first != null) {
+                    release(first);
+                }
+                raf.close();
+            }
+
+            // The segments are written out of order, the checksum cannot be computed while downloading
+            record.complete(null);
+
+            return record.getFile();
+        }
+
+        /**
+         * Download a segment, only the failed segment is requested again
+         */
+        private void downloadSegment(FileChannel channel, DownloadRecord.Segment segment, @Nullable IHttpConnector.Connection connection) throws Exception {
+            int retries = 0;
+            // The first connection requested the bytes up to the end of the file, only the last segment reads it to the end
+            boolean isOpenEnded = connection != null && segment.getEnd() < total - 1;
+            while (!segment.isCompleted() && !isCancel && !isAbort) {
+                String target = mirrors.getUrl();
+                try {
+                    if (connection == null) {
+                        checkDeadline();
+                        connection = openSegment(segment, target);
+                    }
+                    transfer(channel, segment, connection);
+                } catch (ContentChangedException | ThroughputMonitor.DeadlineExceededException e) {
+                    throw e;
+                } catch (IOException e) {
+                    // Another mirror does not count as a retry
+                    if (isCancel || isAbort || (!mirrors.failover(target) && retries++ >= SEGMENT_RETRIES)) {
+                        throw e;
+                    }
+                    LogUtils.w(String.format(Locale.getDefault(), "Segment %d-%d failed, retry: %d, %s", segment.getStart(), segment.getEnd(), retries, e.getMessage()));
+                } finally {
+                    // No connection if the request has failed
+                    if (connection != null) {
+                        if (segment.isCompleted() && !isOpenEnded) {
+                            // The range is read to the end, the connection can be reused by the next request
+                            recycle(connection);
+                        } else {
+                            release(connection);
+                        }
+                    }
+                    connection = null;
+                    isOpenEnded = false;
+                }
+            }
+        }
+
+        @Override
+        public boolean isStopped() {
+            return isCancel || isAbort;
+        }
+
+        @Override
+        public void cancelDownload() {
+            super.cancelDownload();
+            // Unblock the reads in progress, closing a connection may wait for its read
+            DownloadExecutors.getIoExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    closeConnections();
+                }
+            });
+        }
+
+        /**
+         * Request the missing bytes of a segment
+         */
+        private IHttpConnector.Connection openSegment(DownloadRecord.Segment segment, String target) throws IOException {
+            Map<String, String> headers = newRequestProperty();
+            headers.put(HttpHeaders.RANGE, "bytes=" + segment.getPosition() + "-" + segment.getEnd());
+            if (record.isSource(target)) {
+                headers.put(HttpHeaders.IF_RANGE, record.getIfRange());
+            }
+            IHttpConnector.Connection connection = open(target, headers);
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HTTP_PARTIAL) {
+                String contentRange = connection.getHeaderField(HttpHeaders.CONTENT_RANGE);
+                long contentLength = DownloadRecord.parseContentRangeTotal(contentRange);
+                if (contentLength > 0 && contentLength != record.getContentLength()) {
+                    release(connection);
+                    throw new ContentChangedException("The content length has changed: " + contentRange);
+                }
+                if (DownloadRecord.parseContentRangeStart(contentRange) == segment.getPosition()) {
+                    return connection;
+                }
+            }
+            release(connection);
+            if (responseCode == HTTP_OK) {
+                throw new ContentChangedException("The content has changed, responseCode = " + responseCode);
+            }
+            throw new HttpStatusException(responseCode, connection.getHeaderField(HttpHeaders.RETRY_AFTER));
+        }
+
+        /**
+         * Copy the response body of a segment to its position in the file
+         */
+        private void transfer(FileChannel channel, DownloadRecord.Segment segment, IHttpConnector.Connection connection) throws IOException {
+            InputStream is = connection.getInputStream();
+            long end = segment.getEnd();
+            ThroughputMonitor monitor = new ThroughputMonitor(minBytesPerSecond, segmentCount, transferTimeout, getRemainingTime());
+            monitor.watch(connection);
+            // Each segment has its own buffer
+            AdaptiveBufferSize adaptiveBufferSize = newAdaptiveBufferSize();
+            DownloadWriter writer = newWriter(channel, segment.getPosition(), adaptiveBufferSize);
+            try {
+                while (writer.getPosition() <= end) {
+                    if (isCancel || isAbort) {
+                        return;
+                    }
+                    int len = writer.transferFrom(is, end - writer.getPosition() + 1);
+                    if (len == -1) {
+                        throw new IOException(String.format(Locale.getDefault(), "Unexpected end of segment: %d/%d", writer.getPosition(), end));
+                    }
+                    // Only the bytes written to the file are recorded
+                    segment.setDownloaded(writer.getWrittenPosition() - segment.getStart());
+                    // Update progress, it is sampled by the reporter
+                    progressReporter.add(len);
+                    throttle(len, monitor);
+                    monitor.onRead(len);
+
+                    long curTime = System.currentTimeMillis();
+                    if (curTime - lastSaveTime > SAVE_INTERVAL_MILLIS) {
+                        lastSaveTime = curTime;
+                        record.save();
+                    }
+                }
+            } catch (IOException e) {
+                // The watchdog may have closed the connection
+                throw monitor.getError(e);
+            } finally {
+                monitor.stop();
+                writer.close();
+                segment.setDownloaded(writer.getWrittenPosition() - segment.getStart());
+                if (adaptiveBufferSize != null) {
+                    LogUtils.d(String.format(Locale.getDefault(), "Segment %d-%d: %s", segment.getStart(), segment.getEnd(), adaptiveBufferSize));
+                }
+            }
+        }
+
+        /**
+         * Create the first request of the address, it is hedged with a request to the next mirror when its response is
+         * late. The connector aborts the request of the cancelled attempt if it can, otherwise its response is closed when it arrives
+         */
+        private RequestHedger.Attempt<IHttpConnector.Connection> newAttempt(String target, long offset, boolean isRevalidation) {
+            final Map<String, String> headers = newRequestProperty();
+            if (record.isSource(target)) {
+                if (offset > 0) {
+                    headers.put(HttpHeaders.IF_RANGE, record.getIfRange());
+                } else if (isRevalidation) {
+                    headers.putAll(record.getConditionalHeaders());
+                }
+            }
+            // The first request also checks whether the server supports range requests
+            headers.put(HttpHeaders.RANGE, "bytes=" + offset + "-");
+            return new RequestHedger.Attempt<IHttpConnector.Connection>(target) {
+                @Override
+                protected IHttpConnector.Connection execute() throws IOException {
+                    return connector.connect(getUrl(), headers, this);
+                }
+
+                @Override
+                protected void discard(@NonNull IHttpConnector.Connection response) {
+                    response.close();
+                }
+            };
+        }
+
+        private Map<String, String> newRequestProperty() {
+            Map<String, String> headers = new HashMap<>();
+            if (requestProperty != null) {
+                headers.putAll(requestProperty);
+            }
+            return headers;
+        }
+
+        private IHttpConnector.Connection open(String target, Map<String, String> headers) throws IOException {
+            return register(connector.connect(target, headers));
+        }
+
+        /**
+         * Register the connection so that it is closed when the download is cancelled or aborted
+         */
+        private IHttpConnector.Connection register(IHttpConnector.Connection connection) throws IOException {
+            connections.add(connection);
+            if (isCancel || isAbort) {
+                release(connection);
+                throw new IOException("Canceled");
+            }
+            return connection;
+        }
+
+        private void release(IHttpConnector.Connection connection) {
+            connections.remove(connection);
+            connection.close();
+        }
+
+        /**
+         * Release a connection whose response is read to the end, it can be kept alive
+         */
+        private void recycle(IHttpConnector.Connection connection) {
+            connections.remove(connection);
+            connection.release();
+        }
+
+        private void closeConnections() {
+            synchronized (connections) {
+                for (IHttpConnector.Connection connection : connections) {
+                    connection.close();
+                }
+            }
+        }
+
+        @Override
+        protected void onPreExecute() {
+            super.onPreExecute();
+            if (callback != null) {
+                callback.onStart(url);
+            }
+            progressReporter.start();
+        }
+
+        @Override
+        protected void onPostExecute(File file) {
+            super.onPostExecute(file);
+            // Deliver the final progress before the download is completed
+            progressReporter.stop(file != null);
+            if (callback != null) {
+                if (file != null) {
+                    callback.onFinish(file, checksum);
+                } else {
+                    callback.onError(exception);
+                }
+
+            }
+        }
+
+        @Override
+        protected void onCancelled() {
+            super.onCancelled();
+            progressReporter.stop(false);
+            if (callback != null) {
+                callback.onCancel();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,321 @@
+package com.king.app.updater.http;
+
+import com.king.app.updater.constant.Constants;
+import com.king.app.updater.util.LogUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+
+/**
+ * ThroughputMonitor is the watchdog of a transfer, it detects:
+ * <ul>
+ * <li>a transfer slower than a minimum rate: the bytes read are counted over a sliding window of {@link #WINDOW_MILLIS}
+ * ({@link SlowTransferException});</li>
+ * <li>a stalled transfer: no data is received for the transfer timeout ({@link SlowTransferException});</li>
+ * <li>the end of the deadline of the download ({@link DeadlineExceededException}).</li>
+ * </ul>
+ * {@link #onRead(int)} checks them on the reading thread; a read that blocks is caught by {@link #watch(Closeable)},
+ * which checks them every {@link #CHECK_INTERVAL_MILLIS} and closes the connection, the transfer then fails with
+ * {@link #getError(IOException)}. After a slow transfer the download switches to another mirror (see
+ * {@link MirrorSelector}) or reconnects to the same address, and resumes.
+ * <p>A throttled download is not slow: the time spent waiting for the {@link BandwidthLimiter} is not counted as a
+ * stall, and the rate is not checked while the limiter has made the download wait within the window (see
+ * {@link #onThrottleStart()}). It is thread safe.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public class ThroughputMonitor {
+
+    /**
+     * Duration of the sliding window of the throughput
+     */
+    public static final long WINDOW_MILLIS = 5000L;
+    /**
+     * Interval of the checks of a transfer whose read blocks
+     */
+    public static final long CHECK_INTERVAL_MILLIS = 500L;
+    /**
+     * Number of reconnections to the same address after a slow transfer, when there is no other mirror
+     */
+    public static final int MAX_RECONNECTS = 2;
+
+    private static final long SLOT_NANOS = 500L * 1000000L;
+
+    private static final int SLOTS = (int) (WINDOW_MILLIS * 1000000L / SLOT_NANOS);
+    /**
+     * A shorter wait for the bandwidth limit is only the cost of the call
+     */
+    private static final long THROTTLED_NANOS = 1000000L;
+
+    private final BandwidthLimiter.Clock mClock;
+
+    private final long mMinBytesPerSecond;
+
+    private final int mStreams;
+
+    private final long mTransferTimeoutNanos;
+
+    private final long mDeadlineNanos;
+
+    private final boolean hasDeadline;
+
+    private final long mStartNanos;
+    /**
+     * The bytes read in each slot of the window, a circular buffer indexed by the number of the slot
+     */
+    private final long[] mSlotBytes = new long[SLOTS];
+
+    private final long[] mSlotIds = new long[SLOTS];
+
+    private long mLastReadNanos;
+
+    private boolean isThrottling;
+
+    private long mThrottleStartNanos;
+    /**
+     * The end of the last wait for the bandwidth limit, valid if {@link #hasThrottled}
+     */
+    private long mLastThrottledNanos;
+
+    private boolean hasThrottled;
+
+    private IOException mError;
+
+    private Closeable mConnection;
+
+    private ScheduledFuture<?> mFuture;
+
+    /**
+     * The transfer is slower than the minimum rate, or it has stalled
+     */
+    public static class SlowTransferException extends IOException {
+
+        SlowTransferException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * The deadline of the download has passed, see {@link com.king.app.updater.UpdateConfig#setDeadline(long)}
+     */
+    public static class DeadlineExceededException extends IOException {
+
+        DeadlineExceededException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Construction
+     *
+     * @param minBytesPerSecond the minimum rate of the download, 0 or less disables the monitor
+     * @param streams           number of concurrent transfers of the download (e.g. the segments), they share the rate
+     */
+    public ThroughputMonitor(long minBytesPerSecond, int streams) {
+        this(minBytesPerSecond, streams, Constants.NONE, Constants.NONE);
+    }
+
+    /**
+     * Construction
+     *
+     * @param minBytesPerSecond the minimum rate of the download, 0 or less disables the check
+     * @param streams           number of concurrent transfers of the download (e.g. the segments), they share the rate
+     * @param transferTimeout   maximum time without data in milliseconds, 0 or less disables the check
+     * @param remainingTime     time left before the deadline of the download in milliseconds, less than 0 if there is
+     *                          no deadline
+     */
+    public ThroughputMonitor(long minBytesPerSecond, int streams, long transferTimeout, long remainingTime) {
+        this(minBytesPerSecond, streams, transferTimeout, remainingTime, BandwidthLimiter.SYSTEM_CLOCK);
+    }
+
+    ThroughputMonitor(long minBytesPerSecond, int streams, long transferTimeout, long remainingTime, @NonNull BandwidthLimiter.Clock clock) {
+        this.mClock = clock;
+        this.mMinBytesPerSecond = minBytesPerSecond;
+        this.mStreams = Math.max(1, streams);
+        this.mTransferTimeoutNanos = transferTimeout > 0 ? transferTimeout * 1000000L : 0;
+        this.mStartNanos = clock.nanoTime();
+        this.mLastReadNanos = mStartNanos;
+        this.hasDeadline = remainingTime >= 0;
+        this.mDeadlineNanos = mStartNanos + Math.max(0, remainingTime) * 1000000L;
+        Arrays.fill(mSlotIds, -1L);
+    }
+
+    private boolean isEnabled() {
+        return mMinBytesPerSecond > 0 || mTransferTimeoutNanos > 0 || hasDeadline;
+    }
+
+    /**
+     * Count the bytes read and check the transfer
+     *
+     * @param bytes number of bytes read
+     * @throws SlowTransferException     if the last window is slower than the minimum rate
+     * @throws DeadlineExceededException if the deadline of the download has passed
+     */
+    public void onRead(int bytes) throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        IOException error;
+        synchronized (this) {
+            long now = mClock.nanoTime();
+            long slot = (now - mStartNanos) / SLOT_NANOS;
+            int index = (int) (slot % SLOTS);
+            if (mSlotIds[index] != slot) {
+                mSlotIds[index] = slot;
+                mSlotBytes[index] = 0;
+            }
+            mSlotBytes[index] += bytes;
+            mLastReadNanos = now;
+            error = check(now);
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Called before the download waits for the bandwidth limit, the transfer is not checked while it waits
+     */
+    public synchronized void onThrottleStart() {
+        isThrottling = true;
+        mThrottleStartNanos = mClock.nanoTime();
+    }
+
+    /**
+     * Called when the wait for the bandwidth limit ends, if it has waited the rate is not checked over the next window
+     */
+    public synchronized void onThrottleEnd() {
+        long now = mClock.nanoTime();
+        isThrottling = false;
+        if (now - mThrottleStartNanos >= THROTTLED_NANOS) {
+            hasThrottled = true;
+            mLastThrottledNanos = now;
+        }
+        // The wait is not a stall of the server
+        mLastReadNanos = now;
+    }
+
+    /**
+     * Check the transfer in the background while it runs: if it is too slow, stalled or past the deadline, the
+     * connection is closed to unblock the reading thread. {@link #stop()} must be called when the transfer ends
+     *
+     * @param connection the connection of the transfer
+     */
+    public void watch(@NonNull Closeable connection) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            mConnection = connection;
+        }
+        ScheduledFuture<?> future = DownloadExecutors.getWatchdogExecutor().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                onCheck();
+            }
+        }, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        synchronized (this) {
+            if (mConnection != null) {
+                mFuture = future;
+                return;
+            }
+        }
+        // Stopped in the meantime
+        future.cancel(false);
+    }
+
+    /**
+     * Stop watching the transfer
+     */
+    public void stop() {
+        ScheduledFuture<?> future;
+        synchronized (this) {
+            mConnection = null;
+            future = mFuture;
+            mFuture = null;
+        }
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Get the error of the transfer: the reason of the abort if the connection has been closed by the watchdog,
+     * otherwise the given error
+     *
+     * @param e the error of the transfer, e.g. the socket is closed
+     * @return
+     */
+    @NonNull
+    public synchronized IOException getError(@NonNull IOException e) {
+        return mError != null ? mError : e;
+    }
+
+    private void onCheck() {
+        final Closeable connection;
+        IOException error;
+        synchronized (this) {
+            if (mConnection == null || (error = check(mClock.nanoTime())) == null) {
+                return;
+            }
+            connection = mConnection;
+        }
+        LogUtils.w("Abort the transfer: " + error.getMessage());
+        stop();
+        // Closing a connection may wait for the read in progress, it must not hold up the watchdog
+        DownloadExecutors.getIoExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    connection.close();
+                } catch (IOException e) {
+                    LogUtils.w(e.getMessage());
+                }
+            }
+        });
+    }
+
+    private IOException check(long now) {
+        if (mError != null) {
+            return mError;
+        }
+        if (hasDeadline && now - mDeadlineNanos >= 0) {
+            mError = new DeadlineExceededException("Deadline exceeded");
+        } else if (isThrottling) {
+            return null;
+        } else if (mTransferTimeoutNanos > 0 && now - mLastReadNanos >= mTransferTimeoutNanos) {
+            mError = new SlowTransferException(String.format(Locale.getDefault(), "No data for %d ms", (now - mLastReadNanos) / 1000000L));
+        } else if (mMinBytesPerSecond > 0 && now - mStartNanos >= WINDOW_MILLIS * 1000000L
+                && (!hasThrottled || now - mLastThrottledNanos >= WINDOW_MILLIS * 1000000L)) {
+            long bytesPerSecond = getBytesPerSecond(now);
+            long minBytesPerSecond = mMinBytesPerSecond / mStreams;
+            if (bytesPerSecond < minBytesPerSecond) {
+                mError = new SlowTransferException(String.format(Locale.getDefault(), "Too slow: %d B/s < %d B/s", bytesPerSecond, minBytesPerSecond));
+            }
+        }
+        return mError;
+    }
+
+    /**
+     * The rate over the last {@link #WINDOW_MILLIS}: the previous slots and the elapsed part of the current one
+     */
+    private long getBytesPerSecond(long now) {
+        long elapsed = now - mStartNanos;
+        long slot = elapsed / SLOT_NANOS;
+        long bytes = 0;
+        for (int i = 0; i < SLOTS; i++) {
+            if (mSlotIds[i] > slot - SLOTS) {
+                bytes += mSlotBytes[i];
+            }
+        }
+        long window = elapsed - Math.max(0, (slot - SLOTS + 1) * SLOT_NANOS);
+        return window > 0 ? (long) (bytes * 1e9 / window) : Long.MAX_VALUE;
+    }
+
+}
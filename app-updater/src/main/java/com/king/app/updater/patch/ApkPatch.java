@@ -0,0 +1,278 @@
+package com.king.app.updater.patch;
+
+import com.king.app.updater.checksum.IHasher;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * ApkPatch applies a binary delta to the installed APK (the base) to reconstruct the new APK.
+ * <p>The patch is produced by the {@code PatchGenerator} of the {@code app-updater-patch} module, its header tells the
+ * {@link Type}. A {@link Type#BINARY} patch is, after the length of the new file, a deflated list of instructions: copy a
+ * range of the base, or insert literal bytes. The patch is read once from the beginning and the new file is written
+ * sequentially, only the base is accessed at random, so nothing but a small buffer is kept in memory.
+ * A {@link Type#ARCHIVE} patch applies the same instructions to the uncompressed entries, see {@link ArchivePatch}.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+public final class ApkPatch {
+
+    /**
+     * File header of a {@link Type#BINARY} patch
+     */
+    static final byte[] MAGIC = {'A', 'U', 'P', 'A', 'T', 'C', 'H', '1'};
+
+    static final int OP_END = 0;
+    /**
+     * Copy a range of the base: offset (long), length (int)
+     */
+    static final int OP_COPY = 1;
+    /**
+     * Insert literal bytes: length (int), bytes
+     */
+    static final int OP_DATA = 2;
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The payload type of a patch
+     */
+    public enum Type {
+        /**
+         * Byte level delta of the whole file
+         */
+        BINARY,
+        /**
+         * ZIP entry aware delta: the changed entries are diffed uncompressed and compressed again on the device
+         */
+        ARCHIVE
+    }
+
+    private ApkPatch() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Get the payload type of the patch file
+     *
+     * @param patch the patch file
+     * @return Returns null if it is not a patch
+     * @throws IOException
+     */
+    @Nullable
+    public static Type getType(@NonNull File patch) throws IOException {
+        InputStream is = new FileInputStream(patch);
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            new DataInputStream(is).readFully(magic);
+            return getType(magic);
+        } catch (EOFException e) {
+            return null;
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Whether the patch can be applied on this device: an {@link Type#ARCHIVE} patch requires that the zlib of the device
+     * compresses like the zlib of the generator, it is checked with the known-answer digests of the patch header
+     *
+     * @param patch the patch file
+     * @return Returns false if it is not a patch, or if the device cannot reproduce its compressed entries
+     * @throws IOException
+     */
+    public static boolean isSupported(@NonNull File patch) throws IOException {
+        InputStream is = new FileInputStream(patch);
+        try {
+            DataInputStream header = new DataInputStream(is);
+            byte[] magic = new byte[MAGIC.length];
+            header.readFully(magic);
+            Type type = getType(magic);
+            if (type != Type.ARCHIVE) {
+                return type != null;
+            }
+            header.readLong();
+            return ArchivePatch.isReproducible(header);
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            is.close();
+        }
+    }
+
+    private static Type getType(byte[] magic) {
+        if (Arrays.equals(magic, MAGIC)) {
+            return Type.BINARY;
+        }
+        if (Arrays.equals(magic, ArchivePatch.MAGIC)) {
+            return Type.ARCHIVE;
+        }
+        return null;
+    }
+
+    /**
+     * Apply the patch, the temporary file of an {@link Type#ARCHIVE} patch is created in the default temporary directory
+     *
+     * @param base   the base file (e.g. {@code ApplicationInfo.sourceDir})
+     * @param patch  the patch stream, positioned at the beginning of the patch
+     * @param out    the new file is written to it
+     * @param hasher if not null, it is updated with the bytes of the new file
+     * @return the length of the new file
+     * @throws IOException if the patch is damaged or does not apply to the base
+     */
+    public static long apply(@NonNull File base, @NonNull InputStream patch, @NonNull OutputStream out, @Nullable IHasher hasher) throws IOException {
+        return apply(base, patch, out, hasher, null);
+    }
+
+    /**
+     * Apply the patch
+     *
+     * @param base    the base file (e.g. {@code ApplicationInfo.sourceDir})
+     * @param patch   the patch stream, positioned at the beginning of the patch
+     * @param out     the new file is written to it
+     * @param hasher  if not null, it is updated with the bytes of the new file
+     * @param tempDir directory of the temporary file of an {@link Type#ARCHIVE} patch (the base with its changed entries
+     *                uncompressed); null means the default temporary directory
+     * @return the length of the new file
+     * @throws IOException if the patch is damaged or does not apply to the base
+     */
+    public static long apply(@NonNull File base, @NonNull InputStream patch, @NonNull OutputStream out, @Nullable IHasher hasher, @Nullable File tempDir) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        DataInputStream header = new DataInputStream(patch);
+        header.readFully(magic);
+        Type type = getType(magic);
+        if (type == null) {
+            throw new IOException("Not an APK patch");
+        }
+        long newLength = header.readLong();
+        if (type == Type.ARCHIVE && !ArchivePatch.isReproducible(header)) {
+            throw new IOException("The compression of the device does not reproduce the patch");
+        }
+
+        ChecksumOutputStream cos = new ChecksumOutputStream(out, hasher);
+        Inflater inflater = new Inflater();
+        try {
+            DataInputStream dis = new DataInputStream(new InflaterInputStream(patch, inflater, BUFFER_SIZE));
+            if (type == Type.ARCHIVE) {
+                ArchivePatch.apply(base, dis, cos, tempDir);
+            } else {
+                RandomAccessFile baseFile = new RandomAccessFile(base, "r");
+                try {
+                    applyInstructions(baseFile, dis, cos, newLength);
+                } finally {
+                    baseFile.close();
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated patch", e);
+        } finally {
+            inflater.end();
+        }
+        if (cos.getCount() != newLength) {
+            throw new IOException(String.format(Locale.US, "Unexpected length of the patched file: %d/%d", cos.getCount(), newLength));
+        }
+        return newLength;
+    }
+
+    /**
+     * Execute the copy / insert instructions until {@link #OP_END}
+     *
+     * @param base      the file the ranges are copied from
+     * @param dis       the instructions
+     * @param out       the output
+     * @param maxLength the expected length of the output, the instructions stop beyond it
+     * @throws IOException
+     */
+    static void applyInstructions(RandomAccessFile base, DataInputStream dis, OutputStream out, long maxLength) throws IOException {
+        long baseLength = base.length();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long written = 0;
+        int op;
+        while ((op = dis.readUnsignedByte()) != OP_END) {
+            switch (op) {
+                case OP_COPY: {
+                    long offset = dis.readLong();
+                    int length = dis.readInt();
+                    if (offset < 0 || length < 0 || offset + length > baseLength) {
+                        throw new IOException(String.format(Locale.US, "Copy %d+%d out of the base: %d", offset, length, baseLength));
+                    }
+                    base.seek(offset);
+                    while (length > 0) {
+                        int len = Math.min(buffer.length, length);
+                        base.readFully(buffer, 0, len);
+                        out.write(buffer, 0, len);
+                        length -= len;
+                        written += len;
+                    }
+                    break;
+                }
+                case OP_DATA: {
+                    int length = dis.readInt();
+                    if (length < 0) {
+                        throw new IOException("Corrupted patch: data length " + length);
+                    }
+                    while (length > 0) {
+                        int len = Math.min(buffer.length, length);
+                        dis.readFully(buffer, 0, len);
+                        out.write(buffer, 0, len);
+                        length -= len;
+                        written += len;
+                    }
+                    break;
+                }
+                default:
+                    throw new IOException("Corrupted patch: op " + op);
+            }
+            if (written > maxLength) {
+                throw new IOException(String.format(Locale.US, "The patched file exceeds its length: %d", maxLength));
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes written and updates the hasher with them
+     */
+    private static class ChecksumOutputStream extends FilterOutputStream {
+
+        private final IHasher hasher;
+
+        private long count;
+
+        ChecksumOutputStream(OutputStream out, @Nullable IHasher hasher) {
+            super(out);
+            this.hasher = hasher;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (hasher != null) {
+                hasher.update(b, off, len);
+            }
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
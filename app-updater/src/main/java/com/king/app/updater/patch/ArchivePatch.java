@@ -0,0 +1,378 @@
+package com.king.app.updater.patch;
+
+import com.king.app.updater.checksum.ChecksumAlgorithm;
+import com.king.app.updater.checksum.HasherProvider;
+import com.king.app.updater.checksum.IHasher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import androidx.annotation.Nullable;
+
+/**
+ * ArchivePatch applies an {@link ApkPatch.Type#ARCHIVE} patch: a delta between the APKs whose changed deflated entries
+ * are uncompressed, because one changed byte changes the whole compressed data of an entry.
+ * <p>The base is first copied to a temporary file with the listed entries inflated. The instructions are applied to it,
+ * and the listed ranges of the output are deflated again with the level and strategy that the generator found to
+ * reproduce the original compressed data, so the new APK is byte-identical (it is verified by its checksum anyway).
+ * <p>That holds only if the zlib of the device compresses like the zlib of the generator. The header of the patch
+ * contains, after the length of the new file, the number of level / strategy combinations used, then for each one:
+ * level (byte), strategy (byte) and the SHA-256 (UTF) of a fixed input compressed with it. The device compresses the same
+ * input before anything else, see {@link #isReproducible(DataInputStream)}.
+ * <p>The deflated body of the patch contains:
+ * <ul>
+ * <li>the number of base entries to inflate, then for each one: offset (long) and length (long) of the compressed data</li>
+ * <li>the number of entries to deflate, then for each one: offset (long) and length (long) of the uncompressed data in
+ * the output of the instructions, level (byte), strategy (byte)</li>
+ * <li>the instructions of {@link ApkPatch}, the copies refer to the base with its entries inflated</li>
+ * </ul>
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+final class ArchivePatch {
+
+    /**
+     * File header of an {@link ApkPatch.Type#ARCHIVE} patch
+     */
+    static final byte[] MAGIC = {'A', 'U', 'Z', 'P', 'A', 'T', 'C', 'H'};
+    /**
+     * Size of the known-answer input of the {@link Deflater}
+     */
+    private static final int PROBE_SIZE = 32 * 1024;
+    /**
+     * The digests of the known-answer input compressed on this device, by level and strategy
+     */
+    private static final Map<Integer, String> sProbeDigests = new HashMap<>();
+
+    private ArchivePatch() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Create the {@link Deflater} of a ZIP entry, the generator uses it too so that both sides compress identically
+     *
+     * @param level    compression level
+     * @param strategy compression strategy
+     * @return
+     */
+    static Deflater newDeflater(int level, int strategy) {
+        Deflater deflater = new Deflater(level, true);
+        if (strategy != Deflater.DEFAULT_STRATEGY) {
+            deflater.setStrategy(strategy);
+        }
+        return deflater;
+    }
+
+    /**
+     * Read the known-answer digests of the header and compare them with the compression of the device
+     *
+     * @param header the header of the patch, positioned after the length of the new file
+     * @return Returns false if a level / strategy combination of the patch compresses differently on the device
+     * @throws IOException
+     */
+    static boolean isReproducible(DataInputStream header) throws IOException {
+        int count = readCount(header);
+        boolean isReproducible = true;
+        for (int i = 0; i < count; i++) {
+            int level = header.readByte();
+            int strategy = header.readByte();
+            String digest = header.readUTF();
+            if (isReproducible && !digest.equals(getProbeDigest(level, strategy))) {
+                isReproducible = false;
+            }
+        }
+        return isReproducible;
+    }
+
+    /**
+     * Get the SHA-256 of the known-answer input compressed with the level and strategy, it is computed once per process
+     *
+     * @param level    compression level
+     * @param strategy compression strategy
+     * @return
+     */
+    static String getProbeDigest(int level, int strategy) {
+        Integer key = level << 8 | strategy;
+        synchronized (sProbeDigests) {
+            String digest = sProbeDigests.get(key);
+            if (digest == null) {
+                digest = probe(level, strategy);
+                sProbeDigests.put(key, digest);
+            }
+            return digest;
+        }
+    }
+
+    private static String probe(int level, int strategy) {
+        IHasher hasher = HasherProvider.newHasher(ChecksumAlgorithm.SHA_256);
+        Deflater deflater = newDeflater(level, strategy);
+        try {
+            byte[] buffer = new byte[ApkPatch.BUFFER_SIZE];
+            deflater.setInput(newProbeInput());
+            deflater.finish();
+            while (!deflater.finished()) {
+                int len = deflater.deflate(buffer);
+                hasher.update(buffer, 0, len);
+            }
+        } finally {
+            deflater.end();
+        }
+        return hasher.digest();
+    }
+
+    /**
+     * The known-answer input: pseudo-random words with repetitions, so that the matches, the literals and the Huffman
+     * coding are all exercised
+     */
+    private static byte[] newProbeInput() {
+        byte[] input = new byte[PROBE_SIZE];
+        long seed = 0x5DEECE66DL;
+        int i = 0;
+        while (i < input.length) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            int word = (int) (seed >>> 57);
+            int length = 2 + word % 9;
+            for (int k = 0; k < length && i < input.length; k++) {
+                input[i++] = (byte) ('a' + (word * 31 + k * 7) % 26);
+            }
+            if (i < input.length) {
+                input[i++] = (byte) ((seed & 0x0F) == 0 ? seed >>> 8 : ' ');
+            }
+        }
+        return input;
+    }
+
+    static void apply(File base, DataInputStream dis, OutputStream out, @Nullable File tempDir) throws IOException {
+        long baseLength = base.length();
+        int inflateCount = readCount(dis);
+        long[] inflateOffsets = new long[inflateCount];
+        long[] inflateLengths = new long[inflateCount];
+        long end = 0;
+        for (int i = 0; i < inflateCount; i++) {
+            inflateOffsets[i] = dis.readLong();
+            inflateLengths[i] = dis.readLong();
+            if (inflateOffsets[i] < end || inflateLengths[i] <= 0 || inflateOffsets[i] + inflateLengths[i] > baseLength) {
+                throw new IOException(String.format(Locale.US, "Entry %d+%d out of the base: %d", inflateOffsets[i], inflateLengths[i], baseLength));
+            }
+            end = inflateOffsets[i] + inflateLengths[i];
+        }
+
+        int deflateCount = readCount(dis);
+        long[] deflateOffsets = new long[deflateCount];
+        long[] deflateLengths = new long[deflateCount];
+        int[] levels = new int[deflateCount];
+        int[] strategies = new int[deflateCount];
+        end = 0;
+        for (int i = 0; i < deflateCount; i++) {
+            deflateOffsets[i] = dis.readLong();
+            deflateLengths[i] = dis.readLong();
+            levels[i] = dis.readByte();
+            strategies[i] = dis.readByte();
+            if (deflateOffsets[i] < end || deflateLengths[i] <= 0) {
+                throw new IOException(String.format(Locale.US, "Corrupted patch: entry %d+%d", deflateOffsets[i], deflateLengths[i]));
+            }
+            end = deflateOffsets[i] + deflateLengths[i];
+        }
+
+        File expandedBase = File.createTempFile("base", ".tmp", tempDir);
+        try {
+            expand(base, inflateOffsets, inflateLengths, expandedBase);
+            RandomAccessFile baseFile = new RandomAccessFile(expandedBase, "r");
+            DeflatingOutputStream dos = new DeflatingOutputStream(out, deflateOffsets, deflateLengths, levels, strategies);
+            try {
+                ApkPatch.applyInstructions(baseFile, dis, dos, Long.MAX_VALUE);
+                dos.checkCompleted();
+            } finally {
+                dos.release();
+                baseFile.close();
+            }
+        } finally {
+            expandedBase.delete();
+        }
+    }
+
+    private static int readCount(DataInputStream dis) throws IOException {
+        int count = dis.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupted patch: count " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Copy the base to the file with the listed entries inflated
+     */
+    private static void expand(File base, long[] offsets, long[] lengths, File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(base), ApkPatch.BUFFER_SIZE);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), ApkPatch.BUFFER_SIZE);
+        Inflater inflater = new Inflater(true);
+        try {
+            byte[] input = new byte[ApkPatch.BUFFER_SIZE];
+            byte[] output = new byte[ApkPatch.BUFFER_SIZE];
+            long position = 0;
+            for (int i = 0; i < offsets.length; i++) {
+                copy(in, out, input, offsets[i] - position);
+                inflate(in, out, input, output, lengths[i], inflater);
+                position = offsets[i] + lengths[i];
+            }
+            int len;
+            while ((len = in.read(input)) != -1) {
+                out.write(input, 0, len);
+            }
+        } finally {
+            inflater.end();
+            out.close();
+            in.close();
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out, byte[] buffer, long length) throws IOException {
+        while (length > 0) {
+            int len = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (len == -1) {
+                throw new IOException("Unexpected end of the base");
+            }
+            out.write(buffer, 0, len);
+            length -= len;
+        }
+    }
+
+    private static void inflate(InputStream in, OutputStream out, byte[] input, byte[] output, long length, Inflater inflater) throws IOException {
+        inflater.reset();
+        long remaining = length;
+        boolean isPadded = false;
+        try {
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (remaining > 0) {
+                        int len = in.read(input, 0, (int) Math.min(input.length, remaining));
+                        if (len == -1) {
+                            throw new IOException("Unexpected end of the base");
+                        }
+                        inflater.setInput(input, 0, len);
+                        remaining -= len;
+                    } else if (!isPadded) {
+                        // An Inflater without zlib header may need an extra byte to complete the stream
+                        inflater.setInput(new byte[1], 0, 1);
+                        isPadded = true;
+                    } else {
+                        throw new IOException("Corrupted entry of the base");
+                    }
+                }
+                int len = inflater.inflate(output);
+                out.write(output, 0, len);
+                if (len == 0 && inflater.needsDictionary()) {
+                    throw new IOException("Corrupted entry of the base");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted entry of the base", e);
+        }
+        if (remaining > 0 || (!isPadded && inflater.getRemaining() > 0)) {
+            throw new IOException("Corrupted entry of the base");
+        }
+    }
+
+    /**
+     * Deflates the listed ranges of the stream and writes the rest unchanged
+     */
+    private static class DeflatingOutputStream extends FilterOutputStream {
+
+        private final long[] offsets;
+
+        private final long[] lengths;
+
+        private final int[] levels;
+
+        private final int[] strategies;
+
+        private final byte[] buffer = new byte[ApkPatch.BUFFER_SIZE];
+
+        private Deflater deflater;
+
+        private int index;
+
+        private long position;
+
+        DeflatingOutputStream(OutputStream out, long[] offsets, long[] lengths, int[] levels, int[] strategies) {
+            super(out);
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.levels = levels;
+            this.strategies = strategies;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (index < offsets.length && position >= offsets[index]) {
+                    if (deflater == null) {
+                        deflater = newDeflater(levels[index], strategies[index]);
+                    }
+                    long end = offsets[index] + lengths[index];
+                    int n = (int) Math.min(len, end - position);
+                    deflater.setInput(b, off, n);
+                    while (!deflater.needsInput()) {
+                        drain();
+                    }
+                    position += n;
+                    off += n;
+                    len -= n;
+                    if (position == end) {
+                        deflater.finish();
+                        while (!deflater.finished()) {
+                            drain();
+                        }
+                        deflater.end();
+                        deflater = null;
+                        index++;
+                    }
+                } else {
+                    int n = index < offsets.length ? (int) Math.min(len, offsets[index] - position) : len;
+                    out.write(b, off, n);
+                    position += n;
+                    off += n;
+                    len -= n;
+                }
+            }
+        }
+
+        private void drain() throws IOException {
+            int len = deflater.deflate(buffer);
+            out.write(buffer, 0, len);
+        }
+
+        void checkCompleted() throws IOException {
+            if (index < offsets.length) {
+                throw new IOException(String.format(Locale.US, "Unexpected end of the patched entries: %d/%d", index, offsets.length));
+            }
+        }
+
+        void release() {
+            if (deflater != null) {
+                deflater.end();
+                deflater = null;
+            }
+        }
+    }
+}
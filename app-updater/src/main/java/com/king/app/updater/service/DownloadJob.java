@@ -0,0 +1,151 @@
+package com.king.app.updater.service;
+
+import com.king.app.updater.UpdateConfig;
+import com.king.app.updater.checksum.ApkChecksum;
+import com.king.app.updater.http.BackgroundTask;
+import com.king.app.updater.http.BaseHttpManager;
+import com.king.app.updater.http.IHttpManager;
+import com.king.app.updater.notify.INotification;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A download job of {@link DownloadService}: an {@link UpdateConfig} with its own callbacks, {@link IHttpManager} and
+ * notification, identified by {@link UpdateConfig#getJobId()} and scheduled by {@link DownloadScheduler}. The duplicate
+ * requests of the same artifact are joined onto it
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+final class DownloadJob {
+
+    final String id;
+    /**
+     * The requests with the same key are joined onto this job, see {@link #getKey(UpdateConfig)}
+     */
+    final String key;
+
+    final UpdateConfig config;
+
+    final int priority;
+    /**
+     * Host of the download, the downloads of a host are limited by {@link DownloadScheduler}
+     */
+    final String host;
+
+    final File apkFile;
+
+    final IHttpManager httpManager;
+
+    /**
+     * The callbacks of the callers attached to the job
+     */
+    final UpdateCallbackGroup callbacks;
+
+    final INotification notification;
+    /**
+     * Number of re-downloads after failure
+     */
+    final int reDownloadCount;
+    /**
+     * Order of the job among the jobs of the same priority
+     */
+    long sequence;
+    /**
+     * The job is being cancelled to free its slot for a job of higher priority, it is queued again when it stops
+     */
+    volatile boolean isPreempted;
+    /**
+     * The job is being stopped because its network is lost or replaced, it waits for a network and resumes
+     */
+    volatile boolean isPaused;
+
+    volatile boolean isCancelled;
+    /**
+     * The job is cancelled to be started again later (e.g. the constraints of its schedule are no longer met): it keeps
+     * its temporary file and its callbacks are not notified
+     */
+    volatile boolean isSuspended;
+    /**
+     * The callback of the APK, it completes the job
+     */
+    DownloadService.AppDownloadCallback downloadCallback;
+    /**
+     * The callback of the current download (the patch or the APK), it is used to cancel the download
+     */
+    volatile IHttpManager.DownloadCallback activeCallback;
+    /**
+     * The task that applies the downloaded patch, null if no patch is being applied
+     */
+    volatile BackgroundTask<?> patchTask;
+
+    DownloadJob(@NonNull UpdateConfig config, @NonNull File apkFile, @NonNull IHttpManager httpManager, @NonNull UpdateCallbackGroup callbacks, @NonNull INotification notification, int reDownloadCount) {
+        this.id = config.getJobId();
+        this.key = getKey(config);
+        this.config = config;
+        this.priority = config.getPriority();
+        this.host = getHost(config.getUrl());
+        this.apkFile = apkFile;
+        this.httpManager = httpManager;
+        this.callbacks = callbacks;
+        this.notification = notification;
+        this.reDownloadCount = reDownloadCount;
+    }
+
+    /**
+     * Get the key of the artifact downloaded with the config: the URL and the expected checksums
+     *
+     * @param config {@link UpdateConfig}
+     * @return
+     */
+    static String getKey(@NonNull UpdateConfig config) {
+        List<String> checksums = new ArrayList<>();
+        for (ApkChecksum checksum : config.getChecksums()) {
+            checksums.add(checksum.getAlgorithm().name() + ":" + checksum.getValue().toLowerCase(Locale.US));
+        }
+        Collections.sort(checksums);
+        return config.getUrl() + " " + checksums;
+    }
+
+    private static String getHost(String url) {
+        try {
+            return new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Whether the job can be paused for a job of higher priority: its {@link IHttpManager} must cancel one download
+     * without the others ({@link BaseHttpManager})
+     */
+    boolean isPreemptible() {
+        return httpManager instanceof BaseHttpManager;
+    }
+
+    /**
+     * Cancel the current download of the job, or the patch being applied
+     */
+    void cancelDownload() {
+        BackgroundTask<?> task = patchTask;
+        if (task != null) {
+            task.cancel(false);
+        }
+        IHttpManager.DownloadCallback callback = activeCallback;
+        if (callback != null) {
+            httpManager.cancel(callback);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DownloadJob{id=" + id + ", priority=" + priority + ", host=" + host + "}";
+    }
+}
@@ -0,0 +1,258 @@
+package com.king.app.updater.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * DownloadScheduler orders the {@link DownloadJob}s of {@link DownloadService}: the queued jobs are started by priority
+ * (then in order of arrival) as long as the number of running jobs is below the global limit and the limit of their host.
+ * <p>When the job of highest priority cannot start, the running job of lowest priority that blocks it is preempted:
+ * its download is cancelled and, once stopped, it is queued again with its original order, so it resumes (from its
+ * temporary file) as soon as a slot is free.
+ * <p>The listener is called outside of the lock of the scheduler.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+final class DownloadScheduler {
+
+    interface Listener {
+        /**
+         * Start the download of the job
+         */
+        void onStart(@NonNull DownloadJob job);
+
+        /**
+         * Stop the download of the job to free its slot, then call {@link #requeue(DownloadJob)} when it is stopped
+         */
+        void onPreempt(@NonNull DownloadJob job);
+    }
+
+    private static final Comparator<DownloadJob> ORDER = new Comparator<DownloadJob>() {
+        @Override
+        public int compare(DownloadJob o1, DownloadJob o2) {
+            if (o1.priority != o2.priority) {
+                return o1.priority > o2.priority ? -1 : 1;
+            }
+            if (o1.sequence != o2.sequence) {
+                return o1.sequence < o2.sequence ? -1 : 1;
+            }
+            return 0;
+        }
+    };
+
+    private final Listener mListener;
+
+    private final List<DownloadJob> mQueue = new ArrayList<>();
+
+    private final List<DownloadJob> mRunning = new ArrayList<>();
+
+    private int mMaxConcurrentDownloads;
+
+    private int mMaxDownloadsPerHost;
+
+    private long mSequence;
+
+    DownloadScheduler(int maxConcurrentDownloads, int maxDownloadsPerHost, @NonNull Listener listener) {
+        this.mMaxConcurrentDownloads = Math.max(1, maxConcurrentDownloads);
+        this.mMaxDownloadsPerHost = Math.max(1, maxDownloadsPerHost);
+        this.mListener = listener;
+    }
+
+    /**
+     * Set the maximum number of running jobs
+     *
+     * @param maxConcurrentDownloads maximum number of running jobs
+     * @param maxDownloadsPerHost    maximum number of running jobs of the same host
+     */
+    void setLimits(int maxConcurrentDownloads, int maxDownloadsPerHost) {
+        synchronized (this) {
+            this.mMaxConcurrentDownloads = Math.max(1, maxConcurrentDownloads);
+            this.mMaxDownloadsPerHost = Math.max(1, maxDownloadsPerHost);
+        }
+        schedule();
+    }
+
+    @Nullable
+    synchronized DownloadJob getJob(String id) {
+        for (DownloadJob job : mRunning) {
+            if (job.id.equals(id)) {
+                return job;
+            }
+        }
+        for (DownloadJob job : mQueue) {
+            if (job.id.equals(id)) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the job downloading the artifact
+     *
+     * @param key {@link DownloadJob#getKey(com.king.app.updater.UpdateConfig)}
+     * @return
+     */
+    @Nullable
+    synchronized DownloadJob getJobByKey(String key) {
+        for (DownloadJob job : getJobs()) {
+            if (job.key.equals(key)) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    @NonNull
+    synchronized List<DownloadJob> getJobs() {
+        List<DownloadJob> jobs = new ArrayList<>(mRunning);
+        jobs.addAll(mQueue);
+        return jobs;
+    }
+
+    /**
+     * Get the jobs that are downloading
+     *
+     * @return
+     */
+    @NonNull
+    synchronized List<DownloadJob> getRunningJobs() {
+        return new ArrayList<>(mRunning);
+    }
+
+    synchronized boolean isIdle() {
+        return mRunning.isEmpty() && mQueue.isEmpty();
+    }
+
+    /**
+     * Queue the job
+     *
+     * @param job {@link DownloadJob}
+     */
+    void enqueue(@NonNull DownloadJob job) {
+        synchronized (this) {
+            job.sequence = mSequence++;
+            mQueue.add(job);
+        }
+        schedule();
+    }
+
+    /**
+     * Queue again the job stopped after {@link Listener#onPreempt(DownloadJob)}, it keeps its order
+     *
+     * @param job {@link DownloadJob}
+     */
+    void requeue(@NonNull DownloadJob job) {
+        synchronized (this) {
+            mRunning.remove(job);
+            job.isPreempted = false;
+            mQueue.add(job);
+        }
+        schedule();
+    }
+
+    /**
+     * Remove the job, it is finished (or it was cancelled)
+     *
+     * @param job {@link DownloadJob}
+     */
+    void finish(@NonNull DownloadJob job) {
+        synchronized (this) {
+            mRunning.remove(job);
+            mQueue.remove(job);
+        }
+        schedule();
+    }
+
+    /**
+     * Remove the job if it has not started yet
+     *
+     * @param job {@link DownloadJob}
+     * @return true if the job was queued
+     */
+    synchronized boolean dequeue(@NonNull DownloadJob job) {
+        return mQueue.remove(job);
+    }
+
+    private void schedule() {
+        List<DownloadJob> started = new ArrayList<>();
+        DownloadJob preempted = null;
+        synchronized (this) {
+            Collections.sort(mQueue, ORDER);
+            DownloadJob blocked = null;
+            for (int i = 0; i < mQueue.size() && mRunning.size() < mMaxConcurrentDownloads; ) {
+                DownloadJob job = mQueue.get(i);
+                if (countRunning(job.host) < mMaxDownloadsPerHost) {
+                    mQueue.remove(i);
+                    mRunning.add(job);
+                    started.add(job);
+                } else {
+                    if (blocked == null) {
+                        blocked = job;
+                    }
+                    i++;
+                }
+            }
+            if (blocked == null && !mQueue.isEmpty() && mRunning.size() >= mMaxConcurrentDownloads) {
+                blocked = mQueue.get(0);
+            }
+            if (blocked != null && !isPreempting()) {
+                preempted = findVictim(blocked);
+                if (preempted != null) {
+                    preempted.isPreempted = true;
+                }
+            }
+        }
+        for (DownloadJob job : started) {
+            mListener.onStart(job);
+        }
+        if (preempted != null) {
+            mListener.onPreempt(preempted);
+        }
+    }
+
+    private int countRunning(String host) {
+        int count = 0;
+        for (DownloadJob job : mRunning) {
+            if (job.host.equals(host)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Whether a job is already being stopped, its slot is about to be free
+     */
+    private boolean isPreempting() {
+        for (DownloadJob job : mRunning) {
+            if (job.isPreempted) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the running job of lowest priority (the latest started first) whose slot would let the job start
+     */
+    @Nullable
+    private DownloadJob findVictim(DownloadJob job) {
+        boolean isHostFull = countRunning(job.host) >= mMaxDownloadsPerHost;
+        DownloadJob victim = null;
+        for (DownloadJob running : mRunning) {
+            if (running.priority >= job.priority || running.isCancelled || !running.isPreemptible() || (isHostFull && !running.host.equals(job.host))) {
+                continue;
+            }
+            if (victim == null || running.priority < victim.priority || (running.priority == victim.priority && running.sequence > victim.sequence)) {
+                victim = running;
+            }
+        }
+        return victim;
+    }
+}
@@ -5,22 +5,48 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.text.TextUtils;
 
 import com.king.app.updater.R;
 import com.king.app.updater.UpdateConfig;
 import com.king.app.updater.callback.UpdateCallback;
+import com.king.app.updater.checksum.ApkChecksum;
+import com.king.app.updater.checksum.ChecksumVerifier;
+import com.king.app.updater.checksum.HasherProvider;
+import com.king.app.updater.checksum.IHasher;
 import com.king.app.updater.constant.Constants;
+import com.king.app.updater.http.BackgroundTask;
+import com.king.app.updater.http.DownloadExecutors;
+import com.king.app.updater.http.DownloadRecord;
 import com.king.app.updater.http.HttpManager;
 import com.king.app.updater.http.IHttpManager;
+import com.king.app.updater.http.RedirectResolver;
+import com.king.app.updater.http.InsufficientSpaceException;
 import com.king.app.updater.notify.INotification;
 import com.king.app.updater.notify.NotificationImpl;
+import com.king.app.updater.patch.ApkPatch;
 import com.king.app.updater.util.AppUtils;
 import com.king.app.updater.util.LogUtils;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -28,38 +54,85 @@ import androidx.annotation.StringRes;
 
 /**
  * Download Service
+ * <p>The service runs several download jobs (e.g. a host APK and its plugins), each with its own {@link UpdateConfig},
+ * callback and {@link IHttpManager}. A job is identified by {@link UpdateConfig#getJobId()} and queued by
+ * {@link UpdateConfig#getPriority()}, see {@link DownloadScheduler}; the number of concurrent downloads is limited by
+ * {@link #setMaxDownloads(int, int)}. Give each job its own {@link UpdateConfig#setNotificationId(int)} to show a
+ * notification per job.
+ * <p>A request for an artifact that is already queued or downloading (same URL and expected checksums) does not start
+ * another transfer: its callback is attached to the job and receives the same events.
+ * <p>The downloads follow the network (API 21, see {@link NetworkMonitor}): they are paused when the network is lost and
+ * resume from their temporary files on the next network, or on the network that replaces the current one.
  *
  * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
  */
 public class DownloadService extends Service {
+    /**
+     * Suffix of the downloaded patch file
+     */
+    private static final String PATCH_SUFFIX = ".patch";
     /**
      * DownloadBinder
      */
     private DownloadBinder mDownloadBinder = new DownloadBinder();
     /**
-     * Whether downloading is in progress to prevent duplicate downloads.
+     * Maximum number of concurrent downloads
      */
-    private boolean isDownloading;
+    private static volatile int sMaxConcurrentDownloads = Constants.DEFAULT_MAX_CONCURRENT_DOWNLOADS;
     /**
-     * Number of re-downloads after failure
+     * Maximum number of concurrent downloads from the same host
      */
-    private int mCount = 0;
+    private static volatile int sMaxDownloadsPerHost = Constants.DEFAULT_MAX_DOWNLOADS_PER_HOST;
     /**
-     * Http Manager
+     * Download jobs
      */
-    private IHttpManager mHttpManager;
+    private DownloadScheduler mScheduler = new DownloadScheduler(sMaxConcurrentDownloads, sMaxDownloadsPerHost, new DownloadScheduler.Listener() {
+        @Override
+        public void onStart(@NonNull DownloadJob job) {
+            executeJob(job);
+        }
+
+        @Override
+        public void onPreempt(@NonNull DownloadJob job) {
+            LogUtils.d("Pause: " + job);
+            job.cancelDownload();
+        }
+    });
+    /**
+     * The failed jobs waiting to be downloaded again (from the notification)
+     */
+    private Map<String, DownloadJob> mFailedJobs = new HashMap<>();
     /**
-     * Update callback
+     * The failed jobs waiting to be retried automatically, see {@link RetryPolicy}
      */
-    private UpdateCallback mUpdateCallback;
+    private Map<String, RetryTask> mRetries = new HashMap<>();
+    /**
+     * The jobs paused by the loss of the network, they resume when a network is available
+     */
+    private Map<String, DownloadJob> mPausedJobs = new LinkedHashMap<>();
+
+    private NetworkMonitor mNetworkMonitor;
+
+    private Handler mHandler = new Handler(Looper.getMainLooper());
+    /**
+     * Http Manager
+     */
+    private IHttpManager mHttpManager;
     /**
      * Notification bar
      */
     private INotification mNotification;
+
     /**
-     * APK file
+     * Set the maximum number of concurrent downloads, the other jobs are queued
+     *
+     * @param maxConcurrentDownloads maximum number of concurrent downloads, {@link Constants#DEFAULT_MAX_CONCURRENT_DOWNLOADS} by default
+     * @param maxDownloadsPerHost    maximum number of concurrent downloads from the same host, {@link Constants#DEFAULT_MAX_DOWNLOADS_PER_HOST} by default
      */
-    private File mApkFile;
+    public static void setMaxDownloads(int maxConcurrentDownloads, int maxDownloadsPerHost) {
+        sMaxConcurrentDownloads = maxConcurrentDownloads;
+        sMaxDownloadsPerHost = maxDownloadsPerHost;
+    }
 
     /**
      * Get Context
@@ -70,24 +143,46 @@ public class DownloadService extends Service {
         return this;
     }
 
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // Keep the final URLs of the redirects across processes
+        RedirectResolver.getDefault().setCacheDir(getCacheDir());
+        mNetworkMonitor = new NetworkMonitor(getContext(), new NetworkMonitor.Listener() {
+            @Override
+            public void onAvailable(boolean isChanged) {
+                onNetworkAvailable(isChanged);
+            }
+
+            @Override
+            public void onLost() {
+                onNetworkLost();
+            }
+        });
+        mNetworkMonitor.register();
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (intent != null) {
             boolean isStop = intent.getBooleanExtra(Constants.KEY_STOP_DOWNLOAD_SERVICE, false);
             if (isStop) {
-                stopDownload();
-            } else if (!isDownloading) {
+                String jobId = intent.getStringExtra(Constants.KEY_JOB_ID);
+                int notifyId = intent.getIntExtra(Constants.KEY_NOTIFY_ID, Constants.NONE);
+                if (jobId != null) {
+                    stopDownload(jobId);
+                } else if (notifyId != Constants.NONE) {
+                    stopDownloadByNotifyId(notifyId);
+                } else {
+                    stopDownload();
+                }
+            } else {
                 // Whether to trigger repeated downloads through the notification bar
                 boolean isReDownload = intent.getBooleanExtra(Constants.KEY_RE_DOWNLOAD, false);
-                if (isReDownload) {
-                    mCount++;
-                }
                 // Get configuration information
                 UpdateConfig config = intent.getParcelableExtra(Constants.KEY_UPDATE_CONFIG);
 
-                startDownload(config);
-            } else {
-                LogUtils.w("Please do not repeat the download.");
+                startDownload(config, isReDownload);
             }
         }
 
@@ -102,9 +197,17 @@ public class DownloadService extends Service {
      * start download
      *
      * @param config
+     * @param isReDownload whether the failed job is downloaded again
      */
-    private void startDownload(@NonNull UpdateConfig config) {
-        startDownload(config, mHttpManager, mUpdateCallback, mNotification);
+    private void startDownload(@NonNull UpdateConfig config, boolean isReDownload) {
+        DownloadJob failedJob = mFailedJobs.remove(config.getJobId());
+        if (isReDownload && failedJob != null) {
+            // Download again with the callback of the failed job
+            startDownload(config, failedJob.httpManager, failedJob.callbacks, failedJob.notification, failedJob.reDownloadCount + 1);
+        } else {
+            // The callbacks are attached to their own jobs, a job started by an intent has none
+            startDownload(config, mHttpManager, null, mNotification, isReDownload ? 1 : 0);
+        }
     }
 
     /**
@@ -113,14 +216,35 @@ public class DownloadService extends Service {
      * @param config
      * @param httpManager
      * @param callback
+     * @param notification
+     * @param reDownloadCount number of re-downloads after failure
      */
-    private void startDownload(@NonNull UpdateConfig config, @Nullable IHttpManager httpManager, @Nullable UpdateCallback callback, @Nullable INotification notification) {
-        if (callback != null) {
+    private void startDownload(@NonNull UpdateConfig config, @Nullable IHttpManager httpManager, @Nullable UpdateCallback callback, @Nullable INotification notification, int reDownloadCount) {
+        startDownload(config, httpManager, callback, notification, reDownloadCount, false);
+    }
+
+    /**
+     * start download
+     *
+     * @param config
+     * @param httpManager
+     * @param callback
+     * @param notification
+     * @param reDownloadCount number of re-downloads after failure
+     * @param isRetry         whether the job is retried automatically, its callbacks have already been told it is downloading
+     */
+    private void startDownload(@NonNull UpdateConfig config, @Nullable IHttpManager httpManager, @Nullable UpdateCallback callback, @Nullable INotification notification, int reDownloadCount, boolean isRetry) {
+        if (joinDownload(config, callback, isRetry)) {
+            return;
+        }
+
+        boolean isDownloading = isDownloading(config.getJobId());
+        if (callback != null && !isRetry) {
             callback.onDownloading(isDownloading);
         }
 
         if (isDownloading) {
-            LogUtils.w("Please do not repeat the download.");
+            LogUtils.w("Please do not repeat the download: " + config.getJobId());
             return;
         }
 
@@ -142,49 +266,168 @@ public class DownloadService extends Service {
             filename = AppUtils.getAppFullName(getContext(), url, getResources().getString(R.string.app_name));
         }
 
-        mApkFile = new File(path, filename);
+        File apkFile = new File(path, filename);
         // Does the file exist?
-        if (mApkFile.exists()) {
+        if (apkFile.exists()) {
             long versionCode = config.getVersionCode();
-            String apkMD5 = config.getApkMD5();
+            ChecksumVerifier verifier = new ChecksumVerifier(config.getChecksums());
             // Does the same apk exist?
             boolean isExistApk = false;
-            if (!TextUtils.isEmpty(apkMD5)) {
-                // If MD5 exists, check MD5 first
-                LogUtils.d(String.format(Locale.getDefault(), "UpdateConfig.apkMD5: %s", apkMD5));
-                isExistApk = AppUtils.verifyFileMD5(mApkFile, apkMD5);
+            // Whether the file is revalidated by the download with a conditional request
+            boolean isRevalidatable = false;
+            if (!verifier.isEmpty()) {
+                // If checksums (MD5...) exist, check them first
+                LogUtils.d("UpdateConfig.checksums: " + verifier.getChecksums());
+                // Use the checksum recorded when the file was downloaded, so that the file does not have to be read again
+                ApkChecksum checksum = getChecksum(verifier, apkFile, new DownloadRecord(apkFile).getChecksum());
+                LogUtils.d("FileChecksum: " + checksum);
+                isExistApk = verifier.verify(checksum);
+            } else if (new DownloadRecord(apkFile).isRevalidatable(url)) {
+                // The download sends the validators (ETag / Last-Modified), a 304 response keeps the file without parsing it
+                LogUtils.d("Revalidate: " + apkFile);
+                isRevalidatable = true;
             } else if (versionCode > 0) {
                 // If versionCode exists, check versionCode
                 LogUtils.d(String.format(Locale.getDefault(), "UpdateConfig.versionCode: %d", versionCode));
-                isExistApk = AppUtils.apkExists(getContext(), versionCode, mApkFile);
+                isExistApk = AppUtils.apkExists(getContext(), versionCode, apkFile);
             }
 
             if (isExistApk) {
                 // The APK to be downloaded already exists locally
-                LogUtils.d("CacheFile: " + mApkFile);
+                LogUtils.d("CacheFile: " + apkFile);
                 if (config.isInstallApk()) {
                     String authority = config.getAuthority();
                     // If empty, the default
                     if (TextUtils.isEmpty(authority)) {
                         authority = AppUtils.getFileProviderAuthority(getContext());
                     }
-                    AppUtils.installApk(getContext(), mApkFile, authority);
+                    AppUtils.installApk(getContext(), apkFile, authority);
                 }
                 if (callback != null) {
-                    callback.onFinish(mApkFile);
+                    callback.onFinish(apkFile);
                 }
                 stopService();
                 return;
             }
 
-            // Delete old files
-            mApkFile.delete();
+            if (!isRevalidatable) {
+                // Delete old files (only a completed download is saved as apkFile, an interrupted one is kept in its temporary file)
+                apkFile.delete();
+            }
+        }
+        LogUtils.d("File: " + apkFile);
+        DownloadRecord record = new DownloadRecord(apkFile);
+        if (record.isResumable(url) || record.isSegmentResumable(url)) {
+            LogUtils.d(String.format(Locale.getDefault(), "Resume download from: %d", record.getDownloadedLength()));
+        }
+        DownloadJob job = new DownloadJob(config, apkFile, getHttpManager(httpManager), getCallbacks(callback), getNotification(notification), reDownloadCount);
+        job.downloadCallback = new AppDownloadCallback(getContext(), this, job);
+        try {
+            // Fail fast if the APK cannot fit, the managers check again and preallocate the file when the content length is returned
+            AppUtils.checkAvailableSpace(dirFile, getRequiredSpace(config, record));
+        } catch (InsufficientSpaceException e) {
+            job.downloadCallback.onError(e);
+            return;
+        }
+        mScheduler.setLimits(sMaxConcurrentDownloads, sMaxDownloadsPerHost);
+        mScheduler.enqueue(job);
+    }
+
+    /**
+     * Execute the job when the {@link DownloadScheduler} starts it
+     *
+     * @param job {@link DownloadJob}
+     */
+    private void executeJob(@NonNull DownloadJob job) {
+        UpdateConfig config = job.config;
+        if (isPatchAvailable(config)) {
+            // Download the patch and reconstruct the APK from the installed App
+            File patchFile = new File(job.apkFile.getAbsolutePath() + PATCH_SUFFIX);
+            LogUtils.d("Patch: " + patchFile);
+            PatchDownloadCallback patchCallback = new PatchDownloadCallback(this, config, patchFile, job.downloadCallback);
+            job.activeCallback = patchCallback;
+            job.httpManager.download(config, config.getPatchUrl(), patchFile.getAbsolutePath(), patchCallback);
+            return;
+        }
+        job.activeCallback = job.downloadCallback;
+        job.httpManager.download(config, config.getUrl(), job.apkFile.getAbsolutePath(), job.downloadCallback);
+    }
+
+    /**
+     * Get the space still required by the APK: the size declared by {@link UpdateConfig#getApkSize()} minus the space
+     * already taken by the temporary file
+     *
+     * @param config {@link UpdateConfig}
+     * @param record {@link DownloadRecord} of the APK
+     * @return Returns 0 if the size is unknown
+     */
+    private static long getRequiredSpace(@NonNull UpdateConfig config, @NonNull DownloadRecord record) {
+        if (config.getApkSize() <= 0) {
+            return 0;
+        }
+        return Math.max(0, config.getApkSize() - record.getPartFile().length());
+    }
+
+    /**
+     * Whether the patch of {@link UpdateConfig} can be applied to the installed App
+     *
+     * @param config {@link UpdateConfig}
+     * @return
+     */
+    private boolean isPatchAvailable(@NonNull UpdateConfig config) {
+        if (TextUtils.isEmpty(config.getPatchUrl())) {
+            return false;
+        }
+        if (config.getChecksums().isEmpty()) {
+            LogUtils.w("The patch is ignored: a checksum of the APK is required to verify the patched file.");
+            return false;
+        }
+        long versionCode = AppUtils.getVersionCode(getContext());
+        if (versionCode != config.getPatchBaseVersionCode()) {
+            LogUtils.d(String.format(Locale.getDefault(), "The patch is ignored: versionCode = %d, base versionCode = %d", versionCode, config.getPatchBaseVersionCode()));
+            return false;
         }
-        LogUtils.d("File: " + mApkFile);
-        this.mUpdateCallback = callback;
-        IHttpManager.DownloadCallback downloadCallback = new AppDownloadCallback(getContext(), this, config, mApkFile, callback, getNotification(notification));
-        getHttpManager(httpManager).download(url, mApkFile.getAbsolutePath(), config.getRequestProperty(), downloadCallback);
+        return true;
+    }
 
+    /**
+     * Get the checksum of the file to verify: the checksum computed while downloading is used if a checksum of the same
+     * algorithm is expected, otherwise the file is read
+     *
+     * @param verifier {@link ChecksumVerifier}
+     * @param file     file
+     * @param checksum the checksum computed while downloading, can be null
+     * @return
+     */
+    @Nullable
+    private static ApkChecksum getChecksum(@NonNull ChecksumVerifier verifier, @NonNull File file, @Nullable ApkChecksum checksum) {
+        if (verifier.canVerify(checksum)) {
+            return checksum;
+        }
+        try {
+            return verifier.compute(file);
+        } catch (IOException e) {
+            LogUtils.w(e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Get the callbacks of a new job
+     *
+     * @param callback {@link UpdateCallback}, or the callbacks of the failed job downloaded again
+     * @return
+     */
+    @NonNull
+    private static UpdateCallbackGroup getCallbacks(@Nullable UpdateCallback callback) {
+        if (callback instanceof UpdateCallbackGroup) {
+            return (UpdateCallbackGroup) callback;
+        }
+        UpdateCallbackGroup callbacks = new UpdateCallbackGroup();
+        if (callback != null) {
+            callbacks.add(callback);
+        }
+        return callbacks;
     }
 
     /**
@@ -222,20 +465,257 @@ public class DownloadService extends Service {
     }
 
     /**
-     * Stop downloading
+     * Get the queued, running, paused or retried job of the artifact
+     *
+     * @param key {@link DownloadJob#getKey(UpdateConfig)}
+     * @return
+     */
+    @Nullable
+    /**
+     * Join the download of the same artifact if it is already being downloaded (or waits for its retry), instead of
+     * opening another connection
+     *
+     * @param config   {@link UpdateConfig}
+     * @param callback attached to the download in progress
+     * @param isRetry  whether the callback has already been told it is downloading
+     * @return false if the artifact is not being downloaded
+     */
+    private boolean joinDownload(@NonNull UpdateConfig config, @Nullable UpdateCallback callback, boolean isRetry) {
+        DownloadJob inFlightJob = getJobByKey(DownloadJob.getKey(config));
+        if (inFlightJob == null) {
+            return false;
+        }
+        LogUtils.d("Join the download: " + inFlightJob);
+        if (callback != null) {
+            if (!isRetry) {
+                callback.onDownloading(true);
+            }
+            inFlightJob.callbacks.add(callback);
+        }
+        return true;
+    }
+
+    private DownloadJob getJobByKey(@NonNull String key) {
+        DownloadJob job = mScheduler.getJobByKey(key);
+        if (job == null) {
+            for (DownloadJob pausedJob : mPausedJobs.values()) {
+                if (pausedJob.key.equals(key)) {
+                    return pausedJob;
+                }
+            }
+            for (RetryTask retry : mRetries.values()) {
+                if (retry.job.key.equals(key)) {
+                    return retry.job;
+                }
+            }
+        }
+        return job;
+    }
+
+    /**
+     * Whether the job is queued, running, paused or waiting to be retried
+     *
+     * @param jobId {@link UpdateConfig#getJobId()}
+     * @return
+     */
+    private boolean isDownloading(@NonNull String jobId) {
+        return mScheduler.getJob(jobId) != null || mPausedJobs.containsKey(jobId) || mRetries.containsKey(jobId);
+    }
+
+    /**
+     * Stop all the downloads
      */
     private void stopDownload() {
-        if (mHttpManager != null) {
-            mHttpManager.cancel();
+        for (DownloadJob job : mScheduler.getJobs()) {
+            stopDownload(job);
+        }
+        for (DownloadJob job : new ArrayList<>(mPausedJobs.values())) {
+            stopDownload(job);
         }
+        for (RetryTask retry : new ArrayList<>(mRetries.values())) {
+            cancelRetry(retry);
+        }
+        mFailedJobs.clear();
+        stopService();
     }
 
     /**
-     * Out of service
+     * Stop the download job
+     *
+     * @param jobId {@link UpdateConfig#getJobId()}
+     */
+    private void stopDownload(@NonNull String jobId) {
+        DownloadJob job = mScheduler.getJob(jobId);
+        if (job == null) {
+            job = mPausedJobs.get(jobId);
+        }
+        if (job != null) {
+            stopDownload(job);
+        } else if (mRetries.containsKey(jobId)) {
+            cancelRetry(mRetries.get(jobId));
+        } else if (mFailedJobs.remove(jobId) != null) {
+            stopService();
+        }
+    }
+
+    /**
+     * Suspend the download job: it is stopped without being reported and keeps its temporary file, starting it again
+     * resumes the download
+     *
+     * @param jobId {@link UpdateConfig#getJobId()}
+     */
+    private void suspendDownload(@NonNull String jobId) {
+        DownloadJob job = mScheduler.getJob(jobId);
+        if (job == null) {
+            job = mPausedJobs.get(jobId);
+        }
+        if (job != null) {
+            job.isSuspended = true;
+            stopDownload(job);
+        } else if (mRetries.containsKey(jobId)) {
+            RetryTask retry = mRetries.get(jobId);
+            retry.job.isSuspended = true;
+            cancelRetry(retry);
+        }
+    }
+
+    /**
+     * Stop the download jobs shown by the notification
+     *
+     * @param notifyId {@link UpdateConfig#getNotificationId()}
+     */
+    private void stopDownloadByNotifyId(int notifyId) {
+        List<DownloadJob> jobs = mScheduler.getJobs();
+        jobs.addAll(mPausedJobs.values());
+        for (DownloadJob job : jobs) {
+            if (job.config.getNotificationId() == notifyId) {
+                stopDownload(job);
+            }
+        }
+        for (RetryTask retry : new ArrayList<>(mRetries.values())) {
+            if (retry.job.config.getNotificationId() == notifyId) {
+                cancelRetry(retry);
+            }
+        }
+    }
+
+    private void stopDownload(@NonNull DownloadJob job) {
+        job.isCancelled = true;
+        if (mScheduler.dequeue(job) || mPausedJobs.remove(job.id) != null) {
+            // The job has not started yet, or it waits for a network
+            job.downloadCallback.onCancel();
+        } else {
+            job.cancelDownload();
+        }
+    }
+
+    /**
+     * Called when the download of the job is finished, failed or cancelled
+     *
+     * @param job          {@link DownloadJob}
+     * @param isReDownload whether the job waits to be downloaded again
+     */
+    private void onJobCompleted(@NonNull DownloadJob job, boolean isReDownload) {
+        if (isReDownload) {
+            mFailedJobs.put(job.id, job);
+        }
+        mScheduler.finish(job);
+        stopService();
+    }
+
+    /**
+     * Download the failed job again after the delay
+     *
+     * @param job   {@link DownloadJob}
+     * @param delay milliseconds
+     */
+    private void retry(@NonNull DownloadJob job, long delay) {
+        mScheduler.finish(job);
+        RetryTask retry = new RetryTask(job);
+        mRetries.put(job.id, retry);
+        mHandler.postDelayed(retry, delay);
+    }
+
+    /**
+     * Pause the job stopped by the loss or the change of the network: it is queued again if a network is available,
+     * otherwise it waits for one. The download resumes from the temporary file
+     *
+     * @param job {@link DownloadJob}
+     */
+    private void pause(@NonNull DownloadJob job) {
+        job.isPaused = false;
+        job.isPreempted = false;
+        if (mNetworkMonitor.isConnected()) {
+            LogUtils.d("Resume on the network: " + job);
+            mScheduler.requeue(job);
+            return;
+        }
+        LogUtils.d("Wait for a network: " + job);
+        mScheduler.finish(job);
+        mPausedJobs.put(job.id, job);
+    }
+
+    /**
+     * A network is available: the paused jobs resume, and if the network has replaced the previous one the running
+     * downloads reconnect on it
+     *
+     * @param isChanged whether the network has replaced another one
+     */
+    private void onNetworkAvailable(boolean isChanged) {
+        if (isChanged) {
+            for (DownloadJob job : mScheduler.getRunningJobs()) {
+                if (!job.isCancelled && !job.isPaused && job.isPreemptible()) {
+                    LogUtils.d("Network changed: " + job);
+                    job.isPaused = true;
+                    job.cancelDownload();
+                }
+            }
+        }
+        List<DownloadJob> jobs = new ArrayList<>(mPausedJobs.values());
+        mPausedJobs.clear();
+        for (DownloadJob job : jobs) {
+            LogUtils.d("Network available: " + job);
+            mScheduler.requeue(job);
+        }
+    }
+
+    /**
+     * The network is lost: the queued jobs wait for a network and the running downloads are paused, they keep their
+     * temporary files. The downloads that cannot be paused alone fail and wait for a network too, see
+     * {@link AppDownloadCallback#onError(Exception)}
+     */
+    private void onNetworkLost() {
+        for (DownloadJob job : mScheduler.getJobs()) {
+            if (job.isCancelled) {
+                continue;
+            }
+            if (mScheduler.dequeue(job)) {
+                mPausedJobs.put(job.id, job);
+            } else if (!job.isPaused && job.isPreemptible()) {
+                LogUtils.d("Network lost: " + job);
+                job.isPaused = true;
+                job.cancelDownload();
+            }
+        }
+    }
+
+    /**
+     * Cancel the retry of the job, the job is cancelled
+     */
+    private void cancelRetry(@NonNull RetryTask retry) {
+        mRetries.remove(retry.job.id);
+        mHandler.removeCallbacks(retry);
+        retry.job.isCancelled = true;
+        retry.job.downloadCallback.onCancel();
+    }
+
+    /**
+     * Out of service when no job is left
      */
     private void stopService() {
-        mCount = 0;
-        stopSelf();
+        if (mScheduler.isIdle() && mPausedJobs.isEmpty() && mFailedJobs.isEmpty() && mRetries.isEmpty()) {
+            stopSelf();
+        }
     }
 
 
@@ -250,6 +730,8 @@ public class DownloadService extends Service {
 
         private DownloadService downloadService;
 
+        private DownloadJob job;
+
         public UpdateConfig config;
 
         private boolean isShowNotification;
@@ -291,13 +773,14 @@ public class DownloadService extends Service {
          */
         private File apkFile;
 
-        private AppDownloadCallback(Context context, DownloadService downloadService, UpdateConfig config, File apkFile, UpdateCallback callback, INotification notification) {
+        private AppDownloadCallback(Context context, DownloadService downloadService, DownloadJob job) {
             this.context = context;
             this.downloadService = downloadService;
-            this.config = config;
-            this.apkFile = apkFile;
-            this.callback = callback;
-            this.notification = notification;
+            this.job = job;
+            this.config = job.config;
+            this.apkFile = job.apkFile;
+            this.callback = job.callbacks;
+            this.notification = job.notification;
             this.isShowNotification = config.isShowNotification();
             this.notifyId = config.getNotificationId();
 
@@ -324,14 +807,13 @@ public class DownloadService extends Service {
             this.isSupportCancelDownload = config.isSupportCancelDownload();
 
             // Support re-downloading when download fails. Re-downloading is allowed only when the number of re-downloads does not exceed the limit.
-            this.isReDownload = config.isReDownload() && downloadService.mCount < config.getReDownloads();
+            this.isReDownload = config.isReDownload() && job.reDownloadCount < config.getReDownloads();
 
         }
 
         @Override
         public void onStart(String url) {
             LogUtils.i("url: " + url);
-            downloadService.isDownloading = true;
             lastProgress = 0;
             if (isShowNotification && notification != null) {
                 notification.onStart(context, notifyId, channelId, channelName, notificationIcon, getString(R.string.app_updater_start_notification_title), getString(R.string.app_updater_start_notification_content), config.isVibrate(), config.isSound(), isSupportCancelDownload);
@@ -346,8 +828,8 @@ public class DownloadService extends Service {
         public void onProgress(long progress, long total) {
             boolean isChanged = false;
             long curTime = System.currentTimeMillis();
-            // Reduce the update frequency
-            if (lastTime + Constants.MINIMUM_INTERVAL_MILLIS < curTime || progress == total) {
+            // Reduce the update frequency (the built-in IHttpManager already report at this interval)
+            if (lastTime + config.getProgressInterval() <= curTime || progress == total) {
                 lastTime = curTime;
                 int progressPercentage = 0;
                 if (total > 0) {
@@ -383,8 +865,24 @@ public class DownloadService extends Service {
 
         @Override
         public void onFinish(File file) {
+            onFinish(file, null);
+        }
+
+        @Override
+        public void onFinish(File file, @Nullable ApkChecksum checksum) {
             LogUtils.d("File: " + file);
-            downloadService.isDownloading = false;
+            ChecksumVerifier verifier = new ChecksumVerifier(config.getChecksums());
+            if (!verifier.isEmpty()) {
+                // Verify the checksum computed while downloading; read the file only if it was not computed
+                checksum = getChecksum(verifier, file, checksum);
+                LogUtils.d("FileChecksum: " + checksum);
+                if (!verifier.verify(checksum)) {
+                    file.delete();
+                    new DownloadRecord(file).delete();
+                    onError(new IllegalStateException(String.format(Locale.getDefault(), "Checksum mismatch: expected %s, actual %s", verifier.getChecksums(), checksum)));
+                    return;
+                }
+            }
             if (isShowNotification && notification != null) {
                 notification.onFinish(context, notifyId, channelId, notificationIcon, getString(R.string.app_updater_finish_notification_title), getString(R.string.app_updater_finish_notification_content), file, authority);
             }
@@ -394,13 +892,31 @@ public class DownloadService extends Service {
             if (callback != null) {
                 callback.onFinish(file);
             }
-            downloadService.stopService();
+            downloadService.onJobCompleted(job, false);
         }
 
         @Override
         public void onError(Exception e) {
             LogUtils.w(e.getMessage());
-            downloadService.isDownloading = false;
+            if (job.isCancelled || job.isPreempted || job.isPaused || job.isSuspended) {
+                // Failed while it was being stopped (e.g. its connection has been closed)
+                onCancel();
+                return;
+            }
+            if (!downloadService.mNetworkMonitor.isConnected() && RetryPolicy.isRetryable(e)) {
+                // Failed with the network, the job resumes on the next network
+                downloadService.pause(job);
+                return;
+            }
+            if (isReDownload && config.isAutoRetry()) {
+                long delay = RetryPolicy.getDelay(config, job.reDownloadCount, e);
+                if (delay >= 0) {
+                    // A transient error, the job is downloaded again without reporting the error
+                    LogUtils.d(String.format(Locale.getDefault(), "Retry %d/%d in %d ms", job.reDownloadCount + 1, config.getReDownloads(), delay));
+                    downloadService.retry(job, delay);
+                    return;
+                }
+            }
             if (isShowNotification && notification != null) {
                 String content = isReDownload ? getString(R.string.app_updater_error_notification_content_re_download) : getString(R.string.app_updater_error_notification_content);
                 notification.onError(context, notifyId, channelId, notificationIcon, getString(R.string.app_updater_error_notification_title), content, isReDownload, config);
@@ -409,16 +925,33 @@ public class DownloadService extends Service {
             if (callback != null) {
                 callback.onError(e);
             }
-            if (!isReDownload) {
-                downloadService.stopService();
-            }
+            downloadService.onJobCompleted(job, isReDownload);
 
         }
 
         @Override
         public void onCancel() {
+            if (job.isPaused && !job.isCancelled) {
+                // Stopped by the loss or the change of the network
+                downloadService.pause(job);
+                return;
+            }
+            if (job.isPreempted && !job.isCancelled) {
+                // Paused for a job of higher priority, it is resumed from the temporary file later
+                LogUtils.d("Paused: " + job);
+                downloadService.mScheduler.requeue(job);
+                return;
+            }
+            if (job.isSuspended) {
+                // Started again later, it resumes from the temporary file
+                LogUtils.d("Suspended: " + job);
+                if (isShowNotification && notification != null) {
+                    notification.onCancel(context, notifyId);
+                }
+                downloadService.onJobCompleted(job, false);
+                return;
+            }
             LogUtils.d("Cancel download.");
-            downloadService.isDownloading = false;
             if (isShowNotification && notification != null) {
                 notification.onCancel(context, notifyId);
             }
@@ -427,8 +960,9 @@ public class DownloadService extends Service {
             }
             if (isDeleteCancelFile && apkFile != null) {
                 apkFile.delete();
+                new DownloadRecord(apkFile).delete();
             }
-            downloadService.stopService();
+            downloadService.onJobCompleted(job, false);
         }
 
         private String getString(@StringRes int resId) {
@@ -436,11 +970,229 @@ public class DownloadService extends Service {
         }
     }
 
+    /**
+     * Patch download callback: when the patch is downloaded, it is applied to the installed App in the background; if the
+     * patch cannot be downloaded or applied, the whole APK is downloaded with the same {@link AppDownloadCallback}
+     */
+    private static class PatchDownloadCallback implements IHttpManager.DownloadCallback {
+
+        private DownloadService downloadService;
+
+        private UpdateConfig config;
+
+        private File patchFile;
+
+        private AppDownloadCallback callback;
+
+        private PatchDownloadCallback(DownloadService downloadService, UpdateConfig config, File patchFile, AppDownloadCallback callback) {
+            this.downloadService = downloadService;
+            this.config = config;
+            this.patchFile = patchFile;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onStart(String url) {
+            callback.onStart(url);
+        }
+
+        @Override
+        public void onProgress(long progress, long total) {
+            callback.onProgress(progress, total);
+        }
+
+        @Override
+        public void onFinish(File file) {
+            onFinish(file, null);
+        }
+
+        @Override
+        public void onFinish(File file, @Nullable ApkChecksum checksum) {
+            LogUtils.d("Patch: " + file);
+            PatchTask task = new PatchTask(this);
+            // Cancelled with the download of the job
+            callback.job.patchTask = task;
+            task.execute(DownloadExecutors.getDefaultExecutor());
+        }
+
+        @Override
+        public void onError(Exception e) {
+            LogUtils.w("Patch download failed: " + e.getMessage());
+            fallback();
+        }
+
+        @Override
+        public void onCancel() {
+            if (config.isDeleteCancelFile() && !callback.job.isPreempted && !callback.job.isPaused && !callback.job.isSuspended) {
+                deletePatch();
+            }
+            callback.onCancel();
+        }
+
+        /**
+         * Download the whole APK, unless the job has been stopped in the meantime
+         */
+        private void fallback() {
+            DownloadJob job = callback.job;
+            if (job.isCancelled || job.isPreempted || job.isPaused || job.isSuspended) {
+                onCancel();
+                return;
+            }
+            deletePatch();
+            LogUtils.d("Download the whole APK: " + config.getUrl());
+            callback.job.activeCallback = callback;
+            callback.job.httpManager.download(config, config.getUrl(), callback.apkFile.getAbsolutePath(), callback);
+        }
+
+        private void deletePatch() {
+            patchFile.delete();
+            new DownloadRecord(patchFile).delete();
+        }
+    }
+
+    /**
+     * Verify the installed APK, apply the patch to it and verify the reconstructed APK
+     */
+    private static class PatchTask extends BackgroundTask<ApkChecksum> {
+
+        private PatchDownloadCallback patchCallback;
+
+        private File baseFile;
+
+        private PatchTask(PatchDownloadCallback patchCallback) {
+            super(DownloadExecutors.getMainThreadExecutor());
+            this.patchCallback = patchCallback;
+            this.baseFile = AppUtils.getSourceApk(patchCallback.downloadService);
+        }
+
+        @Override
+        protected ApkChecksum doInBackground() {
+            UpdateConfig config = patchCallback.config;
+            try {
+                if (!ApkPatch.isSupported(patchCallback.patchFile)) {
+                    // e.g. the zlib of the device does not compress the entries of an archive patch like the generator
+                    throw new IllegalStateException("Patch not supported on this device: " + patchCallback.patchFile);
+                }
+                ApkChecksum baseChecksum = config.getPatchBaseChecksum();
+                if (baseChecksum != null) {
+                    IHasher hasher = HasherProvider.newHasher(baseChecksum.getAlgorithm());
+                    ChecksumVerifier.update(hasher, baseFile, baseFile.length());
+                    ApkChecksum actual = new ApkChecksum(hasher.getAlgorithm(), hasher.digest());
+                    if (!baseChecksum.matches(actual)) {
+                        throw new IllegalStateException(String.format(Locale.getDefault(), "Base mismatch: expected %s, actual %s", baseChecksum, actual));
+                    }
+                }
+                if (isCancelled()) {
+                    return null;
+                }
+
+                ChecksumVerifier verifier = new ChecksumVerifier(config.getChecksums());
+                IHasher hasher = verifier.newHasher();
+                DownloadRecord record = new DownloadRecord(patchCallback.callback.apkFile);
+                record.reset(config.getUrl());
+                InputStream is = new BufferedInputStream(new CancelableInputStream(new FileInputStream(patchCallback.patchFile)));
+                OutputStream os = new BufferedOutputStream(new FileOutputStream(record.getPartFile()));
+                try {
+                    // The temporary file of an archive patch is created next to the APK
+                    long length = ApkPatch.apply(baseFile, is, os, hasher, patchCallback.callback.apkFile.getParentFile());
+                    LogUtils.d(String.format(Locale.getDefault(), "Patched: %d bytes from a %d bytes %s patch", length, patchCallback.patchFile.length(), ApkPatch.getType(patchCallback.patchFile)));
+                } finally {
+                    os.close();
+                    is.close();
+                }
+                if (isCancelled()) {
+                    record.delete();
+                    return null;
+                }
+                ApkChecksum checksum = hasher != null ? new ApkChecksum(hasher.getAlgorithm(), hasher.digest()) : null;
+                if (!verifier.verify(checksum)) {
+                    record.delete();
+                    throw new IllegalStateException(String.format(Locale.getDefault(), "Checksum mismatch: expected %s, actual %s", verifier.getChecksums(), checksum));
+                }
+                record.complete(checksum);
+                return checksum;
+            } catch (Exception e) {
+                LogUtils.w("Patch failed: " + e.getMessage());
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(ApkChecksum checksum) {
+            super.onPostExecute(checksum);
+            patchCallback.callback.job.patchTask = null;
+            if (patchCallback.callback.job.isCancelled) {
+                patchCallback.onCancel();
+            } else if (checksum != null) {
+                patchCallback.deletePatch();
+                patchCallback.callback.onFinish(patchCallback.callback.apkFile, checksum);
+            } else {
+                patchCallback.fallback();
+            }
+        }
+
+        @Override
+        protected void onCancelled() {
+            super.onCancelled();
+            patchCallback.callback.job.patchTask = null;
+            patchCallback.onCancel();
+        }
+
+        /**
+         * Stops the patch being applied when the task is cancelled
+         */
+        private class CancelableInputStream extends FilterInputStream {
+
+            private CancelableInputStream(InputStream in) {
+                super(in);
+            }
+
+            @Override
+            public int read() throws IOException {
+                checkCancelled();
+                return super.read();
+            }
+
+            @Override
+            public int read(@NonNull byte[] b, int off, int len) throws IOException {
+                checkCancelled();
+                return super.read(b, off, len);
+            }
+
+            private void checkCancelled() throws InterruptedIOException {
+                if (isCancelled()) {
+                    throw new InterruptedIOException("Canceled");
+                }
+            }
+        }
+    }
+
+    /**
+     * The automatic retry of a failed job: the job is downloaded again with its callbacks, it counts as a re-download
+     */
+    private class RetryTask implements Runnable {
+
+        private final DownloadJob job;
+
+        RetryTask(DownloadJob job) {
+            this.job = job;
+        }
+
+        @Override
+        public void run() {
+            mRetries.remove(job.id);
+            startDownload(job.config, job.httpManager, job.callbacks, job.notification, job.reDownloadCount + 1, true);
+        }
+    }
+
     @Override
     public void onDestroy() {
-        isDownloading = false;
+        mHandler.removeCallbacksAndMessages(null);
+        mNetworkMonitor.unregister();
+        mRetries.clear();
+        mPausedJobs.clear();
+        mFailedJobs.clear();
         mHttpManager = null;
-        mUpdateCallback = null;
         mNotification = null;
         super.onDestroy();
     }
@@ -497,7 +1249,55 @@ public class DownloadService extends Service {
          * @param notification {@link INotification}
          */
         public void start(@NonNull UpdateConfig config, @Nullable IHttpManager httpManager, @Nullable UpdateCallback callback, @Nullable INotification notification) {
-            startDownload(config, httpManager, callback, notification);
+            mFailedJobs.remove(config.getJobId());
+            startDownload(config, httpManager, callback, notification, 0);
+        }
+
+        /**
+         * Attach the callback to the download of the same artifact (the URL and the checksums) if one is in progress
+         *
+         * @param config   {@link UpdateConfig}
+         * @param callback {@link UpdateCallback}
+         * @return false if the artifact is not being downloaded, nothing is started
+         */
+        public boolean join(@NonNull UpdateConfig config, @Nullable UpdateCallback callback) {
+            return joinDownload(config, callback, false);
+        }
+
+        /**
+         * Cancel the download job
+         *
+         * @param jobId {@link UpdateConfig#getJobId()}
+         */
+        public void cancel(@NonNull String jobId) {
+            stopDownload(jobId);
+        }
+
+        /**
+         * Suspend the download job: it stops without notifying its callbacks and keeps its temporary file, it resumes
+         * when it is started again
+         *
+         * @param jobId {@link UpdateConfig#getJobId()}
+         */
+        public void suspend(@NonNull String jobId) {
+            suspendDownload(jobId);
+        }
+
+        /**
+         * Cancel all the download jobs
+         */
+        public void cancelAll() {
+            stopDownload();
+        }
+
+        /**
+         * Whether the job is queued, running, paused or waiting to be retried
+         *
+         * @param jobId {@link UpdateConfig#getJobId()}
+         * @return
+         */
+        public boolean isDownloading(@NonNull String jobId) {
+            return DownloadService.this.isDownloading(jobId);
         }
     }
 
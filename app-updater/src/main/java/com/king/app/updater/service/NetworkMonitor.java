@@ -0,0 +1,211 @@
+package com.king.app.updater.service;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.king.app.updater.http.NetworkBinding;
+import com.king.app.updater.util.LogUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+/**
+ * NetworkMonitor follows the network of the downloads of {@link DownloadService} with a
+ * {@link ConnectivityManager.NetworkCallback}: the default network (API 24), or the networks that provide the Internet
+ * (API 21). When the network is lost the downloads are paused, when a network is available again (or replaces the
+ * current one) the sockets are bound to it ({@link NetworkBinding#getDefault()}) and the downloads resume from their
+ * temporary files.
+ * <p>The listener is called on the main thread. Before API 21, or without the {@code ACCESS_NETWORK_STATE} permission,
+ * the monitor does nothing and the network is considered connected.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+final class NetworkMonitor {
+
+    /**
+     * Listener of the network changes
+     */
+    interface Listener {
+
+        /**
+         * A network is available
+         *
+         * @param isChanged true if it replaces another network, false if there was no network
+         */
+        void onAvailable(boolean isChanged);
+
+        /**
+         * There is no network
+         */
+        void onLost();
+    }
+
+    private final Context mContext;
+
+    private final Listener mListener;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /**
+     * The networks that provide the Internet, the last one is used and the others are the fallbacks. Only accessed on
+     * the main thread
+     */
+    private final List<Network> mNetworks = new ArrayList<>();
+
+    private ConnectivityManager.NetworkCallback mCallback;
+
+    private volatile boolean isConnected = true;
+
+    NetworkMonitor(@NonNull Context context, @NonNull Listener listener) {
+        this.mContext = context.getApplicationContext();
+        this.mListener = listener;
+    }
+
+    /**
+     * Start following the network
+     */
+    void register() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || mCallback != null) {
+            return;
+        }
+        ConnectivityManager connectivityManager = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return;
+        }
+        try {
+            NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+            isConnected = networkInfo != null && networkInfo.isConnected();
+            mCallback = newCallback();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                connectivityManager.registerDefaultNetworkCallback(mCallback);
+            } else {
+                NetworkRequest request = new NetworkRequest.Builder()
+                        .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                        .build();
+                connectivityManager.registerNetworkCallback(request, mCallback);
+            }
+        } catch (RuntimeException e) {
+            // e.g. the permission ACCESS_NETWORK_STATE is missing
+            LogUtils.w("NetworkMonitor: " + e.getMessage());
+            mCallback = null;
+            isConnected = true;
+        }
+    }
+
+    /**
+     * Stop following the network, the sockets are no longer bound
+     */
+    void unregister() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || mCallback == null) {
+            return;
+        }
+        ConnectivityManager connectivityManager = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        try {
+            if (connectivityManager != null) {
+                connectivityManager.unregisterNetworkCallback(mCallback);
+            }
+        } catch (RuntimeException e) {
+            LogUtils.w("NetworkMonitor: " + e.getMessage());
+        }
+        mCallback = null;
+        mHandler.removeCallbacksAndMessages(null);
+        mNetworks.clear();
+        isConnected = true;
+        NetworkBinding.getDefault().setNetwork(null);
+    }
+
+    /**
+     * Whether a network is available
+     *
+     * @return true if it is unknown
+     */
+    boolean isConnected() {
+        return isConnected;
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private ConnectivityManager.NetworkCallback newCallback() {
+        return new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(@NonNull final Network network) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onNetworkAvailable(network);
+                    }
+                });
+            }
+
+            @Override
+            public void onLost(@NonNull final Network network) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onNetworkLost(network);
+                    }
+                });
+            }
+        };
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private void onNetworkAvailable(Network network) {
+        if (mCallback == null) {
+            return;
+        }
+        Network current = getNetwork();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            // The default network replaces the previous one, whose loss is not reported
+            mNetworks.clear();
+            mNetworks.add(network);
+        } else if (!mNetworks.contains(network)) {
+            // The current network is kept, the other one is a fallback (e.g. the mobile data under the Wi-Fi)
+            mNetworks.add(0, network);
+        }
+        if (!network.equals(getNetwork()) || network.equals(current)) {
+            return;
+        }
+        LogUtils.d("Network available: " + network);
+        isConnected = true;
+        NetworkBinding.getDefault().setNetwork(network);
+        mListener.onAvailable(current != null);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private void onNetworkLost(Network network) {
+        if (mCallback == null) {
+            return;
+        }
+        Network current = getNetwork();
+        mNetworks.remove(network);
+        if (!network.equals(current)) {
+            return;
+        }
+        Network next = getNetwork();
+        if (next != null) {
+            // Another network provides the Internet (API 21 to 23)
+            LogUtils.d("Network changed: " + next);
+            NetworkBinding.getDefault().setNetwork(next);
+            mListener.onAvailable(true);
+            return;
+        }
+        LogUtils.d("Network lost: " + network);
+        isConnected = false;
+        NetworkBinding.getDefault().setNetwork(null);
+        mListener.onLost();
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private Network getNetwork() {
+        return mNetworks.isEmpty() ? null : mNetworks.get(mNetworks.size() - 1);
+    }
+}
@@ -0,0 +1,113 @@
+package com.king.app.updater.service;
+
+import com.king.app.updater.UpdateConfig;
+import com.king.app.updater.constant.Constants;
+import com.king.app.updater.http.HttpStatusException;
+import com.king.app.updater.http.InsufficientSpaceException;
+import com.king.app.updater.http.ThroughputMonitor;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.net.UnknownServiceException;
+import java.util.Random;
+
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The automatic retries of the failed downloads of {@link DownloadService} (see {@link UpdateConfig#setAutoRetry(boolean)}):
+ * only the transient errors are retried, after an exponential backoff with full jitter so that the clients that failed
+ * together do not retry together, or after the {@code Retry-After} delay requested by the server
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+final class RetryPolicy {
+
+    private static final int HTTP_CLIENT_TIMEOUT = 408;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_INTERNAL_ERROR = 500;
+    private static final int HTTP_NOT_IMPLEMENTED = 501;
+    private static final int HTTP_VERSION_NOT_SUPPORTED = 505;
+    /**
+     * The delay doubles at each retry up to this exponent, the delay is capped long before
+     */
+    private static final int MAX_BACKOFF_SHIFT = 20;
+
+    private static final Random sRandom = new Random();
+
+    private RetryPolicy() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Whether the error is transient: the network errors, the timeouts and the {@code 408}, {@code 429} and {@code 5xx}
+     * responses (but {@code 501} and {@code 505}). The other responses, the invalid URLs and certificates, the lack of
+     * space, the checksum mismatches and the exceeded deadline fail again
+     *
+     * @param e the error of the download
+     * @return
+     */
+    static boolean isRetryable(@NonNull Exception e) {
+        if (e instanceof HttpStatusException) {
+            int responseCode = ((HttpStatusException) e).getResponseCode();
+            return responseCode == HTTP_CLIENT_TIMEOUT || responseCode == HTTP_TOO_MANY_REQUESTS
+                    || (responseCode >= HTTP_INTERNAL_ERROR && responseCode != HTTP_NOT_IMPLEMENTED && responseCode != HTTP_VERSION_NOT_SUPPORTED);
+        }
+        if (e instanceof InsufficientSpaceException
+                || e instanceof ThroughputMonitor.DeadlineExceededException
+                || e instanceof FileNotFoundException
+                || e instanceof MalformedURLException
+                || e instanceof ProtocolException
+                || e instanceof UnknownServiceException
+                || e instanceof SSLHandshakeException
+                || e instanceof SSLPeerUnverifiedException) {
+            return false;
+        }
+        return e instanceof IOException;
+    }
+
+    /**
+     * Get the delay before the download is retried
+     *
+     * @param config  {@link UpdateConfig}
+     * @param retries number of retries already done
+     * @param e       the error of the download
+     * @return the delay in milliseconds, or {@link Constants#NONE} if the download is not retried: the error is not
+     * transient, or the server requests a delay longer than {@link UpdateConfig#getMaxRetryDelay()}
+     */
+    static long getDelay(@NonNull UpdateConfig config, int retries, @NonNull Exception e) {
+        return getDelay(config, retries, e, sRandom);
+    }
+
+    /**
+     * Get the delay before the download is retried, see {@link #getDelay(UpdateConfig, int, Exception)}
+     *
+     * @param random the source of the jitter
+     */
+    static long getDelay(@NonNull UpdateConfig config, int retries, @NonNull Exception e, @NonNull Random random) {
+        if (!isRetryable(e)) {
+            return Constants.NONE;
+        }
+        long maxDelay = Math.max(0, config.getMaxRetryDelay());
+        long baseDelay = Math.max(0, Math.min(config.getRetryDelay(), maxDelay));
+        long backoff = Math.min(maxDelay, baseDelay << Math.min(Math.max(0, retries), MAX_BACKOFF_SHIFT));
+        long retryAfter = e instanceof HttpStatusException ? ((HttpStatusException) e).getRetryAfter() : Constants.NONE;
+        if (retryAfter > maxDelay) {
+            return Constants.NONE;
+        }
+        if (retryAfter >= 0) {
+            // Wait as requested, the jitter spreads the clients that were given the same date (within the maximum delay)
+            return retryAfter + random(random, Math.min(baseDelay, maxDelay - retryAfter));
+        }
+        // Full jitter: a random delay up to the backoff
+        return random(random, backoff);
+    }
+
+    private static long random(Random random, long bound) {
+        return bound > 0 ? (long) (random.nextDouble() * bound) : 0;
+    }
+}
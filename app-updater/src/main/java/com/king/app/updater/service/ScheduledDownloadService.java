@@ -0,0 +1,386 @@
+package com.king.app.updater.service;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.IBinder;
+import android.os.PersistableBundle;
+
+import com.king.app.updater.UpdateConfig;
+import com.king.app.updater.callback.UpdateCallback;
+import com.king.app.updater.constant.Constants;
+import com.king.app.updater.http.IHttpManager;
+import com.king.app.updater.notify.INotification;
+import com.king.app.updater.util.LogUtils;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+/**
+ * Scheduled download: a {@link JobService} that waits for the constraints of {@link UpdateConfig} (an unmetered
+ * network, the device charging or idle, see {@link UpdateConfig#setRequiresUnmeteredNetwork(boolean)}) and then runs the
+ * download in {@link DownloadService}, like {@link com.king.app.updater.AppUpdater#start()}. If the constraints are no
+ * longer met the download is suspended, it resumes from its temporary file when they are met again.
+ * <p>The {@link UpdateCallback} given to {@link #schedule(Context, UpdateConfig, IHttpManager, UpdateCallback, INotification)}
+ * is notified when the download runs in the same process; if the process has been killed in the meantime, the download
+ * runs with the default {@link IHttpManager} and notification. The callback is held weakly, so that a scheduled download
+ * does not leak the component that scheduled it (e.g. an Activity): it is notified as long as the caller keeps a
+ * reference to it. If the same artifact is already being downloaded when the job runs, the callback joins that download. The id of the {@link JobInfo} is allocated once per
+ * {@link UpdateConfig#getJobId()} and kept in the {@link SharedPreferences}, until the download is completed or cancelled.
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class ScheduledDownloadService extends JobService {
+
+    private static final String KEY_UPDATE_CONFIG = "app_update_config";
+
+    private static final String PREFS_JOB_IDS = "app_updater_scheduled_jobs";
+    /**
+     * The next id of {@link JobInfo} to allocate
+     */
+    private static final String KEY_NEXT_JOB_ID = "next_job_id";
+    /**
+     * The allocated ids of {@link JobInfo}, by {@link UpdateConfig#getJobId()}
+     */
+    private static final String KEY_JOB_ID_PREFIX = "job_id:";
+
+    private static final int FIRST_JOB_ID = 0x55500000;
+    private static final int LAST_JOB_ID = 0x555FFFFF;
+    /**
+     * The callbacks of the scheduled downloads of the process, by {@link UpdateConfig#getJobId()}
+     */
+    private static final Map<String, Request> sRequests = new HashMap<>();
+    /**
+     * The running downloads, by the id of their {@link JobInfo}
+     */
+    private final Map<Integer, ScheduledJob> mJobs = new HashMap<>();
+
+    /**
+     * Schedule the download, it replaces the scheduled download of the same {@link UpdateConfig#getJobId()}
+     *
+     * @param context
+     * @param config       {@link UpdateConfig}
+     * @param httpManager  {@link IHttpManager}
+     * @param callback     {@link UpdateCallback}, held weakly: the caller keeps a reference to it
+     * @param notification {@link INotification}
+     * @return true if the download is scheduled
+     */
+    public static boolean schedule(@NonNull Context context, @NonNull UpdateConfig config, @Nullable IHttpManager httpManager, @Nullable UpdateCallback callback, @Nullable INotification notification) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler == null) {
+            return false;
+        }
+        PersistableBundle extras = new PersistableBundle();
+        extras.putPersistableBundle(KEY_UPDATE_CONFIG, config.toPersistableBundle());
+        JobInfo jobInfo = new JobInfo.Builder(obtainJobId(context, jobScheduler, config.getJobId()), new ComponentName(context, ScheduledDownloadService.class))
+                .setRequiredNetworkType(config.isRequiresUnmeteredNetwork() ? JobInfo.NETWORK_TYPE_UNMETERED : JobInfo.NETWORK_TYPE_ANY)
+                .setRequiresCharging(config.isRequiresCharging())
+                .setRequiresDeviceIdle(config.isRequiresDeviceIdle())
+                .setExtras(extras)
+                .build();
+        synchronized (sRequests) {
+            sRequests.put(config.getJobId(), new Request(httpManager, callback, notification));
+        }
+        try {
+            if (jobScheduler.schedule(jobInfo) == JobScheduler.RESULT_SUCCESS) {
+                LogUtils.d("Scheduled: " + config.getJobId());
+                return true;
+            }
+        } catch (RuntimeException e) {
+            // e.g. too many jobs are scheduled
+            LogUtils.w(e.getMessage());
+        }
+        removeRequest(config.getJobId());
+        releaseJobId(context, config.getJobId());
+        return false;
+    }
+
+    /**
+     * Cancel the scheduled download, a download that runs is cancelled by {@link DownloadService}
+     *
+     * @param context
+     * @param jobId   {@link UpdateConfig#getJobId()}
+     */
+    public static void cancel(@NonNull Context context, @NonNull String jobId) {
+        int id = releaseJobId(context, jobId);
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler != null && id != Constants.NONE) {
+            jobScheduler.cancel(id);
+        }
+        removeRequest(jobId);
+    }
+
+    private static SharedPreferences getJobIds(@NonNull Context context) {
+        return context.getSharedPreferences(PREFS_JOB_IDS, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Get the id of {@link JobInfo} of the download, a new id is allocated from a counter so that two downloads never
+     * share a job; the ids of the pending jobs of the other components of the App are skipped
+     *
+     * @param context
+     * @param jobScheduler {@link JobScheduler}
+     * @param jobId        {@link UpdateConfig#getJobId()}
+     * @return
+     */
+    private static synchronized int obtainJobId(@NonNull Context context, @NonNull JobScheduler jobScheduler, @NonNull String jobId) {
+        SharedPreferences jobIds = getJobIds(context);
+        int id = jobIds.getInt(KEY_JOB_ID_PREFIX + jobId, Constants.NONE);
+        if (id != Constants.NONE) {
+            return id;
+        }
+        Map<String, ?> allocated = jobIds.getAll();
+        List<JobInfo> pendingJobs = jobScheduler.getAllPendingJobs();
+        id = jobIds.getInt(KEY_NEXT_JOB_ID, FIRST_JOB_ID);
+        while (allocated.containsValue(id) || isPending(context, pendingJobs, id)) {
+            id = id < LAST_JOB_ID ? id + 1 : FIRST_JOB_ID;
+        }
+        jobIds.edit()
+                .putInt(KEY_JOB_ID_PREFIX + jobId, id)
+                .putInt(KEY_NEXT_JOB_ID, id < LAST_JOB_ID ? id + 1 : FIRST_JOB_ID)
+                .commit();
+        return id;
+    }
+
+    /**
+     * Whether a job of another component has the id
+     */
+    private static boolean isPending(@NonNull Context context, @Nullable List<JobInfo> pendingJobs, int id) {
+        if (pendingJobs != null) {
+            for (JobInfo jobInfo : pendingJobs) {
+                if (jobInfo.getId() == id && !ScheduledDownloadService.class.getName().equals(jobInfo.getService().getClassName())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Release the id of {@link JobInfo} of the download
+     *
+     * @return the released id, or {@link Constants#NONE}
+     */
+    private static synchronized int releaseJobId(@NonNull Context context, @NonNull String jobId) {
+        SharedPreferences jobIds = getJobIds(context);
+        int id = jobIds.getInt(KEY_JOB_ID_PREFIX + jobId, Constants.NONE);
+        if (id != Constants.NONE) {
+            jobIds.edit().remove(KEY_JOB_ID_PREFIX + jobId).apply();
+        }
+        return id;
+    }
+
+    @Nullable
+    private static Request getRequest(@NonNull String jobId) {
+        synchronized (sRequests) {
+            return sRequests.get(jobId);
+        }
+    }
+
+    private static void removeRequest(@NonNull String jobId) {
+        synchronized (sRequests) {
+            sRequests.remove(jobId);
+        }
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        // The config is kept in the extras of the JobInfo so that the job can run in a new process, a config scheduled
+        // by another version of the library is rejected
+        UpdateConfig config = UpdateConfig.fromPersistableBundle(params.getExtras().getPersistableBundle(KEY_UPDATE_CONFIG));
+        if (config == null) {
+            LogUtils.w("Unknown scheduled download: " + params.getJobId());
+            return false;
+        }
+        LogUtils.d("Start the scheduled download: " + config.getJobId());
+        ScheduledJob job = new ScheduledJob(params, config);
+        mJobs.put(params.getJobId(), job);
+        if (!bindService(new Intent(this, DownloadService.class), job, Context.BIND_AUTO_CREATE)) {
+            mJobs.remove(params.getJobId());
+            return false;
+        }
+        // The job holds the constraints and the wake lock until the download is completed
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        ScheduledJob job = mJobs.remove(params.getJobId());
+        if (job == null) {
+            return false;
+        }
+        LogUtils.d("The constraints are no longer met: " + job.config.getJobId());
+        job.isStopped = true;
+        if (job.binder != null && !job.isJoined) {
+            job.binder.suspend(job.config.getJobId());
+        }
+        unbindService(job);
+        // Rescheduled, the download resumes from the temporary file
+        return true;
+    }
+
+    /**
+     * Called when the download of the job is finished, failed or cancelled
+     */
+    private void onJobCompleted(@NonNull ScheduledJob job) {
+        if (job.isStopped) {
+            return;
+        }
+        job.isStopped = true;
+        removeRequest(job.config.getJobId());
+        releaseJobId(this, job.config.getJobId());
+        mJobs.remove(job.params.getJobId());
+        unbindService(job);
+        jobFinished(job.params, false);
+    }
+
+    /**
+     * The callbacks of a scheduled download
+     */
+    private static class Request {
+
+        private final IHttpManager httpManager;
+
+        private final WeakReference<UpdateCallback> callback;
+
+        private final INotification notification;
+
+        private Request(IHttpManager httpManager, UpdateCallback callback, INotification notification) {
+            this.httpManager = httpManager;
+            this.callback = new WeakReference<>(callback);
+            this.notification = notification;
+        }
+    }
+
+    /**
+     * A scheduled download that runs: it starts the download in {@link DownloadService} and completes the job with it
+     */
+    private class ScheduledJob implements ServiceConnection, UpdateCallback {
+
+        private final JobParameters params;
+
+        private final UpdateConfig config;
+
+        private final WeakReference<UpdateCallback> callbackReference;
+
+        private final IHttpManager httpManager;
+
+        private final INotification notification;
+
+        private DownloadService.DownloadBinder binder;
+
+        private boolean isStopped;
+        /**
+         * The job has joined a download started by another caller, the download is not suspended with the job
+         */
+        private boolean isJoined;
+
+        ScheduledJob(JobParameters params, UpdateConfig config) {
+            this.params = params;
+            this.config = config;
+            Request request = getRequest(config.getJobId());
+            this.callbackReference = request != null ? request.callback : new WeakReference<UpdateCallback>(null);
+            this.httpManager = request != null ? request.httpManager : null;
+            this.notification = request != null ? request.notification : null;
+        }
+
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            if (isStopped) {
+                return;
+            }
+            binder = (DownloadService.DownloadBinder) service;
+            if (binder.join(config, this)) {
+                // Started with AppUpdater#start() in the meantime, the job completes with that download
+                isJoined = true;
+                return;
+            }
+            if (binder.isDownloading(config.getJobId())) {
+                // Another download of the same id is in progress, the download is not repeated
+                LogUtils.d("Already downloading: " + config.getJobId());
+                onJobCompleted(this);
+                return;
+            }
+            binder.start(config, httpManager, this, notification);
+        }
+
+        /**
+         * Get the callback of the caller, null if it has been collected or the job has been stopped
+         */
+        @Nullable
+        private UpdateCallback getCallback() {
+            return isStopped ? null : callbackReference.get();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            binder = null;
+        }
+
+        @Override
+        public void onDownloading(boolean isDownloading) {
+            UpdateCallback callback = getCallback();
+            if (callback != null) {
+                callback.onDownloading(isDownloading);
+            }
+        }
+
+        @Override
+        public void onStart(String url) {
+            UpdateCallback callback = getCallback();
+            if (callback != null) {
+                callback.onStart(url);
+            }
+        }
+
+        @Override
+        public void onProgress(long progress, long total, boolean isChanged) {
+            UpdateCallback callback = getCallback();
+            if (callback != null) {
+                callback.onProgress(progress, total, isChanged);
+            }
+        }
+
+        @Override
+        public void onFinish(File file) {
+            UpdateCallback callback = getCallback();
+            if (callback != null) {
+                callback.onFinish(file);
+            }
+            onJobCompleted(this);
+        }
+
+        @Override
+        public void onError(Exception e) {
+            UpdateCallback callback = getCallback();
+            if (callback != null) {
+                callback.onError(e);
+            }
+            onJobCompleted(this);
+        }
+
+        @Override
+        public void onCancel() {
+            UpdateCallback callback = getCallback();
+            if (callback != null) {
+                callback.onCancel();
+            }
+            onJobCompleted(this);
+        }
+    }
+}
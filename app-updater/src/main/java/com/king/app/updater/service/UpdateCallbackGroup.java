@@ -0,0 +1,96 @@
+package com.king.app.updater.service;
+
+import com.king.app.updater.callback.UpdateCallback;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The callbacks of the callers attached to a {@link DownloadJob}: every event is delivered to each of them, and a caller
+ * joining a job that has already started first receives {@link UpdateCallback#onStart(String)} and the last progress,
+ * so that it sees the same event stream as the caller that started the job. A download that resumes (an automatic
+ * retry, a preemption, a network pause) does not start again for the callers
+ *
+ * @author Jenly <a href="mailto:jenly1314@gmail.com">Jenly</a>
+ */
+final class UpdateCallbackGroup implements UpdateCallback {
+
+    private final List<UpdateCallback> mCallbacks = new ArrayList<>();
+
+    private String mStartedUrl;
+
+    private long mProgress;
+
+    private long mTotal;
+
+    /**
+     * Attach the callback, the events already delivered to the group are replayed to it
+     *
+     * @param callback {@link UpdateCallback}
+     */
+    synchronized void add(@NonNull UpdateCallback callback) {
+        if (mCallbacks.contains(callback)) {
+            return;
+        }
+        mCallbacks.add(callback);
+        if (mStartedUrl != null) {
+            callback.onStart(mStartedUrl);
+            if (mTotal > 0) {
+                callback.onProgress(mProgress, mTotal, true);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onDownloading(boolean isDownloading) {
+        for (UpdateCallback callback : mCallbacks) {
+            callback.onDownloading(isDownloading);
+        }
+    }
+
+    @Override
+    public synchronized void onStart(String url) {
+        if (url != null && url.equals(mStartedUrl)) {
+            return;
+        }
+        mStartedUrl = url;
+        for (UpdateCallback callback : mCallbacks) {
+            callback.onStart(url);
+        }
+    }
+
+    @Override
+    public synchronized void onProgress(long progress, long total, boolean isChanged) {
+        mProgress = progress;
+        mTotal = total;
+        for (UpdateCallback callback : mCallbacks) {
+            callback.onProgress(progress, total, isChanged);
+        }
+    }
+
+    @Override
+    public synchronized void onFinish(File file) {
+        for (UpdateCallback callback : mCallbacks) {
+            callback.onFinish(file);
+        }
+    }
+
+    @Override
+    public synchronized void onError(Exception e) {
+        mStartedUrl = null;
+        for (UpdateCallback callback : mCallbacks) {
+            callback.onError(e);
+        }
+    }
+
+    @Override
+    public synchronized void onCancel() {
+        mStartedUrl = null;
+        for (UpdateCallback callback : mCallbacks) {
+            callback.onCancel();
+        }
+    }
+}
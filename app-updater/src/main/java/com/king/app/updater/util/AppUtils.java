@@ -9,9 +9,11 @@ import android.content.pm.PackageManager;
 import android.content.res.AssetFileDescriptor;
 import android.net.Uri;
 import android.os.Build;
+import android.os.StatFs;
 import android.text.TextUtils;
 
 import com.king.app.updater.constant.Constants;
+import com.king.app.updater.http.InsufficientSpaceException;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -89,6 +91,31 @@ public final class AppUtils {
         return packageInfo;
     }
 
+    /**
+     * Get the versionCode of the App
+     *
+     * @param context context
+     * @return Returns {@link Constants#NONE} if it cannot be obtained
+     */
+    public static long getVersionCode(Context context) {
+        try {
+            return PackageInfoCompat.getLongVersionCode(getPackageInfo(context));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return Constants.NONE;
+    }
+
+    /**
+     * Get the installed APK of the App (the base APK if the App is installed from split APKs)
+     *
+     * @param context context
+     * @return
+     */
+    public static File getSourceApk(Context context) {
+        return new File(context.getApplicationInfo().sourceDir);
+    }
+
     /**
      * Get the name of the App
      *
@@ -246,31 +273,43 @@ public final class AppUtils {
      * @return Returns the MD5 of the file
      */
     public static String getFileMD5(File file) {
-        FileInputStream fileInputStream = null;
         try {
-            fileInputStream = new FileInputStream(file);
             MessageDigest messageDigest = MessageDigest.getInstance("MD5");
-            byte[] buffer = new byte[8192];
-            int length;
-            while ((length = fileInputStream.read(buffer)) != -1) {
-                messageDigest.update(buffer, 0, length);
-            }
+            updateDigest(messageDigest, file, file.length());
             return byteArrayToHexString(messageDigest.digest());
         } catch (Exception e) {
             e.printStackTrace();
             return null;
-        } finally {
-            if (fileInputStream != null) {
-                try {
-                    fileInputStream.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
         }
 
     }
 
+    /**
+     * Update the digest with the first bytes of the file (e.g. the data already downloaded when a download is resumed)
+     *
+     * @param messageDigest {@link MessageDigest}
+     * @param file          file
+     * @param length        number of bytes to read from the beginning of the file
+     * @throws IOException
+     */
+    public static void updateDigest(MessageDigest messageDigest, File file, long length) throws IOException {
+        FileInputStream fileInputStream = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            long remaining = length;
+            int len;
+            while (remaining > 0 && (len = fileInputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                messageDigest.update(buffer, 0, len);
+                remaining -= len;
+            }
+            if (remaining > 0) {
+                throw new IOException(String.format(Locale.getDefault(), "Unexpected end of file: %d/%d", length - remaining, length));
+            }
+        } finally {
+            fileInputStream.close();
+        }
+    }
+
     /**
      * Convert bytes to hexadecimal string
      *
@@ -356,4 +395,44 @@ public final class AppUtils {
         }
         return new File(context.getFilesDir(), Constants.DEFAULT_DIR).getAbsolutePath();
     }
-}
\ No newline at end of file
+
+    /**
+     * Get the number of bytes available to the App in the directory
+     *
+     * @param dir directory
+     * @return
+     */
+    @SuppressWarnings("deprecation")
+    public static long getAvailableSpace(File dir) {
+        StatFs statFs = new StatFs(dir.getAbsolutePath());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return statFs.getAvailableBytes();
+        }
+        return (long) statFs.getAvailableBlocks() * statFs.getBlockSize();
+    }
+
+    /**
+     * Check that the directory has enough free space to write the given number of bytes
+     *
+     * @param dir           directory
+     * @param requiredBytes number of bytes to write
+     * @throws InsufficientSpaceException if the free space is short
+     */
+    public static void checkAvailableSpace(File dir, long requiredBytes) throws InsufficientSpaceException {
+        if (requiredBytes <= 0) {
+            return;
+        }
+        long availableBytes;
+        try {
+            availableBytes = getAvailableSpace(dir);
+        } catch (IllegalArgumentException e) {
+            // The directory does not exist yet or cannot be queried, the download will report the error itself
+            LogUtils.w(e.getMessage());
+            return;
+        }
+        LogUtils.d(String.format(Locale.getDefault(), "Required space: %d, available space: %d", requiredBytes, availableBytes));
+        if (availableBytes < requiredBytes) {
+            throw new InsufficientSpaceException(dir, requiredBytes, availableBytes);
+        }
+    }
+}
@@ -57,6 +57,8 @@ public class NotificationUtils {
         if (isSupportCancelDownload) {
             Intent intent = new Intent(context, DownloadService.class);
             intent.putExtra(Constants.KEY_STOP_DOWNLOAD_SERVICE, true);
+            // Only the download of this notification is cancelled
+            intent.putExtra(Constants.KEY_NOTIFY_ID, notifyId);
             PendingIntent deleteIntent = PendingIntent.getService(context, notifyId, intent, getPendingIntentFlags(PendingIntent.FLAG_CANCEL_CURRENT));
             builder.setDeleteIntent(deleteIntent);
         }
@@ -88,6 +90,8 @@ public class NotificationUtils {
         if (isSupportCancelDownload) {
             Intent intent = new Intent(context, DownloadService.class);
             intent.putExtra(Constants.KEY_STOP_DOWNLOAD_SERVICE, true);
+            // Only the download of this notification is cancelled
+            intent.putExtra(Constants.KEY_NOTIFY_ID, notifyId);
             PendingIntent deleteIntent = PendingIntent.getService(context, notifyId, intent, getPendingIntentFlags(PendingIntent.FLAG_CANCEL_CURRENT));
             builder.setDeleteIntent(deleteIntent);
         }
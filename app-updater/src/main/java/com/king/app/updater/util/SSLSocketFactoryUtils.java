@@ -12,6 +12,7 @@ import java.util.Arrays;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
@@ -43,6 +44,29 @@ public final class SSLSocketFactoryUtils {
         }
     }
 
+    /**
+     * Create an SSLSocketFactory that resumes the TLS sessions: the sessions of its connections are cached, so the next
+     * connections to the same host use an abbreviated handshake. Keep the instance to benefit from it
+     *
+     * @param sessionCacheSize      maximum number of cached sessions, 0 means no limit
+     * @param sessionTimeoutSeconds how long a session can be resumed, 0 means no limit
+     * @return {@link SSLSocketFactory}
+     */
+    public static SSLSocketFactory createSSLSocketFactory(int sessionCacheSize, int sessionTimeoutSeconds) {
+        try {
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, new TrustManager[]{new TrustAllX509TrustManager(true, null)}, null);
+            SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+            if (sessionContext != null) {
+                sessionContext.setSessionCacheSize(sessionCacheSize);
+                sessionContext.setSessionTimeout(sessionTimeoutSeconds);
+            }
+            return sslContext.getSocketFactory();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Trust all X509TrustManagers
      *
@@ -0,0 +1,268 @@
+package com.king.app.updater;
+
+import com.king.app.updater.http.HttpHeaders;
+import com.king.app.updater.http.HttpStatusException;
+import com.king.app.updater.http.IHttpConnector;
+import com.king.app.updater.util.LogUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of the cache of {@link UpdateChecker}, the manifest is served by a fake {@link IHttpConnector}
+ */
+public class UpdateCheckerTest {
+
+    private static final String URL = "https://example.com/manifest.json";
+
+    private static final String MANIFEST = "{\"versionCode\": 120, \"url\": \"https://example.com/app.apk\"}";
+
+    private static final String MANIFEST_2 = "{\"versionCode\": 121, \"url\": \"https://example.com/app.apk\"}";
+
+    private File dir;
+
+    private FakeConnector connector;
+
+    private QueueExecutor executor;
+
+    private UpdateChecker checker;
+
+    @Before
+    public void setUp() throws IOException {
+        // android.util.Log is not available in the unit tests
+        LogUtils.setShowLog(false);
+        dir = File.createTempFile("manifest", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        connector = new FakeConnector();
+        executor = new QueueExecutor();
+        checker = new UpdateChecker(dir, URL).setHttpConnector(connector).setExecutor(executor);
+    }
+
+    @After
+    public void tearDown() {
+        checker.clearCache();
+        dir.delete();
+        LogUtils.setShowLog(true);
+    }
+
+    @Test
+    public void getManifest_fresh_noRequest() throws IOException {
+        connector.enqueue(200, MANIFEST, "\"v1\"", null);
+        assertEquals(120, checker.getManifest().getVersionCode());
+        assertEquals(120, checker.getManifest().getVersionCode());
+
+        assertEquals(1, connector.requests.size());
+        assertTrue(executor.tasks.isEmpty());
+    }
+
+    @Test
+    public void getManifest_maxAgeZero_revalidates() throws IOException {
+        connector.enqueue(200, MANIFEST, "\"v1\"", "max-age=0");
+        connector.enqueue(304, null, null, "max-age=600");
+        // Expired without a stale window: the check waits for the conditional request
+        checker.setMaxStale(0);
+        assertEquals(120, checker.getManifest().getVersionCode());
+        assertEquals(120, checker.getManifest().getVersionCode());
+
+        assertEquals(2, connector.requests.size());
+        assertEquals("\"v1\"", connector.requests.get(1).get(HttpHeaders.IF_NONE_MATCH));
+        // The max age of the 304 response is applied
+        assertEquals(120, checker.getManifest().getVersionCode());
+        assertEquals(2, connector.requests.size());
+    }
+
+    @Test
+    public void getManifest_noCache_revalidatesEachTime() throws IOException {
+        connector.enqueue(200, MANIFEST, null, "no-cache");
+        connector.enqueue(200, MANIFEST_2, null, "no-cache");
+        checker.setMaxStale(0);
+        assertEquals(120, checker.getManifest().getVersionCode());
+        assertEquals(121, checker.getManifest().getVersionCode());
+        assertEquals(2, connector.requests.size());
+    }
+
+    @Test
+    public void getManifest_noStore_isNotCached() throws IOException {
+        connector.enqueue(200, MANIFEST, "\"v1\"", "no-store");
+        connector.enqueue(200, MANIFEST_2, "\"v2\"", null);
+        assertEquals(120, checker.getManifest().getVersionCode());
+        assertEquals(121, checker.getManifest().getVersionCode());
+
+        assertEquals(2, connector.requests.size());
+        assertNull("Not a conditional request", connector.requests.get(1).get(HttpHeaders.IF_NONE_MATCH));
+    }
+
+    @Test
+    public void getManifest_staleWhileRevalidate_returnsTheCacheAndRevalidates() throws IOException {
+        connector.enqueue(200, MANIFEST, null, "max-age=0, stale-while-revalidate=600");
+        connector.enqueue(200, MANIFEST_2, null, "max-age=600");
+        assertEquals(120, checker.getManifest().getVersionCode());
+
+        // The stale manifest is returned at once, the revalidation runs in the background
+        assertEquals(120, checker.getManifest().getVersionCode());
+        assertEquals(1, connector.requests.size());
+        assertEquals(1, executor.tasks.size());
+        // A single revalidation at a time
+        assertEquals(120, checker.getManifest().getVersionCode());
+        assertEquals(1, executor.tasks.size());
+
+        executor.runAll();
+        assertEquals(2, connector.requests.size());
+        assertEquals(121, checker.getManifest().getVersionCode());
+        assertEquals(2, connector.requests.size());
+    }
+
+    @Test
+    public void getManifest_afterTheStaleWindow_waitsForTheRequest() throws IOException, InterruptedException {
+        connector.enqueue(200, MANIFEST, null, null);
+        connector.enqueue(200, MANIFEST_2, null, null);
+        checker.setMaxAge(10).setMaxStale(10);
+        assertEquals(120, checker.getManifest().getVersionCode());
+        Thread.sleep(50);
+
+        assertEquals(121, checker.getManifest().getVersionCode());
+        assertTrue(executor.tasks.isEmpty());
+    }
+
+    @Test
+    public void getManifest_requestFails_usesTheCache() throws IOException {
+        connector.enqueue(200, MANIFEST, null, "max-age=0");
+        checker.setMaxStale(0);
+        assertEquals(120, checker.getManifest().getVersionCode());
+
+        connector.enqueue(503, null, null, null);
+        assertEquals(120, checker.getManifest().getVersionCode());
+        connector.enqueueError(new ConnectException("Connection refused"));
+        assertEquals(120, checker.getManifest().getVersionCode());
+    }
+
+    @Test
+    public void getManifest_requestFails_withoutCache_throws() throws IOException {
+        connector.enqueue(503, null, null, null);
+        try {
+            checker.getManifest();
+            fail();
+        } catch (HttpStatusException e) {
+            assertEquals(503, e.getResponseCode());
+        }
+        connector.enqueue(200, "{\"versionCode\": 1}", null, null);
+        try {
+            checker.getManifest();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid manifest"));
+        }
+    }
+
+    /**
+     * Runs the tasks when the test asks for it
+     */
+    private static class QueueExecutor implements Executor {
+
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            List<Runnable> pending = new ArrayList<>(tasks);
+            tasks.clear();
+            for (Runnable task : pending) {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Answers the requests with the queued responses and records their headers
+     */
+    private static class FakeConnector implements IHttpConnector {
+
+        final List<Map<String, String>> requests = new ArrayList<>();
+
+        private final LinkedList<Object> responses = new LinkedList<>();
+
+        void enqueue(int responseCode, @Nullable String body, @Nullable String eTag, @Nullable String cacheControl) {
+            Map<String, String> headers = new HashMap<>();
+            headers.put(HttpHeaders.ETAG, eTag);
+            headers.put(HttpHeaders.CACHE_CONTROL, cacheControl);
+            responses.add(new FakeConnection(responseCode, body, headers));
+        }
+
+        void enqueueError(IOException e) {
+            responses.add(e);
+        }
+
+        @NonNull
+        @Override
+        public Connection connect(String url, @Nullable Map<String, String> requestProperty) throws IOException {
+            requests.add(requestProperty != null ? new HashMap<>(requestProperty) : new HashMap<String, String>());
+            Object response = responses.removeFirst();
+            if (response instanceof IOException) {
+                throw (IOException) response;
+            }
+            return (Connection) response;
+        }
+    }
+
+    private static class FakeConnection implements IHttpConnector.Connection {
+
+        private final int responseCode;
+
+        private final byte[] body;
+
+        private final Map<String, String> headers;
+
+        FakeConnection(int responseCode, @Nullable String body, Map<String, String> headers) {
+            this.responseCode = responseCode;
+            this.body = body != null ? body.getBytes(StandardCharsets.UTF_8) : new byte[0];
+            this.headers = headers;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        @Nullable
+        @Override
+        public String getHeaderField(String name) {
+            return headers.get(name);
+        }
+
+        @Override
+        public long getContentLength() {
+            return body.length;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
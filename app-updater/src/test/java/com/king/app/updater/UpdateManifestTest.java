@@ -0,0 +1,101 @@
+package com.king.app.updater;
+
+import com.king.app.updater.checksum.ApkChecksum;
+import com.king.app.updater.checksum.ChecksumAlgorithm;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link UpdateManifest}
+ */
+public class UpdateManifestTest {
+
+    private static final String URL = "https://example.com/app-1.2.0.apk";
+
+    private static final String MIRROR = "https://mirror.example.com/app-1.2.0.apk";
+
+    @Test
+    public void parse_fullManifest() throws JSONException {
+        UpdateManifest manifest = UpdateManifest.parse("{"
+                + "\"versionCode\": 120,"
+                + "\"versionName\": \"1.2.0\","
+                + "\"url\": \"" + URL + "\","
+                + "\"size\": 12345678,"
+                + "\"hashes\": {\"sha256\": \"abcd\", \"md5\": \"0123\", \"sha1\": \"ffff\", \"crc32c\": \"\"},"
+                + "\"mirrors\": [\"" + MIRROR + "\", \"" + URL + "\", \"" + MIRROR + "\", \"\"],"
+                + "\"changelog\": [\"Fixes\", \"Faster downloads\"]"
+                + "}");
+
+        assertEquals(120, manifest.getVersionCode());
+        assertEquals("1.2.0", manifest.getVersionName());
+        assertEquals(URL, manifest.getUrl());
+        assertEquals(12345678, manifest.getSize());
+        // The unsupported and empty hashes are ignored
+        List<ApkChecksum> checksums = manifest.getChecksums();
+        assertEquals(2, checksums.size());
+        assertTrue(checksums.contains(new ApkChecksum(ChecksumAlgorithm.SHA_256, "abcd")));
+        assertTrue(checksums.contains(new ApkChecksum(ChecksumAlgorithm.MD5, "0123")));
+        // The download address, the duplicate and empty mirrors are ignored
+        assertEquals(Arrays.asList(MIRROR), manifest.getMirrors());
+        assertEquals("Fixes\nFaster downloads", manifest.getChangelog());
+    }
+
+    @Test
+    public void parse_minimalManifest() throws JSONException {
+        UpdateManifest manifest = UpdateManifest.parse("{\"versionCode\": 7, \"url\": \"" + URL + "\", \"changelog\": \"Fixes\"}");
+
+        assertEquals(7, manifest.getVersionCode());
+        assertNull(manifest.getVersionName());
+        assertEquals(0, manifest.getSize());
+        assertTrue(manifest.getChecksums().isEmpty());
+        assertTrue(manifest.getMirrors().isEmpty());
+        assertEquals("Fixes", manifest.getChangelog());
+    }
+
+    @Test(expected = JSONException.class)
+    public void parse_withoutUrl_fails() throws JSONException {
+        UpdateManifest.parse("{\"versionCode\": 7}");
+    }
+
+    @Test(expected = JSONException.class)
+    public void parse_emptyUrl_fails() throws JSONException {
+        UpdateManifest.parse("{\"versionCode\": 7, \"url\": \"\"}");
+    }
+
+    @Test(expected = JSONException.class)
+    public void parse_withoutVersionCode_fails() throws JSONException {
+        UpdateManifest.parse("{\"url\": \"" + URL + "\"}");
+    }
+
+    @Test(expected = JSONException.class)
+    public void parse_invalidJson_fails() throws JSONException {
+        UpdateManifest.parse("<html></html>");
+    }
+
+    @Test
+    public void isNewerThan() throws JSONException {
+        UpdateManifest manifest = UpdateManifest.parse("{\"versionCode\": 120, \"url\": \"" + URL + "\"}");
+        assertTrue(manifest.isNewerThan(119));
+        assertFalse(manifest.isNewerThan(120));
+        assertFalse(manifest.isNewerThan(121));
+    }
+
+    @Test
+    public void toUpdateConfig() throws JSONException {
+        UpdateManifest manifest = UpdateManifest.parse("{\"versionCode\": 120, \"url\": \"" + URL + "\", \"size\": 1000,"
+                + " \"hashes\": {\"sha256\": \"abcd\"}, \"mirrors\": [\"" + MIRROR + "\"]}");
+        UpdateConfig config = manifest.toUpdateConfig();
+
+        assertEquals(URL, config.getUrl());
+        assertEquals(120, config.getVersionCode());
+        assertEquals(1000, config.getApkSize());
+        assertEquals(Arrays.asList(new ApkChecksum(ChecksumAlgorithm.SHA_256, "abcd")), config.getChecksums());
+        assertEquals(Arrays.asList(MIRROR), config.getMirrors());
+    }
+}
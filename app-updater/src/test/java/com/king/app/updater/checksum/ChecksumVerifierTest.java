@@ -0,0 +1,65 @@
+package com.king.app.updater.checksum;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link ChecksumVerifier}
+ */
+public class ChecksumVerifierTest {
+
+    private static final byte[] DATA = "AppUpdater".getBytes();
+
+    private static ApkChecksum compute(ChecksumAlgorithm algorithm, byte[] data) {
+        IHasher hasher = HasherProvider.newHasher(algorithm);
+        hasher.update(data, 0, data.length);
+        return new ApkChecksum(algorithm, hasher.digest());
+    }
+
+    @Test
+    public void getAlgorithm_isStrongest() {
+        ChecksumVerifier verifier = new ChecksumVerifier(Arrays.asList(compute(ChecksumAlgorithm.CRC32C, DATA), compute(ChecksumAlgorithm.SHA_256, DATA)));
+        assertEquals(ChecksumAlgorithm.SHA_256, verifier.getAlgorithm());
+        assertEquals(ChecksumAlgorithm.SHA_256, verifier.newHasher().getAlgorithm());
+    }
+
+    @Test
+    public void verify_wrongSha256_rightCrc32c_fails() throws IOException {
+        ApkChecksum crc32c = compute(ChecksumAlgorithm.CRC32C, DATA);
+        ApkChecksum wrongSha256 = compute(ChecksumAlgorithm.SHA_256, "Tampered".getBytes());
+        ChecksumVerifier verifier = new ChecksumVerifier(Arrays.asList(wrongSha256, crc32c));
+
+        File file = File.createTempFile("checksum", ".apk");
+        try {
+            FileOutputStream os = new FileOutputStream(file);
+            os.write(DATA);
+            os.close();
+            assertFalse(verifier.verify(verifier.compute(file)));
+        } finally {
+            file.delete();
+        }
+        // The CRC32C computed while downloading is not accepted in place of the SHA-256
+        assertFalse(verifier.canVerify(crc32c));
+        assertFalse(verifier.verify(crc32c));
+    }
+
+    @Test
+    public void verify_rightChecksums_succeeds() {
+        ChecksumVerifier verifier = new ChecksumVerifier(Arrays.asList(compute(ChecksumAlgorithm.CRC32C, DATA), compute(ChecksumAlgorithm.SHA_256, DATA)));
+        assertTrue(verifier.verify(compute(ChecksumAlgorithm.SHA_256, DATA)));
+    }
+
+    @Test
+    public void verify_crc32cAlone_detectsCorruption() {
+        ChecksumVerifier verifier = new ChecksumVerifier(Arrays.asList(compute(ChecksumAlgorithm.CRC32C, DATA)));
+        assertEquals(ChecksumAlgorithm.CRC32C, verifier.getAlgorithm());
+        assertTrue(verifier.verify(compute(ChecksumAlgorithm.CRC32C, DATA)));
+        assertFalse(verifier.verify(compute(ChecksumAlgorithm.CRC32C, "Corrupted".getBytes())));
+    }
+}
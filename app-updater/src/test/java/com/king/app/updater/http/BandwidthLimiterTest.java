@@ -0,0 +1,118 @@
+package com.king.app.updater.http;
+
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link BandwidthLimiter}, the time is simulated: a wait advances the clock instead of sleeping
+ */
+public class BandwidthLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void acquire_unlimited_doesNotWait() throws InterruptedIOException {
+        FakeClock clock = new FakeClock();
+        BandwidthLimiter limiter = new BandwidthLimiter(BandwidthLimiter.UNLIMITED, clock);
+        assertTrue(limiter.acquire(10 * 1024 * 1024, null));
+        assertEquals(0, clock.now);
+    }
+
+    @Test
+    public void acquire_emptyBucket_waitsForTheRate() throws InterruptedIOException {
+        FakeClock clock = new FakeClock();
+        BandwidthLimiter limiter = new BandwidthLimiter(1000, clock);
+        assertTrue(limiter.acquire(1000, null));
+        assertEquals(SECOND, clock.now);
+        assertTrue(limiter.acquire(500, null));
+        assertEquals(SECOND + SECOND / 2, clock.now);
+    }
+
+    @Test
+    public void acquire_afterIdle_allowsBurst() throws InterruptedIOException {
+        FakeClock clock = new FakeClock();
+        BandwidthLimiter limiter = new BandwidthLimiter(1000, clock);
+        // Idle long enough to fill the bucket, it holds 500 ms of the rate at most
+        clock.now = 10 * SECOND;
+        assertTrue(limiter.acquire(500, null));
+        assertEquals(10 * SECOND, clock.now);
+        // The bucket is empty, the next bytes are paid at the rate
+        assertTrue(limiter.acquire(1000, null));
+        assertEquals(11 * SECOND, clock.now);
+    }
+
+    @Test
+    public void acquire_afterShortIdle_partialBurst() throws InterruptedIOException {
+        FakeClock clock = new FakeClock();
+        BandwidthLimiter limiter = new BandwidthLimiter(1000, clock);
+        clock.now = 200 * MILLISECOND;
+        // 200 bytes are in the bucket, the other 300 take 300 ms
+        assertTrue(limiter.acquire(500, null));
+        assertEquals(500 * MILLISECOND, clock.now);
+    }
+
+    @Test
+    public void acquire_waitsInSlices() throws InterruptedIOException {
+        FakeClock clock = new FakeClock();
+        BandwidthLimiter limiter = new BandwidthLimiter(1000, clock);
+        assertTrue(limiter.acquire(2000, null));
+        assertEquals(2 * SECOND, clock.now);
+        // The stop signal is checked at least every 100 ms
+        assertEquals(100 * MILLISECOND, clock.longestWait);
+    }
+
+    @Test
+    public void acquire_stopped_returnsFalse() throws InterruptedIOException {
+        final FakeClock clock = new FakeClock();
+        BandwidthLimiter limiter = new BandwidthLimiter(1000, clock);
+        boolean isAcquired = limiter.acquire(1000, new BandwidthLimiter.StopSignal() {
+            @Override
+            public boolean isStopped() {
+                // Cancelled after 300 ms
+                return clock.now >= 300 * MILLISECOND;
+            }
+        });
+        assertFalse(isAcquired);
+        assertEquals(300 * MILLISECOND, clock.now);
+    }
+
+    @Test
+    public void setBytesPerSecond_appliesToTheNextBytes() throws InterruptedIOException {
+        FakeClock clock = new FakeClock();
+        BandwidthLimiter limiter = new BandwidthLimiter(1000, clock);
+        assertTrue(limiter.acquire(1000, null));
+        limiter.setBytesPerSecond(4000);
+        assertTrue(limiter.acquire(1000, null));
+        assertEquals(SECOND + SECOND / 4, clock.now);
+        limiter.setBytesPerSecond(BandwidthLimiter.UNLIMITED);
+        assertTrue(limiter.acquire(1000, null));
+        assertEquals(SECOND + SECOND / 4, clock.now);
+    }
+
+    /**
+     * A clock whose time only advances when the limiter waits
+     */
+    private static class FakeClock implements BandwidthLimiter.Clock {
+
+        private long now;
+
+        private long longestWait;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        @Override
+        public void await(Object monitor, long nanos) {
+            now += nanos;
+            longestWait = Math.max(longestWait, nanos);
+        }
+    }
+}
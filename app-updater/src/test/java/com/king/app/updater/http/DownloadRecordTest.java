@@ -0,0 +1,181 @@
+package com.king.app.updater.http;
+
+import com.king.app.updater.checksum.ApkChecksum;
+import com.king.app.updater.checksum.ChecksumAlgorithm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link DownloadRecord}
+ */
+public class DownloadRecordTest {
+
+    private static final String URL = "https://example.com/app.apk";
+
+    private static final String MIRROR = "https://mirror.example.com/app.apk";
+
+    private File dir;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("record", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        file = new File(dir, "app.apk");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void save_load_roundTrip() throws IOException {
+        DownloadRecord record = new DownloadRecord(file);
+        record.reset(URL);
+        writePart(100);
+        record.update(MIRROR, "\"v1\"", "Mon, 01 Jan 2024 00:00:00 GMT", 3000);
+        record.setSegments(Arrays.asList(
+                new DownloadRecord.Segment(0, 999, 100),
+                new DownloadRecord.Segment(1000, 1999, 1000),
+                new DownloadRecord.Segment(2000, 2999, 0)));
+
+        DownloadRecord loaded = new DownloadRecord(file);
+        assertEquals(URL, loaded.getUrl());
+        assertEquals("\"v1\"", loaded.getETag());
+        assertEquals("Mon, 01 Jan 2024 00:00:00 GMT", loaded.getLastModified());
+        assertEquals(3000, loaded.getContentLength());
+        assertTrue(loaded.isSource(MIRROR));
+        assertFalse(loaded.isSource(URL));
+        List<DownloadRecord.Segment> segments = loaded.getSegments();
+        assertNotNull(segments);
+        assertEquals(3, segments.size());
+        assertEquals(1000, segments.get(1).getStart());
+        assertEquals(1999, segments.get(1).getEnd());
+        assertTrue(segments.get(1).isCompleted());
+        assertEquals(1100, loaded.getDownloadedLength());
+        assertTrue(loaded.isSegmentResumable(URL));
+        assertFalse(loaded.isResumable(URL));
+    }
+
+    @Test
+    public void getOffset_isClampedToThePartLength() throws IOException {
+        DownloadRecord record = new DownloadRecord(file);
+        record.reset(URL);
+        writePart(100);
+        assertEquals(100, record.getOffset());
+
+        // The recorded offset of a preallocated file can be ahead of the data that reached the disk
+        record.setDownloaded(500);
+        assertEquals(100, record.getOffset());
+        record.setDownloaded(50);
+        assertEquals(50, record.getOffset());
+        record.save();
+        assertEquals(50, new DownloadRecord(file).getOffset());
+
+        record.reset(URL);
+        assertEquals(0, record.getOffset());
+    }
+
+    @Test
+    public void complete_renamesThePartFile_andKeepsTheChecksum() throws IOException {
+        DownloadRecord record = new DownloadRecord(file);
+        record.reset(URL);
+        writePart(100);
+        record.update("\"v1\"", null, 100);
+        ApkChecksum checksum = new ApkChecksum(ChecksumAlgorithm.SHA_256, "00ff");
+        record.complete(checksum);
+
+        assertTrue(file.exists());
+        assertEquals(100, file.length());
+        assertFalse(record.getPartFile().exists());
+
+        DownloadRecord loaded = new DownloadRecord(file);
+        assertEquals(checksum, loaded.getChecksum());
+        assertTrue(loaded.isRevalidatable(URL));
+        assertFalse(loaded.isRevalidatable(MIRROR));
+        assertEquals("\"v1\"", loaded.getConditionalHeaders().get(HttpHeaders.IF_NONE_MATCH));
+
+        // The file has been modified since it was recorded
+        writeFile(file, 50);
+        assertNull(loaded.getChecksum());
+        assertFalse(loaded.isRevalidatable(URL));
+    }
+
+    @Test
+    public void complete_withoutValidator_deletesTheRecord() throws IOException {
+        DownloadRecord record = new DownloadRecord(file);
+        record.reset(URL);
+        writePart(100);
+        record.update(null, null, 100);
+        File metaFile = new File(file.getAbsolutePath() + DownloadRecord.META_SUFFIX);
+        assertTrue(metaFile.exists());
+
+        record.complete(null);
+        assertTrue(file.exists());
+        assertFalse(metaFile.exists());
+        assertFalse(new DownloadRecord(file).isRevalidatable(URL));
+    }
+
+    @Test
+    public void isResumable_validatorMismatch_resets() throws IOException {
+        DownloadRecord record = new DownloadRecord(file);
+        record.reset(URL);
+        writePart(100);
+        record.update("\"v1\"", null, 1000);
+        assertTrue(new DownloadRecord(file).isResumable(URL));
+        assertFalse("Another address", new DownloadRecord(file).isResumable(MIRROR));
+
+        // A weak ETag cannot validate a range request
+        record.update("W/\"v1\"", null, 1000);
+        DownloadRecord loaded = new DownloadRecord(file);
+        assertNull(loaded.getIfRange());
+        assertFalse(loaded.isResumable(URL));
+
+        loaded.reset(URL);
+        assertFalse(loaded.getPartFile().exists());
+        assertEquals(0, loaded.getOffset());
+        assertNull(loaded.getETag());
+        assertEquals(-1, loaded.getContentLength());
+    }
+
+    @Test
+    public void getIfRange_weakETag_usesLastModified() {
+        DownloadRecord record = new DownloadRecord(file);
+        record.reset(URL);
+        record.update("W/\"v1\"", "Mon, 01 Jan 2024 00:00:00 GMT", 1000);
+        assertEquals("Mon, 01 Jan 2024 00:00:00 GMT", record.getIfRange());
+        record.update("\"v1\"", "Mon, 01 Jan 2024 00:00:00 GMT", 1000);
+        assertEquals("\"v1\"", record.getIfRange());
+    }
+
+    private void writePart(int length) throws IOException {
+        writeFile(new File(file.getAbsolutePath() + DownloadRecord.PART_SUFFIX), length);
+    }
+
+    private static void writeFile(File file, int length) throws IOException {
+        FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(new byte[length]);
+        } finally {
+            os.close();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.king.app.updater.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link DownloadWriter}
+ */
+public class DownloadWriterTest {
+
+    @Test
+    public void close_interrupted_flushesBuffer() throws IOException {
+        byte[] data = new byte[10000];
+        new Random(1).nextBytes(data);
+        File file = File.createTempFile("writer", ".part");
+        try {
+            DownloadWriter writer = DownloadWriter.open(file, 0, 64 * 1024, false, null);
+            InputStream is = new ByteArrayInputStream(data);
+            while (writer.transferFrom(is) != -1) {
+                // Buffered, nothing is written yet
+            }
+            Thread.currentThread().interrupt();
+            writer.close();
+            assertTrue("The interrupt is kept", Thread.interrupted());
+            assertEquals(data.length, writer.getWrittenPosition());
+            assertEquals(data.length, file.length());
+        } finally {
+            Thread.interrupted();
+            file.delete();
+        }
+    }
+}
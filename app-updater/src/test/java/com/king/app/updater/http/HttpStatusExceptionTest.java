@@ -0,0 +1,58 @@
+package com.king.app.updater.http;
+
+import com.king.app.updater.constant.Constants;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of the {@code Retry-After} parsing of {@link HttpStatusException}
+ */
+public class HttpStatusExceptionTest {
+
+    @Test
+    public void parseRetryAfter_seconds() {
+        assertEquals(120000, HttpStatusException.parseRetryAfter("120"));
+        assertEquals(5000, HttpStatusException.parseRetryAfter(" 5 "));
+        assertEquals(0, HttpStatusException.parseRetryAfter("0"));
+        assertEquals(0, HttpStatusException.parseRetryAfter("-5"));
+    }
+
+    @Test
+    public void parseRetryAfter_futureDate() {
+        long delay = HttpStatusException.parseRetryAfter(formatHttpDate(System.currentTimeMillis() + 90000));
+        // The date has a precision of one second
+        assertTrue("delay = " + delay, delay > 85000 && delay <= 90000);
+    }
+
+    @Test
+    public void parseRetryAfter_pastDate() {
+        assertEquals(0, HttpStatusException.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+    }
+
+    @Test
+    public void parseRetryAfter_invalid() {
+        assertEquals(Constants.NONE, HttpStatusException.parseRetryAfter(null));
+        assertEquals(Constants.NONE, HttpStatusException.parseRetryAfter(""));
+        assertEquals(Constants.NONE, HttpStatusException.parseRetryAfter("  "));
+        assertEquals(Constants.NONE, HttpStatusException.parseRetryAfter("soon"));
+    }
+
+    @Test
+    public void getRetryAfter_fromHeader() {
+        assertEquals(30000, new HttpStatusException(503, "30").getRetryAfter());
+        assertEquals(Constants.NONE, new HttpStatusException(503, null).getRetryAfter());
+    }
+
+    private static String formatHttpDate(long time) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(time));
+    }
+}
@@ -0,0 +1,67 @@
+package com.king.app.updater.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link PipelinedDownloadWriter}
+ */
+public class PipelinedDownloadWriterTest {
+
+    @Test
+    public void close_writesEverything_onTheExecutor() throws IOException {
+        byte[] data = new byte[300 * 1024];
+        new Random(4).nextBytes(data);
+        File file = File.createTempFile("pipelined", ".part");
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            PipelinedDownloadWriter writer = PipelinedDownloadWriter.open(file, 0, 16 * 1024, PipelinedDownloadWriter.DEFAULT_BUFFER_COUNT, false, null, executor);
+            InputStream is = new ByteArrayInputStream(data);
+            while (writer.transferFrom(is) != -1) {
+                // Read to the end
+            }
+            writer.close();
+            assertEquals(data.length, writer.getWrittenPosition());
+
+            byte[] actual = new byte[data.length];
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                raf.readFully(actual);
+            } finally {
+                raf.close();
+            }
+            assertTrue(Arrays.equals(data, actual));
+        } finally {
+            executor.shutdown();
+            file.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void open_rejected_fails() throws IOException {
+        File file = File.createTempFile("pipelined", ".part");
+        try {
+            PipelinedDownloadWriter.open(file, 0, 16 * 1024, PipelinedDownloadWriter.DEFAULT_BUFFER_COUNT, false, null, new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    throw new RejectedExecutionException();
+                }
+            });
+        } finally {
+            file.delete();
+        }
+    }
+}
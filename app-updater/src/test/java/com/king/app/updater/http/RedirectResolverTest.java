@@ -0,0 +1,188 @@
+package com.king.app.updater.http;
+
+import com.king.app.updater.constant.Constants;
+import com.king.app.updater.util.LogUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link RedirectResolver}, the redirects are followed by {@link HttpManager} from a local server
+ */
+public class RedirectResolverTest {
+
+    private static final String URL = "https://a.example.com/dir/app.apk";
+
+    private static final String FINAL_URL = "https://cdn.example.com/app.apk";
+
+    private HttpServer server;
+
+    private String baseUrl;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        // android.util.Log is not available in the unit tests
+        LogUtils.setShowLog(false);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/loop", new RedirectHandler("loop"));
+        server.createContext("/a", new RedirectHandler("dir/b"));
+        server.createContext("/dir/b", new RedirectHandler("/final"));
+        server.createContext("/final", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, 0);
+                exchange.close();
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        dir = File.createTempFile("redirects", "");
+        assertTrue(dir.delete() && dir.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        RedirectResolver.getDefault().clear();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+        LogUtils.setShowLog(true);
+    }
+
+    @Test
+    public void resolveLocation_relative() throws ProtocolException {
+        assertEquals("https://a.example.com/dir/v2/app.apk", RedirectResolver.resolveLocation(URL, "v2/app.apk"));
+        assertEquals("https://a.example.com/app.apk", RedirectResolver.resolveLocation(URL, "../app.apk"));
+        assertEquals("https://a.example.com/files/app.apk?t=1", RedirectResolver.resolveLocation(URL, "/files/app.apk?t=1"));
+        assertEquals("https://cdn.example.com/app.apk", RedirectResolver.resolveLocation(URL, "//cdn.example.com/app.apk"));
+        assertEquals(FINAL_URL, RedirectResolver.resolveLocation(URL, FINAL_URL));
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void resolveLocation_missing_fails() throws ProtocolException {
+        RedirectResolver.resolveLocation(URL, null);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void resolveLocation_invalid_fails() throws ProtocolException {
+        RedirectResolver.resolveLocation(URL, "unknown://host/app.apk");
+    }
+
+    @Test
+    public void isRedirect() {
+        for (int code : new int[]{300, 301, 302, 303, 307, 308}) {
+            assertTrue(String.valueOf(code), RedirectResolver.isRedirect(code));
+        }
+        for (int code : new int[]{200, 206, 304, 305, 404}) {
+            assertFalse(String.valueOf(code), RedirectResolver.isRedirect(code));
+        }
+    }
+
+    @Test
+    public void put_resolve_remove() {
+        RedirectResolver resolver = new RedirectResolver();
+        resolver.put(URL, FINAL_URL, 60000);
+        assertEquals(FINAL_URL, resolver.resolve(URL));
+        resolver.remove(URL);
+        assertEquals(URL, resolver.resolve(URL));
+
+        // Not cached without a TTL
+        resolver.put(URL, FINAL_URL, 0);
+        assertEquals(URL, resolver.resolve(URL));
+    }
+
+    @Test
+    public void resolve_afterTtl_returnsTheUrl() throws InterruptedException {
+        RedirectResolver resolver = new RedirectResolver();
+        resolver.put(URL, FINAL_URL, 20);
+        assertEquals(FINAL_URL, resolver.resolve(URL));
+        Thread.sleep(50);
+        assertEquals(URL, resolver.resolve(URL));
+    }
+
+    @Test
+    public void setCacheDir_keepsTheUnexpiredUrls() throws IOException {
+        RedirectResolver resolver = new RedirectResolver();
+        resolver.setCacheDir(dir);
+        resolver.put(URL, FINAL_URL, 60000);
+
+        RedirectResolver other = new RedirectResolver();
+        other.setCacheDir(dir);
+        assertEquals(FINAL_URL, other.resolve(URL));
+
+        // The file of another process with an expired entry
+        Properties properties = new Properties();
+        properties.setProperty(URL, (System.currentTimeMillis() - 1) + " " + FINAL_URL);
+        OutputStream os = new FileOutputStream(new File(dir, "app_updater_redirects"));
+        try {
+            properties.store(os, null);
+        } finally {
+            os.close();
+        }
+        RedirectResolver expired = new RedirectResolver();
+        expired.setCacheDir(dir);
+        assertEquals(URL, expired.resolve(URL));
+    }
+
+    @Test
+    public void connect_relativeRedirects_cachesTheFinalUrl() throws IOException {
+        IHttpConnector.Connection connection = new HttpManager(5000).connect(baseUrl + "/a", null);
+        try {
+            assertEquals(200, connection.getResponseCode());
+        } finally {
+            connection.close();
+        }
+        assertEquals(baseUrl + "/final", RedirectResolver.getDefault().resolve(baseUrl + "/a"));
+    }
+
+    @Test
+    public void connect_redirectLoop_stopsAtTheHopLimit() throws IOException {
+        try {
+            new HttpManager(5000).connect(baseUrl + "/loop", null).close();
+            fail("The redirects are not limited");
+        } catch (ProtocolException e) {
+            assertEquals("Too many redirects: " + (Constants.DEFAULT_MAX_REDIRECTS + 1), e.getMessage());
+        }
+        assertEquals(baseUrl + "/loop", RedirectResolver.getDefault().resolve(baseUrl + "/loop"));
+    }
+
+    /**
+     * Answers {@code 302 Found} with the given {@code Location}
+     */
+    private static class RedirectHandler implements HttpHandler {
+
+        private final String location;
+
+        RedirectHandler(String location) {
+            this.location = location;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            exchange.getResponseHeaders().set(HttpHeaders.LOCATION, location);
+            exchange.sendResponseHeaders(302, -1);
+            exchange.close();
+        }
+    }
+}
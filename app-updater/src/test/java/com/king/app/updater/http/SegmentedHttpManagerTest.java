@@ -0,0 +1,326 @@
+package com.king.app.updater.http;
+
+import com.king.app.updater.UpdateConfig;
+import com.king.app.updater.util.LogUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of the segments of {@link SegmentedHttpManager}, the ranges are served by a fake {@link IHttpConnector}
+ */
+public class SegmentedHttpManagerTest {
+
+    private static final long MB = SegmentedHttpManager.MIN_SEGMENT_SIZE;
+
+    private static final String URL = "https://example.com/app.apk";
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        // android.util.Log is not available in the unit tests
+        LogUtils.setShowLog(false);
+        dir = File.createTempFile("segments", "");
+        assertTrue(dir.delete() && dir.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+        LogUtils.setShowLog(true);
+    }
+
+    @Test
+    public void createSegments_fromStart_coversContent() {
+        long total = 10 * MB + 7;
+        List<DownloadRecord.Segment> segments = SegmentedHttpManager.createSegments(0, total, 3);
+        assertEquals(3, segments.size());
+        assertContiguous(segments, 0, total);
+        for (DownloadRecord.Segment segment : segments) {
+            assertEquals(0, segment.getDownloaded());
+            assertEquals(segment.getStart(), segment.getPosition());
+        }
+    }
+
+    @Test
+    public void createSegments_resumed_keepsDownloadedBytes() {
+        long offset = MB + MB / 2;
+        long total = 8 * MB;
+        List<DownloadRecord.Segment> segments = SegmentedHttpManager.createSegments(offset, total, 3);
+        assertEquals(4, segments.size());
+        assertContiguous(segments, 0, total);
+        DownloadRecord.Segment first = segments.get(0);
+        assertEquals(offset - 1, first.getEnd());
+        assertTrue(first.isCompleted());
+        assertEquals(offset, segments.get(1).getStart());
+        assertFalse(segments.get(1).isCompleted());
+    }
+
+    @Test
+    public void createSegments_limitedByMinSegmentSize() {
+        long total = 2 * MB + MB / 2;
+        List<DownloadRecord.Segment> segments = SegmentedHttpManager.createSegments(0, total, 8);
+        assertEquals(2, segments.size());
+        assertContiguous(segments, 0, total);
+        for (DownloadRecord.Segment segment : segments) {
+            assertTrue(segment.getLength() >= MB);
+        }
+    }
+
+    @Test
+    public void createSegments_smallRemainder_singleSegment() {
+        long total = 3 * MB;
+        List<DownloadRecord.Segment> segments = SegmentedHttpManager.createSegments(total - 100, total, 3);
+        assertEquals(2, segments.size());
+        assertContiguous(segments, 0, total);
+        assertEquals(100, segments.get(1).getLength());
+    }
+
+    @Test
+    public void segments_writtenOutOfOrder_mergeIntoContent() throws IOException {
+        long total = 3 * MB + 12345;
+        byte[] data = new byte[(int) total];
+        new Random(2).nextBytes(data);
+        List<DownloadRecord.Segment> segments = SegmentedHttpManager.createSegments(0, total, 3);
+        // A download stopped before any byte of its segments, it resumes with a request for each range
+        File file = new File(dir, "app.apk");
+        DownloadRecord record = new DownloadRecord(file);
+        record.reset(URL);
+        RandomAccessFile raf = new RandomAccessFile(record.getPartFile(), "rw");
+        try {
+            raf.setLength(total);
+        } finally {
+            raf.close();
+        }
+        record.update("\"v1\"", null, total);
+        record.setSegments(segments);
+
+        // The last range is served first, like concurrent ranges do
+        RangeConnector connector = new RangeConnector(data, segments);
+        SegmentedHttpManager manager = new SegmentedHttpManager(connector, 3);
+        manager.setExecutor(DIRECT);
+        manager.setCallbackExecutor(DIRECT);
+        RecordingCallback callback = new RecordingCallback();
+        manager.download(new UpdateConfig(), URL, file.getAbsolutePath(), callback);
+
+        assertNull(callback.error);
+        assertEquals(file, callback.file);
+        assertEquals(Arrays.asList(2, 1, 0), connector.completed);
+        for (DownloadRecord.Segment segment : segments) {
+            assertEquals("bytes=" + segment.getStart() + "-" + segment.getEnd(), connector.ranges.get(segment.getStart()));
+        }
+        assertFalse(record.getPartFile().exists());
+        byte[] actual = new byte[(int) total];
+        raf = new RandomAccessFile(file, "r");
+        try {
+            assertEquals(total, raf.length());
+            raf.readFully(actual);
+        } finally {
+            raf.close();
+        }
+        assertTrue(Arrays.equals(data, actual));
+    }
+
+    private static void assertContiguous(List<DownloadRecord.Segment> segments, long start, long total) {
+        long position = start;
+        for (DownloadRecord.Segment segment : segments) {
+            assertEquals(position, segment.getStart());
+            assertTrue(segment.getEnd() >= segment.getStart());
+            position = segment.getEnd() + 1;
+        }
+        assertEquals(total, position);
+    }
+
+    /**
+     * Serves the ranges of the content, each range waits until the ranges after it have been read to the end
+     */
+    private static class RangeConnector implements IHttpConnector {
+
+        private static final long TIMEOUT_MILLIS = 10000L;
+
+        final Map<Long, String> ranges = new ConcurrentHashMap<>();
+
+        final List<Integer> completed = new ArrayList<>();
+
+        private final byte[] data;
+
+        private final List<DownloadRecord.Segment> segments;
+
+        private int next;
+
+        RangeConnector(byte[] data, List<DownloadRecord.Segment> segments) {
+            this.data = data;
+            this.segments = segments;
+            this.next = segments.size() - 1;
+        }
+
+        @NonNull
+        @Override
+        public Connection connect(String url, @Nullable Map<String, String> requestProperty) throws IOException {
+            assertNotNull(requestProperty);
+            assertEquals("\"v1\"", requestProperty.get(HttpHeaders.IF_RANGE));
+            String range = requestProperty.get(HttpHeaders.RANGE);
+            for (int i = 0; i < segments.size(); i++) {
+                DownloadRecord.Segment segment = segments.get(i);
+                if (range.startsWith("bytes=" + segment.getStart() + "-")) {
+                    ranges.put(segment.getStart(), range);
+                    return new RangeConnection(this, i, (int) segment.getStart(), (int) segment.getEnd());
+                }
+            }
+            throw new IOException("Unexpected range: " + range);
+        }
+
+        synchronized void await(int index) throws IOException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (next != index) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    throw new InterruptedIOException("Range " + index + " is not served");
+                }
+                try {
+                    wait(wait);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+
+        synchronized void complete(int index) {
+            completed.add(index);
+            next--;
+            notifyAll();
+        }
+    }
+
+    private static class RangeConnection implements IHttpConnector.Connection {
+
+        private final RangeConnector connector;
+
+        private final int index;
+
+        private final int start;
+
+        private final int end;
+
+        RangeConnection(RangeConnector connector, int index, int start, int end) {
+            this.connector = connector;
+            this.index = index;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return 206;
+        }
+
+        @Nullable
+        @Override
+        public String getHeaderField(String name) {
+            if (HttpHeaders.CONTENT_RANGE.equals(name)) {
+                return "bytes " + start + "-" + end + "/" + connector.data.length;
+            }
+            return null;
+        }
+
+        @Override
+        public long getContentLength() {
+            return end - start + 1;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new InputStream() {
+
+                private int position = start;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+                }
+
+                @Override
+                public int read(@NonNull byte[] b, int off, int len) throws IOException {
+                    connector.await(index);
+                    if (position > end) {
+                        return -1;
+                    }
+                    int n = Math.min(len, end - position + 1);
+                    System.arraycopy(connector.data, position, b, off, n);
+                    position += n;
+                    if (position > end) {
+                        connector.complete(index);
+                    }
+                    return n;
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class RecordingCallback implements IHttpManager.DownloadCallback {
+
+        File file;
+
+        Exception error;
+
+        @Override
+        public void onStart(String url) {
+        }
+
+        @Override
+        public void onProgress(long progress, long total) {
+        }
+
+        @Override
+        public void onFinish(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public void onError(Exception e) {
+            this.error = e;
+        }
+
+        @Override
+        public void onCancel() {
+        }
+    }
+}
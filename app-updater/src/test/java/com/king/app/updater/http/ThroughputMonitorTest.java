@@ -0,0 +1,151 @@
+package com.king.app.updater.http;
+
+import com.king.app.updater.constant.Constants;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link ThroughputMonitor}, the time is simulated
+ */
+public class ThroughputMonitorTest {
+
+    private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final long SLOT = 500 * MILLISECOND;
+
+    @Test
+    public void onRead_fasterThanMinimum_passes() throws IOException {
+        FakeClock clock = new FakeClock();
+        ThroughputMonitor monitor = new ThroughputMonitor(1000, 1, Constants.NONE, Constants.NONE, clock);
+        // 1200 B/s over several windows, the slots are reused as the window slides
+        for (int i = 0; i < 40; i++) {
+            monitor.onRead(600);
+            clock.now += SLOT;
+        }
+    }
+
+    @Test
+    public void onRead_slowerThanMinimum_failsAfterAWindow() throws IOException {
+        FakeClock clock = new FakeClock();
+        ThroughputMonitor monitor = new ThroughputMonitor(1000, 1, Constants.NONE, Constants.NONE, clock);
+        // 200 B/s is not checked before a full window
+        for (int i = 0; i < 10; i++) {
+            monitor.onRead(100);
+            clock.now += SLOT;
+        }
+        assertEquals(ThroughputMonitor.WINDOW_MILLIS * MILLISECOND, clock.now);
+        try {
+            monitor.onRead(100);
+            fail();
+        } catch (ThroughputMonitor.SlowTransferException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Too slow"));
+        }
+        // The error stays
+        IOException closed = new IOException("Socket closed");
+        assertTrue(monitor.getError(closed) instanceof ThroughputMonitor.SlowTransferException);
+    }
+
+    @Test
+    public void onRead_burstOutOfTheWindow_isNotCounted() throws IOException {
+        FakeClock clock = new FakeClock();
+        ThroughputMonitor monitor = new ThroughputMonitor(1000, 1, Constants.NONE, Constants.NONE, clock);
+        // A burst in the first slot, then 2 B/s
+        monitor.onRead(100000);
+        for (int i = 1; i < 10; i++) {
+            clock.now = i * SLOT + 100 * MILLISECOND;
+            monitor.onRead(1);
+        }
+        // The window now starts at the second slot, whose bytes are in the rate, the first slot rolls over
+        clock.now = 10 * SLOT + 100 * MILLISECOND;
+        try {
+            monitor.onRead(1);
+            fail("The burst is still in the window");
+        } catch (ThroughputMonitor.SlowTransferException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Too slow: 2 B/s"));
+        }
+    }
+
+    @Test
+    public void onRead_sharedByTheStreams() throws IOException {
+        FakeClock clock = new FakeClock();
+        // 300 B/s for each of the 4 streams is more than a quarter of the minimum rate
+        ThroughputMonitor monitor = new ThroughputMonitor(1000, 4, Constants.NONE, Constants.NONE, clock);
+        for (int i = 0; i < 20; i++) {
+            monitor.onRead(150);
+            clock.now += SLOT;
+        }
+    }
+
+    @Test
+    public void onRead_throttled_isNotChecked() throws IOException {
+        FakeClock clock = new FakeClock();
+        ThroughputMonitor monitor = new ThroughputMonitor(1000, 1, Constants.NONE, Constants.NONE, clock);
+        // 200 B/s limited by the bandwidth limiter
+        for (int i = 0; i < 20; i++) {
+            monitor.onRead(100);
+            monitor.onThrottleStart();
+            clock.now += SLOT;
+            monitor.onThrottleEnd();
+        }
+        // A short wait is only the cost of the call, the rate is checked again one window after the last wait
+        for (int i = 0; i < 10; i++) {
+            monitor.onRead(100);
+            monitor.onThrottleStart();
+            clock.now += 100000;
+            monitor.onThrottleEnd();
+            clock.now += SLOT - 100000;
+        }
+        try {
+            monitor.onRead(100);
+            fail();
+        } catch (ThroughputMonitor.SlowTransferException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Too slow"));
+        }
+    }
+
+    @Test
+    public void onRead_afterTheDeadline_fails() throws IOException {
+        FakeClock clock = new FakeClock();
+        ThroughputMonitor monitor = new ThroughputMonitor(Constants.NONE, 1, Constants.NONE, 1000, clock);
+        monitor.onRead(100);
+        clock.now = 1000 * MILLISECOND;
+        // The deadline is checked even while the download waits for the bandwidth limit
+        monitor.onThrottleStart();
+        try {
+            monitor.onRead(100);
+            fail();
+        } catch (ThroughputMonitor.DeadlineExceededException e) {
+            assertEquals("Deadline exceeded", e.getMessage());
+        }
+    }
+
+    @Test
+    public void onRead_disabled_neverFails() throws IOException {
+        FakeClock clock = new FakeClock();
+        ThroughputMonitor monitor = new ThroughputMonitor(0, 1, Constants.NONE, Constants.NONE, clock);
+        clock.now = 60000 * MILLISECOND;
+        monitor.onRead(1);
+        IOException closed = new IOException("Socket closed");
+        assertSame(closed, monitor.getError(closed));
+    }
+
+    private static class FakeClock implements BandwidthLimiter.Clock {
+
+        private long now;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        @Override
+        public void await(Object monitor, long nanos) {
+            now += nanos;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.king.app.updater.patch;
+
+import com.king.app.updater.checksum.ChecksumAlgorithm;
+import com.king.app.updater.checksum.HasherProvider;
+import com.king.app.updater.checksum.IHasher;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link ApkPatch}, the patches are written by hand in the format of the generator
+ */
+public class ApkPatchTest {
+
+    private File base;
+
+    private byte[] baseData;
+
+    @Before
+    public void setUp() throws IOException {
+        baseData = new byte[200 * 1024];
+        new Random(3).nextBytes(baseData);
+        base = File.createTempFile("base", ".apk");
+        FileOutputStream fos = new FileOutputStream(base);
+        try {
+            fos.write(baseData);
+        } finally {
+            fos.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        base.delete();
+    }
+
+    @Test
+    public void apply_binary_roundTrip() throws IOException {
+        byte[] literal = "changed".getBytes("UTF-8");
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(baseData, 0, 1000);
+        expected.write(literal);
+        expected.write(baseData, 150 * 1024, 50 * 1024);
+
+        ByteArrayOutputStream instructions = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(instructions);
+        writeCopy(dos, 0, 1000);
+        writeData(dos, literal);
+        writeCopy(dos, 150 * 1024, 50 * 1024);
+        dos.writeByte(ApkPatch.OP_END);
+        byte[] patch = newBinaryPatch(expected.size(), instructions.toByteArray());
+
+        IHasher hasher = HasherProvider.newHasher(ChecksumAlgorithm.SHA_256);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long length = ApkPatch.apply(base, new ByteArrayInputStream(patch), out, hasher);
+
+        assertEquals(expected.size(), length);
+        assertTrue(Arrays.equals(expected.toByteArray(), out.toByteArray()));
+        IHasher actual = HasherProvider.newHasher(ChecksumAlgorithm.SHA_256);
+        actual.update(expected.toByteArray(), 0, expected.size());
+        assertEquals(actual.digest(), hasher.digest());
+    }
+
+    @Test
+    public void apply_archive_roundTrip() throws IOException {
+        byte[] entry = new byte[30 * 1024];
+        Arrays.fill(entry, (byte) 'a');
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(baseData, 0, 4096);
+        expected.write(deflate(entry, 9, Deflater.DEFAULT_STRATEGY));
+        expected.write(baseData, 4096, 1024);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(body);
+        // No entry of the base to inflate, one entry of the output to deflate
+        dos.writeInt(0);
+        dos.writeInt(1);
+        dos.writeLong(4096);
+        dos.writeLong(entry.length);
+        dos.writeByte(9);
+        dos.writeByte(Deflater.DEFAULT_STRATEGY);
+        writeCopy(dos, 0, 4096);
+        writeData(dos, entry);
+        writeCopy(dos, 4096, 1024);
+        dos.writeByte(ApkPatch.OP_END);
+        byte[] patch = newArchivePatch(expected.size(), 9, ArchivePatch.getProbeDigest(9, Deflater.DEFAULT_STRATEGY), body.toByteArray());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ApkPatch.apply(base, new ByteArrayInputStream(patch), out, null);
+
+        assertTrue(Arrays.equals(expected.toByteArray(), out.toByteArray()));
+        assertTrue(ApkPatch.isSupported(writeTemp(patch)));
+    }
+
+    @Test
+    public void apply_archive_probeMismatch_fails() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(body);
+        dos.writeInt(0);
+        dos.writeInt(0);
+        dos.writeByte(ApkPatch.OP_END);
+        byte[] patch = newArchivePatch(0, 9, "0000", body.toByteArray());
+
+        assertFalse(ApkPatch.isSupported(writeTemp(patch)));
+        try {
+            ApkPatch.apply(base, new ByteArrayInputStream(patch), new ByteArrayOutputStream(), null);
+            fail("The compression of the device is not checked");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void apply_notAPatch_fails() throws IOException {
+        ApkPatch.apply(base, new ByteArrayInputStream(baseData), new ByteArrayOutputStream(), null);
+    }
+
+    @Test(expected = IOException.class)
+    public void apply_truncated_fails() throws IOException {
+        ByteArrayOutputStream instructions = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(instructions);
+        writeCopy(dos, 0, 1000);
+        writeData(dos, new byte[500]);
+        dos.writeByte(ApkPatch.OP_END);
+        byte[] patch = newBinaryPatch(1500, instructions.toByteArray());
+        ApkPatch.apply(base, new ByteArrayInputStream(Arrays.copyOf(patch, patch.length - 10)), new ByteArrayOutputStream(), null);
+    }
+
+    @Test(expected = IOException.class)
+    public void apply_copyOutOfBase_fails() throws IOException {
+        ByteArrayOutputStream instructions = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(instructions);
+        writeCopy(dos, baseData.length - 10, 20);
+        dos.writeByte(ApkPatch.OP_END);
+        ApkPatch.apply(base, new ByteArrayInputStream(newBinaryPatch(20, instructions.toByteArray())), new ByteArrayOutputStream(), null);
+    }
+
+    @Test(expected = IOException.class)
+    public void apply_unknownOp_fails() throws IOException {
+        ApkPatch.apply(base, new ByteArrayInputStream(newBinaryPatch(0, new byte[]{42})), new ByteArrayOutputStream(), null);
+    }
+
+    @Test(expected = IOException.class)
+    public void apply_wrongLength_fails() throws IOException {
+        ByteArrayOutputStream instructions = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(instructions);
+        writeCopy(dos, 0, 1000);
+        dos.writeByte(ApkPatch.OP_END);
+        ApkPatch.apply(base, new ByteArrayInputStream(newBinaryPatch(999, instructions.toByteArray())), new ByteArrayOutputStream(), null);
+    }
+
+    private static void writeCopy(DataOutputStream dos, long offset, int length) throws IOException {
+        dos.writeByte(ApkPatch.OP_COPY);
+        dos.writeLong(offset);
+        dos.writeInt(length);
+    }
+
+    private static void writeData(DataOutputStream dos, byte[] data) throws IOException {
+        dos.writeByte(ApkPatch.OP_DATA);
+        dos.writeInt(data.length);
+        dos.write(data);
+    }
+
+    private static byte[] newBinaryPatch(long newLength, byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(out);
+        header.write(ApkPatch.MAGIC);
+        header.writeLong(newLength);
+        header.write(deflate(body));
+        return out.toByteArray();
+    }
+
+    private static byte[] newArchivePatch(long newLength, int level, String probeDigest, byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(out);
+        header.write(ArchivePatch.MAGIC);
+        header.writeLong(newLength);
+        header.writeInt(1);
+        header.writeByte(level);
+        header.writeByte(Deflater.DEFAULT_STRATEGY);
+        header.writeUTF(probeDigest);
+        header.write(deflate(body));
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeflaterOutputStream dos = new DeflaterOutputStream(out);
+        dos.write(data);
+        dos.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] data, int level, int strategy) {
+        Deflater deflater = ArchivePatch.newDeflater(level, strategy);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            deflater.setInput(data);
+            deflater.finish();
+            while (!deflater.finished()) {
+                int len = deflater.deflate(buffer);
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static File writeTemp(byte[] data) throws IOException {
+        File file = File.createTempFile("update", ".patch");
+        file.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(data);
+        } finally {
+            fos.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,75 @@
+package com.king.app.updater.service;
+
+import com.king.app.updater.UpdateConfig;
+import com.king.app.updater.checksum.ChecksumAlgorithm;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link DownloadJob}
+ */
+public class DownloadJobTest {
+
+    private static final String URL = "https://a.example.com/app.apk";
+
+    @Test
+    public void getKey_sameArtifact_sameKey() {
+        UpdateConfig config = newConfig(URL);
+        config.addChecksum(ChecksumAlgorithm.SHA_256, "ABCDEF");
+        config.addChecksum(ChecksumAlgorithm.CRC32C, "0102");
+        UpdateConfig other = newConfig(URL);
+        // The checksums are compared in any order and case
+        other.addChecksum(ChecksumAlgorithm.CRC32C, "0102");
+        other.addChecksum(ChecksumAlgorithm.SHA_256, "abcdef");
+        // The id and the priority do not change the artifact
+        other.setJobId("other");
+        other.setPriority(10);
+
+        assertEquals(DownloadJob.getKey(config), DownloadJob.getKey(other));
+    }
+
+    @Test
+    public void getKey_apkMD5_isAChecksum() {
+        UpdateConfig config = newConfig(URL);
+        config.setApkMD5("0123456789ABCDEF0123456789ABCDEF");
+        UpdateConfig other = newConfig(URL);
+        other.addChecksum(ChecksumAlgorithm.MD5, "0123456789abcdef0123456789abcdef");
+
+        assertEquals(DownloadJob.getKey(config), DownloadJob.getKey(other));
+    }
+
+    @Test
+    public void getKey_otherArtifact_otherKey() {
+        UpdateConfig config = newConfig(URL);
+        config.addChecksum(ChecksumAlgorithm.SHA_256, "abcdef");
+        UpdateConfig otherChecksum = newConfig(URL);
+        otherChecksum.addChecksum(ChecksumAlgorithm.SHA_256, "fedcba");
+        UpdateConfig noChecksum = newConfig(URL);
+        UpdateConfig otherUrl = newConfig("https://a.example.com/app2.apk");
+        otherUrl.addChecksum(ChecksumAlgorithm.SHA_256, "abcdef");
+
+        String key = DownloadJob.getKey(config);
+        assertNotEquals(key, DownloadJob.getKey(otherChecksum));
+        assertNotEquals(key, DownloadJob.getKey(noChecksum));
+        assertNotEquals(key, DownloadJob.getKey(otherUrl));
+    }
+
+    @Test
+    public void newJob_idAndHost() {
+        DownloadJob job = DownloadSchedulerTest.newJob("https://cdn.example.com:8443/app.apk", 3, true);
+        assertEquals("https://cdn.example.com:8443/app.apk", job.id);
+        assertEquals("cdn.example.com", job.host);
+        assertEquals(3, job.priority);
+        assertTrue(job.isPreemptible());
+        assertFalse(DownloadSchedulerTest.newJob("https://cdn.example.com/app.apk", 0, false).isPreemptible());
+        assertEquals("", DownloadSchedulerTest.newJob("not a url", 0, true).host);
+    }
+
+    private static UpdateConfig newConfig(String url) {
+        UpdateConfig config = new UpdateConfig();
+        config.setUrl(url);
+        return config;
+    }
+}
@@ -0,0 +1,203 @@
+package com.king.app.updater.service;
+
+import com.king.app.updater.UpdateConfig;
+import com.king.app.updater.http.HttpManager;
+import com.king.app.updater.http.IHttpManager;
+import com.king.app.updater.notify.NotificationImpl;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link DownloadScheduler}
+ */
+public class DownloadSchedulerTest {
+
+    @Test
+    public void enqueue_startsByPriorityThenArrival() {
+        RecordingListener listener = new RecordingListener();
+        DownloadScheduler scheduler = new DownloadScheduler(1, 1, listener);
+        DownloadJob first = newJob("https://a.example.com/first.apk", 0, false);
+        DownloadJob low = newJob("https://a.example.com/low.apk", 0, false);
+        DownloadJob high = newJob("https://a.example.com/high.apk", 5, false);
+        DownloadJob high2 = newJob("https://a.example.com/high2.apk", 5, false);
+
+        scheduler.enqueue(first);
+        scheduler.enqueue(low);
+        scheduler.enqueue(high);
+        scheduler.enqueue(high2);
+        assertEquals(Arrays.asList(first), listener.started);
+        assertTrue("The running job cannot be preempted", listener.preempted.isEmpty());
+
+        scheduler.finish(first);
+        scheduler.finish(high);
+        scheduler.finish(high2);
+        assertEquals(Arrays.asList(first, high, high2, low), listener.started);
+        scheduler.finish(low);
+        assertTrue(scheduler.isIdle());
+    }
+
+    @Test
+    public void enqueue_perHostCap() {
+        RecordingListener listener = new RecordingListener();
+        DownloadScheduler scheduler = new DownloadScheduler(3, 1, listener);
+        DownloadJob a1 = newJob("https://a.example.com/1.apk", 0, true);
+        DownloadJob a2 = newJob("https://a.example.com/2.apk", 0, true);
+        DownloadJob b1 = newJob("https://b.example.com/1.apk", 0, true);
+
+        scheduler.enqueue(a1);
+        scheduler.enqueue(a2);
+        scheduler.enqueue(b1);
+        assertEquals(Arrays.asList(a1, b1), listener.started);
+        assertEquals(Arrays.asList(a1, b1), scheduler.getRunningJobs());
+        assertTrue("Same priority, no preemption", listener.preempted.isEmpty());
+
+        scheduler.finish(a1);
+        assertEquals(Arrays.asList(a1, b1, a2), listener.started);
+    }
+
+    @Test
+    public void setLimits_startsTheQueuedJobs() {
+        RecordingListener listener = new RecordingListener();
+        DownloadScheduler scheduler = new DownloadScheduler(1, 1, listener);
+        DownloadJob a1 = newJob("https://a.example.com/1.apk", 0, true);
+        DownloadJob a2 = newJob("https://a.example.com/2.apk", 0, true);
+        scheduler.enqueue(a1);
+        scheduler.enqueue(a2);
+        assertEquals(Arrays.asList(a1), listener.started);
+
+        scheduler.setLimits(2, 2);
+        assertEquals(Arrays.asList(a1, a2), listener.started);
+    }
+
+    @Test
+    public void enqueue_higherPriority_preemptsAndRequeues() {
+        RecordingListener listener = new RecordingListener();
+        DownloadScheduler scheduler = new DownloadScheduler(1, 1, listener);
+        DownloadJob low = newJob("https://a.example.com/low.apk", 0, true);
+        DownloadJob next = newJob("https://a.example.com/next.apk", 0, true);
+        DownloadJob high = newJob("https://a.example.com/high.apk", 10, true);
+        DownloadJob high2 = newJob("https://a.example.com/high2.apk", 10, true);
+
+        scheduler.enqueue(low);
+        scheduler.enqueue(next);
+        scheduler.enqueue(high);
+        assertEquals(Arrays.asList(low), listener.preempted);
+        assertTrue(low.isPreempted);
+        assertEquals(Arrays.asList(low), listener.started);
+
+        // The slot of the preempted job is about to be free, another job is not preempted
+        scheduler.enqueue(high2);
+        assertEquals(Arrays.asList(low), listener.preempted);
+
+        // The download of the preempted job has stopped
+        scheduler.requeue(low);
+        assertFalse(low.isPreempted);
+        assertEquals(Arrays.asList(low, high), listener.started);
+
+        scheduler.finish(high);
+        scheduler.finish(high2);
+        // The preempted job keeps its order of arrival
+        assertEquals(Arrays.asList(low, high, high2, low), listener.started);
+        scheduler.finish(low);
+        assertEquals(Arrays.asList(low, high, high2, low, next), listener.started);
+    }
+
+    @Test
+    public void enqueue_hostFull_preemptsAJobOfTheSameHost() {
+        RecordingListener listener = new RecordingListener();
+        DownloadScheduler scheduler = new DownloadScheduler(3, 1, listener);
+        DownloadJob b = newJob("https://b.example.com/low.apk", 0, true);
+        DownloadJob a = newJob("https://a.example.com/low.apk", 1, true);
+        DownloadJob high = newJob("https://a.example.com/high.apk", 10, true);
+
+        scheduler.enqueue(b);
+        scheduler.enqueue(a);
+        scheduler.enqueue(high);
+        // The job of lowest priority is on another host, stopping it would not let the job start
+        assertEquals(Arrays.asList(a), listener.preempted);
+    }
+
+    @Test
+    public void enqueue_cancelledOrNotPreemptible_isNotPreempted() {
+        RecordingListener listener = new RecordingListener();
+        DownloadScheduler scheduler = new DownloadScheduler(2, 2, listener);
+        DownloadJob cancelled = newJob("https://a.example.com/cancelled.apk", 0, true);
+        DownloadJob fixed = newJob("https://a.example.com/fixed.apk", 0, false);
+        DownloadJob high = newJob("https://a.example.com/high.apk", 10, true);
+
+        scheduler.enqueue(cancelled);
+        scheduler.enqueue(fixed);
+        cancelled.isCancelled = true;
+        scheduler.enqueue(high);
+        assertTrue(listener.preempted.isEmpty());
+
+        scheduler.finish(cancelled);
+        assertEquals(Arrays.asList(cancelled, fixed, high), listener.started);
+    }
+
+    @Test
+    public void getJobByKey_findsQueuedAndRunningJobs() {
+        DownloadScheduler scheduler = new DownloadScheduler(1, 1, new RecordingListener());
+        DownloadJob running = newJob("https://a.example.com/1.apk", 0, true);
+        DownloadJob queued = newJob("https://a.example.com/2.apk", 0, true);
+        scheduler.enqueue(running);
+        scheduler.enqueue(queued);
+
+        assertSame(running, scheduler.getJobByKey(running.key));
+        assertSame(queued, scheduler.getJobByKey(queued.key));
+        assertSame(queued, scheduler.getJob(queued.id));
+        assertTrue(scheduler.dequeue(queued));
+        assertNull(scheduler.getJobByKey(queued.key));
+        assertFalse(scheduler.dequeue(running));
+    }
+
+    static DownloadJob newJob(String url, int priority, boolean isPreemptible) {
+        UpdateConfig config = new UpdateConfig();
+        config.setUrl(url);
+        config.setPriority(priority);
+        IHttpManager httpManager = isPreemptible ? new HttpManager(30000) : new FakeHttpManager();
+        return new DownloadJob(config, new File("app.apk"), httpManager, new UpdateCallbackGroup(), new NotificationImpl(), 0);
+    }
+
+    private static class RecordingListener implements DownloadScheduler.Listener {
+
+        final List<DownloadJob> started = new ArrayList<>();
+
+        final List<DownloadJob> preempted = new ArrayList<>();
+
+        @Override
+        public void onStart(@NonNull DownloadJob job) {
+            started.add(job);
+        }
+
+        @Override
+        public void onPreempt(@NonNull DownloadJob job) {
+            preempted.add(job);
+        }
+    }
+
+    /**
+     * A manager that cannot cancel one download without the others
+     */
+    private static class FakeHttpManager implements IHttpManager {
+
+        @Override
+        public void download(String url, String saveFilePath, @Nullable Map<String, String> requestProperty, DownloadCallback callback) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    }
+}
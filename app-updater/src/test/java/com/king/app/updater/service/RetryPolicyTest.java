@@ -0,0 +1,126 @@
+package com.king.app.updater.service;
+
+import com.king.app.updater.UpdateConfig;
+import com.king.app.updater.constant.Constants;
+import com.king.app.updater.http.HttpStatusException;
+import com.king.app.updater.http.InsufficientSpaceException;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link RetryPolicy}
+ */
+public class RetryPolicyTest {
+
+    @Test
+    public void isRetryable_transientErrors() {
+        assertTrue(RetryPolicy.isRetryable(new SocketTimeoutException()));
+        assertTrue(RetryPolicy.isRetryable(new IOException("reset")));
+        assertTrue(RetryPolicy.isRetryable(new HttpStatusException(408, null)));
+        assertTrue(RetryPolicy.isRetryable(new HttpStatusException(429, null)));
+        assertTrue(RetryPolicy.isRetryable(new HttpStatusException(503, null)));
+    }
+
+    @Test
+    public void isRetryable_permanentErrors() {
+        assertFalse(RetryPolicy.isRetryable(new HttpStatusException(404, null)));
+        assertFalse(RetryPolicy.isRetryable(new HttpStatusException(501, null)));
+        assertFalse(RetryPolicy.isRetryable(new HttpStatusException(505, null)));
+        assertFalse(RetryPolicy.isRetryable(new FileNotFoundException()));
+        assertFalse(RetryPolicy.isRetryable(new InsufficientSpaceException(new File("updates"), 100, 10)));
+        assertFalse(RetryPolicy.isRetryable(new IllegalStateException()));
+    }
+
+    @Test
+    public void getDelay_backoffDoubles() {
+        UpdateConfig config = newConfig(1000, 60000);
+        Random max = new FixedRandom(0.999999);
+        assertEquals(999, RetryPolicy.getDelay(config, 0, new IOException(), max));
+        assertEquals(1999, RetryPolicy.getDelay(config, 1, new IOException(), max));
+        assertEquals(3999, RetryPolicy.getDelay(config, 2, new IOException(), max));
+        assertEquals(7999, RetryPolicy.getDelay(config, 3, new IOException(), max));
+    }
+
+    @Test
+    public void getDelay_backoffCapped() {
+        UpdateConfig config = newConfig(1000, 60000);
+        Random max = new FixedRandom(0.999999);
+        assertEquals(59999, RetryPolicy.getDelay(config, 10, new IOException(), max));
+        // The shift does not overflow
+        assertEquals(59999, RetryPolicy.getDelay(config, 1000, new IOException(), max));
+    }
+
+    @Test
+    public void getDelay_fullJitter() {
+        UpdateConfig config = newConfig(1000, 60000);
+        assertEquals(0, RetryPolicy.getDelay(config, 3, new IOException(), new FixedRandom(0)));
+        assertEquals(4000, RetryPolicy.getDelay(config, 3, new IOException(), new FixedRandom(0.5)));
+        Random random = new Random(5);
+        for (int i = 0; i < 1000; i++) {
+            long delay = RetryPolicy.getDelay(config, 2, new IOException(), random);
+            assertTrue(delay >= 0 && delay < 4000);
+        }
+    }
+
+    @Test
+    public void getDelay_retryAfter() {
+        UpdateConfig config = newConfig(1000, 60000);
+        HttpStatusException e = new HttpStatusException(503, "30");
+        // The requested delay, plus a jitter up to the base delay
+        assertEquals(30000, RetryPolicy.getDelay(config, 5, e, new FixedRandom(0)));
+        assertEquals(30500, RetryPolicy.getDelay(config, 5, e, new FixedRandom(0.5)));
+    }
+
+    @Test
+    public void getDelay_retryAfterNearMax_jitterWithinMax() {
+        UpdateConfig config = newConfig(1000, 60000);
+        HttpStatusException e = new HttpStatusException(503, "60");
+        assertEquals(60000, RetryPolicy.getDelay(config, 0, e, new FixedRandom(0.999999)));
+        e = new HttpStatusException(503, "59");
+        assertEquals(59999, RetryPolicy.getDelay(config, 0, e, new FixedRandom(0.999999)));
+    }
+
+    @Test
+    public void getDelay_retryAfterTooLong_notRetried() {
+        UpdateConfig config = newConfig(1000, 60000);
+        assertEquals(Constants.NONE, RetryPolicy.getDelay(config, 0, new HttpStatusException(503, "120"), new FixedRandom(0)));
+    }
+
+    @Test
+    public void getDelay_permanentError_notRetried() {
+        UpdateConfig config = newConfig(1000, 60000);
+        assertEquals(Constants.NONE, RetryPolicy.getDelay(config, 0, new HttpStatusException(404, "1"), new FixedRandom(0)));
+    }
+
+    private static UpdateConfig newConfig(long retryDelay, long maxRetryDelay) {
+        UpdateConfig config = new UpdateConfig();
+        config.setRetryDelay(retryDelay);
+        config.setMaxRetryDelay(maxRetryDelay);
+        return config;
+    }
+
+    /**
+     * The jitter is the given fraction of its bound
+     */
+    private static class FixedRandom extends Random {
+
+        private final double value;
+
+        FixedRandom(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public double nextDouble() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.king.app.updater.service;
+
+import com.king.app.updater.callback.UpdateCallback;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link UpdateCallbackGroup}
+ */
+public class UpdateCallbackGroupTest {
+
+    private static final String URL = "https://a.example.com/app.apk";
+
+    @Test
+    public void events_areDeliveredToEachCallback() {
+        UpdateCallbackGroup group = new UpdateCallbackGroup();
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+        group.add(first);
+        group.add(second);
+        // A callback is attached once
+        group.add(first);
+
+        group.onDownloading(false);
+        group.onStart(URL);
+        group.onProgress(10, 100, true);
+        group.onFinish(new File("app.apk"));
+
+        List<String> expected = Arrays.asList("downloading false", "start " + URL, "progress 10/100", "finish app.apk");
+        assertEquals(expected, first.events);
+        assertEquals(expected, second.events);
+    }
+
+    @Test
+    public void add_afterStart_replaysStartAndProgress() {
+        UpdateCallbackGroup group = new UpdateCallbackGroup();
+        RecordingCallback first = new RecordingCallback();
+        group.add(first);
+        group.onStart(URL);
+        group.onProgress(10, 100, true);
+        group.onProgress(40, 100, true);
+
+        RecordingCallback joined = new RecordingCallback();
+        group.add(joined);
+        assertEquals(Arrays.asList("start " + URL, "progress 40/100"), joined.events);
+
+        group.onProgress(50, 100, true);
+        group.onFinish(new File("app.apk"));
+        assertEquals(Arrays.asList("start " + URL, "progress 40/100", "progress 50/100", "finish app.apk"), joined.events);
+    }
+
+    @Test
+    public void add_beforeTotalIsKnown_replaysStartOnly() {
+        UpdateCallbackGroup group = new UpdateCallbackGroup();
+        group.onStart(URL);
+
+        RecordingCallback joined = new RecordingCallback();
+        group.add(joined);
+        assertEquals(Arrays.asList("start " + URL), joined.events);
+    }
+
+    @Test
+    public void onStart_resumedDownload_isNotRepeated() {
+        UpdateCallbackGroup group = new UpdateCallbackGroup();
+        RecordingCallback callback = new RecordingCallback();
+        group.add(callback);
+        group.onStart(URL);
+        // An automatic retry, a preemption or a network pause starts the same download again
+        group.onStart(URL);
+        group.onProgress(10, 100, true);
+
+        assertEquals(Arrays.asList("start " + URL, "progress 10/100"), callback.events);
+    }
+
+    @Test
+    public void onError_thenRetry_startsAgain() {
+        UpdateCallbackGroup group = new UpdateCallbackGroup();
+        RecordingCallback callback = new RecordingCallback();
+        group.add(callback);
+        group.onStart(URL);
+        group.onError(new Exception("failed"));
+        group.onStart(URL);
+        group.onCancel();
+
+        RecordingCallback joined = new RecordingCallback();
+        group.add(joined);
+
+        assertEquals(Arrays.asList("start " + URL, "error failed", "start " + URL, "cancel"), callback.events);
+        assertTrue("The stopped download is not replayed", joined.events.isEmpty());
+    }
+
+    private static class RecordingCallback implements UpdateCallback {
+
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onDownloading(boolean isDownloading) {
+            events.add("downloading " + isDownloading);
+        }
+
+        @Override
+        public void onStart(String url) {
+            events.add("start " + url);
+        }
+
+        @Override
+        public void onProgress(long progress, long total, boolean isChanged) {
+            events.add("progress " + progress + "/" + total);
+        }
+
+        @Override
+        public void onFinish(File file) {
+            events.add("finish " + file.getName());
+        }
+
+        @Override
+        public void onError(Exception e) {
+            events.add("error " + e.getMessage());
+        }
+
+        @Override
+        public void onCancel() {
+            events.add("cancel");
+        }
+    }
+}